@@ -0,0 +1,64 @@
+package io.iconator.testcontract;
+
+import org.openjdk.jmh.annotations.*;
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.DynamicBytes;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.generated.Bytes4;
+import org.web3j.abi.datatypes.generated.Uint256;
+import org.web3j.utils.Numeric;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calldata encoding of transfer and transferAndCall: EurekaClient against the web3j Function /
+ * FunctionEncoder path that FunctionBuilder goes through, including the selector hash per call.
+ *
+ * Run with: ./gradlew jmh -PjmhInclude=EurekaClientBenchmark -PjmhProfilers=gc
+ * The gc profiler reports gc.alloc.rate.norm, the bytes allocated per call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+public class EurekaClientBenchmark {
+
+    private static final String TO = "0x00000000000000000000000000000000000000aa";
+    private static final String SOME_NAME = "someName(address,uint256)";
+
+    private final BigInteger value = new BigInteger("1000000000000000000");
+    private final byte[] args = new byte[64];
+
+    @Benchmark
+    public String transferClient() {
+        return EurekaClient.transfer(EurekaClient.calldata(), TO, value).hex();
+    }
+
+    @Benchmark
+    public String transferWeb3j() {
+        return FunctionEncoder.encode(new Function("transfer",
+                Arrays.<Type>asList(new Address(TO), new Uint256(value)),
+                Collections.<TypeReference<?>>emptyList()));
+    }
+
+    @Benchmark
+    public String transferAndCallClient() {
+        return EurekaClient.transferAndCall(EurekaClient.calldata(), TO, value, EurekaClient.methodName(SOME_NAME), args).hex();
+    }
+
+    @Benchmark
+    public String transferAndCallWeb3j() {
+        byte[] methodName = Numeric.hexStringToByteArray(io.iconator.testonator.Utils.functionHash(SOME_NAME));
+        return FunctionEncoder.encode(new Function("transferAndCall",
+                Arrays.<Type>asList(new Address(TO), new Uint256(value), new Bytes4(methodName), new DynamicBytes(args)),
+                Collections.<TypeReference<?>>emptyList()));
+    }
+}
@@ -0,0 +1,240 @@
+package io.iconator.testcontract;
+
+import io.iconator.testonator.*;
+import org.openjdk.jmh.annotations.*;
+import org.web3j.crypto.Credentials;
+import org.web3j.utils.Numeric;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.iconator.testonator.TestBlockchain.*;
+
+/**
+ * Client side latency, throughput and gasUsed of the Eureka transfer paths against an in-process
+ * TestBlockchain. Every transfer writes a new snapshot into balances[addr].amounts, the history
+ * parameter pre-fills the sender and receiver history to see how the from / fee / to paths and the
+ * binary search scale.
+ *
+ * Run with: ./gradlew jmh
+ * The gasUsed counter is the sum over an iteration, gas per operation is printed after every iteration.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(1)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+public class EurekaTransferBenchmark {
+
+    private static final BigInteger MINT = new BigInteger("1000000000000000000000000");
+    private static final BigInteger ONE = BigInteger.ONE;
+    private static final int BATCH = 32;
+    private static final int DORMANT = 8;
+
+    @Param({"0", "64", "512"})
+    public int history;
+
+    private TestChain chain;
+    private TestBlockchain blockchain;
+    private DeployedContract eureka;
+    private DeployedContract receiver;
+    private DeployedContract shortYear;
+    private List<String> dormant;
+    private GasMeter gasMeter;
+    private byte[] someName;
+    //shared by all benchmark threads, every signature needs its own nonce
+    private final AtomicLong preSignedNonce = new AtomicLong();
+    private final AtomicLong reclaimed = new AtomicLong();
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Gas {
+        public long gasUsed;
+        public long reverted;
+        private long calls;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            gasUsed = 0;
+            reverted = 0;
+            calls = 0;
+        }
+
+        @TearDown(Level.Iteration)
+        public void print() {
+            if (calls > 0) {
+                System.out.println("gas/op: " + (gasUsed / calls) + ", reverted: " + reverted + "/" + calls);
+            }
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        chain = TestChain.start();
+        blockchain = chain.blockchain();
+        gasMeter = new GasMeter(chain.web3j());
+
+        File contractFile = Paths.get(ClassLoader.getSystemResource("TestSomeContract.sol").toURI()).toFile();
+        Map<String, Contract> contracts = new HashMap<>(TestUtils.setup());
+        contracts.putAll(ArtifactStore.defaultStore().compileCached(contractFile));
+
+        eureka = blockchain.deploy(CREDENTIAL_0, contracts.get("Eureka"));
+        receiver = blockchain.deploy(CREDENTIAL_0, contracts.get("TestSomeContract"));
+        eureka.addReferencedContract(receiver.contract());
+        someName = Numeric.hexStringToByteArray(io.iconator.testonator.Utils.functionHash("someName(address,uint256)"));
+
+        List<String> addresses = Arrays.asList(CREDENTIAL_0.getAddress(), CREDENTIAL_1.getAddress(), CREDENTIAL_2.getAddress());
+        List<BigInteger> values = Arrays.asList(MINT, MINT, MINT);
+        blockchain.call(eureka, "mint", addresses, values);
+        blockchain.call(eureka, "finishMinting");
+        blockchain.call(CREDENTIAL_0, eureka, new FunctionBuilder("approve")
+                .addInput("address", CREDENTIAL_1.getAddress())
+                .addInput("uint256", MINT)
+                .outputs("bool"));
+
+        for (int i = 0; i < history; i++) {
+            Credentials from = i % 2 == 0 ? CREDENTIAL_0 : CREDENTIAL_1;
+            Credentials to = i % 2 == 0 ? CREDENTIAL_1 : CREDENTIAL_0;
+            blockchain.call(from, eureka, transfer(to.getAddress()));
+        }
+
+        //EurekaShortYear: a holder is dormant 2 blocks after its last snapshot instead of a year
+        shortYear = blockchain.deploy(CREDENTIAL_0, TestUtils.shortYear());
+        dormant = new ArrayList<>(DORMANT);
+        for (int i = 0; i < DORMANT; i++) {
+            dormant.add(String.format("0x%040x", i + 1));
+        }
+        List<String> holders = new ArrayList<>(dormant);
+        holders.add(CREDENTIAL_0.getAddress());
+        blockchain.call(shortYear, "mint", holders, Collections.nCopies(holders.size(), MINT));
+        blockchain.call(shortYear, "finishMinting");
+        blockchain.call(CREDENTIAL_0, shortYear, new FunctionBuilder("loyalty").addInput("uint256", MINT));
+    }
+
+    @Benchmark
+    public void transfer(Gas gas) throws Exception {
+        record(gas, blockchain.call(CREDENTIAL_0, eureka, transfer(CREDENTIAL_1.getAddress())));
+    }
+
+    @Benchmark
+    public void transferReward1(Gas gas) throws Exception {
+        record(gas, blockchain.call(CREDENTIAL_0, eureka, transfer(CREDENTIAL_1.getAddress()).addInput("uint8", 1)));
+    }
+
+    @Benchmark
+    public void transferReward2(Gas gas) throws Exception {
+        record(gas, blockchain.call(CREDENTIAL_0, eureka, transfer(CREDENTIAL_1.getAddress()).addInput("uint8", 2)));
+    }
+
+    @Benchmark
+    public void transferReward3(Gas gas) throws Exception {
+        record(gas, blockchain.call(CREDENTIAL_0, eureka, transfer(CREDENTIAL_1.getAddress()).addInput("uint8", 3)));
+    }
+
+    @Benchmark
+    public void transferFrom(Gas gas) throws Exception {
+        record(gas, blockchain.call(CREDENTIAL_1, eureka, new FunctionBuilder("transferFrom")
+                .addInput("address", CREDENTIAL_0.getAddress())
+                .addInput("address", CREDENTIAL_2.getAddress())
+                .addInput("uint256", ONE)
+                .outputs("bool")));
+    }
+
+    @Benchmark
+    public void transferAndCall(Gas gas) throws Exception {
+        record(gas, blockchain.call(CREDENTIAL_1, eureka, "transferAndCall", receiver.contractAddress(), ONE, someName, new byte[0]));
+    }
+
+    @Benchmark
+    public void transferPreSigned(Gas gas) throws Exception {
+        //CREDENTIAL_1 signs, CREDENTIAL_0 relays and earns the fee
+        BigInteger nonce = BigInteger.valueOf(preSignedNonce.getAndIncrement());
+        byte[] hash = PreSigned.hash(eureka.contractAddress(), CREDENTIAL_2.getAddress(), ONE, ONE, nonce);
+        byte[] signature = PreSigned.sign(hash, CREDENTIAL_1);
+        record(gas, blockchain.call(CREDENTIAL_0, eureka, new FunctionBuilder("transferPreSigned")
+                .addInput("bytes", signature)
+                .addInput("address", CREDENTIAL_2.getAddress())
+                .addInput("uint256", ONE)
+                .addInput("uint256", ONE)
+                .addInput("uint256", nonce)
+                .outputs("bool")));
+    }
+
+    @Benchmark
+    public void transferPreSignedToRelayer(Gas gas) throws Exception {
+        //exchange style hot wallet: the relayer is also the receiver, fee and to write the same snapshot
+        BigInteger nonce = BigInteger.valueOf(preSignedNonce.getAndIncrement());
+        byte[] hash = PreSigned.hash(eureka.contractAddress(), CREDENTIAL_0.getAddress(), ONE, ONE, nonce);
+        byte[] signature = PreSigned.sign(hash, CREDENTIAL_1);
+        record(gas, blockchain.call(CREDENTIAL_0, eureka, new FunctionBuilder("transferPreSigned")
+                .addInput("bytes", signature)
+                .addInput("address", CREDENTIAL_0.getAddress())
+                .addInput("uint256", ONE)
+                .addInput("uint256", ONE)
+                .addInput("uint256", nonce)
+                .outputs("bool")));
+    }
+
+    @Benchmark
+    public void transferPreSignedBatch(Gas gas) throws Exception {
+        //BATCH transfers in one transaction, gas/op is per transfer
+        List<byte[]> signatures = new ArrayList<>(BATCH);
+        List<String> to = new ArrayList<>(BATCH);
+        List<BigInteger> values = new ArrayList<>(BATCH);
+        List<BigInteger> nonces = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            BigInteger nonce = BigInteger.valueOf(preSignedNonce.getAndIncrement());
+            signatures.add(PreSigned.sign(PreSigned.hash(eureka.contractAddress(), CREDENTIAL_2.getAddress(), ONE, ONE, nonce), CREDENTIAL_1));
+            to.add(CREDENTIAL_2.getAddress());
+            values.add(ONE);
+            nonces.add(nonce);
+        }
+        record(gas, blockchain.call(CREDENTIAL_0, eureka, new FunctionBuilder("transferPreSignedBatch")
+                .addInput("bytes", PreSigned.concat(signatures))
+                .addInput("address[]", to)
+                .addInput("uint256[]", values)
+                .addInput("uint256[]", values)
+                .addInput("uint256[]", nonces)
+                .outputs("bool")), BATCH);
+    }
+
+    @Benchmark
+    public void loyalty(Gas gas) throws Exception {
+        record(gas, blockchain.call(CREDENTIAL_2, eureka, new FunctionBuilder("loyalty")
+                .addInput("uint256", ONE)));
+    }
+
+    @Benchmark
+    public void reclaim(Gas gas) throws Exception {
+        //the holders take turns, a reclaimed holder has a new snapshot and is dormant again DORMANT blocks later.
+        //only the first round takes a loyalty claim, later ones move 0 but write the same snapshots
+        String holder = dormant.get((int) (reclaimed.getAndIncrement() % DORMANT));
+        record(gas, blockchain.call(CREDENTIAL_0, shortYear, new FunctionBuilder("reclaim")
+                .addInput("address[]", Collections.singletonList(holder))));
+    }
+
+    private static FunctionBuilder transfer(String to) {
+        return new FunctionBuilder("transfer")
+                .addInput("address", to)
+                .addInput("uint256", ONE)
+                .outputs("bool");
+    }
+
+    private void record(Gas gas, List<Event> events) throws Exception {
+        record(gas, events, 1);
+    }
+
+    private void record(Gas gas, List<Event> events, int operations) throws Exception {
+        gas.calls += operations;
+        if (events == null) {
+            gas.reverted += operations;
+        }
+        gas.gasUsed += gasMeter.lastGasUsed();
+    }
+}
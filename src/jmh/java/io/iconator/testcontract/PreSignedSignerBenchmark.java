@@ -0,0 +1,76 @@
+package io.iconator.testcontract;
+
+import org.openjdk.jmh.annotations.*;
+import org.web3j.crypto.ECKeyPair;
+import org.web3j.crypto.Hash;
+import org.web3j.crypto.Sign;
+import org.web3j.utils.Numeric;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Presigned transfers hashed and signed per second and core: PreSignedSigner against the straightforward
+ * web3j way (hex strings, BigInteger, ByteArrayOutputStream, Sign.signMessage).
+ *
+ * Run with: ./gradlew jmh -PjmhInclude=PreSignedSignerBenchmark -PjmhThreads=N
+ * Every thread has its own key and buffers, so the result divided by N is the rate per core.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+public class PreSignedSignerBenchmark {
+
+    private static final String TOKEN = "0x6b175474e89094c44da98b954eedeac495271d0f";
+    private static final String TO = "0x00000000000000000000000000000000000000aa";
+
+    private ECKeyPair keyPair;
+    private PreSignedSigner signer;
+    private byte[] token;
+    private byte[] to;
+    private byte[] hash = new byte[32];
+    private byte[] signature = new byte[65];
+    private long nonce = 0;
+
+    @Setup
+    public void setup() {
+        keyPair = ECKeyPair.create(BigInteger.valueOf(System.identityHashCode(this)).add(BigInteger.TEN.pow(30)));
+        signer = new PreSignedSigner(keyPair.getPrivateKey());
+        token = Numeric.hexStringToByteArray(TOKEN);
+        to = Numeric.hexStringToByteArray(TO);
+    }
+
+    @Benchmark
+    public byte[] hashEngine() {
+        PreSignedSigner.hash(token, to, 1_000_000, 1_000, nonce++, hash, 0);
+        return hash;
+    }
+
+    @Benchmark
+    public byte[] hashWeb3j() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(136);
+        out.write(Numeric.hexStringToByteArray("0x48664c16"), 0, 4);
+        out.write(Numeric.hexStringToByteArray(TOKEN), 0, 20);
+        out.write(Numeric.hexStringToByteArray(TO), 0, 20);
+        out.write(Numeric.toBytesPadded(BigInteger.valueOf(1_000_000), 32), 0, 32);
+        out.write(Numeric.toBytesPadded(BigInteger.valueOf(1_000), 32), 0, 32);
+        out.write(Numeric.toBytesPadded(BigInteger.valueOf(nonce++), 32), 0, 32);
+        return Hash.sha3(out.toByteArray());
+    }
+
+    @Benchmark
+    public byte[] signEngine() {
+        PreSignedSigner.hash(token, to, 1_000_000, 1_000, nonce++, hash, 0);
+        signer.sign(hash, 0, signature, 0);
+        return signature;
+    }
+
+    @Benchmark
+    public Sign.SignatureData signWeb3j() {
+        return Sign.signMessage(hashWeb3j(), keyPair, false);
+    }
+}
@@ -0,0 +1,140 @@
+package io.iconator.testcontract;
+
+import io.iconator.testonator.Contract;
+import org.ethereum.solidity.compiler.CompilationResult;
+import org.ethereum.solidity.compiler.SolidityCompiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static io.iconator.testonator.TestBlockchain.compile;
+
+/**
+ * Content addressed store for compiled contracts. The key is a sha-256 over the compiler version
+ * and the name and content of every .sol file, so solc only runs if a source or the compiler changed.
+ * Every key is a directory with a [name].abi and [name].bin file per contract. The directory is
+ * written to a temp location first and then moved, so parallel JVMs never see half written artifacts.
+ */
+public class ArtifactStore {
+
+    public static final String ARTIFACTS_DIR_PROPERTY = "eureka.artifacts";
+    private static final String DEFAULT_ARTIFACTS_DIR = "build/contract-artifacts";
+    private static final String ABI = ".abi";
+    private static final String BIN = ".bin";
+
+    //solc does not change while the JVM runs, so it is asked once instead of forking a process per lookup
+    private static String solcVersion;
+
+    private final Path root;
+
+    public ArtifactStore(Path root) {
+        this.root = root;
+    }
+
+    public static ArtifactStore defaultStore() {
+        return new ArtifactStore(Paths.get(System.getProperty(ARTIFACTS_DIR_PROPERTY, DEFAULT_ARTIFACTS_DIR)));
+    }
+
+    /**
+     * Returns the contracts of the given sources, either from disk or freshly compiled.
+     * @return an immutable map from contract name to contract
+     */
+    public Map<String, Contract> compileCached(File contractFile, File... dependencies) throws IOException {
+        String key = key(contractFile, dependencies);
+        Path dir = root.resolve(key);
+        if (Files.isDirectory(dir)) {
+            Map<String, Contract> cached = load(dir);
+            if (!cached.isEmpty()) {
+                return cached;
+            }
+        }
+        Map<String, Contract> contracts = compile(contractFile, dependencies);
+        store(dir, contracts);
+        return Collections.unmodifiableMap(new TreeMap<>(contracts));
+    }
+
+    String key(File contractFile, File... dependencies) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(solcVersion().getBytes(StandardCharsets.UTF_8));
+        List<File> files = new ArrayList<>(dependencies.length + 1);
+        files.add(contractFile);
+        files.addAll(Arrays.asList(dependencies));
+        for (File file : files) {
+            byte[] content = Files.readAllBytes(file.toPath());
+            //length prefixes, so that moving bytes between files changes the key
+            digest.update(file.getName().getBytes(StandardCharsets.UTF_8));
+            digest.update(Integer.toString(content.length).getBytes(StandardCharsets.UTF_8));
+            digest.update(content);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private static synchronized String solcVersion() throws IOException {
+        if (solcVersion == null) {
+            solcVersion = SolidityCompiler.runGetVersionOutput().trim();
+        }
+        return solcVersion;
+    }
+
+    private Map<String, Contract> load(Path dir) throws IOException {
+        Map<String, Contract> contracts = new TreeMap<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path abiFile : (Iterable<Path>) files::iterator) {
+                String fileName = abiFile.getFileName().toString();
+                if (!fileName.endsWith(ABI)) {
+                    continue;
+                }
+                String name = fileName.substring(0, fileName.length() - ABI.length());
+                Path binFile = dir.resolve(name + BIN);
+                if (!Files.exists(binFile)) {
+                    return Collections.emptyMap();
+                }
+                CompilationResult.ContractMetadata md = new CompilationResult.ContractMetadata();
+                md.abi = new String(Files.readAllBytes(abiFile), StandardCharsets.UTF_8);
+                md.bin = new String(Files.readAllBytes(binFile), StandardCharsets.UTF_8);
+                contracts.put(name, new Contract(md));
+            }
+        }
+        return Collections.unmodifiableMap(contracts);
+    }
+
+    private void store(Path dir, Map<String, Contract> contracts) throws IOException {
+        Files.createDirectories(root);
+        Path tmp = Files.createTempDirectory(root, dir.getFileName() + ".tmp");
+        for (Map.Entry<String, Contract> entry : contracts.entrySet()) {
+            CompilationResult.ContractMetadata md = entry.getValue().md();
+            Files.write(tmp.resolve(entry.getKey() + ABI), md.abi.getBytes(StandardCharsets.UTF_8));
+            Files.write(tmp.resolve(entry.getKey() + BIN), md.bin.getBytes(StandardCharsets.UTF_8));
+        }
+        try {
+            Files.move(tmp, dir, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+            //another JVM was faster, its artifacts are identical
+            deleteRecursive(tmp);
+        }
+    }
+
+    private static void deleteRecursive(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+}
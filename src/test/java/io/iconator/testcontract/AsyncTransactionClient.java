@@ -0,0 +1,524 @@
+package io.iconator.testcontract;
+
+import org.web3j.crypto.Credentials;
+import org.web3j.crypto.Hash;
+import org.web3j.crypto.RawTransaction;
+import org.web3j.crypto.TransactionEncoder;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameter;
+import org.web3j.protocol.core.methods.response.EthBlock;
+import org.web3j.protocol.core.methods.response.EthSendTransaction;
+import org.web3j.protocol.core.methods.response.TransactionReceipt;
+import org.web3j.utils.Numeric;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non-blocking counterpart of TestBlockchain.call for owner jobs like mint, lockTokens and reclaim: send(...)
+ * signs with a local nonce of the NonceManager, broadcasts and returns at once. The future completes with
+ * the decoded events of the receipt, or with null if the transaction reverted, like TestBlockchain.call.
+ * sendForReceipt(...) completes with the receipt itself, for callers that need the gas or the block.
+ *
+ * Up to maxInFlight transactions are pending, send(...) blocks while all are taken. The hash of every
+ * transaction is computed locally and registered before it is broadcast. One poller thread reads every
+ * new block once and only asks for the receipts of the transactions of this client in that block, instead
+ * of one eth_getTransactionReceipt per pending transaction and poll.
+ *
+ * Nonce gaps are repaired per account once the lowest pending transaction is older than resubmitMillis:
+ * - the nonce is next in line: the same signed transaction is broadcast again
+ * - a lower nonce was never broadcast (e.g. a send that failed): a 0 value transaction to itself fills it
+ * - the nonce was used by someone else: the transaction is signed again with a new nonce
+ * After maxAttempts of these the future fails.
+ *
+ * Errors of the poller do not fail any future, the block is read again with the next poll. They are counted
+ * in ioErrors(), fillers the node refused in rejectedFillers().
+ */
+public class AsyncTransactionClient implements Closeable {
+
+    private static final BigInteger FILLER_GAS = BigInteger.valueOf(21_000);
+
+    private static class Pending {
+        final Account account;
+        final String to;
+        final String data;
+        final BigInteger gasLimit;
+        final CompletableFuture<TransactionReceipt> future = new CompletableFuture<>();
+        final long created = System.nanoTime();
+        //guarded by account
+        BigInteger nonce;
+        String rawTx;
+        String txHash;
+        long sentAt;
+        int attempts;
+
+        Pending(Account account, String to, String data, BigInteger gasLimit) {
+            this.account = account;
+            this.to = to;
+            this.data = data;
+            this.gasLimit = gasLimit;
+        }
+    }
+
+    private static class Account {
+        final Credentials credentials;
+        //pending transactions by nonce, guarded by this
+        final TreeMap<BigInteger, Pending> pending = new TreeMap<>();
+
+        Account(Credentials credentials) {
+            this.credentials = credentials;
+        }
+    }
+
+    private final Web3j web3j;
+    private final NonceManager nonces;
+    private final EurekaEvents events = EurekaEvents.standard();
+
+    private final ConcurrentHashMap<String, Pending> byHash = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Account> accounts = new ConcurrentHashMap<>();
+    private Semaphore inFlight;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong mined = new AtomicLong();
+    private final AtomicLong reverted = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rebroadcasts = new AtomicLong();
+    private final AtomicLong resigned = new AtomicLong();
+    private final AtomicLong fillers = new AtomicLong();
+    private final AtomicLong receiptCalls = new AtomicLong();
+    private final AtomicLong ioErrors = new AtomicLong();
+    private final AtomicLong rejectedFillers = new AtomicLong();
+    private final LatencyRecorder latency = new LatencyRecorder();
+
+    private BigInteger gasPrice = BigInteger.ZERO;
+    private BigInteger gasLimit = BigInteger.valueOf(4_000_000);
+    private int maxInFlight = 256;
+    private long pollMillis = 20;
+    private long resubmitMillis = 2_000;
+    private int maxAttempts = 5;
+
+    private volatile boolean running;
+    private long scanned;
+    private Thread poller;
+
+    public AsyncTransactionClient(Web3j web3j, NonceManager nonces) {
+        this.web3j = web3j;
+        this.nonces = nonces;
+    }
+
+    /**
+     * @param gasLimit default gas limit of send(...)
+     */
+    public AsyncTransactionClient gas(BigInteger gasPrice, BigInteger gasLimit) {
+        this.gasPrice = gasPrice;
+        this.gasLimit = gasLimit;
+        return this;
+    }
+
+    public AsyncTransactionClient maxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    public AsyncTransactionClient pollMillis(long pollMillis) {
+        this.pollMillis = pollMillis;
+        return this;
+    }
+
+    /**
+     * @param resubmitMillis how long the lowest pending transaction of an account waits before its nonce is checked
+     */
+    public AsyncTransactionClient resubmitMillis(long resubmitMillis) {
+        this.resubmitMillis = resubmitMillis;
+        return this;
+    }
+
+    public AsyncTransactionClient maxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    public AsyncTransactionClient start() throws IOException {
+        inFlight = new Semaphore(maxInFlight);
+        //a transaction sent from now on is in a later block
+        scanned = blockNumber();
+        running = true;
+        poller = new Thread(this::pollLoop, "async-tx-poller");
+        poller.setDaemon(true);
+        poller.start();
+        return this;
+    }
+
+    public CompletableFuture<List<EurekaEvents.EurekaEvent>> send(Credentials from, String to, String data)
+            throws IOException, InterruptedException {
+        return send(from, to, data, gasLimit);
+    }
+
+    /**
+     * Blocks while maxInFlight transactions are pending, but never for a receipt. A broadcast that the node
+     * rejects fails the future, its nonce is filled later.
+     */
+    public CompletableFuture<List<EurekaEvents.EurekaEvent>> send(Credentials from, String to, String data, BigInteger gasLimit)
+            throws IOException, InterruptedException {
+        return sendForReceipt(from, to, data, gasLimit)
+                .thenApply(receipt -> MintPipeline.isSuccess(receipt) ? events.decode(receipt.getLogs()) : null);
+    }
+
+    public CompletableFuture<TransactionReceipt> sendForReceipt(Credentials from, String to, String data)
+            throws IOException, InterruptedException {
+        return sendForReceipt(from, to, data, gasLimit);
+    }
+
+    /**
+     * Same as send(...), but the future completes with the receipt, also of a reverted transaction.
+     */
+    public CompletableFuture<TransactionReceipt> sendForReceipt(Credentials from, String to, String data, BigInteger gasLimit)
+            throws IOException, InterruptedException {
+        inFlight.acquire();
+        Account account = account(from);
+        Pending p = new Pending(account, to, data, gasLimit);
+        try {
+            synchronized (account) {
+                sign(p, nonces.next(from.getAddress()));
+            }
+        } catch (IOException | RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+        sent.incrementAndGet();
+        broadcast(p);
+        return p.future;
+    }
+
+    public CompletableFuture<List<EurekaEvents.EurekaEvent>> mint(Credentials owner, String token,
+            List<String> recipients, List<BigInteger> amounts) throws IOException, InterruptedException {
+        return send(owner, token, EurekaClient.mint(EurekaClient.calldata(), recipients, amounts).hex());
+    }
+
+    public CompletableFuture<List<EurekaEvents.EurekaEvent>> lockTokens(Credentials owner, String token,
+            List<String> holders, List<BigInteger> timeouts) throws IOException, InterruptedException {
+        return send(owner, token, EurekaClient.lockTokens(EurekaClient.calldata(), holders, timeouts).hex());
+    }
+
+    public CompletableFuture<List<EurekaEvents.EurekaEvent>> reclaim(Credentials owner, String token,
+            List<String> loyaltyOwners) throws IOException, InterruptedException {
+        return send(owner, token, EurekaClient.reclaim(EurekaClient.calldata(), loyaltyOwners).hex());
+    }
+
+    /**
+     * Sends a batch of the ReclaimPlanner with the gas limit it was planned with.
+     */
+    public CompletableFuture<List<EurekaEvents.EurekaEvent>> reclaim(Credentials owner, String token,
+            ReclaimPlanner.Batch batch) throws IOException, InterruptedException {
+        return send(owner, token, batch.encode(), BigInteger.valueOf(batch.gasLimit));
+    }
+
+    private Account account(Credentials credentials) {
+        String key = credentials.getAddress().toLowerCase();
+        Account account = accounts.get(key);
+        if (account == null) {
+            Account fresh = new Account(credentials);
+            account = accounts.putIfAbsent(key, fresh);
+            if (account == null) {
+                account = fresh;
+            }
+        }
+        return account;
+    }
+
+    /**
+     * Signs p with the nonce and registers it under the new hash, the caller holds the lock of the account.
+     */
+    private void sign(Pending p, BigInteger nonce) {
+        if (p.txHash != null) {
+            byHash.remove(p.txHash);
+            p.account.pending.remove(p.nonce);
+        }
+        RawTransaction tx = RawTransaction.createTransaction(nonce, gasPrice, p.gasLimit, p.to, p.data);
+        byte[] signed = TransactionEncoder.signMessage(tx, p.account.credentials);
+        p.nonce = nonce;
+        p.rawTx = Numeric.toHexString(signed);
+        p.txHash = Numeric.toHexString(Hash.sha3(signed));
+        p.sentAt = System.nanoTime();
+        p.account.pending.put(nonce, p);
+        byHash.put(p.txHash, p);
+    }
+
+    private void broadcast(Pending p) {
+        String rawTx;
+        synchronized (p.account) {
+            rawTx = p.rawTx;
+        }
+        try {
+            EthSendTransaction response = web3j.ethSendRawTransaction(rawTx).send();
+            if (response.hasError() && !isKnown(response.getError().getMessage())) {
+                fail(p, new IOException("send: " + response.getError().getMessage()));
+            }
+        } catch (IOException e) {
+            fail(p, e);
+        }
+    }
+
+    private static boolean isKnown(String message) {
+        //a rebroadcast of a transaction the node already has
+        return message != null && message.toLowerCase().contains("known transaction");
+    }
+
+    private void pollLoop() {
+        while (running) {
+            try {
+                long head = blockNumber();
+                while (scanned < head) {
+                    scan(scanned + 1);
+                    scanned++;
+                }
+                if (!byHash.isEmpty()) {
+                    repairGaps();
+                }
+                Thread.sleep(pollMillis);
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                ioErrors.incrementAndGet();
+            }
+        }
+    }
+
+    private void scan(long number) throws IOException {
+        EthBlock.Block block = web3j.ethGetBlockByNumber(DefaultBlockParameter.valueOf(BigInteger.valueOf(number)), false)
+                .send().getBlock();
+        if (block == null) {
+            throw new IOException("block " + number + " not found");
+        }
+        for (EthBlock.TransactionResult tx : block.getTransactions()) {
+            Pending p = byHash.get((String) tx.get());
+            if (p == null) {
+                continue;
+            }
+            receiptCalls.incrementAndGet();
+            Optional<TransactionReceipt> receipt = web3j.ethGetTransactionReceipt(p.txHash).send().getTransactionReceipt();
+            if (!receipt.isPresent()) {
+                throw new IOException("no receipt for " + p.txHash + " in block " + number);
+            }
+            complete(p, receipt.get());
+        }
+    }
+
+    private void complete(Pending p, TransactionReceipt receipt) {
+        if (!remove(p)) {
+            return;
+        }
+        latency.record(System.nanoTime() - p.created);
+        if (MintPipeline.isSuccess(receipt)) {
+            mined.incrementAndGet();
+        } else {
+            reverted.incrementAndGet();
+        }
+        p.future.complete(receipt);
+    }
+
+    private void fail(Pending p, Throwable t) {
+        if (remove(p)) {
+            failed.incrementAndGet();
+            p.future.completeExceptionally(t);
+        }
+    }
+
+    /**
+     * @return false once p is completed or failed, the caller holds the lock of the account
+     */
+    private static boolean isPending(Pending p) {
+        return p.account.pending.get(p.nonce) == p;
+    }
+
+    private boolean remove(Pending p) {
+        synchronized (p.account) {
+            if (!isPending(p)) {
+                return false;
+            }
+            p.account.pending.remove(p.nonce);
+            byHash.remove(p.txHash);
+        }
+        inFlight.release();
+        return true;
+    }
+
+    /**
+     * Compares the lowest pending nonce of every account with its transaction count at the last scanned
+     * block. Everything mined up to that block is completed already, so the transaction count tells what
+     * happened to the lowest nonce.
+     */
+    private void repairGaps() throws IOException {
+        long now = System.nanoTime();
+        long resubmitNanos = TimeUnit.MILLISECONDS.toNanos(resubmitMillis);
+        DefaultBlockParameter at = DefaultBlockParameter.valueOf(BigInteger.valueOf(scanned));
+        for (Account account : accounts.values()) {
+            Pending lowest;
+            synchronized (account) {
+                if (account.pending.isEmpty()) {
+                    continue;
+                }
+                lowest = account.pending.firstEntry().getValue();
+                if (now - lowest.sentAt < resubmitNanos) {
+                    continue;
+                }
+            }
+            String address = account.credentials.getAddress();
+            BigInteger count = web3j.ethGetTransactionCount(address, at).send().getTransactionCount();
+            if (lowest.attempts >= maxAttempts) {
+                fail(lowest, new IOException("nonce " + lowest.nonce + " of " + address + " not mined after "
+                        + lowest.attempts + " attempts"));
+                continue;
+            }
+            int cmp = count.compareTo(lowest.nonce);
+            if (cmp == 0) {
+                synchronized (account) {
+                    if (!isPending(lowest)) {
+                        continue;
+                    }
+                    lowest.attempts++;
+                    lowest.sentAt = now;
+                }
+                rebroadcasts.incrementAndGet();
+                broadcast(lowest);
+            } else if (cmp < 0) {
+                synchronized (account) {
+                    if (!isPending(lowest)) {
+                        continue;
+                    }
+                    lowest.attempts++;
+                    lowest.sentAt = now;
+                }
+                for (BigInteger nonce = count; nonce.compareTo(lowest.nonce) < 0; nonce = nonce.add(BigInteger.ONE)) {
+                    fill(account.credentials, nonce);
+                }
+                //the ones behind the gap may have been dropped by the node meanwhile
+                broadcast(lowest);
+            } else {
+                synchronized (account) {
+                    if (!isPending(lowest)) {
+                        continue;
+                    }
+                    BigInteger nonce = nonces.next(address);
+                    if (nonce.compareTo(count) < 0) {
+                        nonces.resync(address);
+                        nonce = nonces.next(address);
+                    }
+                    lowest.attempts++;
+                    sign(lowest, nonce);
+                }
+                resigned.incrementAndGet();
+                broadcast(lowest);
+            }
+        }
+    }
+
+    private void fill(Credentials credentials, BigInteger nonce) throws IOException {
+        RawTransaction tx = RawTransaction.createEtherTransaction(nonce, gasPrice, FILLER_GAS,
+                credentials.getAddress(), BigInteger.ZERO);
+        String rawTx = Numeric.toHexString(TransactionEncoder.signMessage(tx, credentials));
+        EthSendTransaction response = web3j.ethSendRawTransaction(rawTx).send();
+        if (response.hasError()) {
+            rejectedFillers.incrementAndGet();
+            return;
+        }
+        fillers.incrementAndGet();
+    }
+
+    private long blockNumber() throws IOException {
+        return web3j.ethBlockNumber().send().getBlockNumber().longValueExact();
+    }
+
+    /**
+     * @return false if the timeout elapsed before every future completed
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!byHash.isEmpty()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(pollMillis);
+        }
+        return true;
+    }
+
+    public int inFlight() {
+        return byHash.size();
+    }
+
+    public long sent() {
+        return sent.get();
+    }
+
+    public long mined() {
+        return mined.get();
+    }
+
+    public long reverted() {
+        return reverted.get();
+    }
+
+    public long failed() {
+        return failed.get();
+    }
+
+    public long rebroadcasts() {
+        return rebroadcasts.get();
+    }
+
+    public long resigned() {
+        return resigned.get();
+    }
+
+    public long fillers() {
+        return fillers.get();
+    }
+
+    /**
+     * @return eth_getTransactionReceipt calls, one per mined transaction of this client
+     */
+    public long receiptCalls() {
+        return receiptCalls.get();
+    }
+
+    /**
+     * @return failed calls to the node while polling for blocks and receipts or repairing gaps
+     */
+    public long ioErrors() {
+        return ioErrors.get();
+    }
+
+    /**
+     * @return filler transactions the node refused to accept
+     */
+    public long rejectedFillers() {
+        return rejectedFillers.get();
+    }
+
+    /**
+     * @return time from send(...) to the receipt
+     */
+    public LatencyRecorder latency() {
+        return latency;
+    }
+
+    public String metrics() {
+        return "inFlight=" + inFlight() + " sent=" + sent() + " mined=" + mined() + " reverted=" + reverted()
+                + " failed=" + failed() + " rebroadcasts=" + rebroadcasts() + " resigned=" + resigned()
+                + " fillers=" + fillers() + " rejectedFillers=" + rejectedFillers() + " ioErrors=" + ioErrors()
+                + " latency: " + latency.summary();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        if (poller != null) {
+            poller.interrupt();
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package io.iconator.testcontract;
+
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.Bool;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.generated.Uint64;
+import org.web3j.crypto.Hash;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameter;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.methods.request.EthFilter;
+import org.web3j.protocol.core.methods.request.Transaction;
+import org.web3j.protocol.core.methods.response.EthLog;
+import org.web3j.protocol.core.methods.response.Log;
+import org.web3j.utils.Numeric;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * Mirrors the balance history of every Eureka holder from the Transfer, TokensLoyalty, TokensLocked and
+ * TransferPreSigned events, and answers balanceOf / balanceWithLoyaltyClaimOf from memory instead of
+ * one eth_call per holder.
+ *
+ * The events do not carry the snapshots, so every transaction is replayed with the same arithmetic
+ * as the contract: the claim of sender and receiver, the 1% loyalty of rewarded transfers, the relayer
+ * fee and the loyaltyPerToken checkpoint of each snapshot (see LoyaltyModel). The only function whose
+ * effect is not visible in its events is reclaim, there the owners are decoded from the transaction input.
+ *
+ * verify(...) compares the mirror against the contract. The state can be written to a
+ * MappedSnapshotStore and a restarted indexer continues from it: holders are read from the mapped file
+ * and only copied to the heap when a new snapshot is written for them. Lockups are stored with them.
+ */
+public class BalanceIndexer {
+
+    static final String ZERO_ADDRESS = "0x0000000000000000000000000000000000000000";
+    static final String TRANSFER = EurekaEvents.TRANSFER;
+    static final String TOKENS_LOYALTY = EurekaEvents.TOKENS_LOYALTY;
+    static final String RECLAIM_SELECTOR = Hash.sha3String("reclaim(address[])").substring(0, 10);
+    static final String BATCH_SELECTOR = Hash.sha3String("transferPreSignedBatch(bytes,address[],uint256[],uint256[],uint256[])").substring(0, 10);
+
+    private final String token;
+    private final MappedSnapshotStore base;
+    private final Map<String, SnapshotHistory> holders = new HashMap<>();
+    private final Map<String, BigInteger> lockups = new HashMap<>();
+    private BigInteger loyalty = BigInteger.ZERO;
+    private BigInteger loyaltyPerToken = BigInteger.ZERO;
+    private BigInteger totalSupply = BigInteger.ZERO;
+    private long lastBlock = -1;
+
+    public BalanceIndexer(String tokenAddress) {
+        this(tokenAddress, null);
+    }
+
+    /**
+     * @param base the state written by a previous run, sync continues at base.lastBlock() + 1
+     */
+    public BalanceIndexer(String tokenAddress, MappedSnapshotStore base) {
+        this.token = tokenAddress.toLowerCase();
+        this.base = base;
+        if (base != null) {
+            loyalty = base.loyalty();
+            loyaltyPerToken = base.loyaltyPerToken();
+            totalSupply = base.totalSupply();
+            lastBlock = base.lastBlock();
+            lockups.putAll(base.lockups());
+        }
+    }
+
+    public Set<String> holders() {
+        if (base == null) {
+            return Collections.unmodifiableSet(holders.keySet());
+        }
+        Set<String> all = new HashSet<>(holders.keySet());
+        for (int i = 0; i < base.holderCount(); i++) {
+            all.add(base.address(i));
+        }
+        return all;
+    }
+
+    public SnapshotView history(String owner) {
+        String key = owner.toLowerCase();
+        SnapshotHistory h = holders.get(key);
+        if (h == null && base != null) {
+            return base.history(key);
+        }
+        return h;
+    }
+
+    public BigInteger loyalty() {
+        return loyalty;
+    }
+
+    public BigInteger loyaltyPerToken() {
+        return loyaltyPerToken;
+    }
+
+    public BigInteger totalSupply() {
+        return totalSupply;
+    }
+
+    public BigInteger lockup(String holder) {
+        BigInteger timeout = lockups.get(holder.toLowerCase());
+        return timeout == null ? BigInteger.ZERO : timeout;
+    }
+
+    /**
+     * @return the lockup timeout per lowercase address
+     */
+    public Map<String, BigInteger> lockups() {
+        return Collections.unmodifiableMap(lockups);
+    }
+
+    public long lastBlock() {
+        return lastBlock;
+    }
+
+    public BigInteger balanceOf(String owner) {
+        return balanceOf(owner, true);
+    }
+
+    public BigInteger balanceOf(String owner, boolean amountType) {
+        SnapshotView h = history(owner);
+        if (h == null || h.size() == 0) {
+            return BigInteger.ZERO;
+        }
+        return value(h, h.size() - 1, amountType);
+    }
+
+    public BigInteger balanceOf(String owner, boolean amountType, long fromBlock) {
+        SnapshotView h = history(owner);
+        if (h == null || h.size() == 0) {
+            return BigInteger.ZERO;
+        }
+        return value(h, h.indexAt(fromBlock), amountType);
+    }
+
+    /**
+     * @return the index into the history of owner for balanceOfAt(owner, amountType, fromBlock, indexHint),
+     * 0 if the owner has no history
+     */
+    public long indexHint(String owner, long fromBlock) {
+        SnapshotView h = history(owner);
+        if (h == null || h.size() == 0) {
+            return 0;
+        }
+        return h.indexAt(fromBlock);
+    }
+
+    /**
+     * @return balance and the loyalty that would be claimed with the next transfer
+     */
+    public BigInteger[] balanceWithLoyaltyClaimOf(String owner) {
+        SnapshotView h = history(owner);
+        if (h == null || h.size() == 0) {
+            return new BigInteger[]{BigInteger.ZERO, BigInteger.ZERO};
+        }
+        BigInteger balance = h.amount(h.size() - 1);
+        return new BigInteger[]{balance, LoyaltyModel.claim(balance, loyaltyPerToken, h.claimedLoyalty(h.size() - 1))};
+    }
+
+    private static BigInteger value(SnapshotView h, int index, boolean amountType) {
+        return amountType ? h.amount(index) : h.claimedLoyalty(index);
+    }
+
+    /**
+     * Reads all events of the token between the two blocks (inclusive) and applies them.
+     */
+    public void sync(Web3j web3j, long fromBlock, long toBlock) throws IOException {
+        EthFilter filter = new EthFilter(DefaultBlockParameter.valueOf(BigInteger.valueOf(fromBlock)),
+                DefaultBlockParameter.valueOf(BigInteger.valueOf(toBlock)), token);
+        List<EthLog.LogResult> results = web3j.ethGetLogs(filter).send().getLogs();
+        List<Log> tx = new ArrayList<>();
+        for (EthLog.LogResult result : results) {
+            Log log = (Log) result.get();
+            if (!tx.isEmpty() && !tx.get(0).getTransactionHash().equals(log.getTransactionHash())) {
+                applyTransaction(web3j, tx);
+                tx = new ArrayList<>();
+            }
+            tx.add(log);
+        }
+        if (!tx.isEmpty()) {
+            applyTransaction(web3j, tx);
+        }
+        lastBlock = Math.max(lastBlock, toBlock);
+    }
+
+    private void applyTransaction(Web3j web3j, List<Log> logs) throws IOException {
+        String hash = logs.get(0).getTransactionHash();
+        org.web3j.protocol.core.methods.response.Transaction tx = web3j.ethGetTransactionByHash(hash).send()
+                .getTransaction().orElseThrow(() -> new IOException("unknown transaction " + hash));
+        apply(logs.get(0).getBlockNumber().longValueExact(), tx.getFrom(), tx.getInput(), logs);
+    }
+
+    /**
+     * Applies the events of one transaction, in log order.
+     * @param sender the sender of the transaction, needed for loyalty and reclaim
+     * @param input the input of the transaction, needed for reclaim
+     */
+    public void apply(long block, String sender, String input, List<Log> logs) {
+        List<EurekaEvents.EurekaEvent> events = EurekaEvents.standard().decode(logs);
+        //transferPreSignedBatch credits all fees at the end
+        boolean batch = input != null && input.startsWith(BATCH_SELECTOR);
+        BigInteger batchFee = BigInteger.ZERO;
+        boolean rewarded = false;
+        for (int i = 0; i < events.size(); i++) {
+            EurekaEvents.EurekaEvent event = events.get(i);
+            if (event instanceof EurekaEvents.TokensLocked) {
+                EurekaEvents.TokensLocked locked = (EurekaEvents.TokensLocked) event;
+                lockups.put(EurekaEvents.address(locked.holder), BigInteger.valueOf(locked.timeout));
+            } else if (event instanceof EurekaEvents.TokensLoyalty) {
+                if (i + 1 < events.size() && isTransfer(events.get(i + 1))) {
+                    //1% of a rewarded transfer, the transfer follows
+                    rewarded = true;
+                } else {
+                    loyalty(block, sender, EurekaEvents.uint(((EurekaEvents.TokensLoyalty) event).amount));
+                }
+            } else if (event instanceof EurekaEvents.Transfer) {
+                EurekaEvents.Transfer transfer = (EurekaEvents.Transfer) event;
+                String from = EurekaEvents.address(transfer.from);
+                String to = EurekaEvents.address(transfer.to);
+                BigInteger value = EurekaEvents.uint(transfer.value);
+                if (ZERO_ADDRESS.equals(from)) {
+                    mint(block, to, value);
+                } else if (token.equals(from)) {
+                    //loyalty claims are applied with the transfer, only reclaim needs extra work
+                    if (input != null && input.startsWith(RECLAIM_SELECTOR)) {
+                        reclaim(block, sender, reclaimOwners(input));
+                    }
+                } else if (isPreSignedFee(events, i, transfer.from)) {
+                    EurekaEvents.TransferPreSigned preSigned = (EurekaEvents.TransferPreSigned) events.get(i + 2);
+                    BigInteger fee = EurekaEvents.uint(preSigned.fee);
+                    if (batch) {
+                        doTransfer(block, from, to, value, fee, null, rewarded);
+                        batchFee = batchFee.add(fee);
+                    } else {
+                        doTransfer(block, from, to, value, fee, EurekaEvents.address(preSigned.delegate), rewarded);
+                    }
+                    rewarded = false;
+                    i += 2;
+                } else {
+                    doTransfer(block, from, to, value, BigInteger.ZERO, null, rewarded);
+                    rewarded = false;
+                }
+            }
+        }
+        if (batchFee.signum() > 0) {
+            holder(sender).write(block, balanceOf(sender).add(batchFee), loyaltyPerToken);
+        }
+        lastBlock = Math.max(lastBlock, block);
+    }
+
+    private boolean isTransfer(EurekaEvents.EurekaEvent event) {
+        if (!(event instanceof EurekaEvents.Transfer)) {
+            return false;
+        }
+        String from = EurekaEvents.address(((EurekaEvents.Transfer) event).from);
+        return !ZERO_ADDRESS.equals(from) && !token.equals(from);
+    }
+
+    private boolean isPreSignedFee(List<EurekaEvents.EurekaEvent> events, int i, byte[] from) {
+        if (i + 2 >= events.size()) {
+            return false;
+        }
+        EurekaEvents.EurekaEvent fee = events.get(i + 1);
+        return fee instanceof EurekaEvents.Transfer
+                && Arrays.equals(from, ((EurekaEvents.Transfer) fee).from)
+                && events.get(i + 2) instanceof EurekaEvents.TransferPreSigned;
+    }
+
+    private void mint(long block, String to, BigInteger value) {
+        holder(to).mint(block, value);
+        totalSupply = totalSupply.add(value);
+    }
+
+    private void doTransfer(long block, String from, String to, BigInteger value, BigInteger fee, String feeAddress, boolean rewarded) {
+        BigInteger[] fromClaim = balanceWithLoyaltyClaimOf(from);
+        holder(from).write(block, fromClaim[0].add(fromClaim[1]).subtract(value).subtract(fee), loyaltyPerToken);
+        if (fee.signum() > 0 && feeAddress != null && !ZERO_ADDRESS.equals(feeAddress)) {
+            holder(feeAddress).write(block, balanceOf(feeAddress).add(fee), loyaltyPerToken);
+        }
+        //like the contract, to is read after from and fee were written
+        BigInteger[] toClaim = balanceWithLoyaltyClaimOf(to);
+        BigInteger toLoyalty = rewarded ? value.divide(BigInteger.valueOf(100)) : BigInteger.ZERO;
+        holder(to).write(block, toClaim[0].add(toClaim[1]).add(value).subtract(toLoyalty), loyaltyPerToken);
+        if (rewarded) {
+            addLoyalty(toLoyalty);
+        }
+    }
+
+    private void loyalty(long block, String sender, BigInteger amount) {
+        BigInteger[] claim = balanceWithLoyaltyClaimOf(sender);
+        holder(sender).write(block, claim[0].add(claim[1]).subtract(amount), loyaltyPerToken);
+        addLoyalty(amount);
+    }
+
+    private void addLoyalty(BigInteger amount) {
+        loyalty = loyalty.add(amount);
+        loyaltyPerToken = loyaltyPerToken.add(LoyaltyModel.perToken(amount, totalSupply));
+    }
+
+    private void reclaim(long block, String owner, List<String> loyaltyOwners) {
+        BigInteger total = BigInteger.ZERO;
+        for (String loyaltyOwner : loyaltyOwners) {
+            BigInteger[] claim = balanceWithLoyaltyClaimOf(loyaltyOwner);
+            holder(loyaltyOwner).write(block, claim[0], loyaltyPerToken);
+            total = total.add(claim[1]);
+        }
+        BigInteger[] ownerClaim = balanceWithLoyaltyClaimOf(owner);
+        holder(owner).write(block, ownerClaim[0].add(ownerClaim[1]).add(total), loyaltyPerToken);
+    }
+
+    private SnapshotHistory holder(String address) {
+        String key = address.toLowerCase();
+        SnapshotHistory h = holders.get(key);
+        if (h == null) {
+            //copy on write, the mapped file is never modified
+            SnapshotView stored = base == null ? null : base.history(key);
+            h = stored == null ? new SnapshotHistory() : SnapshotHistory.copyOf(stored);
+            holders.put(key, h);
+        }
+        return h;
+    }
+
+    /**
+     * Compares every holder with the contract: balanceOf, the loyalty claim, and balanceOf at the given
+     * block for both amount types.
+     * @return a description of every mismatch, empty if the mirror is exact
+     */
+    public List<String> verify(Web3j web3j, long atBlock) throws IOException {
+        List<String> mismatches = new ArrayList<>();
+        for (String holder : holders()) {
+            check(mismatches, holder + " balanceOf", balanceOf(holder),
+                    call(web3j, "balanceOf", new Address(holder)).get(0));
+            List<BigInteger> claim = call(web3j, "balanceWithLoyaltyClaimOf", new Address(holder));
+            check(mismatches, holder + " loyalty claim", balanceWithLoyaltyClaimOf(holder)[1], claim.get(1));
+            for (boolean amountType : new boolean[]{true, false}) {
+                check(mismatches, holder + " balanceOf(" + amountType + ", " + atBlock + ")",
+                        balanceOf(holder, amountType, atBlock),
+                        call(web3j, "balanceOf", new Address(holder), new Bool(amountType), new Uint64(BigInteger.valueOf(atBlock))).get(0));
+            }
+        }
+        return mismatches;
+    }
+
+    private static void check(List<String> mismatches, String what, BigInteger mirror, BigInteger contract) {
+        if (!mirror.equals(contract)) {
+            mismatches.add(what + ": indexer " + mirror + ", contract " + contract);
+        }
+    }
+
+    private List<BigInteger> call(Web3j web3j, String name, Type... args) throws IOException {
+        Function function = new Function(name, Arrays.asList(args), Collections.<TypeReference<?>>emptyList());
+        String result = web3j.ethCall(Transaction.createEthCallTransaction(ZERO_ADDRESS, token, FunctionEncoder.encode(function)),
+                DefaultBlockParameterName.LATEST).send().getValue();
+        String hex = Numeric.cleanHexPrefix(result);
+        List<BigInteger> words = new ArrayList<>();
+        for (int i = 0; i + 64 <= hex.length(); i += 64) {
+            words.add(new BigInteger(hex.substring(i, i + 64), 16));
+        }
+        return words;
+    }
+
+    private static List<String> reclaimOwners(String input) {
+        //selector, offset of the array, length, one word per address
+        String hex = Numeric.cleanHexPrefix(input).substring(8);
+        int offset = new BigInteger(hex.substring(0, 64), 16).intValueExact() * 2;
+        int length = new BigInteger(hex.substring(offset, offset + 64), 16).intValueExact();
+        List<String> owners = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            int start = offset + 64 + i * 64;
+            owners.add("0x" + hex.substring(start + 24, start + 64));
+        }
+        return owners;
+    }
+}
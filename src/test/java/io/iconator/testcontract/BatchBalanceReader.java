@@ -0,0 +1,178 @@
+package io.iconator.testcontract;
+
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameter;
+import org.web3j.protocol.core.methods.request.Transaction;
+import org.web3j.protocol.core.methods.response.EthCall;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Reads balances and rewards of many holders with balanceOfBatch / rewardOfBatch. The holder list is
+ * split into chunks that stay below the gas cap of eth_call (50M on geth by default), and up to
+ * concurrency chunks are in flight at the same time.
+ *
+ * All chunks are read at the same block, the latest block when the read starts, so that a snapshot
+ * export is consistent even while new blocks arrive.
+ */
+public class BatchBalanceReader {
+
+    private final Web3j web3j;
+    private final String token;
+
+    private long gasCap = 50_000_000;
+    private long baseGas = 100_000;
+    //a binary search over a long history costs about 2100 per cold SLOAD
+    private long gasPerHolder = 40_000;
+    private int maxChunk = 2000;
+    private int concurrency = 8;
+
+    public BatchBalanceReader(Web3j web3j, String tokenAddress) {
+        this.web3j = web3j;
+        this.token = tokenAddress;
+    }
+
+    public BatchBalanceReader gas(long gasCap, long baseGas, long gasPerHolder) {
+        this.gasCap = gasCap;
+        this.baseGas = baseGas;
+        this.gasPerHolder = gasPerHolder;
+        return this;
+    }
+
+    /**
+     * @param maxChunk upper limit of holders per eth_call, independent of gas, to keep the responses small
+     */
+    public BatchBalanceReader maxChunk(int maxChunk) {
+        this.maxChunk = maxChunk;
+        return this;
+    }
+
+    public BatchBalanceReader concurrency(int concurrency) {
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    public int chunkSize() {
+        return (int) Math.max(1, Math.min(maxChunk, (gasCap - baseGas) / gasPerHolder));
+    }
+
+    /**
+     * @return balanceOf(owner, amountType, fromBlock) of every owner, in the order of owners
+     */
+    public BigInteger[] balanceOf(List<String> owners, boolean amountType, long fromBlock) throws IOException {
+        DefaultBlockParameter at = DefaultBlockParameter.valueOf(latestBlock());
+        BigInteger[] result = new BigInteger[owners.size()];
+        read(owners, (chunk, offset) -> {
+            List<BigInteger[]> arrays = arrays(call(EurekaClient.balanceOfBatch(EurekaClient.calldata(), chunk, amountType, fromBlock).hex(), at), 1);
+            System.arraycopy(arrays.get(0), 0, result, offset, chunk.size());
+        });
+        return result;
+    }
+
+    /**
+     * @return reward1, reward2 and counter of every owner for rewarded transfers from the given address
+     */
+    public BigInteger[][] rewardOf(List<String> owners, String from) throws IOException {
+        DefaultBlockParameter at = DefaultBlockParameter.valueOf(latestBlock());
+        BigInteger[][] result = new BigInteger[owners.size()][];
+        read(owners, (chunk, offset) -> {
+            List<BigInteger[]> arrays = arrays(call(EurekaClient.rewardOfBatch(EurekaClient.calldata(), chunk, from).hex(), at), 3);
+            for (int i = 0; i < chunk.size(); i++) {
+                result[offset + i] = new BigInteger[]{arrays.get(0)[i], arrays.get(1)[i], arrays.get(2)[i]};
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Writes "address,amount,loyaltyCheckpoint" of every owner at the given block as CSV. loyaltyCheckpoint is
+     * loyaltyPerToken of the last snapshot, scaled by loyaltyScale, not a token amount: the loyalty an owner
+     * can claim is amount * (loyaltyPerToken - loyaltyCheckpoint) / loyaltyScale.
+     */
+    public void export(List<String> owners, long fromBlock, Writer out) throws IOException {
+        BigInteger[] amounts = balanceOf(owners, true, fromBlock);
+        BigInteger[] checkpoints = balanceOf(owners, false, fromBlock);
+        out.write("address,amount,loyaltyCheckpoint\n");
+        for (int i = 0; i < owners.size(); i++) {
+            out.write(owners.get(i) + "," + amounts[i] + "," + checkpoints[i] + "\n");
+        }
+        out.flush();
+    }
+
+    private interface Chunk {
+        void read(List<String> owners, int offset) throws IOException;
+    }
+
+    private void read(List<String> owners, Chunk chunk) throws IOException {
+        int size = chunkSize();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(concurrency, (owners.size() + size - 1) / size)));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int offset = 0; offset < owners.size(); offset += size) {
+                int from = offset;
+                List<String> part = owners.subList(offset, Math.min(owners.size(), offset + size));
+                futures.add(executor.submit(() -> {
+                    chunk.read(part, from);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private BigInteger latestBlock() throws IOException {
+        return web3j.ethBlockNumber().send().getBlockNumber();
+    }
+
+    private String call(String data, DefaultBlockParameter at) throws IOException {
+        Transaction tx = Transaction.createFunctionCallTransaction(BalanceIndexer.ZERO_ADDRESS, null, null,
+                BigInteger.valueOf(gasCap), token, data);
+        EthCall response = web3j.ethCall(tx, at).send();
+        if (response.hasError()) {
+            throw new IOException("eth_call: " + response.getError().getMessage());
+        }
+        return response.getValue();
+    }
+
+    /**
+     * Decodes count uint256[] return values.
+     */
+    static List<BigInteger[]> arrays(String result, int count) throws IOException {
+        String hex = result.startsWith("0x") ? result.substring(2) : result;
+        if (hex.length() < count * 64) {
+            throw new IOException("reverted, out of gas or too many holders per chunk: " + result);
+        }
+        List<BigInteger[]> arrays = new ArrayList<>(count);
+        for (int a = 0; a < count; a++) {
+            int offset = word(hex, a * 64).intValueExact() * 2;
+            int length = word(hex, offset).intValueExact();
+            BigInteger[] values = new BigInteger[length];
+            for (int i = 0; i < length; i++) {
+                values[i] = word(hex, offset + 64 + i * 64);
+            }
+            arrays.add(values);
+        }
+        return arrays;
+    }
+
+    private static BigInteger word(String hex, int at) {
+        return new BigInteger(hex.substring(at, at + 64), 16);
+    }
+}
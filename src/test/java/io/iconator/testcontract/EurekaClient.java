@@ -0,0 +1,522 @@
+package io.iconator.testcontract;
+
+import org.web3j.crypto.Credentials;
+import org.web3j.crypto.Hash;
+import org.web3j.crypto.RawTransaction;
+import org.web3j.crypto.TransactionEncoder;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.methods.request.Transaction;
+import org.web3j.protocol.core.methods.response.EthCall;
+import org.web3j.protocol.core.methods.response.EthSendTransaction;
+import org.web3j.protocol.core.methods.response.TransactionReceipt;
+import org.web3j.utils.Numeric;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Typed binding of Eureka.sol with one method per overload. The selectors are computed once when the
+ * class is loaded, arguments are written straight into a thread local Calldata buffer, there is no
+ * overload resolution, no web3j Type objects and no String.format on the way to the hex string.
+ *
+ * The static encode methods can be used on their own (e.g. for eth_call or for transactions signed
+ * elsewhere), the instance methods sign with the given credentials and send with nonces of the
+ * NonceManager.
+ */
+public class EurekaClient {
+
+    public static final int TRANSFER = selector("transfer(address,uint256)");
+    public static final int TRANSFER_REWARD = selector("transfer(address,uint256,uint8)");
+    public static final int TRANSFER_FROM = selector("transferFrom(address,address,uint256)");
+    public static final int TRANSFER_FROM_REWARD = selector("transferFrom(address,address,uint256,uint8)");
+    public static final int APPROVE = selector("approve(address,uint256)");
+    public static final int TRANSFER_AND_CALL = selector("transferAndCall(address,uint256,bytes4,bytes)");
+    public static final int TRANSFER_PRESIGNED = selector("transferPreSigned(bytes,address,uint256,uint256,uint256)");
+    public static final int BALANCE_OF = selector("balanceOf(address)");
+    public static final int BALANCE_OF_AT = selector("balanceOf(address,bool,uint64)");
+    public static final int BALANCE_WITH_LOYALTY_CLAIM_OF = selector("balanceWithLoyaltyClaimOf(address)");
+    public static final int REWARD_OF = selector("rewardOf(address,address)");
+    public static final int REWARD_OF_AT = selector("rewardOf(address,address,uint48)");
+    public static final int BALANCE_OF_AT_HINT = selector("balanceOfAt(address,bool,uint64,uint256)");
+    public static final int REWARD_OF_AT_HINT = selector("rewardOfAt(address,address,uint48,uint256)");
+    public static final int BALANCE_OF_BATCH = selector("balanceOfBatch(address[],bool,uint64)");
+    public static final int REWARD_OF_BATCH = selector("rewardOfBatch(address[],address)");
+    public static final int MINT = selector("mint(address[],uint256[])");
+    public static final int LOCK_TOKENS = selector("lockTokens(address[],uint256[])");
+    public static final int RECLAIM = selector("reclaim(address[])");
+    public static final int LOYALTY = selector("loyalty(uint256)");
+    public static final int FINISH_MINTING = selector("finishMinting()");
+    public static final int TOTAL_SUPPLY = selector("totalSupply()");
+
+    private static final ThreadLocal<Calldata> CALLDATA = ThreadLocal.withInitial(Calldata::new);
+    //method names of transferAndCall, hashed once per signature
+    private static final ConcurrentHashMap<String, Integer> METHOD_NAMES = new ConcurrentHashMap<>();
+
+    private final Web3j web3j;
+    private final String token;
+    private final Credentials credentials;
+    private final NonceManager nonces;
+
+    private BigInteger gasPrice = BigInteger.ZERO;
+    private BigInteger gasLimit = BigInteger.valueOf(300_000);
+    private long pollMillis = 50;
+
+    public EurekaClient(Web3j web3j, String tokenAddress, Credentials credentials, NonceManager nonces) {
+        this.web3j = web3j;
+        this.token = tokenAddress;
+        this.credentials = credentials;
+        this.nonces = nonces;
+    }
+
+    public EurekaClient gas(BigInteger gasPrice, long gasLimit) {
+        this.gasPrice = gasPrice;
+        this.gasLimit = BigInteger.valueOf(gasLimit);
+        return this;
+    }
+
+    public EurekaClient pollMillis(long pollMillis) {
+        this.pollMillis = pollMillis;
+        return this;
+    }
+
+    /**
+     * ABI encoder for one call at a time: the selector, then 32 byte words. The buffer grows and is reused.
+     */
+    public static final class Calldata {
+        private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+        private byte[] buffer = new byte[4 + 32 * 8];
+        private char[] chars = new char[2 + buffer.length * 2];
+        private int length;
+
+        public Calldata start(int selector) {
+            length = 0;
+            ensure(4);
+            buffer[0] = (byte) (selector >>> 24);
+            buffer[1] = (byte) (selector >>> 16);
+            buffer[2] = (byte) (selector >>> 8);
+            buffer[3] = (byte) selector;
+            length = 4;
+            return this;
+        }
+
+        /**
+         * @param address 0x and 40 hex characters
+         */
+        public Calldata address(String address) {
+            int start = address.length() - 40;
+            ensure(32);
+            int at = zeros(12);
+            for (int i = 0; i < 20; i++) {
+                buffer[at + i] = (byte) ((digit(address, start + 2 * i) << 4) | digit(address, start + 2 * i + 1));
+            }
+            length += 20;
+            return this;
+        }
+
+        public Calldata uint(long value) {
+            ensure(32);
+            int at = zeros(24);
+            for (int i = 0; i < 8; i++) {
+                buffer[at + 7 - i] = (byte) (value >>> (8 * i));
+            }
+            length += 8;
+            return this;
+        }
+
+        public Calldata uint(BigInteger value) {
+            if (value.signum() < 0 || value.bitLength() > 256) {
+                throw new IllegalArgumentException("not a uint256: " + value);
+            }
+            if (value.bitLength() < 64) {
+                return uint(value.longValue());
+            }
+            byte[] bytes = value.toByteArray();
+            //toByteArray has a leading zero byte if the highest bit is set
+            int skip = bytes.length > 32 ? 1 : 0;
+            ensure(32);
+            int at = zeros(32 - (bytes.length - skip));
+            System.arraycopy(bytes, skip, buffer, at, bytes.length - skip);
+            length += bytes.length - skip;
+            return this;
+        }
+
+        public Calldata bool(boolean value) {
+            return uint(value ? 1 : 0);
+        }
+
+        /**
+         * bytes4 is left aligned in its word
+         */
+        public Calldata bytes4(int value) {
+            ensure(32);
+            buffer[length] = (byte) (value >>> 24);
+            buffer[length + 1] = (byte) (value >>> 16);
+            buffer[length + 2] = (byte) (value >>> 8);
+            buffer[length + 3] = (byte) value;
+            length += 4;
+            zeros(28);
+            return this;
+        }
+
+        /**
+         * The tail of a dynamic bytes argument: length, then the data padded to a multiple of 32.
+         */
+        public Calldata bytes(byte[] value, int offset, int count) {
+            uint(count);
+            int padded = (count + 31) / 32 * 32;
+            ensure(padded);
+            System.arraycopy(value, offset, buffer, length, count);
+            for (int i = count; i < padded; i++) {
+                buffer[length + i] = 0;
+            }
+            length += padded;
+            return this;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public byte[] buffer() {
+            return buffer;
+        }
+
+        /**
+         * @return 0x and the calldata as lower case hex
+         */
+        public String hex() {
+            int n = 2 + length * 2;
+            if (chars.length < n) {
+                chars = new char[Math.max(n, chars.length * 2)];
+            }
+            chars[0] = '0';
+            chars[1] = 'x';
+            for (int i = 0; i < length; i++) {
+                chars[2 + 2 * i] = HEX[(buffer[i] >>> 4) & 0xf];
+                chars[3 + 2 * i] = HEX[buffer[i] & 0xf];
+            }
+            return new String(chars, 0, n);
+        }
+
+        private int zeros(int count) {
+            ensure(count);
+            for (int i = 0; i < count; i++) {
+                buffer[length + i] = 0;
+            }
+            length += count;
+            return length;
+        }
+
+        private void ensure(int more) {
+            if (length + more > buffer.length) {
+                byte[] grown = new byte[Math.max(length + more, buffer.length * 2)];
+                System.arraycopy(buffer, 0, grown, 0, length);
+                buffer = grown;
+            }
+        }
+
+        private static int digit(String s, int index) {
+            int d = Character.digit(s.charAt(index), 16);
+            if (d < 0) {
+                throw new IllegalArgumentException("not an address: " + s);
+            }
+            return d;
+        }
+    }
+
+    public static Calldata calldata() {
+        return CALLDATA.get();
+    }
+
+    public static Calldata transfer(Calldata c, String to, BigInteger value) {
+        return c.start(TRANSFER).address(to).uint(value);
+    }
+
+    public static Calldata transfer(Calldata c, String to, BigInteger value, int rewardType) {
+        return c.start(TRANSFER_REWARD).address(to).uint(value).uint(rewardType);
+    }
+
+    public static Calldata transferFrom(Calldata c, String from, String to, BigInteger value) {
+        return c.start(TRANSFER_FROM).address(from).address(to).uint(value);
+    }
+
+    public static Calldata transferFrom(Calldata c, String from, String to, BigInteger value, int rewardType) {
+        return c.start(TRANSFER_FROM_REWARD).address(from).address(to).uint(value).uint(rewardType);
+    }
+
+    public static Calldata approve(Calldata c, String spender, BigInteger value) {
+        return c.start(APPROVE).address(spender).uint(value);
+    }
+
+    public static Calldata transferAndCall(Calldata c, String to, BigInteger value, int methodName, byte[] args) {
+        //to, value, methodName, offset of args
+        return c.start(TRANSFER_AND_CALL).address(to).uint(value).bytes4(methodName).uint(4 * 32)
+                .bytes(args, 0, args.length);
+    }
+
+    public static Calldata transferPreSigned(Calldata c, byte[] signature, String to, BigInteger value, BigInteger fee, BigInteger nonce) {
+        //offset of signature, to, value, fee, nonce
+        return c.start(TRANSFER_PRESIGNED).uint(5 * 32).address(to).uint(value).uint(fee).uint(nonce)
+                .bytes(signature, 0, signature.length);
+    }
+
+    public static Calldata balanceOf(Calldata c, String owner) {
+        return c.start(BALANCE_OF).address(owner);
+    }
+
+    public static Calldata balanceOf(Calldata c, String owner, boolean amountType, long fromBlock) {
+        return c.start(BALANCE_OF_AT).address(owner).bool(amountType).uint(fromBlock);
+    }
+
+    public static Calldata balanceOfAt(Calldata c, String owner, boolean amountType, long fromBlock, long indexHint) {
+        return c.start(BALANCE_OF_AT_HINT).address(owner).bool(amountType).uint(fromBlock).uint(indexHint);
+    }
+
+    public static Calldata balanceWithLoyaltyClaimOf(Calldata c, String owner) {
+        return c.start(BALANCE_WITH_LOYALTY_CLAIM_OF).address(owner);
+    }
+
+    public static Calldata rewardOf(Calldata c, String owner, String from) {
+        return c.start(REWARD_OF).address(owner).address(from);
+    }
+
+    public static Calldata rewardOf(Calldata c, String owner, String from, long fromBlock) {
+        return c.start(REWARD_OF_AT).address(owner).address(from).uint(fromBlock);
+    }
+
+    public static Calldata balanceOfBatch(Calldata c, List<String> owners, boolean amountType, long fromBlock) {
+        //offset of owners, amountType, fromBlock
+        c.start(BALANCE_OF_BATCH).uint(3 * 32).bool(amountType).uint(fromBlock).uint(owners.size());
+        for (String owner : owners) {
+            c.address(owner);
+        }
+        return c;
+    }
+
+    public static Calldata rewardOfBatch(Calldata c, List<String> owners, String from) {
+        //offset of owners, from
+        c.start(REWARD_OF_BATCH).uint(2 * 32).address(from).uint(owners.size());
+        for (String owner : owners) {
+            c.address(owner);
+        }
+        return c;
+    }
+
+    public static Calldata rewardOfAt(Calldata c, String owner, String from, long fromBlock, long indexHint) {
+        return c.start(REWARD_OF_AT_HINT).address(owner).address(from).uint(fromBlock).uint(indexHint);
+    }
+
+    public static Calldata mint(Calldata c, List<String> recipients, List<BigInteger> amounts) {
+        int n = recipients.size();
+        //offsets of both arrays, then length and elements of each
+        c.start(MINT).uint(2 * 32).uint(3 * 32 + n * 32L).uint(n);
+        for (String recipient : recipients) {
+            c.address(recipient);
+        }
+        c.uint(amounts.size());
+        for (BigInteger amount : amounts) {
+            c.uint(amount);
+        }
+        return c;
+    }
+
+    public static Calldata lockTokens(Calldata c, List<String> holders, List<BigInteger> timeouts) {
+        int n = holders.size();
+        c.start(LOCK_TOKENS).uint(2 * 32).uint(3 * 32 + n * 32L).uint(n);
+        for (String holder : holders) {
+            c.address(holder);
+        }
+        c.uint(timeouts.size());
+        for (BigInteger timeout : timeouts) {
+            c.uint(timeout);
+        }
+        return c;
+    }
+
+    public static Calldata reclaim(Calldata c, List<String> loyaltyOwners) {
+        c.start(RECLAIM).uint(32).uint(loyaltyOwners.size());
+        for (String owner : loyaltyOwners) {
+            c.address(owner);
+        }
+        return c;
+    }
+
+    public static Calldata loyalty(Calldata c, BigInteger amount) {
+        return c.start(LOYALTY).uint(amount);
+    }
+
+    public static Calldata finishMinting(Calldata c) {
+        return c.start(FINISH_MINTING);
+    }
+
+    public static Calldata totalSupply(Calldata c) {
+        return c.start(TOTAL_SUPPLY);
+    }
+
+    /**
+     * @return the first 4 bytes of the keccak hash of the signature, e.g. "someName(address,uint256)"
+     */
+    public static int selector(String signature) {
+        byte[] hash = Hash.sha3(signature.getBytes(StandardCharsets.UTF_8));
+        return ((hash[0] & 0xff) << 24) | ((hash[1] & 0xff) << 16) | ((hash[2] & 0xff) << 8) | (hash[3] & 0xff);
+    }
+
+    /**
+     * Same as selector, cached per signature for the method names of transferAndCall.
+     */
+    public static int methodName(String signature) {
+        Integer methodName = METHOD_NAMES.get(signature);
+        if (methodName == null) {
+            methodName = selector(signature);
+            METHOD_NAMES.putIfAbsent(signature, methodName);
+        }
+        return methodName;
+    }
+
+    //transactions, they return the transaction hash
+
+    public String transfer(String to, BigInteger value) throws IOException {
+        return send(transfer(calldata(), to, value));
+    }
+
+    public String transfer(String to, BigInteger value, int rewardType) throws IOException {
+        return send(transfer(calldata(), to, value, rewardType));
+    }
+
+    public String transferFrom(String from, String to, BigInteger value) throws IOException {
+        return send(transferFrom(calldata(), from, to, value));
+    }
+
+    public String transferFrom(String from, String to, BigInteger value, int rewardType) throws IOException {
+        return send(transferFrom(calldata(), from, to, value, rewardType));
+    }
+
+    public String approve(String spender, BigInteger value) throws IOException {
+        return send(approve(calldata(), spender, value));
+    }
+
+    /**
+     * @param methodSignature e.g. "someName(address,uint256)", hashed once
+     */
+    public String transferAndCall(String to, BigInteger value, String methodSignature, byte[] args) throws IOException {
+        return send(transferAndCall(calldata(), to, value, methodName(methodSignature), args));
+    }
+
+    public String transferPreSigned(byte[] signature, String to, BigInteger value, BigInteger fee, BigInteger nonce) throws IOException {
+        return send(transferPreSigned(calldata(), signature, to, value, fee, nonce));
+    }
+
+    public String mint(List<String> recipients, List<BigInteger> amounts) throws IOException {
+        return send(mint(calldata(), recipients, amounts));
+    }
+
+    public String loyalty(BigInteger amount) throws IOException {
+        return send(loyalty(calldata(), amount));
+    }
+
+    public String finishMinting() throws IOException {
+        return send(finishMinting(calldata()));
+    }
+
+    //views
+
+    public BigInteger balanceOf(String owner) throws IOException {
+        return word(call(balanceOf(calldata(), owner)), 0);
+    }
+
+    public BigInteger balanceOf(String owner, boolean amountType, long fromBlock) throws IOException {
+        return word(call(balanceOf(calldata(), owner, amountType, fromBlock)), 0);
+    }
+
+    /**
+     * @param indexHint the index into the history of owner, e.g. from BalanceIndexer.indexHint
+     */
+    public BigInteger balanceOfAt(String owner, boolean amountType, long fromBlock, long indexHint) throws IOException {
+        return word(call(balanceOfAt(calldata(), owner, amountType, fromBlock, indexHint)), 0);
+    }
+
+    /**
+     * @return balance and loyalty claim
+     */
+    public BigInteger[] balanceWithLoyaltyClaimOf(String owner) throws IOException {
+        String result = call(balanceWithLoyaltyClaimOf(calldata(), owner));
+        return new BigInteger[]{word(result, 0), word(result, 1)};
+    }
+
+    /**
+     * @return reward1, reward2 and counter
+     */
+    public BigInteger[] rewardOf(String owner, String from) throws IOException {
+        String result = call(rewardOf(calldata(), owner, from));
+        return new BigInteger[]{word(result, 0), word(result, 1), word(result, 2)};
+    }
+
+    /**
+     * Fails like a reverted call if the reward at fromBlock is not kept, see rewardOf(address,address,uint48)
+     * in Eureka.sol.
+     */
+    public BigInteger[] rewardOf(String owner, String from, long fromBlock) throws IOException {
+        String result = call(rewardOf(calldata(), owner, from, fromBlock));
+        return new BigInteger[]{word(result, 0), word(result, 1), word(result, 2)};
+    }
+
+    /**
+     * @param indexHint the index into the reward checkpoints of (owner, from)
+     */
+    public BigInteger[] rewardOfAt(String owner, String from, long fromBlock, long indexHint) throws IOException {
+        String result = call(rewardOfAt(calldata(), owner, from, fromBlock, indexHint));
+        return new BigInteger[]{word(result, 0), word(result, 1), word(result, 2)};
+    }
+
+    public BigInteger totalSupply() throws IOException {
+        return word(call(totalSupply(calldata())), 0);
+    }
+
+    /**
+     * Waits for the receipt of a transaction sent by this client.
+     */
+    public TransactionReceipt receipt(String txHash) throws IOException, InterruptedException {
+        while (true) {
+            Optional<TransactionReceipt> receipt = web3j.ethGetTransactionReceipt(txHash).send().getTransactionReceipt();
+            if (receipt.isPresent()) {
+                return receipt.get();
+            }
+            Thread.sleep(pollMillis);
+        }
+    }
+
+    private String send(Calldata c) throws IOException {
+        RawTransaction tx = RawTransaction.createTransaction(nonces.next(credentials.getAddress()), gasPrice, gasLimit,
+                token, c.hex());
+        String rawTx = Numeric.toHexString(TransactionEncoder.signMessage(tx, credentials));
+        EthSendTransaction response = web3j.ethSendRawTransaction(rawTx).send();
+        if (response.hasError()) {
+            nonces.resync(credentials.getAddress());
+            throw new IOException("send: " + response.getError().getMessage());
+        }
+        return response.getTransactionHash();
+    }
+
+    private String call(Calldata c) throws IOException {
+        EthCall response = web3j.ethCall(Transaction.createEthCallTransaction(credentials.getAddress(), token, c.hex()),
+                DefaultBlockParameterName.LATEST).send();
+        if (response.hasError()) {
+            throw new IOException("call: " + response.getError().getMessage());
+        }
+        return response.getValue();
+    }
+
+    private static BigInteger word(String result, int index) {
+        int start = (result.startsWith("0x") ? 2 : 0) + index * 64;
+        if (result.length() < start + 64) {
+            throw new IllegalStateException("reverted or too short: " + result);
+        }
+        return new BigInteger(result.substring(start, start + 64), 16);
+    }
+}
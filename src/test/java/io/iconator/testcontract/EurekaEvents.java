@@ -0,0 +1,382 @@
+package io.iconator.testcontract;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.iconator.testonator.Contract;
+import org.web3j.crypto.Hash;
+import org.web3j.protocol.core.methods.response.Log;
+import org.web3j.utils.Numeric;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * Typed decoders for the events of Eureka.sol. The decoders are built from the ABI of the compiled
+ * contract: topic0 and the position of every argument, in the topics or in the data, come from the
+ * ABI, so a changed event declaration fails when the decoders are built instead of producing wrong values.
+ *
+ * decode(...) looks up topic0 in a map, turns the hex of the topics and the data into bytes once and
+ * copies every argument into its record as fixed-width bytes: 20 for an address, the 32 byte word for
+ * a uint256. There are no web3j Type objects, no strings and no reflection; address(byte[]) and
+ * uint(byte[]) convert where a caller needs them. The overloaded Transfer and TransferPreSigned events
+ * have different topic0s and decode into different records.
+ */
+public final class EurekaEvents {
+
+    public static final String TRANSFER = topic("Transfer(address,address,uint256)");
+    public static final String TRANSFER_AND_CALL = topic("Transfer(address,address,uint256,bytes4,bytes)");
+    public static final String APPROVAL = topic("Approval(address,address,uint256)");
+    public static final String TRANSFER_PRESIGNED = topic("TransferPreSigned(address,address,address,uint256,uint256)");
+    public static final String TRANSFER_AND_CALL_PRESIGNED = topic("TransferPreSigned(address,address,address,uint256,uint256,bytes4,bytes)");
+    public static final String TOKENS_LOCKED = topic("TokensLocked(address,uint256)");
+    public static final String TOKENS_LOYALTY = topic("TokensLoyalty(uint256)");
+
+    public static abstract class EurekaEvent {
+        public final long block;
+        public final int logIndex;
+
+        EurekaEvent(Log log) {
+            this.block = log.getBlockNumberRaw() == null ? -1 : log.getBlockNumber().longValue();
+            this.logIndex = log.getLogIndexRaw() == null ? -1 : log.getLogIndex().intValue();
+        }
+    }
+
+    /**
+     * Transfer(address,address,uint256): mints have from 0x0, loyalty claims and reclaims have the token as from.
+     * Addresses are 20 bytes, value is the 32 byte word as logged.
+     */
+    public static final class Transfer extends EurekaEvent {
+        public final byte[] from;
+        public final byte[] to;
+        public final byte[] value;
+
+        Transfer(Log log, byte[] from, byte[] to, byte[] value) {
+            super(log);
+            this.from = from;
+            this.to = to;
+            this.value = value;
+        }
+    }
+
+    public static final class TransferAndCall extends EurekaEvent {
+        public final byte[] from;
+        public final byte[] to;
+        public final byte[] value;
+        public final int methodName;
+        public final byte[] args;
+
+        TransferAndCall(Log log, byte[] from, byte[] to, byte[] value, int methodName, byte[] args) {
+            super(log);
+            this.from = from;
+            this.to = to;
+            this.value = value;
+            this.methodName = methodName;
+            this.args = args;
+        }
+    }
+
+    public static final class Approval extends EurekaEvent {
+        public final byte[] owner;
+        public final byte[] spender;
+        public final byte[] value;
+
+        Approval(Log log, byte[] owner, byte[] spender, byte[] value) {
+            super(log);
+            this.owner = owner;
+            this.spender = spender;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Both TransferPreSigned events, call is true for the one of transferAndCallPreSigned.
+     */
+    public static final class TransferPreSigned extends EurekaEvent {
+        public final byte[] from;
+        public final byte[] to;
+        public final byte[] delegate;
+        public final byte[] amount;
+        public final byte[] fee;
+        public final boolean call;
+        public final int methodName;
+        public final byte[] args;
+
+        TransferPreSigned(Log log, byte[] from, byte[] to, byte[] delegate, byte[] amount, byte[] fee,
+                          boolean call, int methodName, byte[] args) {
+            super(log);
+            this.from = from;
+            this.to = to;
+            this.delegate = delegate;
+            this.amount = amount;
+            this.fee = fee;
+            this.call = call;
+            this.methodName = methodName;
+            this.args = args;
+        }
+    }
+
+    public static final class TokensLocked extends EurekaEvent {
+        public final byte[] holder;
+        //unix time, larger values are capped at Long.MAX_VALUE
+        public final long timeout;
+
+        TokensLocked(Log log, byte[] holder, long timeout) {
+            super(log);
+            this.holder = holder;
+            this.timeout = timeout;
+        }
+    }
+
+    public static final class TokensLoyalty extends EurekaEvent {
+        public final byte[] amount;
+
+        TokensLoyalty(Log log, byte[] amount) {
+            super(log);
+            this.amount = amount;
+        }
+    }
+
+    /**
+     * A log with its topics and data as bytes, decoded from hex once.
+     */
+    private static final class Raw {
+        final Log log;
+        final byte[][] topics;
+        final byte[] data;
+
+        Raw(Log log) {
+            this.log = log;
+            this.topics = new byte[log.getTopics().size()][];
+            for (int i = 1; i < topics.length; i++) {
+                topics[i] = Numeric.hexStringToByteArray(log.getTopics().get(i));
+            }
+            this.data = Numeric.hexStringToByteArray(log.getData() == null ? "0x" : log.getData());
+        }
+    }
+
+    private interface Decoder {
+        EurekaEvent decode(Raw raw);
+    }
+
+    private static final int WORD = 32;
+
+    private final Map<String, Decoder> decoders = new HashMap<>();
+    private final Map<String, String> signatures = new TreeMap<>();
+
+    private EurekaEvents() {
+    }
+
+    private static final class Standard {
+        static final EurekaEvents EVENTS = load();
+
+        private static EurekaEvents load() {
+            try {
+                return fromContract(TestUtils.setup().get("Eureka"));
+            } catch (Exception e) {
+                throw new IllegalStateException("could not build the decoders from the compiled Eureka.sol", e);
+            }
+        }
+    }
+
+    /**
+     * @return decoders built from the ABI of Eureka.sol as compiled by TestUtils.setup(), on first use
+     */
+    public static EurekaEvents standard() {
+        return Standard.EVENTS;
+    }
+
+    /**
+     * @return decoders built from the ABI of the compiled contract
+     * @throws IllegalArgumentException if the ABI has an event this class has no record for
+     */
+    public static EurekaEvents fromAbi(String abi) throws IOException {
+        EurekaEvents events = new EurekaEvents();
+        for (JsonNode entry : new ObjectMapper().readTree(abi)) {
+            if (!"event".equals(entry.path("type").asText())) {
+                continue;
+            }
+            List<String> types = new ArrayList<>();
+            List<Boolean> indexed = new ArrayList<>();
+            for (JsonNode input : entry.path("inputs")) {
+                types.add(input.path("type").asText());
+                indexed.add(input.path("indexed").asBoolean());
+            }
+            events.add(entry.path("name").asText(), types, indexed);
+        }
+        return events;
+    }
+
+    public static EurekaEvents fromContract(Contract contract) throws IOException {
+        return fromAbi(contract.md().abi);
+    }
+
+    /**
+     * @return the canonical signature of every event by topic0
+     */
+    public Map<String, String> signatures() {
+        return Collections.unmodifiableMap(signatures);
+    }
+
+    /**
+     * @return the event, or null if the log is not an event of Eureka
+     */
+    public EurekaEvent decode(Log log) {
+        if (log.getTopics() == null || log.getTopics().isEmpty()) {
+            return null;
+        }
+        Decoder decoder = decoders.get(log.getTopics().get(0));
+        return decoder == null ? null : decoder.decode(new Raw(log));
+    }
+
+    public List<EurekaEvent> decode(List<Log> logs) {
+        List<EurekaEvent> events = new ArrayList<>(logs.size());
+        for (Log log : logs) {
+            EurekaEvent event = decode(log);
+            if (event != null) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    private void add(String name, List<String> types, List<Boolean> indexed) {
+        String signature = name + "(" + String.join(",", types) + ")";
+        //where every argument is: topic 1..3, or -1 - data word
+        final int[] s = new int[types.size()];
+        int topic = 1;
+        int word = 0;
+        for (int i = 0; i < types.size(); i++) {
+            s[i] = indexed.get(i) ? topic++ : -1 - word++;
+        }
+        Decoder decoder;
+        switch (signature) {
+            case "Transfer(address,address,uint256)":
+                decoder = r -> new Transfer(r.log, address(r, s[0]), address(r, s[1]), word(r, s[2]));
+                break;
+            case "Transfer(address,address,uint256,bytes4,bytes)":
+                decoder = r -> new TransferAndCall(r.log, address(r, s[0]), address(r, s[1]), word(r, s[2]),
+                        bytes4(r, s[3]), bytes(r, s[4]));
+                break;
+            case "Approval(address,address,uint256)":
+                decoder = r -> new Approval(r.log, address(r, s[0]), address(r, s[1]), word(r, s[2]));
+                break;
+            case "TransferPreSigned(address,address,address,uint256,uint256)":
+                decoder = r -> new TransferPreSigned(r.log, address(r, s[0]), address(r, s[1]), address(r, s[2]),
+                        word(r, s[3]), word(r, s[4]), false, 0, null);
+                break;
+            case "TransferPreSigned(address,address,address,uint256,uint256,bytes4,bytes)":
+                decoder = r -> new TransferPreSigned(r.log, address(r, s[0]), address(r, s[1]), address(r, s[2]),
+                        word(r, s[3]), word(r, s[4]), true, bytes4(r, s[5]), bytes(r, s[6]));
+                break;
+            case "TokensLocked(address,uint256)":
+                decoder = r -> new TokensLocked(r.log, address(r, s[0]), cappedLong(r, s[1]));
+                break;
+            case "TokensLoyalty(uint256)":
+                decoder = r -> new TokensLoyalty(r.log, word(r, s[0]));
+                break;
+            default:
+                throw new IllegalArgumentException("no record for event " + signature);
+        }
+        String topic0 = topic(signature);
+        decoders.put(topic0, decoder);
+        signatures.put(topic0, signature + layout(s));
+    }
+
+    private static String layout(int[] s) {
+        StringBuilder sb = new StringBuilder();
+        for (int i : s) {
+            sb.append(i > 0 ? " t" + i : " d" + (-1 - i));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return "0x" and the 40 lower case hex digits of a 20 byte address
+     */
+    public static String address(byte[] address) {
+        return Numeric.toHexString(address);
+    }
+
+    /**
+     * @return the unsigned value of a 32 byte word
+     */
+    public static BigInteger uint(byte[] word) {
+        return new BigInteger(1, word);
+    }
+
+    /**
+     * @return the 32 bytes of a topic or a data word
+     */
+    static byte[] word(Raw r, int source) {
+        if (source > 0) {
+            return r.topics[source];
+        }
+        int start = (-1 - source) * WORD;
+        return Arrays.copyOfRange(r.data, start, start + WORD);
+    }
+
+    static byte[] address(Raw r, int source) {
+        //right aligned in its word
+        if (source > 0) {
+            return Arrays.copyOfRange(r.topics[source], WORD - 20, WORD);
+        }
+        int start = (-1 - source) * WORD;
+        return Arrays.copyOfRange(r.data, start + WORD - 20, start + WORD);
+    }
+
+    static long cappedLong(Raw r, int source) {
+        byte[] word = word(r, source);
+        for (int i = 0; i < WORD - 8; i++) {
+            if (word[i] != 0) {
+                return Long.MAX_VALUE;
+            }
+        }
+        long value = readLong(word, WORD - 8);
+        return value < 0 ? Long.MAX_VALUE : value;
+    }
+
+    static int bytes4(Raw r, int source) {
+        //left aligned in its word
+        byte[] word = word(r, source);
+        return (word[0] & 0xff) << 24 | (word[1] & 0xff) << 16 | (word[2] & 0xff) << 8 | (word[3] & 0xff);
+    }
+
+    static byte[] bytes(Raw r, int source) {
+        if (source > 0) {
+            //indexed dynamic values are only the hash
+            return r.topics[source];
+        }
+        int offset = readInt(r.data, (-1 - source) * WORD);
+        int length = readInt(r.data, offset);
+        return Arrays.copyOfRange(r.data, offset + WORD, offset + WORD + length);
+    }
+
+    /**
+     * @return the word at start as an int, offsets and lengths of the ABI encoding
+     */
+    private static int readInt(byte[] data, int start) {
+        long value = readLong(data, start + WORD - 8);
+        for (int i = start; i < start + WORD - 8; i++) {
+            if (data[i] != 0) {
+                throw new IllegalArgumentException("offset or length out of range at " + start);
+            }
+        }
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("offset or length out of range at " + start);
+        }
+        return (int) value;
+    }
+
+    private static long readLong(byte[] data, int start) {
+        long value = 0;
+        for (int i = start; i < start + 8; i++) {
+            value = value << 8 | (data[i] & 0xff);
+        }
+        return value;
+    }
+
+    private static String topic(String signature) {
+        return Hash.sha3String(signature);
+    }
+}
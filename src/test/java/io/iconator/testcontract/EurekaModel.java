@@ -0,0 +1,618 @@
+package io.iconator.testcontract;
+
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * In-memory model of Eureka.sol: snapshots per holder, the loyalty accumulator, reward types 1/2/3 with
+ * their checkpoints, lockups, allowances, presigned nonces and maxSupply, with the same require checks
+ * and the same order of reads and writes as the contract, so that its rounding and max88 edges match.
+ *
+ * Every operation runs against the current block and timestamp, set with at(...). An operation that
+ * the contract would revert returns false and, like the EVM, leaves no trace: all writes go through an
+ * undo log that is rolled back on a failed require. Signatures are not modeled, presigned transfers
+ * take the signer directly. The call of transferAndCall is not modeled either.
+ *
+ * Addresses are compared in lower case, null is address(0).
+ */
+public class EurekaModel {
+
+    public static final BigInteger MAX88 = BigInteger.ONE.shiftLeft(88);
+    public static final BigInteger MAX256 = BigInteger.ONE.shiftLeft(256);
+    public static final BigInteger MAX_SUPPLY = MintPipeline.MAX_SUPPLY;
+    public static final long ONE_YEAR_IN_BLOCKS = 4 * 60 * 24 * 365;
+    public static final int MAX_RECIPIENTS = 256;
+
+    private static final BigInteger HUNDRED = BigInteger.valueOf(100);
+
+    /** One entry of balances[addr].amounts */
+    public static final class Snapshot {
+        public final long fromBlock;
+        public final BigInteger amount;
+        public final BigInteger claimedLoyalty;
+
+        Snapshot(long fromBlock, BigInteger amount, BigInteger claimedLoyalty) {
+            this.fromBlock = fromBlock;
+            this.amount = amount;
+            this.claimedLoyalty = claimedLoyalty;
+        }
+    }
+
+    /** The reward of one (owner, sender) pair */
+    public static final class Reward {
+        static final Reward ZERO = new Reward(BigInteger.ZERO, BigInteger.ZERO, 0, 0);
+
+        public final BigInteger reward1;
+        public final BigInteger reward2;
+        public final long counter;
+        public final long fromBlock;
+
+        Reward(BigInteger reward1, BigInteger reward2, long counter, long fromBlock) {
+            this.reward1 = reward1;
+            this.reward2 = reward2;
+            this.counter = counter;
+            this.fromBlock = fromBlock;
+        }
+
+        public BigInteger[] values() {
+            return new BigInteger[]{reward1, reward2, BigInteger.valueOf(counter)};
+        }
+    }
+
+    private static final class Holder {
+        final List<Snapshot> amounts = new ArrayList<>();
+        final Map<String, Reward> rewards = new HashMap<>();
+        final Map<String, List<Reward>> rewardCheckpoints = new HashMap<>();
+        final Map<String, BigInteger> allowed = new HashMap<>();
+        final Set<BigInteger> nonces = new HashSet<>();
+        BigInteger lockup = BigInteger.ZERO;
+    }
+
+    //thrown by require, caught by the operation that rolls back
+    private static final class Revert extends RuntimeException {
+        Revert() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final Revert REVERT = new Revert();
+
+    private final Map<String, Holder> holders = new HashMap<>();
+    private final ArrayDeque<Runnable> undo = new ArrayDeque<>();
+
+    private String owner;
+    private boolean mintingDone;
+    private long rewardCheckpointBlocks = 5760;
+    private BigInteger loyalty = BigInteger.ZERO;
+    private BigInteger loyaltyPerToken = BigInteger.ZERO;
+    private BigInteger totalSupply = BigInteger.ZERO;
+    private long block;
+    private long timestamp;
+    private long operations;
+    private long reverts;
+
+    public EurekaModel(String owner) {
+        this.owner = key(owner);
+    }
+
+    /**
+     * Sets the block number and timestamp of the next operations.
+     */
+    public EurekaModel at(long block, long timestamp) {
+        this.block = block;
+        this.timestamp = timestamp;
+        return this;
+    }
+
+    public long block() {
+        return block;
+    }
+
+    //transactions, false if the contract reverts
+
+    public boolean transferOwnership(String sender, String newOwner) {
+        return run(() -> {
+            require(owner.equals(key(sender)));
+            String old = owner;
+            owner = key(newOwner);
+            undo.push(() -> owner = old);
+        });
+    }
+
+    public boolean mint(String sender, List<String> recipients, List<BigInteger> amounts) {
+        return run(() -> {
+            require(owner.equals(key(sender)));
+            require(!mintingDone);
+            require(recipients.size() == amounts.size());
+            require(recipients.size() <= MAX_RECIPIENTS);
+            BigInteger total = BigInteger.ZERO;
+            for (int i = 0; i < recipients.size(); i++) {
+                mintOne(recipients.get(i), amounts.get(i));
+                total = add(total, amounts.get(i));
+            }
+            setTotalSupply(add(totalSupply, total));
+            require(totalSupply.compareTo(MAX_SUPPLY) <= 0);
+        });
+    }
+
+    public boolean lockTokens(String sender, List<String> lockHolders, List<BigInteger> timeouts) {
+        return run(() -> {
+            require(owner.equals(key(sender)));
+            require(!mintingDone);
+            require(lockHolders.size() == timeouts.size());
+            require(lockHolders.size() <= MAX_RECIPIENTS);
+            //the loop counter is a uint8, with 256 holders the loop never ends and runs out of gas
+            require(lockHolders.size() < MAX_RECIPIENTS);
+            for (int i = 0; i < lockHolders.size(); i++) {
+                Holder h = holder(lockHolders.get(i));
+                require(h.lockup.signum() == 0);
+                BigInteger old = h.lockup;
+                h.lockup = timeouts.get(i);
+                undo.push(() -> h.lockup = old);
+            }
+        });
+    }
+
+    public boolean finishMinting(String sender) {
+        return run(() -> {
+            require(owner.equals(key(sender)));
+            require(!mintingDone);
+            mintingDone = true;
+            undo.push(() -> mintingDone = false);
+        });
+    }
+
+    public boolean setRewardCheckpointBlocks(String sender, long blocks) {
+        return run(() -> {
+            require(owner.equals(key(sender)));
+            require(!mintingDone);
+            long old = rewardCheckpointBlocks;
+            rewardCheckpointBlocks = blocks;
+            undo.push(() -> rewardCheckpointBlocks = old);
+        });
+    }
+
+    /**
+     * @param rewardType 0 for a plain transfer
+     */
+    public boolean transfer(String sender, String to, BigInteger value, int rewardType) {
+        return run(() -> doTransfer(sender, sender, to, value, BigInteger.ZERO, null, rewardType));
+    }
+
+    public boolean transferFrom(String sender, String from, String to, BigInteger value, int rewardType) {
+        return run(() -> {
+            Holder h = holder(from);
+            BigInteger allowed = allowance(from, sender);
+            require(value.compareTo(allowed) <= 0);
+            doTransfer(sender, from, to, value, BigInteger.ZERO, null, rewardType);
+            //read again, from may have approved itself
+            setAllowed(h, sender, sub(allowance(from, sender), value));
+        });
+    }
+
+    public boolean approve(String sender, String spender, BigInteger value) {
+        return run(() -> {
+            require(mintingDone);
+            setAllowed(holder(sender), spender, value);
+        });
+    }
+
+    public boolean increaseApproval(String sender, String spender, BigInteger added) {
+        return run(() -> {
+            require(mintingDone);
+            setAllowed(holder(sender), spender, add(allowance(sender, spender), added));
+        });
+    }
+
+    public boolean decreaseApproval(String sender, String spender, BigInteger subtracted) {
+        return run(() -> {
+            require(mintingDone);
+            BigInteger old = allowance(sender, spender);
+            setAllowed(holder(sender), spender, subtracted.compareTo(old) > 0 ? BigInteger.ZERO : old.subtract(subtracted));
+        });
+    }
+
+    /**
+     * transferAndCall without the call of the receiver.
+     */
+    public boolean transferAndCall(String sender, String to, BigInteger value, int rewardType) {
+        return run(() -> {
+            require(mintingDone);
+            doTransfer(sender, sender, to, value, BigInteger.ZERO, null, rewardType);
+        });
+    }
+
+    /**
+     * transferPreSigned, sent by relayer and signed by signer.
+     */
+    public boolean transferPreSigned(String relayer, String signer, String to, BigInteger value, BigInteger fee,
+                                     BigInteger nonce, int rewardType) {
+        return run(() -> {
+            useNonce(signer, nonce);
+            doTransfer(relayer, signer, to, value, fee, relayer, rewardType);
+        });
+    }
+
+    public boolean loyalty(String sender, BigInteger amount) {
+        return run(() -> {
+            BigInteger[] claim = balanceWithLoyaltyClaimOf(sender);
+            BigInteger balance = add(claim[0], claim[1]);
+            require(amount.compareTo(balance) <= 0);
+            from(balance, amount, sender);
+            addLoyalty(amount);
+        });
+    }
+
+    //views
+
+    public String owner() {
+        return owner;
+    }
+
+    public boolean mintingDone() {
+        return mintingDone;
+    }
+
+    public BigInteger loyalty() {
+        return loyalty;
+    }
+
+    public BigInteger loyaltyPerToken() {
+        return loyaltyPerToken;
+    }
+
+    public BigInteger totalSupply() {
+        return totalSupply;
+    }
+
+    public BigInteger lockup(String holder) {
+        Holder h = holders.get(key(holder));
+        return h == null ? BigInteger.ZERO : h.lockup;
+    }
+
+    public BigInteger balanceOf(String owner) {
+        return balanceOf(owner, true);
+    }
+
+    public BigInteger balanceOf(String owner, boolean amountType) {
+        List<Snapshot> amounts = amounts(owner);
+        if (amounts.isEmpty()) {
+            return BigInteger.ZERO;
+        }
+        Snapshot last = amounts.get(amounts.size() - 1);
+        return amountType ? last.amount : last.claimedLoyalty;
+    }
+
+    /**
+     * The binary search of balanceOf(address,bool,uint64): before the first snapshot the first one is returned.
+     */
+    public BigInteger balanceOf(String owner, boolean amountType, long fromBlock) {
+        List<Snapshot> amounts = amounts(owner);
+        if (amounts.isEmpty()) {
+            return BigInteger.ZERO;
+        }
+        int min = 0;
+        int max = amounts.size() - 1;
+        while (max > min) {
+            int mid = (max + min + 1) >>> 1;
+            if (amounts.get(mid).fromBlock <= fromBlock) {
+                min = mid;
+            } else {
+                max = mid - 1;
+            }
+        }
+        Snapshot s = amounts.get(min);
+        return amountType ? s.amount : s.claimedLoyalty;
+    }
+
+    public BigInteger[] balanceWithLoyaltyClaimOf(String owner) {
+        List<Snapshot> amounts = amounts(owner);
+        if (amounts.isEmpty()) {
+            return new BigInteger[]{BigInteger.ZERO, BigInteger.ZERO};
+        }
+        Snapshot last = amounts.get(amounts.size() - 1);
+        return new BigInteger[]{last.amount, LoyaltyModel.claim(last.amount, loyaltyPerToken, last.claimedLoyalty)};
+    }
+
+    public List<Snapshot> amounts(String owner) {
+        Holder h = holders.get(key(owner));
+        return h == null ? Collections.<Snapshot>emptyList() : Collections.unmodifiableList(h.amounts);
+    }
+
+    /**
+     * @return reward1, reward2 and counter
+     */
+    public BigInteger[] rewardOf(String owner, String from) {
+        return reward(owner, from).values();
+    }
+
+    /**
+     * @return the reward at fromBlock, or null where the contract reverts because the value of that block
+     * was overwritten within its checkpoint period
+     */
+    public BigInteger[] rewardOf(String owner, String from, long fromBlock) {
+        Reward r = reward(owner, from);
+        if (r.fromBlock <= fromBlock) {
+            return r.values();
+        }
+        List<Reward> checkpoints = rewardCheckpoints(owner, from);
+        if (checkpoints.isEmpty() || checkpoints.get(0).fromBlock > fromBlock) {
+            return isKnown(fromBlock, checkpoints.isEmpty() ? r.fromBlock : checkpoints.get(0).fromBlock)
+                    ? Reward.ZERO.values() : null;
+        }
+        int min = 0;
+        int max = checkpoints.size() - 1;
+        while (max > min) {
+            int mid = (max + min + 1) >>> 1;
+            if (checkpoints.get(mid).fromBlock <= fromBlock) {
+                min = mid;
+            } else {
+                max = mid - 1;
+            }
+        }
+        long nextUpdate = min + 1 < checkpoints.size() ? checkpoints.get(min + 1).fromBlock : r.fromBlock;
+        return isKnown(fromBlock, nextUpdate) ? checkpoints.get(min).values() : null;
+    }
+
+    private boolean isKnown(long fromBlock, long nextUpdate) {
+        return rewardCheckpointBlocks > 0 && fromBlock < nextUpdate / rewardCheckpointBlocks * rewardCheckpointBlocks;
+    }
+
+    public List<Reward> rewardCheckpoints(String owner, String from) {
+        Holder h = holders.get(key(owner));
+        List<Reward> checkpoints = h == null ? null : h.rewardCheckpoints.get(key(from));
+        return checkpoints == null ? Collections.<Reward>emptyList() : Collections.unmodifiableList(checkpoints);
+    }
+
+    public BigInteger allowance(String owner, String spender) {
+        Holder h = holders.get(key(owner));
+        BigInteger allowed = h == null ? null : h.allowed.get(key(spender));
+        return allowed == null ? BigInteger.ZERO : allowed;
+    }
+
+    public boolean nonceUsed(String signer, BigInteger nonce) {
+        Holder h = holders.get(key(signer));
+        return h != null && h.nonces.contains(nonce);
+    }
+
+    public Set<String> holders() {
+        return Collections.unmodifiableSet(holders.keySet());
+    }
+
+    /**
+     * @return operations run so far, including the reverted ones
+     */
+    public long operations() {
+        return operations;
+    }
+
+    public long reverts() {
+        return reverts;
+    }
+
+    //the contract
+
+    private void doTransfer(String sender, String from, String to, BigInteger value, BigInteger fee, String feeAddress, int rewardType) {
+        require(to != null);
+        require(mintingDone);
+
+        BigInteger[] fromClaim = balanceWithLoyaltyClaimOf(from);
+
+        BigInteger totalValue = add(value, fee);
+        require(totalValue.compareTo(fromClaim[0]) <= 0);
+
+        BigInteger lockup = lockup(from);
+        if (lockup.signum() != 0) {
+            require(BigInteger.valueOf(timestamp).compareTo(lockup) >= 0);
+        }
+
+        from(add(fromClaim[0], fromClaim[1]), totalValue, from);
+        fee(fee, feeAddress);
+
+        //read after from and fee, to may be from or feeAddress
+        BigInteger[] toClaim = balanceWithLoyaltyClaimOf(to);
+
+        BigInteger loyaltyCut = BigInteger.ZERO;
+        totalValue = value;
+        if (rewardType > 0) {
+            loyaltyCut = totalValue.divide(HUNDRED);
+            totalValue = totalValue.subtract(loyaltyCut);
+        }
+
+        to(add(toClaim[0], toClaim[1]), totalValue, value, rewardType, sender, to);
+
+        if (rewardType > 0) {
+            addLoyalty(loyaltyCut);
+        }
+    }
+
+    private void from(BigInteger fromBalance, BigInteger totalValue, String from) {
+        writeSnapshot(from, sub(fromBalance, totalValue));
+    }
+
+    private void fee(BigInteger fee, String feeAddress) {
+        if (fee.signum() > 0 && feeAddress != null) {
+            //the fee claimer cannot claim loyalty
+            writeSnapshot(feeAddress, add(balanceOf(feeAddress), fee));
+        }
+    }
+
+    private void to(BigInteger toBalance, BigInteger totalValue, BigInteger reward, int rewardType, String sender, String to) {
+        writeSnapshot(to, add(toBalance, totalValue));
+        if (rewardType <= 0) {
+            return;
+        }
+        Holder h = holder(to);
+        String from = key(sender);
+        Reward r = reward(to, sender);
+        if (r.fromBlock != 0 && rewardCheckpointBlocks > 0
+                && r.fromBlock / rewardCheckpointBlocks != block / rewardCheckpointBlocks) {
+            List<Reward> checkpoints = h.rewardCheckpoints.get(from);
+            if (checkpoints == null) {
+                List<Reward> fresh = new ArrayList<>();
+                h.rewardCheckpoints.put(from, fresh);
+                undo.push(() -> h.rewardCheckpoints.remove(from));
+                checkpoints = fresh;
+            }
+            List<Reward> list = checkpoints;
+            list.add(r);
+            undo.push(() -> list.remove(list.size() - 1));
+        }
+
+        BigInteger reward1 = r.reward1;
+        BigInteger reward2 = r.reward2;
+        long counter = r.counter;
+        if (rewardType == 1) {
+            reward1 = add(reward, reward1);
+            require(reward1.compareTo(MAX88) < 0);
+        } else if (rewardType == 2) {
+            reward2 = add(reward, reward2);
+            require(reward2.compareTo(MAX88) < 0);
+        } else if (counter + 1 <= 0xffffffffL) {
+            //it will always stay at max, don't overflow
+            counter++;
+        }
+        Reward updated = new Reward(reward1, reward2, counter, block);
+        Reward old = h.rewards.put(from, updated);
+        undo.push(() -> {
+            if (old == null) {
+                h.rewards.remove(from);
+            } else {
+                h.rewards.put(from, old);
+            }
+        });
+    }
+
+    private void writeSnapshot(String addr, BigInteger amount) {
+        require(amount.compareTo(MAX88) < 0);
+        Snapshot tmp = new Snapshot(block, amount, loyaltyPerToken);
+        List<Snapshot> amounts = holder(addr).amounts;
+        int len = amounts.size();
+        if (len > 0 && amounts.get(len - 1).fromBlock == block) {
+            Snapshot old = amounts.set(len - 1, tmp);
+            undo.push(() -> amounts.set(len - 1, old));
+        } else {
+            amounts.add(tmp);
+            undo.push(() -> amounts.remove(len));
+        }
+    }
+
+    private void mintOne(String recipient, BigInteger amount) {
+        List<Snapshot> amounts = holder(recipient).amounts;
+        if (amounts.isEmpty()) {
+            amounts.add(new Snapshot(block, BigInteger.ZERO, BigInteger.ZERO));
+            undo.push(() -> amounts.remove(0));
+        }
+        int last = amounts.size() - 1;
+        Snapshot current = amounts.get(last);
+        BigInteger tmpAmount = add(current.amount, amount);
+        require(tmpAmount.compareTo(MAX88) < 0);
+        //updated in place, fromBlock and claimedLoyalty stay
+        amounts.set(last, new Snapshot(current.fromBlock, tmpAmount, current.claimedLoyalty));
+        undo.push(() -> amounts.set(last, current));
+    }
+
+    private void addLoyalty(BigInteger amount) {
+        setLoyalty(add(loyalty, amount), add(loyaltyPerToken, div(mul(amount, LoyaltyModel.SCALE), totalSupply)));
+        require(loyaltyPerToken.compareTo(MAX88) < 0);
+    }
+
+    private void useNonce(String signer, BigInteger nonce) {
+        require(signer != null);
+        Set<BigInteger> nonces = holder(signer).nonces;
+        require(nonces.add(nonce));
+        undo.push(() -> nonces.remove(nonce));
+    }
+
+    private void setAllowed(Holder h, String spender, BigInteger value) {
+        String s = key(spender);
+        BigInteger old = h.allowed.put(s, value);
+        undo.push(() -> {
+            if (old == null) {
+                h.allowed.remove(s);
+            } else {
+                h.allowed.put(s, old);
+            }
+        });
+    }
+
+    private void setTotalSupply(BigInteger value) {
+        BigInteger old = totalSupply;
+        totalSupply = value;
+        undo.push(() -> totalSupply = old);
+    }
+
+    private void setLoyalty(BigInteger newLoyalty, BigInteger newPerToken) {
+        BigInteger oldLoyalty = loyalty;
+        BigInteger oldPerToken = loyaltyPerToken;
+        loyalty = newLoyalty;
+        loyaltyPerToken = newPerToken;
+        undo.push(() -> {
+            loyalty = oldLoyalty;
+            loyaltyPerToken = oldPerToken;
+        });
+    }
+
+    private Reward reward(String owner, String from) {
+        Holder h = holders.get(key(owner));
+        Reward r = h == null ? null : h.rewards.get(key(from));
+        return r == null ? Reward.ZERO : r;
+    }
+
+    private Holder holder(String addr) {
+        //an empty holder is not state, it does not need an undo entry
+        return holders.computeIfAbsent(key(addr), k -> new Holder());
+    }
+
+    private boolean run(Runnable operation) {
+        operations++;
+        undo.clear();
+        try {
+            operation.run();
+            return true;
+        } catch (Revert e) {
+            while (!undo.isEmpty()) {
+                undo.pop().run();
+            }
+            reverts++;
+            return false;
+        } finally {
+            undo.clear();
+        }
+    }
+
+    private static void require(boolean condition) {
+        if (!condition) {
+            throw REVERT;
+        }
+    }
+
+    //SafeMath on uint256
+
+    private static BigInteger add(BigInteger a, BigInteger b) {
+        BigInteger c = a.add(b);
+        require(c.compareTo(MAX256) < 0);
+        return c;
+    }
+
+    private static BigInteger sub(BigInteger a, BigInteger b) {
+        require(b.compareTo(a) <= 0);
+        return a.subtract(b);
+    }
+
+    private static BigInteger mul(BigInteger a, BigInteger b) {
+        BigInteger c = a.multiply(b);
+        require(c.compareTo(MAX256) < 0);
+        return c;
+    }
+
+    private static BigInteger div(BigInteger a, BigInteger b) {
+        //solidity throws on a division by zero
+        require(b.signum() != 0);
+        return a.divide(b);
+    }
+
+    private static String key(String address) {
+        return address == null ? null : address.toLowerCase();
+    }
+}
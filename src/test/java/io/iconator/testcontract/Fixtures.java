@@ -0,0 +1,162 @@
+package io.iconator.testcontract;
+
+import io.iconator.testonator.*;
+import org.web3j.protocol.Web3jService;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+
+import static io.iconator.testonator.TestBlockchain.*;
+
+/**
+ * Named contract states that are deployed and minted once per chain. All fixtures live side by side
+ * on the same chain, a single evm_snapshot is taken after they are built and every restore reverts to
+ * it. If the chain does not support evm_snapshot / evm_revert, restore falls back to reset and a
+ * redeploy of the requested fixture. The first fallback is reported on stderr and every one is
+ * counted, see {@link #fallbacks()}.
+ */
+public class Fixtures {
+
+    /** Deployed, nothing minted */
+    public static final String DEPLOYED = "deployed";
+    /** 10000, 1000 and 10 tokens minted to CREDENTIAL_0, CREDENTIAL_1 and CREDENTIAL_2, minting not finished */
+    public static final String MINTED = "minted";
+    /** 10000, 1000 and 10 tokens minted to CREDENTIAL_0, CREDENTIAL_1 and CREDENTIAL_2, minting finished */
+    public static final String MINTED_FINISHED = "minted+finished";
+    /** 10000 tokens minted to CREDENTIAL_0 only, minting finished */
+    public static final String OWNER_MINTED_FINISHED = "owner-minted+finished";
+    /** 2222 tokens minted to CREDENTIAL_5 and locked until 2222, minting finished */
+    public static final String LOCKED = "locked";
+
+    private static final List<String> NAMES = Arrays.asList(DEPLOYED, MINTED, MINTED_FINISHED, OWNER_MINTED_FINISHED, LOCKED);
+
+    private final TestBlockchain blockchain;
+    private final Web3jService rpc;
+    private final Contract contract;
+
+    private final Map<String, DeployedContract> deployed = new HashMap<>();
+    private String snapshotId = null;
+    private boolean snapshotSupported = true;
+    private boolean dirty = true;
+    private int fallbacks = 0;
+
+    public Fixtures(TestBlockchain blockchain, Web3jService rpc, Contract contract) {
+        this.blockchain = blockchain;
+        this.rpc = rpc;
+        this.contract = contract;
+    }
+
+    /**
+     * Brings the chain back to the state right after all fixtures were built.
+     * @return the contract in the requested state
+     */
+    public DeployedContract restore(String name) throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
+        if (!NAMES.contains(name)) {
+            throw new IllegalArgumentException("unknown fixture: " + name);
+        }
+        if (!snapshotSupported) {
+            fallback("evm_snapshot is not supported");
+            blockchain.reset();
+            return build(name);
+        }
+        boolean reverted = !dirty && revert();
+        if (!dirty && !reverted) {
+            fallback("evm_revert to " + snapshotId + " failed");
+        }
+        if (!reverted) {
+            blockchain.reset();
+            deployed.clear();
+            for (String n : NAMES) {
+                deployed.put(n, build(n));
+            }
+            dirty = false;
+        }
+        snapshotId = snapshot();
+        if (snapshotId == null) {
+            //first restore told us there is no snapshot support, the state is fresh anyway
+            snapshotSupported = false;
+            fallback("evm_snapshot is not supported");
+        }
+        return deployed.get(name);
+    }
+
+    /**
+     * Call this if a test changed something a revert does not undo, e.g. the block time.
+     * The next restore will reset the chain and build all fixtures again.
+     */
+    public void invalidate() {
+        dirty = true;
+    }
+
+    /**
+     * @return how many restores had to reset and redeploy instead of reverting to the snapshot
+     */
+    public int fallbacks() {
+        return fallbacks;
+    }
+
+    private void fallback(String reason) {
+        if (fallbacks++ == 0) {
+            System.err.println("fixtures: " + reason + ", restore falls back to reset and redeploy");
+        }
+    }
+
+    private DeployedContract build(String name) throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
+        DeployedContract dc = blockchain.deploy(CREDENTIAL_0, contract);
+        switch (name) {
+            case MINTED:
+                TestUtils.mint(blockchain, dc, CREDENTIAL_0.getAddress(), CREDENTIAL_1.getAddress(), CREDENTIAL_2.getAddress(), 10000, 1000, 10, false);
+                break;
+            case MINTED_FINISHED:
+                TestUtils.mint(blockchain, dc, CREDENTIAL_0.getAddress(), CREDENTIAL_1.getAddress(), CREDENTIAL_2.getAddress(), 10000, 1000, 10);
+                break;
+            case OWNER_MINTED_FINISHED:
+                TestUtils.mint(blockchain, dc, CREDENTIAL_0.getAddress(), CREDENTIAL_1.getAddress(), CREDENTIAL_2.getAddress(), 10000, 0, 0);
+                break;
+            case LOCKED:
+                List<String> addresses = Collections.singletonList(CREDENTIAL_5.getAddress());
+                List<BigInteger> values = Collections.singletonList(BigInteger.valueOf(2222));
+                blockchain.call(dc, new FunctionBuilder("mint").addInput("address[]", addresses)
+                        .addInput("uint192[]", values));
+                blockchain.call(dc, new FunctionBuilder("lockTokens").addInput("address[]", addresses)
+                        .addInput("uint256[]", values));
+                blockchain.call(dc, new FunctionBuilder("finishMinting"));
+                break;
+            default:
+                break;
+        }
+        return dc;
+    }
+
+    private String snapshot() {
+        try {
+            EvmSnapshot response = new Request<>("evm_snapshot", Collections.<String>emptyList(), rpc, EvmSnapshot.class).send();
+            return response.hasError() ? null : response.getResult();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private boolean revert() {
+        if (snapshotId == null) {
+            return false;
+        }
+        try {
+            EvmRevert response = new Request<>("evm_revert", Collections.singletonList(snapshotId), rpc, EvmRevert.class).send();
+            return !response.hasError() && Boolean.TRUE.equals(response.getResult());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public static class EvmSnapshot extends Response<String> {
+    }
+
+    public static class EvmRevert extends Response<Boolean> {
+    }
+}
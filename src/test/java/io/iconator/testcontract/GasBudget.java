@@ -0,0 +1,114 @@
+package io.iconator.testcontract;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Compares measured gasUsed per operation against a checked-in baseline. An operation fails its budget
+ * if it uses more than baseline * (1 + tolerance / 100). Operations without a baseline fail as well,
+ * so that a new operation cannot pass unnoticed; see hasBaseline for a file without any entry. With
+ * -Deureka.gas.update=true the measured values are written back to the baseline file instead.
+ */
+public class GasBudget {
+
+    public static final String BASELINE_PROPERTY = "eureka.gas.baseline";
+    public static final String TOLERANCE_PROPERTY = "eureka.gas.tolerance";
+    public static final String UPDATE_PROPERTY = "eureka.gas.update";
+    private static final String DEFAULT_BASELINE = "src/test/resources/gas-baseline.properties";
+    private static final double DEFAULT_TOLERANCE = 2.0;
+
+    private final Path baselineFile;
+    private final double tolerancePercent;
+    private final boolean update;
+    private final Map<String, Long> baseline = new TreeMap<>();
+    private final Map<String, Long> measured = new TreeMap<>();
+
+    public GasBudget(Path baselineFile, double tolerancePercent, boolean update) throws IOException {
+        this.baselineFile = baselineFile;
+        this.tolerancePercent = tolerancePercent;
+        this.update = update;
+        if (Files.exists(baselineFile)) {
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(baselineFile, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+            for (String name : properties.stringPropertyNames()) {
+                baseline.put(name, Long.parseLong(properties.getProperty(name).trim()));
+            }
+        }
+    }
+
+    public static GasBudget fromSystemProperties() throws IOException {
+        return new GasBudget(
+                Paths.get(System.getProperty(BASELINE_PROPERTY, DEFAULT_BASELINE)),
+                Double.parseDouble(System.getProperty(TOLERANCE_PROPERTY, Double.toString(DEFAULT_TOLERANCE))),
+                Boolean.getBoolean(UPDATE_PROPERTY));
+    }
+
+    /**
+     * @return null if the operation is within its budget, otherwise a description of the violation
+     */
+    public synchronized String record(String operation, long gasUsed) {
+        measured.put(operation, gasUsed);
+        Long base = baseline.get(operation);
+        if (update) {
+            return null;
+        }
+        if (base == null) {
+            return operation + " used " + gasUsed + " gas and has no baseline, run ./gradlew test -PgasUpdate";
+        }
+        if (gasUsed <= limit(base)) {
+            return null;
+        }
+        return operation + " used " + gasUsed + " gas, baseline is " + base + " (+" + tolerancePercent + "% = " + limit(base) + ")";
+    }
+
+    /**
+     * @return false if the baseline file has no entry at all, e.g. before the first -PgasUpdate run
+     */
+    public synchronized boolean hasBaseline() {
+        return !baseline.isEmpty();
+    }
+
+    public synchronized boolean isUpdate() {
+        return update;
+    }
+
+    public synchronized String table() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-45s %10s %10s %9s %s%n", "operation", "baseline", "measured", "diff", ""));
+        for (Map.Entry<String, Long> entry : measured.entrySet()) {
+            Long base = baseline.get(entry.getKey());
+            long gas = entry.getValue();
+            if (base == null) {
+                sb.append(String.format("%-45s %10s %10d %9s %s%n", entry.getKey(), "-", gas, "-", "NEW"));
+            } else {
+                double diff = base == 0 ? 0 : (gas - base) * 100.0 / base;
+                String status = gas > limit(base) ? "OVER BUDGET" : "";
+                sb.append(String.format("%-45s %10d %10d %+8.2f%% %s%n", entry.getKey(), base, gas, diff, status));
+            }
+        }
+        return sb.toString();
+    }
+
+    public synchronized void writeBaseline() throws IOException {
+        Map<String, Long> merged = new TreeMap<>(baseline);
+        merged.putAll(measured);
+        try (BufferedWriter writer = Files.newBufferedWriter(baselineFile, StandardCharsets.UTF_8)) {
+            writer.write("# gasUsed per operation, see GasBudget. Regenerate with ./gradlew test -PgasUpdate");
+            writer.newLine();
+            for (Map.Entry<String, Long> entry : merged.entrySet()) {
+                writer.write(entry.getKey() + "=" + entry.getValue());
+                writer.newLine();
+            }
+        }
+    }
+
+    private long limit(long base) {
+        return (long) Math.floor(base * (1 + tolerancePercent / 100.0));
+    }
+}
@@ -0,0 +1,41 @@
+package io.iconator.testcontract;
+
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.methods.response.EthBlock;
+import org.web3j.protocol.core.methods.response.TransactionReceipt;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Reads the gas used by transactions sent through TestBlockchain. TestBlockchain only returns the
+ * events, so we look up the receipt of the last transaction in the latest block over JSON-RPC.
+ */
+public class GasMeter {
+
+    private final Web3j web3j;
+
+    public GasMeter(Web3j web3j) {
+        this.web3j = web3j;
+    }
+
+    /**
+     * @return the gasUsed of the most recent transaction, or 0 if the latest block has no transaction
+     */
+    public long lastGasUsed() throws IOException {
+        EthBlock.Block block = web3j.ethGetBlockByNumber(DefaultBlockParameterName.LATEST, false).send().getBlock();
+        List<EthBlock.TransactionResult> txs = block.getTransactions();
+        if (txs.isEmpty()) {
+            return 0;
+        }
+        String hash = (String) txs.get(txs.size() - 1).get();
+        return gasUsed(hash);
+    }
+
+    public long gasUsed(String txHash) throws IOException {
+        Optional<TransactionReceipt> receipt = web3j.ethGetTransactionReceipt(txHash).send().getTransactionReceipt();
+        return receipt.map(r -> r.getGasUsed().longValueExact()).orElse(0L);
+    }
+}
@@ -0,0 +1,626 @@
+package io.iconator.testcontract;
+
+import org.web3j.crypto.Credentials;
+import org.web3j.crypto.ECKeyPair;
+import org.web3j.crypto.Hash;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.methods.request.Transaction;
+import org.web3j.protocol.core.methods.response.EthEstimateGas;
+import org.web3j.protocol.core.methods.response.TransactionReceipt;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Drives a mix of Eureka transactions from many holders at once, to see how the contract and the chain
+ * behave under load and how costs drift while the amounts[] histories grow.
+ *
+ * The holders are the given credentials plus keys derived from the seed. prepare mints to all of them,
+ * finishes minting, and lets every holder approve the next one, so that transferFrom always has an
+ * allowance. The transactions are sent at gas price 0, so generated keys need no ether.
+ *
+ * run(...) sends through an AsyncTransactionClient: concurrency is its maxInFlight, the number of transactions
+ * between send and receipt. A few submitter threads only pick, sign and broadcast, they block while all
+ * slots are taken but never on a receipt, so the thread count does not grow with the concurrency. The receipts
+ * are recorded by the poller of the client as it reads the blocks, in block order.
+ *
+ * Results are collected in windows of windowMillis: throughput, latency percentiles, reverts and gas per
+ * operation, the snapshot count of the holders, and the gas of a historic balanceOf on the longest history.
+ * The snapshot count is derived from the receipts: one per holder and block, like writeSnapshot.
+ */
+public class LoadGenerator {
+
+    public enum Op {TRANSFER, REWARD_TRANSFER, APPROVE, TRANSFER_FROM, PRESIGNED, TRANSFER_AND_CALL, LOYALTY}
+
+    public static final BigInteger ALLOWANCE = MintPipeline.MAX88;
+    public static final String RECEIVER_METHOD = "someName(address,uint256)";
+
+    private static final int MINT_BATCH = 50;
+    private static final long MINT_GAS_PER_RECIPIENT = 75_000;
+    private static final byte[] NO_ARGS = new byte[0];
+
+    private final Web3j web3j;
+    private final NonceManager nonces;
+    private final String token;
+    private final String receiver;
+    private final List<Actor> actors = new ArrayList<>();
+    private final EnumMap<Op, Integer> mix = new EnumMap<>(Op.class);
+
+    private int concurrency = 64;
+    private int submitters = Math.min(4, Runtime.getRuntime().availableProcessors());
+    private long windowMillis = 1000;
+    private long seed = 22;
+    private long maxValue = 1000;
+    private BigInteger gasPrice = BigInteger.ZERO;
+    private long gasLimit = 300_000;
+    private PrintStream log;
+    private long startBlock;
+
+    /**
+     * @param receiver a deployed TestSomeContract, the target of transferAndCall
+     */
+    public LoadGenerator(Web3j web3j, NonceManager nonces, String token, String receiver) {
+        this.web3j = web3j;
+        this.nonces = nonces;
+        this.token = token;
+        this.receiver = receiver;
+        for (Op op : Op.values()) {
+            mix.put(op, 1);
+        }
+    }
+
+    /**
+     * @param weight relative to the other operations, 0 to leave it out
+     */
+    public LoadGenerator mix(Op op, int weight) {
+        mix.put(op, weight);
+        return this;
+    }
+
+    public LoadGenerator concurrency(int concurrency) {
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * @param submitters threads that sign and broadcast, independent of the concurrency
+     */
+    public LoadGenerator submitters(int submitters) {
+        this.submitters = submitters;
+        return this;
+    }
+
+    public LoadGenerator windowMillis(long windowMillis) {
+        this.windowMillis = windowMillis;
+        return this;
+    }
+
+    public LoadGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * @param maxValue upper bound of the amounts transferred, locked into loyalty and approved
+     */
+    public LoadGenerator maxValue(long maxValue) {
+        this.maxValue = maxValue;
+        return this;
+    }
+
+    public LoadGenerator gas(BigInteger gasPrice, long gasLimit) {
+        this.gasPrice = gasPrice;
+        this.gasLimit = gasLimit;
+        return this;
+    }
+
+    /**
+     * @param log receives every window when it is closed, null for none
+     */
+    public LoadGenerator log(PrintStream log) {
+        this.log = log;
+        return this;
+    }
+
+    /**
+     * Mints amount to every holder, finishes minting and sets the allowances.
+     * @param owner the owner of the token
+     * @param known e.g. CREDENTIAL_0 to CREDENTIAL_5
+     * @param generated the number of additional holders
+     */
+    public void prepare(Credentials owner, List<Credentials> known, int generated, BigInteger amount) throws IOException, InterruptedException {
+        actors.clear();
+        for (Credentials c : known) {
+            actors.add(new Actor(c));
+        }
+        for (int i = 0; i < generated; i++) {
+            byte[] key = Hash.sha3(("load-" + seed + "-" + i).getBytes(StandardCharsets.UTF_8));
+            actors.add(new Actor(Credentials.create(ECKeyPair.create(new BigInteger(1, key)))));
+        }
+
+        EurekaClient minter = new EurekaClient(web3j, token, owner, nonces)
+                .gas(gasPrice, 100_000 + MINT_BATCH * MINT_GAS_PER_RECIPIENT);
+        List<String> pending = new ArrayList<>();
+        for (int i = 0; i < actors.size(); i += MINT_BATCH) {
+            List<String> recipients = new ArrayList<>();
+            for (Actor a : actors.subList(i, Math.min(actors.size(), i + MINT_BATCH))) {
+                recipients.add(a.address);
+            }
+            pending.add(minter.mint(recipients, Collections.nCopies(recipients.size(), amount)));
+        }
+        confirm(minter, pending);
+        confirm(minter, Collections.singletonList(minter.finishMinting()));
+
+        pending.clear();
+        for (int i = 0; i < actors.size(); i++) {
+            pending.add(actors.get(i).client.approve(next(i).address, ALLOWANCE));
+        }
+        confirm(minter, pending);
+        startBlock = web3j.ethBlockNumber().send().getBlockNumber().longValueExact();
+    }
+
+    public List<String> holders() {
+        List<String> holders = new ArrayList<>();
+        for (Actor a : actors) {
+            holders.add(a.address);
+        }
+        return holders;
+    }
+
+    /**
+     * Sends operations until either count operations are done or maxMillis have passed.
+     */
+    public Report run(long operations, long maxMillis) throws InterruptedException {
+        if (actors.size() < 3) {
+            throw new IllegalStateException("prepare at least 3 holders");
+        }
+        int totalWeight = 0;
+        for (int weight : mix.values()) {
+            totalWeight += weight;
+        }
+        if (totalWeight <= 0) {
+            throw new IllegalStateException("empty mix");
+        }
+
+        long start = System.currentTimeMillis();
+        long deadline = start + maxMillis;
+        List<Window> closed = Collections.synchronizedList(new ArrayList<Window>());
+        AtomicReference<Window> current = new AtomicReference<>(new Window(0, 0));
+        AtomicLong issued = new AtomicLong();
+
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        reporter.scheduleAtFixedRate(() -> {
+            Window w = current.get();
+            current.set(new Window(w.index + 1, System.currentTimeMillis() - start));
+            close(w, System.currentTimeMillis() - start, closed);
+        }, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+
+        AsyncTransactionClient client;
+        try {
+            client = new AsyncTransactionClient(web3j, nonces).gas(gasPrice, BigInteger.valueOf(gasLimit))
+                    .maxInFlight(concurrency).start();
+        } catch (IOException e) {
+            reporter.shutdownNow();
+            throw new IllegalStateException("client failed to start", e);
+        }
+        //one party per transaction between send and its recorded receipt, plus this thread
+        Phaser outstanding = new Phaser(1);
+        int threads = Math.max(1, submitters);
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        final int weights = totalWeight;
+        for (int i = 0; i < threads; i++) {
+            Random random = new Random(seed * 31 + i);
+            futures.add(workers.submit(() -> {
+                while (issued.getAndIncrement() < operations && System.currentTimeMillis() < deadline) {
+                    execute(client, pick(random, weights), random, current, outstanding);
+                }
+                return null;
+            }));
+        }
+        try {
+            for (Future<?> f : futures) {
+                f.get();
+            }
+            //a transaction that is never mined fails after the gap repair gave up on it
+            outstanding.awaitAdvanceInterruptibly(outstanding.arrive(), 5, TimeUnit.MINUTES);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("submitter failed", e.getCause());
+        } catch (TimeoutException e) {
+            throw new IllegalStateException(client.inFlight() + " transactions without receipt: " + client.metrics());
+        } finally {
+            workers.shutdownNow();
+            client.close();
+            reporter.shutdownNow();
+            reporter.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        close(current.get(), System.currentTimeMillis() - start, closed);
+        synchronized (closed) {
+            return new Report(new ArrayList<>(closed));
+        }
+    }
+
+    private void execute(AsyncTransactionClient client, Op op, Random random, AtomicReference<Window> current,
+            Phaser outstanding) throws InterruptedException {
+        Actor sender = actors.get(random.nextInt(actors.size()));
+        Actor to = other(random, sender);
+        BigInteger value = BigInteger.valueOf(1 + (long) (random.nextDouble() * maxValue));
+        List<Actor> touched = new ArrayList<>(3);
+        EurekaClient.Calldata c = EurekaClient.calldata();
+        switch (op) {
+            case TRANSFER:
+                EurekaClient.transfer(c, to.address, value);
+                touched.add(sender);
+                touched.add(to);
+                break;
+            case REWARD_TRANSFER:
+                EurekaClient.transfer(c, to.address, value, 1 + random.nextInt(3));
+                touched.add(sender);
+                touched.add(to);
+                break;
+            case APPROVE:
+                //the next holder keeps its allowance for transferFrom
+                EurekaClient.approve(c, next(sender.index).address, ALLOWANCE);
+                break;
+            case TRANSFER_FROM:
+                Actor from = previous(sender.index);
+                if (to == from) {
+                    to = sender;
+                }
+                EurekaClient.transferFrom(c, from.address, to.address, value);
+                touched.add(from);
+                touched.add(to);
+                break;
+            case PRESIGNED:
+                //presigned nonces are independent of transaction nonces, the signer may be sending as well
+                Actor signer = other(random, sender);
+                if (to == signer) {
+                    to = sender;
+                }
+                BigInteger nonce = BigInteger.valueOf(signer.presignedNonce.getAndIncrement());
+                byte[] signature = signer.signer.sign(PreSigned.hash(token, to.address, value, BigInteger.ONE, nonce));
+                EurekaClient.transferPreSigned(c, signature, to.address, value, BigInteger.ONE, nonce);
+                touched.add(signer);
+                touched.add(sender);
+                touched.add(to);
+                break;
+            case TRANSFER_AND_CALL:
+                EurekaClient.transferAndCall(c, receiver, value, EurekaClient.methodName(RECEIVER_METHOD), NO_ARGS);
+                touched.add(sender);
+                break;
+            case LOYALTY:
+                EurekaClient.loyalty(c, value);
+                touched.add(sender);
+                break;
+            default:
+                throw new IllegalArgumentException(op.name());
+        }
+
+        long startNanos = System.nanoTime();
+        CompletableFuture<TransactionReceipt> receipt;
+        //before the send, the receipt may be recorded before sendForReceipt returns
+        outstanding.register();
+        try {
+            receipt = client.sendForReceipt(sender.credentials, token, c.hex());
+        } catch (IOException | RuntimeException | InterruptedException e) {
+            outstanding.arriveAndDeregister();
+            if (e instanceof InterruptedException) {
+                throw (InterruptedException) e;
+            }
+            current.get().error(op, System.nanoTime() - startNanos);
+            return;
+        }
+        receipt.whenComplete((r, error) -> {
+            try {
+                long nanos = System.nanoTime() - startNanos;
+                if (error != null) {
+                    current.get().error(op, nanos);
+                    return;
+                }
+                boolean success = MintPipeline.isSuccess(r);
+                current.get().record(op, nanos, success, r.getGasUsed().longValueExact());
+                if (success) {
+                    long block = r.getBlockNumber().longValueExact();
+                    for (Actor a : touched) {
+                        a.snapshot(block);
+                    }
+                }
+            } finally {
+                outstanding.arriveAndDeregister();
+            }
+        });
+    }
+
+    private void close(Window w, long endMillis, List<Window> closed) {
+        long total = 0;
+        Actor longest = actors.get(0);
+        for (Actor a : actors) {
+            long h = a.history();
+            total += h;
+            if (h > longest.history()) {
+                longest = a;
+            }
+        }
+        w.close(endMillis, total / (double) actors.size(), longest.history(), lookupGas(longest.address));
+        closed.add(w);
+        if (log != null) {
+            log.println(w);
+        }
+    }
+
+    /**
+     * @return the gas of balanceOf(holder, true, startBlock), a binary search over the whole history, -1 on error
+     */
+    private long lookupGas(String holder) {
+        try {
+            EthEstimateGas gas = web3j.ethEstimateGas(Transaction.createEthCallTransaction(holder, token,
+                    EurekaClient.balanceOf(EurekaClient.calldata(), holder, true, startBlock).hex())).send();
+            return gas.hasError() ? -1 : gas.getAmountUsed().longValueExact();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private Op pick(Random random, int totalWeight) {
+        int r = random.nextInt(totalWeight);
+        for (Map.Entry<Op, Integer> e : mix.entrySet()) {
+            r -= e.getValue();
+            if (r < 0) {
+                return e.getKey();
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    private Actor other(Random random, Actor not) {
+        int i = random.nextInt(actors.size() - 1);
+        return actors.get(i >= not.index ? i + 1 : i);
+    }
+
+    private Actor next(int index) {
+        return actors.get((index + 1) % actors.size());
+    }
+
+    private Actor previous(int index) {
+        return actors.get((index + actors.size() - 1) % actors.size());
+    }
+
+    private void confirm(EurekaClient client, List<String> txHashes) throws IOException, InterruptedException {
+        for (String txHash : txHashes) {
+            if (!MintPipeline.isSuccess(client.receipt(txHash))) {
+                throw new IllegalStateException("prepare reverted in tx " + txHash);
+            }
+        }
+    }
+
+    private final class Actor {
+        final int index;
+        final String address;
+        final Credentials credentials;
+        final EurekaClient client;
+        final PreSignedSigner signer;
+        final AtomicLong presignedNonce = new AtomicLong();
+        private long history;
+        private long lastBlock = -1;
+
+        Actor(Credentials credentials) {
+            this.index = actors.size();
+            this.address = credentials.getAddress();
+            this.credentials = credentials;
+            this.client = new EurekaClient(web3j, token, credentials, nonces).gas(gasPrice, gasLimit);
+            this.signer = new PreSignedSigner(credentials);
+        }
+
+        synchronized void snapshot(long block) {
+            //a second write in the same block replaces the snapshot
+            if (block != lastBlock) {
+                history++;
+                lastBlock = Math.max(lastBlock, block);
+            }
+        }
+
+        synchronized long history() {
+            return history;
+        }
+    }
+
+    public static final class Window {
+        public final long index;
+        public final long startMillis;
+        private final EnumMap<Op, LatencyRecorder> latency = new EnumMap<>(Op.class);
+        private final EnumMap<Op, AtomicLong> reverts = new EnumMap<>(Op.class);
+        private final EnumMap<Op, AtomicLong> errors = new EnumMap<>(Op.class);
+        private final EnumMap<Op, AtomicLong> gas = new EnumMap<>(Op.class);
+        private long endMillis;
+        private double meanHistory;
+        private long maxHistory;
+        private long lookupGas;
+
+        Window(long index, long startMillis) {
+            this.index = index;
+            this.startMillis = startMillis;
+            for (Op op : Op.values()) {
+                latency.put(op, new LatencyRecorder());
+                reverts.put(op, new AtomicLong());
+                errors.put(op, new AtomicLong());
+                gas.put(op, new AtomicLong());
+            }
+        }
+
+        void record(Op op, long nanos, boolean success, long gasUsed) {
+            latency.get(op).record(nanos);
+            gas.get(op).addAndGet(gasUsed);
+            if (!success) {
+                reverts.get(op).incrementAndGet();
+            }
+        }
+
+        void error(Op op, long nanos) {
+            latency.get(op).record(nanos);
+            errors.get(op).incrementAndGet();
+        }
+
+        void close(long endMillis, double meanHistory, long maxHistory, long lookupGas) {
+            this.endMillis = endMillis;
+            this.meanHistory = meanHistory;
+            this.maxHistory = maxHistory;
+            this.lookupGas = lookupGas;
+        }
+
+        public LatencyRecorder latency(Op op) {
+            return latency.get(op);
+        }
+
+        public long operations(Op op) {
+            return latency.get(op).count();
+        }
+
+        public long operations() {
+            long n = 0;
+            for (Op op : Op.values()) {
+                n += operations(op);
+            }
+            return n;
+        }
+
+        public long reverts(Op op) {
+            return reverts.get(op).get();
+        }
+
+        public long reverts() {
+            long n = 0;
+            for (Op op : Op.values()) {
+                n += reverts(op);
+            }
+            return n;
+        }
+
+        public long errors() {
+            long n = 0;
+            for (Op op : Op.values()) {
+                n += errors.get(op).get();
+            }
+            return n;
+        }
+
+        /**
+         * @return the mean gas used per mined transaction of this operation, 0 if there was none
+         */
+        public long gasPerOp(Op op) {
+            long mined = operations(op) - errors.get(op).get();
+            return mined == 0 ? 0 : gas.get(op).get() / mined;
+        }
+
+        public double throughput() {
+            long millis = Math.max(1, endMillis - startMillis);
+            return operations() * 1000.0 / millis;
+        }
+
+        public double meanHistory() {
+            return meanHistory;
+        }
+
+        public long maxHistory() {
+            return maxHistory;
+        }
+
+        public long lookupGas() {
+            return lookupGas;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(String.format(Locale.ROOT,
+                    "window %d [%.1fs-%.1fs]: %.1f ops/s, reverts %d, errors %d, history mean %.1f max %d, lookup %d gas",
+                    index, startMillis / 1000.0, endMillis / 1000.0, throughput(), reverts(), errors(), meanHistory,
+                    maxHistory, lookupGas));
+            for (Op op : Op.values()) {
+                if (operations(op) > 0) {
+                    sb.append(String.format(Locale.ROOT, "%n  %-17s %s reverts=%d gas=%d", op, latency(op).summary(),
+                            reverts(op), gasPerOp(op)));
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    public static final class Report {
+        public final List<Window> windows;
+
+        Report(List<Window> windows) {
+            this.windows = Collections.unmodifiableList(windows);
+        }
+
+        public long operations() {
+            long n = 0;
+            for (Window w : windows) {
+                n += w.operations();
+            }
+            return n;
+        }
+
+        public long reverts() {
+            long n = 0;
+            for (Window w : windows) {
+                n += w.reverts();
+            }
+            return n;
+        }
+
+        public long errors() {
+            long n = 0;
+            for (Window w : windows) {
+                n += w.errors();
+            }
+            return n;
+        }
+
+        public double revertRate() {
+            long n = operations();
+            return n == 0 ? 0 : reverts() / (double) n;
+        }
+
+        /**
+         * @return the gas per operation of the first and the last window that had one, to see the drift
+         */
+        public long[] gasDrift(Op op) {
+            long first = 0;
+            long last = 0;
+            for (Window w : windows) {
+                long g = w.gasPerOp(op);
+                if (g > 0) {
+                    if (first == 0) {
+                        first = g;
+                    }
+                    last = g;
+                }
+            }
+            return new long[]{first, last};
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(String.format(Locale.ROOT, "%d operations, revert rate %.2f%%, errors %d",
+                    operations(), revertRate() * 100, errors()));
+            for (Op op : Op.values()) {
+                long[] drift = gasDrift(op);
+                if (drift[0] > 0) {
+                    sb.append(String.format(Locale.ROOT, "%n  %-17s gas %d -> %d", op, drift[0], drift[1]));
+                }
+            }
+            if (!windows.isEmpty()) {
+                Window first = windows.get(0);
+                Window last = windows.get(windows.size() - 1);
+                sb.append(String.format(Locale.ROOT, "%n  history max %d -> %d, lookup %d -> %d gas",
+                        first.maxHistory(), last.maxHistory(), first.lookupGas(), last.lookupGas()));
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package io.iconator.testcontract;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reference model of the loyalty distribution of Eureka, for both schemes the contract had:
+ *
+ * LEGACY: every snapshot stores the loyalty total at the time it was written, the claim is
+ * (loyalty - claimedLoyalty) * balance / totalSupply, with totalSupply at claim time.
+ *
+ * ACCUMULATOR: loyalty(...) and rewarded transfers add amount * SCALE / totalSupply to loyaltyPerToken,
+ * every snapshot stores loyaltyPerToken as checkpoint, the claim is balance * (loyaltyPerToken - checkpoint) / SCALE.
+ *
+ * After minting the total supply does not change any more, so both schemes pay the same, except for the
+ * rounding of the accumulator: each distribution rounds down by less than 1 / SCALE per token.
+ * Operations that the contract would revert return false and change nothing.
+ */
+public class LoyaltyModel {
+
+    public static final BigInteger SCALE = BigInteger.TEN.pow(18);
+    private static final BigInteger HUNDRED = BigInteger.valueOf(100);
+
+    public enum Scheme {LEGACY, ACCUMULATOR}
+
+    private final Scheme scheme;
+    //balance and checkpoint per holder
+    private final Map<String, BigInteger[]> holders = new HashMap<>();
+    private BigInteger loyalty = BigInteger.ZERO;
+    private BigInteger loyaltyPerToken = BigInteger.ZERO;
+    private BigInteger totalSupply = BigInteger.ZERO;
+    private BigInteger paid = BigInteger.ZERO;
+    private int distributions = 0;
+
+    public LoyaltyModel(Scheme scheme) {
+        this.scheme = scheme;
+    }
+
+    /**
+     * @return what loyaltyPerToken grows by when amount is distributed
+     */
+    public static BigInteger perToken(BigInteger amount, BigInteger totalSupply) {
+        return amount.multiply(SCALE).divide(totalSupply);
+    }
+
+    /**
+     * @return the claim of a holder with the given balance and checkpoint
+     */
+    public static BigInteger claim(BigInteger balance, BigInteger loyaltyPerToken, BigInteger checkpoint) {
+        return loyaltyPerToken.subtract(checkpoint).multiply(balance).divide(SCALE);
+    }
+
+    public void mint(String holder, BigInteger amount) {
+        BigInteger[] h = holder(holder);
+        //like mintOne, the checkpoint of a new holder is 0
+        h[0] = h[0].add(amount);
+        totalSupply = totalSupply.add(amount);
+    }
+
+    public boolean transfer(String from, String to, BigInteger value, boolean rewarded) {
+        return transfer(from, to, value, BigInteger.ZERO, null, rewarded);
+    }
+
+    /**
+     * doTransfer: from and fee are written first, then to is read and written, so to may be from or feeAddress.
+     */
+    public boolean transfer(String from, String to, BigInteger value, BigInteger fee, String feeAddress, boolean rewarded) {
+        BigInteger fromBalance = balanceOf(from);
+        BigInteger fromClaim = claimOf(from);
+        if (value.add(fee).compareTo(fromBalance) > 0) {
+            return false;
+        }
+        write(from, fromBalance.add(fromClaim).subtract(value).subtract(fee));
+        if (fee.signum() > 0 && feeAddress != null) {
+            //the fee claimer cannot claim loyalty
+            write(feeAddress, balanceOf(feeAddress).add(fee));
+        }
+        BigInteger toBalance = balanceOf(to);
+        BigInteger toClaim = claimOf(to);
+        BigInteger toLoyalty = rewarded ? value.divide(HUNDRED) : BigInteger.ZERO;
+        write(to, toBalance.add(toClaim).add(value).subtract(toLoyalty));
+        paid = paid.add(fromClaim).add(toClaim);
+        if (rewarded) {
+            addLoyalty(toLoyalty);
+        }
+        return true;
+    }
+
+    public boolean loyalty(String sender, BigInteger amount) {
+        BigInteger balance = balanceOf(sender);
+        BigInteger claim = claimOf(sender);
+        if (amount.compareTo(balance.add(claim)) > 0) {
+            return false;
+        }
+        write(sender, balance.add(claim).subtract(amount));
+        paid = paid.add(claim);
+        addLoyalty(amount);
+        return true;
+    }
+
+    public BigInteger balanceOf(String holder) {
+        BigInteger[] h = holders.get(holder);
+        return h == null ? BigInteger.ZERO : h[0];
+    }
+
+    public BigInteger claimOf(String holder) {
+        BigInteger[] h = holders.get(holder);
+        if (h == null || totalSupply.signum() == 0) {
+            return BigInteger.ZERO;
+        }
+        if (scheme == Scheme.LEGACY) {
+            return loyalty.subtract(h[1]).multiply(h[0]).divide(totalSupply);
+        }
+        return claim(h[0], loyaltyPerToken, h[1]);
+    }
+
+    public BigInteger loyalty() {
+        return loyalty;
+    }
+
+    public BigInteger loyaltyPerToken() {
+        return loyaltyPerToken;
+    }
+
+    public BigInteger totalSupply() {
+        return totalSupply;
+    }
+
+    /**
+     * @return all claims paid out so far
+     */
+    public BigInteger paid() {
+        return paid;
+    }
+
+    public int distributions() {
+        return distributions;
+    }
+
+    public Iterable<String> holders() {
+        return holders.keySet();
+    }
+
+    private void addLoyalty(BigInteger amount) {
+        loyalty = loyalty.add(amount);
+        loyaltyPerToken = loyaltyPerToken.add(perToken(amount, totalSupply));
+        distributions++;
+    }
+
+    private void write(String holder, BigInteger balance) {
+        BigInteger[] h = holder(holder);
+        h[0] = balance;
+        h[1] = scheme == Scheme.LEGACY ? loyalty : loyaltyPerToken;
+    }
+
+    private BigInteger[] holder(String holder) {
+        BigInteger[] h = holders.get(holder);
+        if (h == null) {
+            h = new BigInteger[]{BigInteger.ZERO, BigInteger.ZERO};
+            holders.put(holder, h);
+        }
+        return h;
+    }
+}
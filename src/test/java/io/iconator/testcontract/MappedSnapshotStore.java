@@ -0,0 +1,292 @@
+package io.iconator.testcontract;
+
+import org.web3j.utils.Numeric;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * The balance history of all holders in a columnar, memory-mapped file. Opening the file only maps it,
+ * so an indexer restart is ready without replaying the events from genesis.
+ *
+ * Layout, all big endian:
+ * <pre>
+ * header    magic "EKAS", version, holder count, entry count, last block, loyalty (uint256),
+ *           loyaltyPerToken (uint88), totalSupply (uint256), lockup count
+ * addresses holder count * 20 bytes, sorted
+ * offsets   (holder count + 1) * 8 bytes, the entries of holder i are [offsets[i], offsets[i+1])
+ * blocks    entry count * 6 bytes (uint48 fromBlock)
+ * amounts   entry count * 11 bytes (uint88 amount)
+ * loyalties entry count * 11 bytes (uint88 claimedLoyalty, the loyaltyPerToken checkpoint)
+ * lockups   lockup count * (20 bytes address + 32 bytes uint256 timeout), sorted by address
+ * </pre>
+ * Every section is mapped on its own, so a single column may grow up to 2GB. Lockups are only set
+ * while minting and are few, they are read into memory on open.
+ */
+public class MappedSnapshotStore implements Closeable {
+
+    private static final int MAGIC = 0x454b4153; //"EKAS"
+    private static final int VERSION = 3;
+    private static final int HEADER = 4 + 4 + 4 + 8 + 8 + 32 + 11 + 32 + 4;
+    private static final int ADDRESS = 20;
+    private static final int BLOCK = 6;
+    private static final int UINT88 = 11;
+
+    private final FileChannel channel;
+    private final int holders;
+    private final long entries;
+    private final long lastBlock;
+    private final BigInteger loyalty;
+    private final BigInteger loyaltyPerToken;
+    private final BigInteger totalSupply;
+    private final Map<String, BigInteger> lockups;
+    private final MappedByteBuffer addresses;
+    private final MappedByteBuffer offsets;
+    private final MappedByteBuffer blocks;
+    private final MappedByteBuffer amounts;
+    private final MappedByteBuffer loyalties;
+
+    private MappedSnapshotStore(FileChannel channel) throws IOException {
+        this.channel = channel;
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("not a snapshot store of version " + VERSION);
+        }
+        holders = header.getInt();
+        entries = header.getLong();
+        lastBlock = header.getLong();
+        loyalty = readUnsigned(header, 32);
+        loyaltyPerToken = readUnsigned(header, UINT88);
+        totalSupply = readUnsigned(header, 32);
+        int lockupCount = header.getInt();
+
+        long position = HEADER;
+        addresses = channel.map(FileChannel.MapMode.READ_ONLY, position, (long) holders * ADDRESS);
+        position += (long) holders * ADDRESS;
+        offsets = channel.map(FileChannel.MapMode.READ_ONLY, position, (holders + 1L) * 8);
+        position += (holders + 1L) * 8;
+        blocks = channel.map(FileChannel.MapMode.READ_ONLY, position, entries * BLOCK);
+        position += entries * BLOCK;
+        amounts = channel.map(FileChannel.MapMode.READ_ONLY, position, entries * UINT88);
+        position += entries * UINT88;
+        loyalties = channel.map(FileChannel.MapMode.READ_ONLY, position, entries * UINT88);
+        position += entries * UINT88;
+
+        ByteBuffer lockupSection = channel.map(FileChannel.MapMode.READ_ONLY, position, (long) lockupCount * (ADDRESS + 32));
+        Map<String, BigInteger> lockups = new HashMap<>();
+        for (int i = 0; i < lockupCount; i++) {
+            byte[] address = new byte[ADDRESS];
+            lockupSection.get(address);
+            lockups.put(Numeric.toHexString(address), readUnsigned(lockupSection, 32));
+        }
+        this.lockups = Collections.unmodifiableMap(lockups);
+    }
+
+    public static MappedSnapshotStore open(Path file) throws IOException {
+        return new MappedSnapshotStore(FileChannel.open(file, StandardOpenOption.READ));
+    }
+
+    /**
+     * Writes the complete state of the indexer. The file is written next to the target and then moved,
+     * so readers never see a partial file.
+     */
+    public static void write(Path file, BalanceIndexer indexer) throws IOException {
+        List<String> holders = new ArrayList<>(indexer.holders());
+        Collections.sort(holders);
+        Map<String, BigInteger> lockups = new TreeMap<>(indexer.lockups());
+        long entries = 0;
+        for (String holder : holders) {
+            entries += indexer.history(holder).size();
+        }
+
+        Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(holders.size());
+            out.writeLong(entries);
+            out.writeLong(indexer.lastBlock());
+            writeUnsigned(out, indexer.loyalty(), 32);
+            writeUnsigned(out, indexer.loyaltyPerToken(), UINT88);
+            writeUnsigned(out, indexer.totalSupply(), 32);
+            out.writeInt(lockups.size());
+
+            for (String holder : holders) {
+                out.write(Numeric.hexStringToByteArray(holder));
+            }
+            long offset = 0;
+            out.writeLong(offset);
+            for (String holder : holders) {
+                offset += indexer.history(holder).size();
+                out.writeLong(offset);
+            }
+            for (String holder : holders) {
+                SnapshotView h = indexer.history(holder);
+                for (int i = 0; i < h.size(); i++) {
+                    long block = h.block(i);
+                    out.writeShort((int) (block >>> 32));
+                    out.writeInt((int) block);
+                }
+            }
+            for (String holder : holders) {
+                SnapshotView h = indexer.history(holder);
+                for (int i = 0; i < h.size(); i++) {
+                    writeUnsigned(out, h.amount(i), UINT88);
+                }
+            }
+            for (String holder : holders) {
+                SnapshotView h = indexer.history(holder);
+                for (int i = 0; i < h.size(); i++) {
+                    writeUnsigned(out, h.claimedLoyalty(i), UINT88);
+                }
+            }
+            for (Map.Entry<String, BigInteger> lockup : lockups.entrySet()) {
+                out.write(Numeric.hexStringToByteArray(lockup.getKey()));
+                writeUnsigned(out, lockup.getValue(), 32);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public int holderCount() {
+        return holders;
+    }
+
+    public long entryCount() {
+        return entries;
+    }
+
+    public long lastBlock() {
+        return lastBlock;
+    }
+
+    public BigInteger loyalty() {
+        return loyalty;
+    }
+
+    public BigInteger loyaltyPerToken() {
+        return loyaltyPerToken;
+    }
+
+    public BigInteger totalSupply() {
+        return totalSupply;
+    }
+
+    /**
+     * @return the lockup timeout per lowercase address, only holders with a lockup are in the map
+     */
+    public Map<String, BigInteger> lockups() {
+        return lockups;
+    }
+
+    public String address(int holder) {
+        byte[] address = new byte[ADDRESS];
+        ByteBuffer slice = addresses.duplicate();
+        slice.position(holder * ADDRESS);
+        slice.get(address);
+        return Numeric.toHexString(address);
+    }
+
+    /**
+     * @return the history of the address, or null if it is not in the file
+     */
+    public SnapshotView history(String address) {
+        int holder = find(Numeric.hexStringToByteArray(address));
+        return holder < 0 ? null : view(holder);
+    }
+
+    public SnapshotView view(int holder) {
+        final long first = offsets.getLong(holder * 8);
+        final int size = (int) (offsets.getLong((holder + 1) * 8) - first);
+        return new SnapshotView() {
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public long block(int index) {
+                int position = (int) ((first + index) * BLOCK);
+                return ((blocks.getShort(position) & 0xffffL) << 32) | (blocks.getInt(position + 2) & 0xffffffffL);
+            }
+
+            @Override
+            public BigInteger amount(int index) {
+                return readUnsigned(amounts, (int) ((first + index) * UINT88), UINT88);
+            }
+
+            @Override
+            public BigInteger claimedLoyalty(int index) {
+                return readUnsigned(loyalties, (int) ((first + index) * UINT88), UINT88);
+            }
+        };
+    }
+
+    public BigInteger balanceOf(String owner, boolean amountType, long fromBlock) {
+        SnapshotView h = history(owner);
+        if (h == null || h.size() == 0) {
+            return BigInteger.ZERO;
+        }
+        int index = h.indexAt(fromBlock);
+        return amountType ? h.amount(index) : h.claimedLoyalty(index);
+    }
+
+    private int find(byte[] address) {
+        int low = 0;
+        int high = holders - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(mid, address);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compare(int holder, byte[] address) {
+        int base = holder * ADDRESS;
+        for (int i = 0; i < ADDRESS; i++) {
+            int cmp = (addresses.get(base + i) & 0xff) - (address[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private static BigInteger readUnsigned(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new BigInteger(1, bytes);
+    }
+
+    private static BigInteger readUnsigned(ByteBuffer buffer, int position, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(position + i);
+        }
+        return new BigInteger(1, bytes);
+    }
+
+    private static void writeUnsigned(DataOutputStream out, BigInteger value, int length) throws IOException {
+        out.write(Numeric.toBytesPadded(value, length));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,636 @@
+package io.iconator.testcontract;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.DynamicArray;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.generated.Bytes32;
+import org.web3j.abi.datatypes.generated.Uint256;
+import org.web3j.crypto.Credentials;
+import org.web3j.crypto.Hash;
+import org.web3j.crypto.RawTransaction;
+import org.web3j.crypto.TransactionEncoder;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.methods.request.Transaction;
+import org.web3j.protocol.core.methods.response.EthSendTransaction;
+import org.web3j.protocol.core.methods.response.TransactionReceipt;
+import org.web3j.utils.Numeric;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Mints a large allocation file with Eureka.mint(address[], uint256[]), or with mintPacked(bytes32[])
+ * which needs half the calldata. The file is streamed, one
+ * allocation per line, either CSV (address,amount) or JSON lines ({"address":..., "amount":...}).
+ *
+ * Before anything is sent, the whole file is validated: every amount, and the sum of all amounts of
+ * one address, must be below max88, and the total must fit into maxSupply. Rows are packed into batches of at most MAX_RECIPIENTS recipients that stay below
+ * the block gas limit, and up to maxInFlight batches are sent with locally managed nonces.
+ *
+ * Every signed batch is written to a journal before it is broadcast. On a restart, unconfirmed batches
+ * are broadcast again with the very same signed transaction. Since the nonce is part of the signed
+ * transaction, a batch can be mined at most once, and a crash never mints twice. Batches refer to rows
+ * by their position in the file, so the journal keeps a sha-256 of the file and a run with a changed
+ * file is refused.
+ *
+ * A reverted batch is recorded in the journal and the run continues with the next one. The run reports
+ * it in {@link Summary#reverted}, and the operator then either calls {@link #skip(long)} to give up those rows,
+ * or {@link #replan(long)} to mint them again as a new batch on the next run.
+ */
+public class MintPipeline {
+
+    public static final int MAX_RECIPIENTS = 256;
+    public static final BigInteger MAX88 = BigInteger.ONE.shiftLeft(88);
+    public static final BigInteger MAX_SUPPLY = new BigInteger("298607040").multiply(BigInteger.TEN.pow(18));
+
+    private static final Pattern ADDRESS = Pattern.compile("^0x[0-9a-fA-F]{40}$");
+    private static final String ZERO_ADDRESS = "0x0000000000000000000000000000000000000000";
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private final Web3j web3j;
+    private final NonceManager nonces;
+    private final Credentials owner;
+    private final String contractAddress;
+    private final Path journalFile;
+    private long broadcastErrors = 0;
+
+    private long baseGas = 100_000;
+    private long gasPerRecipient = 75_000;
+    private long blockGasLimit = 8_000_000;
+    private int maxInFlight = 8;
+    private BigInteger gasPrice = BigInteger.ZERO;
+    private long pollMillis = 50;
+    private long receiptTimeoutMillis = 600_000;
+    private boolean packed = false;
+
+    public MintPipeline(Web3j web3j, NonceManager nonces, Credentials owner, String contractAddress, Path journalFile) {
+        this.web3j = web3j;
+        this.nonces = nonces;
+        this.owner = owner;
+        this.contractAddress = contractAddress;
+        this.journalFile = journalFile;
+    }
+
+    public MintPipeline gas(long baseGas, long gasPerRecipient, long blockGasLimit) {
+        this.baseGas = baseGas;
+        this.gasPerRecipient = gasPerRecipient;
+        this.blockGasLimit = blockGasLimit;
+        return this;
+    }
+
+    public MintPipeline maxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    public MintPipeline packed(boolean packed) {
+        this.packed = packed;
+        return this;
+    }
+
+    public MintPipeline gasPrice(BigInteger gasPrice) {
+        this.gasPrice = gasPrice;
+        return this;
+    }
+
+    /**
+     * How long to wait for the receipt of a batch before the run stops. The batch stays unconfirmed
+     * in the journal and is broadcast again on the next run.
+     */
+    public MintPipeline receiptTimeoutMillis(long receiptTimeoutMillis) {
+        this.receiptTimeoutMillis = receiptTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * @return recipients per batch: at most MAX_RECIPIENTS, and few enough to stay below the block gas limit
+     */
+    public int recipientsPerBatch() {
+        long byGas = (blockGasLimit - baseGas) / gasPerRecipient;
+        return (int) Math.max(1, Math.min(MAX_RECIPIENTS, byGas));
+    }
+
+    public static class Allocation {
+        public final long row;
+        public final String address;
+        public final BigInteger amount;
+
+        public Allocation(long row, String address, BigInteger amount) {
+            this.row = row;
+            this.address = address;
+            this.amount = amount;
+        }
+    }
+
+    public static class Summary {
+        public final long rows;
+        public final long batches;
+        public final BigInteger total;
+        /**
+         * batches that reverted and were neither skipped nor replanned yet
+         */
+        public final List<Long> reverted;
+        /**
+         * broadcasts the node rejected, e.g. "known transaction" or "nonce too low" on a resume
+         */
+        public final long broadcastErrors;
+
+        public Summary(long rows, long batches, BigInteger total, List<Long> reverted, long broadcastErrors) {
+            this.rows = rows;
+            this.batches = batches;
+            this.total = total;
+            this.reverted = reverted;
+            this.broadcastErrors = broadcastErrors;
+        }
+    }
+
+    /**
+     * Streams the whole file and checks every row and the total. Throws IllegalArgumentException
+     * with the line number of the first invalid row.
+     */
+    public Summary validate(Path file, BigInteger alreadyMinted) throws IOException {
+        BigInteger total = BigInteger.ZERO;
+        long rows = 0;
+        //mintOne requires the balance of each address to stay below max88, not only each row
+        Map<String, BigInteger> perAddress = new HashMap<>();
+        try (AllocationReader reader = new AllocationReader(file)) {
+            Allocation a;
+            while ((a = reader.next()) != null) {
+                total = total.add(a.amount);
+                if (alreadyMinted.add(total).compareTo(MAX_SUPPLY) > 0) {
+                    throw new IllegalArgumentException("line " + reader.line() + ": total exceeds maxSupply");
+                }
+                String key = a.address.toLowerCase(Locale.ROOT);
+                BigInteger sum = perAddress.getOrDefault(key, BigInteger.ZERO).add(a.amount);
+                if (sum.compareTo(MAX88) >= 0) {
+                    throw new IllegalArgumentException("line " + reader.line() + ": amounts of " + a.address
+                            + " sum up to max88 or more");
+                }
+                perAddress.put(key, sum);
+                rows++;
+            }
+        }
+        int perBatch = recipientsPerBatch();
+        return new Summary(rows, (rows + perBatch - 1) / perBatch, total, Collections.<Long>emptyList(), 0);
+    }
+
+    /**
+     * Validates the file, then mints it, or continues where the journal stops.
+     */
+    public Summary run(Path file) throws IOException, InterruptedException {
+        Journal journal = Journal.read(journalFile);
+        String fingerprint = sha256(file);
+        if (journal.startSupply == null) {
+            BigInteger supply = totalSupply();
+            validate(file, supply);
+            journal.start(supply, fingerprint);
+        } else {
+            if (!fingerprint.equals(journal.fingerprint)) {
+                throw new IllegalArgumentException(file + " has sha-256 " + fingerprint + ", the journal was started with "
+                        + journal.fingerprint + ": the rows of its batches would be other recipients");
+            }
+            validate(file, journal.startSupply);
+        }
+
+        //finish what the last run left in flight, with the same signed transactions
+        for (Submitted s : journal.unconfirmed()) {
+            broadcast(s.rawTx);
+            confirm(journal, s);
+        }
+        nonces.resync(owner.getAddress());
+
+        long nextRow = journal.nextRow();
+        long batchIndex = journal.nextBatch();
+        int perBatch = recipientsPerBatch();
+        Deque<Submitted> inFlight = new ArrayDeque<>();
+        BigInteger total = BigInteger.ZERO;
+        long rows = 0;
+        //rows of replanned batches, sent again as a batch of their own under a new nonce
+        Map<Long, Submitted> replan = journal.replanByFirstRow();
+        List<Allocation> replanBatch = new ArrayList<>();
+        Submitted replanOf = null;
+
+        try (AllocationReader reader = new AllocationReader(file)) {
+            List<Allocation> batch = new ArrayList<>(perBatch);
+            Allocation a;
+            while ((a = reader.next()) != null) {
+                total = total.add(a.amount);
+                rows++;
+                if (a.row < nextRow) {
+                    if (replanOf == null) {
+                        replanOf = replan.get(a.row);
+                    }
+                    if (replanOf != null) {
+                        replanBatch.add(a);
+                        if (replanBatch.size() == replanOf.rows) {
+                            submit(journal, inFlight, batchIndex++, replanBatch);
+                            replanBatch = new ArrayList<>();
+                            replanOf = null;
+                        }
+                    }
+                    continue;
+                }
+                batch.add(a);
+                if (batch.size() == perBatch) {
+                    submit(journal, inFlight, batchIndex++, batch);
+                    batch = new ArrayList<>(perBatch);
+                }
+            }
+            if (!batch.isEmpty()) {
+                submit(journal, inFlight, batchIndex++, batch);
+            }
+        }
+        while (!inFlight.isEmpty()) {
+            confirm(journal, inFlight.poll());
+        }
+        return new Summary(rows, batchIndex, total, journal.reverted(), broadcastErrors);
+    }
+
+    /**
+     * Gives up the rows of a reverted batch, they are not minted by this pipeline.
+     */
+    public void skip(long batch) throws IOException {
+        Journal journal = Journal.read(journalFile);
+        journal.requireReverted(batch);
+        journal.resolve("skipped", batch);
+    }
+
+    /**
+     * Sends the rows of a reverted batch again as a new batch on the next {@link #run(Path)}, e.g. after
+     * the cause of the revert was fixed.
+     */
+    public void replan(long batch) throws IOException {
+        Journal journal = Journal.read(journalFile);
+        journal.requireReverted(batch);
+        journal.resolve("replan", batch);
+    }
+
+    public long broadcastErrors() {
+        return broadcastErrors;
+    }
+
+    private void submit(Journal journal, Deque<Submitted> inFlight, long batchIndex, List<Allocation> batch) throws IOException, InterruptedException {
+        while (inFlight.size() >= maxInFlight) {
+            confirm(journal, inFlight.poll());
+        }
+        Submitted s = sign(batchIndex, batch);
+        journal.submitted(s);
+        broadcast(s.rawTx);
+        inFlight.add(s);
+    }
+
+    /**
+     * Signs the batch with the next nonce of the owner, without journaling or sending it.
+     */
+    Submitted sign(long batchIndex, List<Allocation> batch) throws IOException {
+        Function function = packed ? mintPacked(batch) : mint(batch);
+
+        BigInteger gasLimit = BigInteger.valueOf(baseGas + gasPerRecipient * batch.size());
+        RawTransaction tx = RawTransaction.createTransaction(nonces.next(owner.getAddress()), gasPrice, gasLimit,
+                contractAddress, FunctionEncoder.encode(function));
+        String rawTx = Numeric.toHexString(TransactionEncoder.signMessage(tx, owner));
+        return new Submitted(batchIndex, batch.get(0).row, batch.size(), Hash.sha3(rawTx), rawTx);
+    }
+
+    /**
+     * @return the sha-256 of the file as hex
+     */
+    static String sha256(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return Numeric.toHexStringNoPrefix(digest.digest());
+    }
+
+    private static Function mint(List<Allocation> batch) {
+        List<Address> addresses = new ArrayList<>(batch.size());
+        List<Uint256> amounts = new ArrayList<>(batch.size());
+        for (Allocation a : batch) {
+            addresses.add(new Address(a.address));
+            amounts.add(new Uint256(a.amount));
+        }
+        return new Function("mint",
+                Arrays.<Type>asList(new DynamicArray<>(addresses), new DynamicArray<>(amounts)),
+                Collections.<TypeReference<?>>emptyList());
+    }
+
+    private static Function mintPacked(List<Allocation> batch) {
+        List<Bytes32> words = new ArrayList<>(batch.size());
+        for (Allocation a : batch) {
+            words.add(new Bytes32(TestUtils.packMint(a.address, a.amount)));
+        }
+        return new Function("mintPacked",
+                Collections.<Type>singletonList(new DynamicArray<>(words)),
+                Collections.<TypeReference<?>>emptyList());
+    }
+
+    private void broadcast(String rawTx) throws IOException {
+        EthSendTransaction response = web3j.ethSendRawTransaction(rawTx).send();
+        if (response.hasError()) {
+            //"known transaction" or "nonce too low": it was already sent or mined, the receipt will tell
+            broadcastErrors++;
+        }
+    }
+
+    private void confirm(Journal journal, Submitted s) throws IOException, InterruptedException {
+        TransactionReceipt receipt = waitForReceipt(s);
+        if (isSuccess(receipt)) {
+            journal.confirmed(s.batch);
+        } else {
+            journal.reverted(s.batch);
+        }
+    }
+
+    private TransactionReceipt waitForReceipt(Submitted s) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + receiptTimeoutMillis;
+        while (true) {
+            Optional<TransactionReceipt> receipt = web3j.ethGetTransactionReceipt(s.txHash).send().getTransactionReceipt();
+            if (receipt.isPresent()) {
+                return receipt.get();
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                throw new IllegalStateException("batch " + s.batch + " (rows " + s.firstRow + "-" + (s.firstRow + s.rows - 1)
+                        + ") has no receipt after " + receiptTimeoutMillis + "ms, tx " + s.txHash + ", run again to resume");
+            }
+            Thread.sleep(pollMillis);
+        }
+    }
+
+    static boolean isSuccess(TransactionReceipt receipt) {
+        //pre-byzantium receipts have no status
+        return receipt.getStatus() == null || "0x1".equals(receipt.getStatus());
+    }
+
+    private BigInteger totalSupply() throws IOException {
+        Function function = new Function("totalSupply", Collections.<Type>emptyList(),
+                Collections.<TypeReference<?>>singletonList(new TypeReference<Uint256>() {}));
+        String result = web3j.ethCall(Transaction.createEthCallTransaction(owner.getAddress(), contractAddress,
+                FunctionEncoder.encode(function)), DefaultBlockParameterName.LATEST).send().getValue();
+        return Numeric.toBigInt(result);
+    }
+
+    static class Submitted {
+        final long batch;
+        final long firstRow;
+        final int rows;
+        final String txHash;
+        final String rawTx;
+
+        Submitted(long batch, long firstRow, int rows, String txHash, String rawTx) {
+            this.batch = batch;
+            this.firstRow = firstRow;
+            this.rows = rows;
+            this.txHash = txHash;
+            this.rawTx = rawTx;
+        }
+    }
+
+    /**
+     * Append only log of the pipeline: "start [supply] [sha-256 of the file]", "submitted [batch] [firstRow] [rows] [txHash] [rawTx]",
+     * "confirmed [batch]", "reverted [batch]", and the decision of the operator, "skipped [batch]" or
+     * "replan [batch]". Every line is synced to disk before we continue.
+     */
+    static class Journal {
+        private final Path file;
+        private BigInteger startSupply;
+        //null for a journal without one, which then matches no file
+        private String fingerprint;
+        private final Map<Long, Submitted> submitted = new TreeMap<>();
+        private final Set<Long> confirmed = new HashSet<>();
+        private final Set<Long> reverted = new TreeSet<>();
+        private final Set<Long> skipped = new HashSet<>();
+        private final Set<Long> replan = new HashSet<>();
+
+        private Journal(Path file) {
+            this.file = file;
+        }
+
+        static Journal read(Path file) throws IOException {
+            Journal journal = new Journal(file);
+            if (!Files.exists(file)) {
+                return journal;
+            }
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                String[] parts = line.trim().split(" ");
+                switch (parts[0]) {
+                    case "start":
+                        journal.startSupply = new BigInteger(parts[1]);
+                        journal.fingerprint = parts.length > 2 ? parts[2] : null;
+                        break;
+                    case "submitted":
+                        //a torn last line was never broadcast, we ignore it
+                        if (parts.length == 6) {
+                            long batch = Long.parseLong(parts[1]);
+                            journal.submitted.put(batch, new Submitted(batch, Long.parseLong(parts[2]),
+                                    Integer.parseInt(parts[3]), parts[4], parts[5]));
+                        }
+                        break;
+                    case "confirmed":
+                        journal.confirmed.add(Long.parseLong(parts[1]));
+                        break;
+                    case "reverted":
+                        journal.reverted.add(Long.parseLong(parts[1]));
+                        break;
+                    case "skipped":
+                        journal.skipped.add(Long.parseLong(parts[1]));
+                        break;
+                    case "replan":
+                        journal.replan.add(Long.parseLong(parts[1]));
+                        break;
+                    default:
+                        break;
+                }
+            }
+            return journal;
+        }
+
+        List<Submitted> unconfirmed() {
+            List<Submitted> list = new ArrayList<>();
+            for (Submitted s : submitted.values()) {
+                if (!confirmed.contains(s.batch) && !reverted.contains(s.batch)) {
+                    list.add(s);
+                }
+            }
+            return list;
+        }
+
+        /**
+         * @return reverted batches the operator did not decide on yet
+         */
+        List<Long> reverted() {
+            List<Long> list = new ArrayList<>();
+            for (Long batch : reverted) {
+                if (!skipped.contains(batch) && !replan.contains(batch)) {
+                    list.add(batch);
+                }
+            }
+            return list;
+        }
+
+        /**
+         * A replanned batch is done once a later batch starts at the same row. This is derived from the
+         * "submitted" lines, so a crash between the two can not send the rows twice.
+         */
+        Map<Long, Submitted> replanByFirstRow() {
+            Map<Long, Submitted> byFirstRow = new HashMap<>();
+            for (Long batch : replan) {
+                Submitted s = submitted.get(batch);
+                boolean resent = false;
+                for (Submitted later : submitted.values()) {
+                    resent |= later.batch > s.batch && later.firstRow == s.firstRow;
+                }
+                if (!resent) {
+                    byFirstRow.put(s.firstRow, s);
+                }
+            }
+            return byFirstRow;
+        }
+
+        void requireReverted(long batch) {
+            if (!reverted().contains(batch)) {
+                throw new IllegalArgumentException("batch " + batch + " is not an open reverted batch");
+            }
+        }
+
+        void resolve(String decision, long batch) throws IOException {
+            ("skipped".equals(decision) ? skipped : replan).add(batch);
+            append(decision + " " + batch);
+        }
+
+        long nextRow() {
+            long next = 0;
+            for (Submitted s : submitted.values()) {
+                next = Math.max(next, s.firstRow + s.rows);
+            }
+            return next;
+        }
+
+        long nextBatch() {
+            return submitted.isEmpty() ? 0 : Collections.max(submitted.keySet()) + 1;
+        }
+
+        void start(BigInteger supply, String fingerprint) throws IOException {
+            startSupply = supply;
+            this.fingerprint = fingerprint;
+            append("start " + supply + " " + fingerprint);
+        }
+
+        void submitted(Submitted s) throws IOException {
+            submitted.put(s.batch, s);
+            append("submitted " + s.batch + " " + s.firstRow + " " + s.rows + " " + s.txHash + " " + s.rawTx);
+        }
+
+        void confirmed(long batch) throws IOException {
+            confirmed.add(batch);
+            append("confirmed " + batch);
+        }
+
+        void reverted(long batch) throws IOException {
+            reverted.add(batch);
+            append("reverted " + batch);
+        }
+
+        private void append(String line) throws IOException {
+            try (FileOutputStream out = new FileOutputStream(file.toFile(), true)) {
+                out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+                out.getFD().sync();
+            }
+        }
+    }
+
+    /**
+     * Reads and validates one allocation per line. Empty lines, lines starting with # and a CSV
+     * header are skipped. Rows are numbered from 0 in the order of the file.
+     */
+    static class AllocationReader implements Closeable {
+        private final BufferedReader reader;
+        private long line = 0;
+        private long row = 0;
+
+        AllocationReader(Path file) throws IOException {
+            this.reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+        }
+
+        long line() {
+            return line;
+        }
+
+        Allocation next() throws IOException {
+            String text;
+            while ((text = reader.readLine()) != null) {
+                line++;
+                text = text.trim();
+                if (text.isEmpty() || text.startsWith("#")) {
+                    continue;
+                }
+                String address;
+                String amount;
+                if (text.startsWith("{")) {
+                    JsonNode node = JSON.readTree(text);
+                    address = node.path("address").asText("");
+                    amount = node.path("amount").asText("");
+                } else {
+                    int comma = text.indexOf(',');
+                    if (comma < 0) {
+                        throw new IllegalArgumentException("line " + line + ": expected address,amount");
+                    }
+                    address = text.substring(0, comma).trim();
+                    amount = text.substring(comma + 1).trim();
+                    if (line == 1 && !address.startsWith("0x")) {
+                        continue; //header
+                    }
+                }
+                return new Allocation(row++, validAddress(address), validAmount(amount));
+            }
+            return null;
+        }
+
+        private String validAddress(String address) {
+            if (!ADDRESS.matcher(address).matches() || ZERO_ADDRESS.equals(address)) {
+                throw new IllegalArgumentException("line " + line + ": invalid address " + address);
+            }
+            return address;
+        }
+
+        private BigInteger validAmount(String amount) {
+            BigInteger value;
+            try {
+                value = new BigInteger(amount);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("line " + line + ": invalid amount " + amount);
+            }
+            if (value.signum() <= 0 || value.compareTo(MAX88) >= 0) {
+                throw new IllegalArgumentException("line " + line + ": amount must be > 0 and < max88");
+            }
+            return value;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
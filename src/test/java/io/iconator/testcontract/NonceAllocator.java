@@ -0,0 +1,110 @@
+package io.iconator.testcontract;
+
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.generated.Uint256;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.methods.request.Transaction;
+import org.web3j.utils.Numeric;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hands out the nonces of presigned transfers. Eureka keeps 256 nonces of a signer in one storage word
+ * (nonceBitmap), the first use of a word costs a new SSTORE, every further nonce in it only an update.
+ * So nonces are handed out in ascending order, word by word, and nonces the contract has seen are skipped.
+ *
+ * A word is read with one eth_call when the allocator enters it. Nonces can be used in any order, a
+ * wallet that signs on several devices can give every device its own range with start(...).
+ */
+public class NonceAllocator {
+
+    public static final int NONCES_PER_WORD = 256;
+
+    private final Web3j web3j;
+    private final String token;
+    private final ConcurrentHashMap<String, Signer> signers = new ConcurrentHashMap<>();
+
+    public NonceAllocator(Web3j web3j, String token) {
+        this.web3j = web3j;
+        this.token = token;
+    }
+
+    public static long word(long nonce) {
+        return nonce >>> 8;
+    }
+
+    public static int bit(long nonce) {
+        return (int) (nonce & 0xff);
+    }
+
+    private static class Signer {
+        long next;
+        long word = -1;
+        BigInteger bitmap = BigInteger.ZERO;
+
+        Signer(long next) {
+            this.next = next;
+        }
+    }
+
+    /**
+     * Lets the next nonce of the signer start at the given nonce.
+     */
+    public void start(String signer, long nonce) {
+        signers.put(signer.toLowerCase(), new Signer(nonce));
+    }
+
+    /**
+     * @return the lowest nonce at or above the last one that the contract has not seen and that was not
+     * handed out before
+     */
+    public long next(String signer) throws IOException {
+        Signer s = signers.get(signer.toLowerCase());
+        if (s == null) {
+            Signer fresh = new Signer(0);
+            s = signers.putIfAbsent(signer.toLowerCase(), fresh);
+            if (s == null) {
+                s = fresh;
+            }
+        }
+        synchronized (s) {
+            while (true) {
+                long nonce = s.next++;
+                if (word(nonce) != s.word) {
+                    s.word = word(nonce);
+                    s.bitmap = bitmap(signer, s.word);
+                }
+                if (!s.bitmap.testBit(bit(nonce))) {
+                    return nonce;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return nonceBitmap(signer, word) of the contract
+     */
+    public BigInteger bitmap(String signer, long word) throws IOException {
+        return call("nonceBitmap", new Address(signer), new Uint256(BigInteger.valueOf(word)));
+    }
+
+    public boolean isUsed(String signer, BigInteger nonce) throws IOException {
+        return call("nonceUsed", new Address(signer), new Uint256(nonce)).signum() != 0;
+    }
+
+    private BigInteger call(String name, Type... args) throws IOException {
+        Function function = new Function(name, Arrays.asList(args), Collections.<TypeReference<?>>emptyList());
+        String result = web3j.ethCall(Transaction.createEthCallTransaction(BalanceIndexer.ZERO_ADDRESS, token,
+                FunctionEncoder.encode(function)), DefaultBlockParameterName.LATEST).send().getValue();
+        return Numeric.toBigInt(result);
+    }
+}
@@ -0,0 +1,58 @@
+package io.iconator.testcontract;
+
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out transaction nonces locally, so that many transactions of one account can be in flight
+ * without asking the node for every single one. The first nonce of an account is the pending
+ * transaction count of the node.
+ */
+public class NonceManager {
+
+    private final Web3j web3j;
+    private final ConcurrentHashMap<String, AtomicLong> nonces = new ConcurrentHashMap<>();
+
+    public NonceManager(Web3j web3j) {
+        this.web3j = web3j;
+    }
+
+    public BigInteger next(String address) throws IOException {
+        return BigInteger.valueOf(counter(address).getAndIncrement());
+    }
+
+    /**
+     * Forget the local state of this account, the next nonce is read from the node again. Use this
+     * after a transaction was dropped or rejected with a nonce error.
+     */
+    public void resync(String address) throws IOException {
+        nonces.put(key(address), new AtomicLong(pendingCount(address)));
+    }
+
+    private AtomicLong counter(String address) throws IOException {
+        String key = key(address);
+        AtomicLong counter = nonces.get(key);
+        if (counter == null) {
+            AtomicLong fresh = new AtomicLong(pendingCount(address));
+            counter = nonces.putIfAbsent(key, fresh);
+            if (counter == null) {
+                counter = fresh;
+            }
+        }
+        return counter;
+    }
+
+    private long pendingCount(String address) throws IOException {
+        return web3j.ethGetTransactionCount(address, DefaultBlockParameterName.PENDING).send()
+                .getTransactionCount().longValueExact();
+    }
+
+    private static String key(String address) {
+        return address.toLowerCase();
+    }
+}
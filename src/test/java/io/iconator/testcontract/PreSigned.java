@@ -0,0 +1,50 @@
+package io.iconator.testcontract;
+
+import org.web3j.crypto.Credentials;
+import org.web3j.utils.Numeric;
+
+import java.math.BigInteger;
+import java.util.List;
+
+/**
+ * Builds the payloads for transferPreSigned and transferAndCallPreSigned, the same way as
+ * Utils.transferPreSignedHashing in Utils.sol: keccak256 over the tightly packed arguments.
+ * Convenience wrapper around PreSignedSigner for hex addresses and BigInteger amounts.
+ */
+public class PreSigned {
+
+    public static byte[] hash(String token, String to, BigInteger value, BigInteger fee, BigInteger nonce) {
+        byte[] hash = new byte[32];
+        PreSignedSigner.hash(Numeric.hexStringToByteArray(token), Numeric.hexStringToByteArray(to),
+                Numeric.toBytesPadded(value, 32), Numeric.toBytesPadded(fee, 32), Numeric.toBytesPadded(nonce, 32), hash, 0);
+        return hash;
+    }
+
+    public static byte[] hash(String token, String to, BigInteger value, BigInteger fee, BigInteger nonce, byte[] methodName, byte[] args) {
+        byte[] hash = new byte[32];
+        PreSignedSigner.hash(Numeric.hexStringToByteArray(token), Numeric.hexStringToByteArray(to),
+                Numeric.toBytesPadded(value, 32), Numeric.toBytesPadded(fee, 32), Numeric.toBytesPadded(nonce, 32),
+                methodName, args, 0, args.length, hash, 0);
+        return hash;
+    }
+
+    /**
+     * Signs the hash without the "\x19Ethereum Signed Message" prefix, as Utils.recover calls ecrecover
+     * on the plain hash.
+     * @return the 65 byte signature r, s, v
+     */
+    public static byte[] sign(byte[] hash, Credentials credentials) {
+        return new PreSignedSigner(credentials).sign(hash);
+    }
+
+    /**
+     * @return the signatures concatenated, as transferPreSignedBatch expects them
+     */
+    public static byte[] concat(List<byte[]> signatures) {
+        byte[] all = new byte[signatures.size() * 65];
+        for (int i = 0; i < signatures.size(); i++) {
+            System.arraycopy(signatures.get(i), 0, all, i * 65, 65);
+        }
+        return all;
+    }
+}
@@ -0,0 +1,512 @@
+package io.iconator.testcontract;
+
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.DynamicArray;
+import org.web3j.abi.datatypes.DynamicBytes;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.generated.Bytes4;
+import org.web3j.abi.datatypes.generated.Uint256;
+import org.web3j.crypto.*;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.methods.response.EthSendTransaction;
+import org.web3j.protocol.core.methods.response.TransactionReceipt;
+import org.web3j.utils.Numeric;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Relays transferPreSigned and transferAndCallPreSigned payloads: the relayer pays the gas and earns the fee.
+ *
+ * submit(...) is thread safe and does the expensive part on the caller thread: the signer is recovered
+ * the same way as Utils.recover (65 bytes, v of 0/1 or 27/28, ecrecover on the plain hash), and payloads
+ * that were seen before are dropped. Like the nonce bitmap of the contract, a duplicate is a second
+ * payload with the same signer and nonce, whatever the signature.
+ *
+ * Accepted payloads wait in a queue ordered by fee. One submitter thread checks the nonce bitmap of
+ * the contract, signs the transaction with a local nonce and broadcasts it without
+ * waiting for the receipt, up to maxInFlight transactions. A confirmer thread collects the receipts.
+ * With batchSize > 1, up to batchSize transferPreSigned payloads are sent in one transferPreSignedBatch.
+ * If one of them fails, the whole batch reverts.
+ *
+ * A payload whose transaction was rejected, could not be sent or reverted is forgotten, so the same
+ * payload can be submitted again. Errors of the node are counted in rejected() and ioErrors().
+ */
+public class PreSignedRelayer implements Closeable {
+
+    public enum Status {QUEUED, DUPLICATE, INVALID_SIGNATURE, FEE_TOO_LOW, QUEUE_FULL}
+
+    public static class Payload {
+        public final byte[] signature;
+        public final String to;
+        public final BigInteger value;
+        public final BigInteger fee;
+        public final BigInteger nonce;
+        //only for transferAndCallPreSigned, null otherwise
+        public final byte[] methodName;
+        public final byte[] args;
+
+        public Payload(byte[] signature, String to, BigInteger value, BigInteger fee, BigInteger nonce) {
+            this(signature, to, value, fee, nonce, null, null);
+        }
+
+        public Payload(byte[] signature, String to, BigInteger value, BigInteger fee, BigInteger nonce, byte[] methodName, byte[] args) {
+            this.signature = signature;
+            this.to = to;
+            this.value = value;
+            this.fee = fee;
+            this.nonce = nonce;
+            this.methodName = methodName;
+            this.args = args;
+        }
+
+        public boolean isCall() {
+            return methodName != null;
+        }
+
+        public byte[] hash(String token) {
+            return isCall()
+                    ? PreSigned.hash(token, to, value, fee, nonce, methodName, args)
+                    : PreSigned.hash(token, to, value, fee, nonce);
+        }
+    }
+
+    private static class Queued implements Comparable<Queued> {
+        final Payload payload;
+        final String signer;
+        final long seq;
+        final long accepted;
+
+        Queued(Payload payload, String signer, long seq, long accepted) {
+            this.payload = payload;
+            this.signer = signer;
+            this.seq = seq;
+            this.accepted = accepted;
+        }
+
+        @Override
+        public int compareTo(Queued o) {
+            //highest fee first, then first come first served
+            int cmp = o.payload.fee.compareTo(payload.fee);
+            return cmp != 0 ? cmp : Long.compare(seq, o.seq);
+        }
+    }
+
+    private static class Pending {
+        final String txHash;
+        final List<Queued> payloads;
+
+        Pending(String txHash, List<Queued> payloads) {
+            this.txHash = txHash;
+            this.payloads = payloads;
+        }
+    }
+
+    private final Web3j web3j;
+    private final NonceManager nonces;
+    private final Credentials relayer;
+    private final String token;
+    private final NonceAllocator allocator;
+
+    private final ConcurrentHashMap<String, Boolean> seen = new ConcurrentHashMap<>();
+    private final PriorityBlockingQueue<Queued> queue = new PriorityBlockingQueue<>();
+    private final ConcurrentLinkedQueue<Pending> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicLong seq = new AtomicLong();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private Semaphore inFlight;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong invalid = new AtomicLong();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong confirmed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong ioErrors = new AtomicLong();
+    private final LatencyRecorder latency = new LatencyRecorder();
+
+    private long gasLimit = 200_000;
+    private long callGasLimit = 400_000;
+    private BigInteger gasPrice = BigInteger.ZERO;
+    private BigInteger minFee = BigInteger.ZERO;
+    private int maxInFlight = 64;
+    private int batchSize = 1;
+    private int queueCapacity = 100_000;
+    private boolean checkChain = true;
+    private long pollMillis = 20;
+
+    private volatile boolean running;
+    private Thread submitter;
+    private Thread confirmer;
+
+    public PreSignedRelayer(Web3j web3j, NonceManager nonces, Credentials relayer, String token) {
+        this.web3j = web3j;
+        this.nonces = nonces;
+        this.relayer = relayer;
+        this.token = token;
+        this.allocator = new NonceAllocator(web3j, token);
+    }
+
+    public PreSignedRelayer gas(long gasLimit, long callGasLimit, BigInteger gasPrice) {
+        this.gasLimit = gasLimit;
+        this.callGasLimit = callGasLimit;
+        this.gasPrice = gasPrice;
+        return this;
+    }
+
+    public PreSignedRelayer minFee(BigInteger minFee) {
+        this.minFee = minFee;
+        return this;
+    }
+
+    public PreSignedRelayer maxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    /**
+     * @param batchSize transferPreSigned payloads per transaction, 1 sends every payload on its own
+     */
+    public PreSignedRelayer batchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public PreSignedRelayer queueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    /**
+     * @param checkChain look up every nonce in the nonce bitmap before it is sent
+     */
+    public PreSignedRelayer checkChain(boolean checkChain) {
+        this.checkChain = checkChain;
+        return this;
+    }
+
+    public PreSignedRelayer start() {
+        inFlight = new Semaphore(maxInFlight);
+        running = true;
+        submitter = new Thread(this::submitLoop, "relayer-submit");
+        confirmer = new Thread(this::confirmLoop, "relayer-confirm");
+        submitter.setDaemon(true);
+        confirmer.setDaemon(true);
+        submitter.start();
+        confirmer.start();
+        return this;
+    }
+
+    public Status submit(Payload payload) {
+        if (payload.fee.compareTo(minFee) < 0) {
+            return Status.FEE_TOO_LOW;
+        }
+        if (queue.size() >= queueCapacity) {
+            return Status.QUEUE_FULL;
+        }
+        byte[] hash = payload.hash(token);
+        String signer = recover(hash, payload.signature);
+        if (signer == null) {
+            invalid.incrementAndGet();
+            return Status.INVALID_SIGNATURE;
+        }
+        if (seen.putIfAbsent(key(signer, payload.nonce), Boolean.TRUE) != null) {
+            duplicates.incrementAndGet();
+            return Status.DUPLICATE;
+        }
+        accepted.incrementAndGet();
+        outstanding.incrementAndGet();
+        queue.add(new Queued(payload, signer, seq.getAndIncrement(), System.nanoTime()));
+        return Status.QUEUED;
+    }
+
+    /**
+     * Same as Utils.recover in Utils.sol.
+     * @return the signer, or null where the contract would recover address(0)
+     */
+    public static String recover(byte[] hash, byte[] signature) {
+        if (signature == null || signature.length != 65) {
+            return null;
+        }
+        int v = signature[64] & 0xff;
+        if (v < 27) {
+            v += 27;
+        }
+        if (v != 27 && v != 28) {
+            return null;
+        }
+        BigInteger r = new BigInteger(1, Arrays.copyOfRange(signature, 0, 32));
+        BigInteger s = new BigInteger(1, Arrays.copyOfRange(signature, 32, 64));
+        try {
+            BigInteger publicKey = Sign.recoverFromSignature(v - 27, new ECDSASignature(r, s), hash);
+            return publicKey == null ? null : "0x" + Keys.getAddress(publicKey);
+        } catch (RuntimeException e) {
+            //r or s out of range, ecrecover returns 0
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the contract has seen this nonce of the signer
+     */
+    public boolean isUsed(String signer, BigInteger nonce) throws IOException {
+        return allocator.isUsed(signer, nonce);
+    }
+
+    private void submitLoop() {
+        while (running) {
+            Queued q;
+            try {
+                q = queue.poll(pollMillis, TimeUnit.MILLISECONDS);
+                if (q == null) {
+                    continue;
+                }
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+            List<Queued> payloads = new ArrayList<>(batchSize);
+            try {
+                collect(q, payloads);
+                if (payloads.isEmpty()) {
+                    inFlight.release();
+                    continue;
+                }
+                String rawTx = sign(payloads);
+                EthSendTransaction response = web3j.ethSendRawTransaction(rawTx).send();
+                if (response.hasError()) {
+                    rejected.incrementAndGet();
+                    nonces.resync(relayer.getAddress());
+                    fail(payloads);
+                    continue;
+                }
+                submitted.addAndGet(payloads.size());
+                pending.add(new Pending(response.getTransactionHash(), payloads));
+            } catch (IOException e) {
+                ioErrors.incrementAndGet();
+                fail(payloads);
+            }
+        }
+    }
+
+    /**
+     * Adds the first payload and, in batch mode, more transferPreSigned payloads from the queue. Payloads
+     * whose nonce is already used are dropped, payloads whose nonce could not be checked are failed.
+     */
+    private void collect(Queued first, List<Queued> payloads) {
+        Queued q = first;
+        while (q != null) {
+            try {
+                if (checkChain && isUsed(q.signer, q.payload.nonce)) {
+                    duplicates.incrementAndGet();
+                    outstanding.decrementAndGet();
+                } else {
+                    payloads.add(q);
+                }
+            } catch (IOException e) {
+                ioErrors.incrementAndGet();
+                forget(q);
+            }
+            if (batchSize <= 1 || q.payload.isCall() || payloads.size() >= batchSize) {
+                return;
+            }
+            Queued next = queue.poll();
+            if (next != null && next.payload.isCall()) {
+                //sent on its own with the next transaction
+                queue.add(next);
+                return;
+            }
+            q = next;
+        }
+    }
+
+    private void confirmLoop() {
+        while (running) {
+            try {
+                Iterator<Pending> it = pending.iterator();
+                while (it.hasNext()) {
+                    Pending p = it.next();
+                    Optional<TransactionReceipt> receipt = web3j.ethGetTransactionReceipt(p.txHash).send().getTransactionReceipt();
+                    if (receipt.isPresent()) {
+                        it.remove();
+                        long now = System.nanoTime();
+                        for (Queued q : p.payloads) {
+                            latency.record(now - q.accepted);
+                        }
+                        if (MintPipeline.isSuccess(receipt.get())) {
+                            confirmed.addAndGet(p.payloads.size());
+                            done(p.payloads.size());
+                        } else {
+                            fail(p.payloads);
+                        }
+                    }
+                }
+                Thread.sleep(pollMillis);
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                //the receipts are polled again with the next round
+                ioErrors.incrementAndGet();
+            }
+        }
+    }
+
+    private void done(int payloads) {
+        inFlight.release();
+        outstanding.addAndGet(-payloads);
+    }
+
+    /**
+     * The nonces of these payloads are not used on chain, they may be submitted again.
+     */
+    private void fail(List<Queued> payloads) {
+        for (Queued q : payloads) {
+            forget(q);
+        }
+        inFlight.release();
+    }
+
+    /**
+     * The nonce of this payload is not used on chain, it may be submitted again.
+     */
+    private void forget(Queued q) {
+        seen.remove(key(q.signer, q.payload.nonce));
+        failed.incrementAndGet();
+        outstanding.decrementAndGet();
+    }
+
+    private static String key(String signer, BigInteger nonce) {
+        return signer + ":" + nonce;
+    }
+
+    private String sign(List<Queued> payloads) throws IOException {
+        if (payloads.size() == 1) {
+            return sign(payloads.get(0).payload);
+        }
+        List<byte[]> signatures = new ArrayList<>(payloads.size());
+        List<Address> to = new ArrayList<>(payloads.size());
+        List<Uint256> values = new ArrayList<>(payloads.size());
+        List<Uint256> fees = new ArrayList<>(payloads.size());
+        List<Uint256> nonceList = new ArrayList<>(payloads.size());
+        for (Queued q : payloads) {
+            signatures.add(q.payload.signature);
+            to.add(new Address(q.payload.to));
+            values.add(new Uint256(q.payload.value));
+            fees.add(new Uint256(q.payload.fee));
+            nonceList.add(new Uint256(q.payload.nonce));
+        }
+        Function function = new Function("transferPreSignedBatch", Arrays.<Type>asList(
+                new DynamicBytes(PreSigned.concat(signatures)), new DynamicArray<>(to), new DynamicArray<>(values),
+                new DynamicArray<>(fees), new DynamicArray<>(nonceList)), Collections.<TypeReference<?>>emptyList());
+        RawTransaction tx = RawTransaction.createTransaction(nonces.next(relayer.getAddress()), gasPrice,
+                BigInteger.valueOf(gasLimit * payloads.size()), token, FunctionEncoder.encode(function));
+        return Numeric.toHexString(TransactionEncoder.signMessage(tx, relayer));
+    }
+
+    private String sign(Payload p) throws IOException {
+        Function function;
+        if (p.isCall()) {
+            function = new Function("transferAndCallPreSigned", Arrays.<Type>asList(new DynamicBytes(p.signature),
+                    new Address(p.to), new Uint256(p.value), new Uint256(p.fee), new Uint256(p.nonce),
+                    new Bytes4(p.methodName), new DynamicBytes(p.args)), Collections.<TypeReference<?>>emptyList());
+        } else {
+            function = new Function("transferPreSigned", Arrays.<Type>asList(new DynamicBytes(p.signature),
+                    new Address(p.to), new Uint256(p.value), new Uint256(p.fee), new Uint256(p.nonce)),
+                    Collections.<TypeReference<?>>emptyList());
+        }
+        RawTransaction tx = RawTransaction.createTransaction(nonces.next(relayer.getAddress()), gasPrice,
+                BigInteger.valueOf(p.isCall() ? callGasLimit : gasLimit), token, FunctionEncoder.encode(function));
+        return Numeric.toHexString(TransactionEncoder.signMessage(tx, relayer));
+    }
+
+    /**
+     * Waits until every accepted payload is mined or dropped.
+     * @return false if the timeout elapsed before
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (outstanding.get() > 0) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(pollMillis);
+        }
+        return true;
+    }
+
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    public int inFlight() {
+        return pending.size();
+    }
+
+    public long accepted() {
+        return accepted.get();
+    }
+
+    public long duplicates() {
+        return duplicates.get();
+    }
+
+    public long invalid() {
+        return invalid.get();
+    }
+
+    public long submitted() {
+        return submitted.get();
+    }
+
+    public long confirmed() {
+        return confirmed.get();
+    }
+
+    public long failed() {
+        return failed.get();
+    }
+
+    /**
+     * @return transactions the node refused to accept
+     */
+    public long rejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return failed calls to the node, while sending or while polling for receipts
+     */
+    public long ioErrors() {
+        return ioErrors.get();
+    }
+
+    /**
+     * @return time from submit(...) to the receipt
+     */
+    public LatencyRecorder latency() {
+        return latency;
+    }
+
+    public String metrics() {
+        return "queue=" + queueDepth() + " inFlight=" + inFlight() + " accepted=" + accepted() + " duplicates=" + duplicates()
+                + " invalid=" + invalid() + " submitted=" + submitted() + " confirmed=" + confirmed() + " failed=" + failed()
+                + " rejected=" + rejected() + " ioErrors=" + ioErrors() + " latency: " + latency.summary();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        if (submitter != null) {
+            submitter.interrupt();
+            confirmer.interrupt();
+        }
+    }
+}
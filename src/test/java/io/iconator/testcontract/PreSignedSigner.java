@@ -0,0 +1,182 @@
+package io.iconator.testcontract;
+
+import org.bouncycastle.asn1.x9.X9ECParameters;
+import org.bouncycastle.crypto.digests.KeccakDigest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.ec.CustomNamedCurves;
+import org.bouncycastle.crypto.params.ECDomainParameters;
+import org.bouncycastle.crypto.signers.HMacDSAKCalculator;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.FixedPointCombMultiplier;
+import org.web3j.crypto.Credentials;
+
+import java.math.BigInteger;
+
+/**
+ * Hashes and signs presigned transfers like Utils.transferPreSignedHashing and Sign.signMessage, for
+ * wallets and the relayer that sign many payloads.
+ *
+ * The payload is packed into a thread local buffer and hashed with a thread local keccak instance,
+ * addresses and amounts are taken as raw bytes (or longs), there is no BigInteger or hex string on the
+ * way. Signing produces the same signature as web3j (RFC 6979 k, low s), but the recovery id is taken
+ * from the parity of R instead of recovering the public key up to four times. The curve arithmetic of
+ * BouncyCastle still allocates.
+ */
+public final class PreSignedSigner {
+
+    private static final X9ECParameters PARAMS = CustomNamedCurves.getByName("secp256k1");
+    private static final ECDomainParameters CURVE = new ECDomainParameters(PARAMS.getCurve(), PARAMS.getG(), PARAMS.getN(), PARAMS.getH());
+    private static final BigInteger N = CURVE.getN();
+    private static final BigInteger HALF_N = N.shiftRight(1);
+    private static final FixedPointCombMultiplier MULTIPLIER = new FixedPointCombMultiplier();
+
+    /* "48664c16": transferPreSignedHashing(address,address,address,uint256,uint256,uint256) */
+    private static final byte[] TRANSFER_PRESIGNED = {0x48, 0x66, 0x4c, 0x16};
+    /* "dbe43fca": transferPreSignedHashing(address,address,address,uint256,uint256,uint256,bytes4,bytes) */
+    private static final byte[] TRANSFER_AND_CALL_PRESIGNED = {(byte) 0xdb, (byte) 0xe4, 0x3f, (byte) 0xca};
+    //selector, token, to, value, fee, nonce
+    private static final int PAYLOAD = 4 + 20 + 20 + 32 * 3;
+
+    private static final class State {
+        final KeccakDigest keccak = new KeccakDigest(256);
+        final HMacDSAKCalculator k = new HMacDSAKCalculator(new SHA256Digest());
+        final byte[] word = new byte[32];
+        byte[] buffer = new byte[PAYLOAD + 4 + 256];
+    }
+
+    private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+    private final BigInteger privateKey;
+
+    public PreSignedSigner(Credentials credentials) {
+        this(credentials.getEcKeyPair().getPrivateKey());
+    }
+
+    public PreSignedSigner(BigInteger privateKey) {
+        this.privateKey = privateKey;
+    }
+
+    /**
+     * transferPreSignedHashing(token, to, value, fee, nonce)
+     * @param token 20 bytes
+     * @param to 20 bytes
+     * @param value 32 bytes, big endian
+     * @param fee 32 bytes, big endian
+     * @param nonce 32 bytes, big endian
+     * @param out receives the 32 byte hash at outOffset
+     */
+    public static void hash(byte[] token, byte[] to, byte[] value, byte[] fee, byte[] nonce, byte[] out, int outOffset) {
+        State state = STATE.get();
+        byte[] b = state.buffer;
+        writeCommon(b, TRANSFER_PRESIGNED, token, to, value, fee, nonce);
+        keccak(state, b, PAYLOAD, out, outOffset);
+    }
+
+    /**
+     * Same as above for amounts and nonces that fit into a long.
+     */
+    public static void hash(byte[] token, byte[] to, long value, long fee, long nonce, byte[] out, int outOffset) {
+        State state = STATE.get();
+        byte[] b = state.buffer;
+        System.arraycopy(TRANSFER_PRESIGNED, 0, b, 0, 4);
+        System.arraycopy(token, 0, b, 4, 20);
+        System.arraycopy(to, 0, b, 24, 20);
+        writeLong(b, 44, value);
+        writeLong(b, 76, fee);
+        writeLong(b, 108, nonce);
+        keccak(state, b, PAYLOAD, out, outOffset);
+    }
+
+    /**
+     * transferPreSignedHashing(token, to, value, fee, nonce, methodName, args)
+     * @param methodName 4 bytes
+     */
+    public static void hash(byte[] token, byte[] to, byte[] value, byte[] fee, byte[] nonce, byte[] methodName,
+                            byte[] args, int argsOffset, int argsLength, byte[] out, int outOffset) {
+        State state = STATE.get();
+        int length = PAYLOAD + 4 + argsLength;
+        if (state.buffer.length < length) {
+            state.buffer = new byte[Math.max(length, state.buffer.length * 2)];
+        }
+        byte[] b = state.buffer;
+        writeCommon(b, TRANSFER_AND_CALL_PRESIGNED, token, to, value, fee, nonce);
+        System.arraycopy(methodName, 0, b, PAYLOAD, 4);
+        System.arraycopy(args, argsOffset, b, PAYLOAD + 4, argsLength);
+        keccak(state, b, length, out, outOffset);
+    }
+
+    /**
+     * Signs the hash without the "\x19Ethereum Signed Message" prefix.
+     * @param out receives r, s and v (27 or 28) in 65 bytes at outOffset
+     */
+    public void sign(byte[] hash, int hashOffset, byte[] out, int outOffset) {
+        State state = STATE.get();
+        byte[] message = state.word;
+        System.arraycopy(hash, hashOffset, message, 0, 32);
+        BigInteger e = new BigInteger(1, message);
+        state.k.init(N, privateKey, message);
+
+        BigInteger r;
+        BigInteger s;
+        ECPoint p;
+        do {
+            BigInteger k = state.k.nextK();
+            p = MULTIPLIER.multiply(CURVE.getG(), k).normalize();
+            r = p.getAffineXCoord().toBigInteger().mod(N);
+            s = k.modInverse(N).multiply(e.add(privateKey.multiply(r))).mod(N);
+        } while (r.signum() == 0 || s.signum() == 0);
+
+        int recId = p.getAffineYCoord().testBitZero() ? 1 : 0;
+        if (p.getAffineXCoord().toBigInteger().compareTo(N) >= 0) {
+            recId |= 2;
+        }
+        if (s.compareTo(HALF_N) > 0) {
+            //low s, as web3j does, the point -R has the other parity
+            s = N.subtract(s);
+            recId ^= 1;
+        }
+        writeUnsigned(r, out, outOffset);
+        writeUnsigned(s, out, outOffset + 32);
+        out[outOffset + 64] = (byte) (27 + recId);
+    }
+
+    public byte[] sign(byte[] hash) {
+        byte[] signature = new byte[65];
+        sign(hash, 0, signature, 0);
+        return signature;
+    }
+
+    private static void writeCommon(byte[] b, byte[] selector, byte[] token, byte[] to, byte[] value, byte[] fee, byte[] nonce) {
+        System.arraycopy(selector, 0, b, 0, 4);
+        System.arraycopy(token, 0, b, 4, 20);
+        System.arraycopy(to, 0, b, 24, 20);
+        System.arraycopy(value, 0, b, 44, 32);
+        System.arraycopy(fee, 0, b, 76, 32);
+        System.arraycopy(nonce, 0, b, 108, 32);
+    }
+
+    private static void writeLong(byte[] b, int offset, long value) {
+        for (int i = 0; i < 24; i++) {
+            b[offset + i] = 0;
+        }
+        for (int i = 0; i < 8; i++) {
+            b[offset + 31 - i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    private static void keccak(State state, byte[] in, int length, byte[] out, int outOffset) {
+        state.keccak.update(in, 0, length);
+        state.keccak.doFinal(out, outOffset);
+    }
+
+    private static void writeUnsigned(BigInteger value, byte[] out, int offset) {
+        byte[] bytes = value.toByteArray();
+        //toByteArray has a leading zero byte if the highest bit is set
+        int skip = bytes.length > 32 ? bytes.length - 32 : 0;
+        int length = bytes.length - skip;
+        for (int i = 0; i < 32 - length; i++) {
+            out[offset + i] = 0;
+        }
+        System.arraycopy(bytes, skip, out, offset + 32 - length, length);
+    }
+}
@@ -0,0 +1,213 @@
+package io.iconator.testcontract;
+
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.DynamicArray;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.Type;
+
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Finds the holders that Eureka.reclaim(address[]) accepts and plans the reclaim transactions from the
+ * BalanceIndexer, without a single eth_call.
+ *
+ * A holder is eligible if its last snapshot is older than oneYearsInBlocks at the block the reclaim is
+ * mined in. What is reclaimed is the loyalty part of balanceWithLoyaltyClaimOf, which only depends on the
+ * holder itself and loyaltyPerToken. reclaim does not change loyaltyPerToken, so every holder can be computed
+ * on its own and the scan runs fork-join over all holders.
+ *
+ * Every owner in a batch costs about the same gas (one new snapshot), so the candidates are sorted by the
+ * reclaimable amount and the batches are filled in that order: the first batch reclaims the most tokens
+ * per gas. A batch has at most MAX_OWNERS owners, as reclaim counts with an uint8, and stays below the
+ * block gas limit.
+ */
+public class ReclaimPlanner {
+
+    public static final long ONE_YEAR_IN_BLOCKS = 4 * 60 * 24 * 365;
+    public static final int MAX_OWNERS = 255;
+
+    private final BalanceIndexer indexer;
+
+    private long baseGas = 80_000;
+    private long gasPerOwner = 50_000;
+    private long blockGasLimit = 8_000_000;
+    private int threshold = 1024;
+
+    public ReclaimPlanner(BalanceIndexer indexer) {
+        this.indexer = indexer;
+    }
+
+    public ReclaimPlanner gas(long baseGas, long gasPerOwner, long blockGasLimit) {
+        this.baseGas = baseGas;
+        this.gasPerOwner = gasPerOwner;
+        this.blockGasLimit = blockGasLimit;
+        return this;
+    }
+
+    /**
+     * @param threshold holders scanned by one task before it is split
+     */
+    public ReclaimPlanner threshold(int threshold) {
+        this.threshold = threshold;
+        return this;
+    }
+
+    /**
+     * @return owners per batch: at most MAX_OWNERS, and few enough to stay below the block gas limit
+     */
+    public int ownersPerBatch() {
+        long byGas = (blockGasLimit - baseGas) / gasPerOwner;
+        return (int) Math.max(1, Math.min(MAX_OWNERS, byGas));
+    }
+
+    public static class Candidate {
+        public final String owner;
+        public final long lastBlock;
+        public final BigInteger balance;
+        public final BigInteger reclaimable;
+
+        public Candidate(String owner, long lastBlock, BigInteger balance, BigInteger reclaimable) {
+            this.owner = owner;
+            this.lastBlock = lastBlock;
+            this.balance = balance;
+            this.reclaimable = reclaimable;
+        }
+    }
+
+    public static class Batch {
+        public final List<String> owners;
+        public final BigInteger reclaimable;
+        public final long gasLimit;
+
+        public Batch(List<String> owners, BigInteger reclaimable, long gasLimit) {
+            this.owners = Collections.unmodifiableList(owners);
+            this.reclaimable = reclaimable;
+            this.gasLimit = gasLimit;
+        }
+
+        /**
+         * @return the input of reclaim(address[]) for this batch
+         */
+        public String encode() {
+            List<Address> addresses = new ArrayList<>(owners.size());
+            for (String owner : owners) {
+                addresses.add(new Address(owner));
+            }
+            Function function = new Function("reclaim", Arrays.<Type>asList(new DynamicArray<>(addresses)),
+                    Collections.<TypeReference<?>>emptyList());
+            return FunctionEncoder.encode(function);
+        }
+    }
+
+    /**
+     * Same as scan(blockNumber, ForkJoinPool.commonPool()).
+     */
+    public List<Candidate> scan(long blockNumber) {
+        return scan(blockNumber, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * The indexer must not be synced while the scan runs.
+     * @param blockNumber the block the reclaim transaction is expected in
+     * @return every eligible holder with something to reclaim, largest amount first
+     */
+    public List<Candidate> scan(long blockNumber, ForkJoinPool pool) {
+        String[] holders = indexer.holders().toArray(new String[0]);
+        List<Candidate> candidates = pool.invoke(new ScanTask(holders, 0, holders.length, blockNumber));
+        Collections.sort(candidates, new Comparator<Candidate>() {
+            @Override
+            public int compare(Candidate a, Candidate b) {
+                int cmp = b.reclaimable.compareTo(a.reclaimable);
+                return cmp != 0 ? cmp : a.owner.compareTo(b.owner);
+            }
+        });
+        return candidates;
+    }
+
+    /**
+     * @param exclude the contract owner, it receives the tokens and is never reclaimed from
+     */
+    public List<Batch> plan(long blockNumber, String exclude) {
+        return batches(scan(blockNumber), exclude);
+    }
+
+    public List<Batch> batches(List<Candidate> candidates, String exclude) {
+        int perBatch = ownersPerBatch();
+        List<Batch> batches = new ArrayList<>();
+        List<String> owners = new ArrayList<>(perBatch);
+        BigInteger total = BigInteger.ZERO;
+        for (Candidate candidate : candidates) {
+            if (exclude != null && candidate.owner.equalsIgnoreCase(exclude)) {
+                continue;
+            }
+            owners.add(candidate.owner);
+            total = total.add(candidate.reclaimable);
+            if (owners.size() == perBatch) {
+                batches.add(new Batch(owners, total, baseGas + gasPerOwner * owners.size()));
+                owners = new ArrayList<>(perBatch);
+                total = BigInteger.ZERO;
+            }
+        }
+        if (!owners.isEmpty()) {
+            batches.add(new Batch(owners, total, baseGas + gasPerOwner * owners.size()));
+        }
+        return batches;
+    }
+
+    Candidate candidate(String holder, long blockNumber) {
+        SnapshotView h = indexer.history(holder);
+        if (h == null || h.size() == 0) {
+            return null;
+        }
+        //same as the require in reclaim
+        long lastBlock = h.block(h.size() - 1);
+        if (lastBlock + ONE_YEAR_IN_BLOCKS >= blockNumber) {
+            return null;
+        }
+        BigInteger[] claim = indexer.balanceWithLoyaltyClaimOf(holder);
+        if (claim[1].signum() == 0) {
+            return null;
+        }
+        return new Candidate(holder, lastBlock, claim[0], claim[1]);
+    }
+
+    private class ScanTask extends RecursiveTask<List<Candidate>> {
+        private final String[] holders;
+        private final int start;
+        private final int end;
+        private final long blockNumber;
+
+        private ScanTask(String[] holders, int start, int end, long blockNumber) {
+            this.holders = holders;
+            this.start = start;
+            this.end = end;
+            this.blockNumber = blockNumber;
+        }
+
+        @Override
+        protected List<Candidate> compute() {
+            if (end - start <= threshold) {
+                List<Candidate> result = new ArrayList<>();
+                for (int i = start; i < end; i++) {
+                    Candidate candidate = candidate(holders[i], blockNumber);
+                    if (candidate != null) {
+                        result.add(candidate);
+                    }
+                }
+                return result;
+            }
+            int mid = (start + end) >>> 1;
+            ScanTask left = new ScanTask(holders, start, mid, blockNumber);
+            left.fork();
+            List<Candidate> right = new ScanTask(holders, mid, end, blockNumber).compute();
+            List<Candidate> result = left.join();
+            result.addAll(right);
+            return result;
+        }
+    }
+}
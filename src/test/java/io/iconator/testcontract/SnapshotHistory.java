@@ -0,0 +1,118 @@
+package io.iconator.testcontract;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Off-chain mirror of balances[addr].amounts of one holder: fromBlock, amount and claimedLoyalty per
+ * entry, in parallel primitive arrays. The uint88 values are split into the upper 24 bits (int) and the
+ * lower 64 bits (long), so no BigInteger is kept per entry.
+ */
+public class SnapshotHistory implements SnapshotView {
+
+    private static final BigInteger MASK64 = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+
+    private long[] blocks;
+    private int[] amountHi;
+    private long[] amountLo;
+    private int[] loyaltyHi;
+    private long[] loyaltyLo;
+    private int size = 0;
+
+    public SnapshotHistory() {
+        this(4);
+    }
+
+    public SnapshotHistory(int capacity) {
+        blocks = new long[capacity];
+        amountHi = new int[capacity];
+        amountLo = new long[capacity];
+        loyaltyHi = new int[capacity];
+        loyaltyLo = new long[capacity];
+    }
+
+    /**
+     * @return a heap copy of the given history, that can be written to
+     */
+    public static SnapshotHistory copyOf(SnapshotView view) {
+        SnapshotHistory copy = new SnapshotHistory(Math.max(4, view.size() + 1));
+        for (int i = 0; i < view.size(); i++) {
+            copy.set(i, view.block(i), view.amount(i), view.claimedLoyalty(i));
+        }
+        copy.size = view.size();
+        return copy;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long block(int index) {
+        return blocks[index];
+    }
+
+    @Override
+    public BigInteger amount(int index) {
+        return toBigInteger(amountHi[index], amountLo[index]);
+    }
+
+    @Override
+    public BigInteger claimedLoyalty(int index) {
+        return toBigInteger(loyaltyHi[index], loyaltyLo[index]);
+    }
+
+    /**
+     * Same as writeSnapshot in Eureka.sol: overwrites the tail if it is from the same block, otherwise
+     * appends a new entry.
+     */
+    public void write(long block, BigInteger amount, BigInteger claimedLoyalty) {
+        if (size == 0 || blocks[size - 1] != block) {
+            grow();
+            size++;
+        }
+        set(size - 1, block, amount, claimedLoyalty);
+    }
+
+    /**
+     * Same as mintOne in Eureka.sol: the first mint creates an entry, every further mint adds to the tail.
+     */
+    public void mint(long block, BigInteger amount) {
+        if (size == 0) {
+            grow();
+            size++;
+            set(0, block, BigInteger.ZERO, BigInteger.ZERO);
+        }
+        int tail = size - 1;
+        set(tail, blocks[tail], amount(tail).add(amount), claimedLoyalty(tail));
+    }
+
+    private void set(int index, long block, BigInteger amount, BigInteger claimedLoyalty) {
+        blocks[index] = block;
+        amountHi[index] = amount.shiftRight(64).intValue();
+        amountLo[index] = amount.and(MASK64).longValue();
+        loyaltyHi[index] = claimedLoyalty.shiftRight(64).intValue();
+        loyaltyLo[index] = claimedLoyalty.and(MASK64).longValue();
+    }
+
+    private void grow() {
+        if (size < blocks.length) {
+            return;
+        }
+        int capacity = Math.max(4, blocks.length * 2);
+        blocks = Arrays.copyOf(blocks, capacity);
+        amountHi = Arrays.copyOf(amountHi, capacity);
+        amountLo = Arrays.copyOf(amountLo, capacity);
+        loyaltyHi = Arrays.copyOf(loyaltyHi, capacity);
+        loyaltyLo = Arrays.copyOf(loyaltyLo, capacity);
+    }
+
+    static BigInteger toBigInteger(int hi, long lo) {
+        BigInteger low = BigInteger.valueOf(lo);
+        if (lo < 0) {
+            low = low.add(BigInteger.ONE.shiftLeft(64));
+        }
+        return hi == 0 ? low : BigInteger.valueOf(hi).shiftLeft(64).or(low);
+    }
+}
@@ -0,0 +1,40 @@
+package io.iconator.testcontract;
+
+import java.math.BigInteger;
+
+/**
+ * Read access to the balance history of one holder, either on the heap (SnapshotHistory) or in a
+ * memory-mapped file (MappedSnapshotStore).
+ */
+public interface SnapshotView {
+
+    int size();
+
+    long block(int index);
+
+    BigInteger amount(int index);
+
+    BigInteger claimedLoyalty(int index);
+
+    /**
+     * The binary search of balanceOf(address,bool,uint64). Like the contract, it returns index 0 even if
+     * the first entry is younger than the requested block.
+     * @return the index, or -1 if there is no history
+     */
+    default int indexAt(long fromBlock) {
+        if (size() == 0) {
+            return -1;
+        }
+        int min = 0;
+        int max = size() - 1;
+        while (max > min) {
+            int mid = (max + min + 1) >>> 1;
+            if (block(mid) <= fromBlock) {
+                min = mid;
+            } else {
+                max = mid - 1;
+            }
+        }
+        return min;
+    }
+}
@@ -0,0 +1,425 @@
+package io.iconator.testcontract;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.web3j.crypto.Hash;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameter;
+import org.web3j.protocol.core.methods.request.EthFilter;
+import org.web3j.protocol.core.methods.request.Transaction;
+import org.web3j.protocol.core.methods.response.EthCall;
+import org.web3j.protocol.core.methods.response.EthEstimateGas;
+import org.web3j.protocol.core.methods.response.EthGetStorageAt;
+import org.web3j.protocol.core.methods.response.EthLog;
+import org.web3j.protocol.core.methods.response.Log;
+import org.web3j.utils.Numeric;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Measures how much storage the histories of Eureka use: the length of balances[addr].amounts and of
+ * rewardCheckpoints[from] per holder, read with eth_getStorageAt after any workload.
+ *
+ * solc 0.4 has no storage layout output, so the layout is declared below in the order of the state
+ * variables of Eureka.sol, and verify checks it against totalSupply() and owner() before anything is read.
+ * Mappings cannot be enumerated, so holders and (owner, from) pairs are taken from the Transfer events.
+ *
+ * The report has histograms of the history lengths in power of two buckets, the slots in use, and the
+ * holders with the longest binary search in balanceOf(address,bool,uint64), with its gas if measureGas is set.
+ */
+public class StorageProfiler {
+
+    //state variables of Eureka, constants take no slot
+    public static final long SLOT_LOYALTY = 0;
+    public static final long SLOT_LOYALTY_PER_TOKEN = 1;
+    public static final long SLOT_ALLOWED = 2;
+    public static final long SLOT_NONCES = 3;
+    public static final long SLOT_BALANCES = 4;
+    public static final long SLOT_TOTAL_SUPPLY = 5;
+    public static final long SLOT_LOCKUPS = 6;
+    //owner, mintingDone and rewardCheckpointBlocks are packed into one slot
+    public static final long SLOT_OWNER = 7;
+
+    //fields of AmountReward, relative to the slot of the struct
+    static final long FIELD_REWARDS = 0;
+    static final long FIELD_AMOUNTS = 1;
+    static final long FIELD_REWARD_CHECKPOINTS = 2;
+
+    private static final BigInteger MASK48 = BigInteger.ONE.shiftLeft(48).subtract(BigInteger.ONE);
+    private static final BigInteger MASK160 = BigInteger.ONE.shiftLeft(160).subtract(BigInteger.ONE);
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final int OWNER = EurekaClient.selector("owner()");
+
+    private final Web3j web3j;
+    private final String token;
+
+    private int top = 10;
+    private boolean measureGas = true;
+    private int concurrency = 8;
+
+    public StorageProfiler(Web3j web3j, String tokenAddress) {
+        this.web3j = web3j;
+        this.token = tokenAddress;
+    }
+
+    /**
+     * @param top number of holders with the longest binary search in the report
+     */
+    public StorageProfiler top(int top) {
+        this.top = top;
+        return this;
+    }
+
+    /**
+     * @param measureGas estimate the gas of balanceOf for the top holders, one eth_estimateGas each
+     */
+    public StorageProfiler measureGas(boolean measureGas) {
+        this.measureGas = measureGas;
+        return this;
+    }
+
+    public StorageProfiler concurrency(int concurrency) {
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * @return the slot of mapping[key] for a mapping at slot
+     */
+    public static BigInteger mappingSlot(String key, BigInteger slot) {
+        byte[] preimage = new byte[64];
+        byte[] address = Numeric.hexStringToByteArray(key);
+        System.arraycopy(address, 0, preimage, 32 - address.length, address.length);
+        byte[] s = Numeric.toBytesPadded(slot, 32);
+        System.arraycopy(s, 0, preimage, 32, 32);
+        return new BigInteger(1, Hash.sha3(preimage));
+    }
+
+    /**
+     * @return the slot of the length of balances[owner].amounts
+     */
+    public static BigInteger amountsSlot(String owner) {
+        return mappingSlot(owner, BigInteger.valueOf(SLOT_BALANCES)).add(BigInteger.valueOf(FIELD_AMOUNTS));
+    }
+
+    /**
+     * @return the slot of the length of balances[owner].rewardCheckpoints[from]
+     */
+    public static BigInteger rewardCheckpointsSlot(String owner, String from) {
+        BigInteger struct = mappingSlot(owner, BigInteger.valueOf(SLOT_BALANCES));
+        return mappingSlot(from, struct.add(BigInteger.valueOf(FIELD_REWARD_CHECKPOINTS)));
+    }
+
+    /**
+     * @return the slot of balances[owner].rewards[from]
+     */
+    public static BigInteger rewardSlot(String owner, String from) {
+        BigInteger struct = mappingSlot(owner, BigInteger.valueOf(SLOT_BALANCES));
+        return mappingSlot(from, struct.add(BigInteger.valueOf(FIELD_REWARDS)));
+    }
+
+    /**
+     * @return the slot of element index of a dynamic array whose length is at lengthSlot, one slot per element
+     */
+    public static BigInteger elementSlot(BigInteger lengthSlot, long index) {
+        return new BigInteger(1, Hash.sha3(Numeric.toBytesPadded(lengthSlot, 32))).add(BigInteger.valueOf(index));
+    }
+
+    /**
+     * @return the iterations of the binary search of balanceOf(address,bool,uint64) over length snapshots
+     */
+    public static int searchSteps(long length) {
+        return length <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(length - 1);
+    }
+
+    /**
+     * Checks that the declared layout matches the deployed contract.
+     * @throws IllegalStateException if totalSupply or owner are not where the layout expects them
+     */
+    public void verify(long atBlock) throws IOException {
+        DefaultBlockParameter at = DefaultBlockParameter.valueOf(BigInteger.valueOf(atBlock));
+        BigInteger totalSupply = word(call(EurekaClient.totalSupply(EurekaClient.calldata()).hex(), at));
+        if (!totalSupply.equals(storage(BigInteger.valueOf(SLOT_TOTAL_SUPPLY), at))) {
+            throw new IllegalStateException("storage layout: totalSupply_ is not at slot " + SLOT_TOTAL_SUPPLY);
+        }
+        BigInteger owner = word(call(EurekaClient.calldata().start(OWNER).hex(), at));
+        if (!owner.equals(storage(BigInteger.valueOf(SLOT_OWNER), at).and(MASK160))) {
+            throw new IllegalStateException("storage layout: owner is not at slot " + SLOT_OWNER);
+        }
+    }
+
+    /**
+     * Profiles every address that appears in a Transfer event between the two blocks, at toBlock.
+     */
+    public Profile profile(long fromBlock, long toBlock) throws IOException {
+        EthFilter filter = new EthFilter(DefaultBlockParameter.valueOf(BigInteger.valueOf(fromBlock)),
+                DefaultBlockParameter.valueOf(BigInteger.valueOf(toBlock)), token);
+        Set<String> holders = new LinkedHashSet<>();
+        Set<List<String>> pairs = new LinkedHashSet<>();
+        for (EthLog.LogResult result : web3j.ethGetLogs(filter).send().getLogs()) {
+            EurekaEvents.EurekaEvent event = EurekaEvents.standard().decode((Log) result.get());
+            if (event instanceof EurekaEvents.Transfer) {
+                EurekaEvents.Transfer t = (EurekaEvents.Transfer) event;
+                String from = EurekaEvents.address(t.from);
+                String to = EurekaEvents.address(t.to);
+                holders.add(to);
+                //minting and loyalty claims come from 0 and the token, they are never rewarded
+                if (!from.equalsIgnoreCase(BalanceIndexer.ZERO_ADDRESS) && !from.equalsIgnoreCase(token)) {
+                    holders.add(from);
+                    pairs.add(Arrays.asList(to, from));
+                }
+            } else if (event instanceof EurekaEvents.TransferAndCall) {
+                EurekaEvents.TransferAndCall t = (EurekaEvents.TransferAndCall) event;
+                holders.add(EurekaEvents.address(t.from));
+                holders.add(EurekaEvents.address(t.to));
+            }
+        }
+        holders.remove(BalanceIndexer.ZERO_ADDRESS);
+        return profile(new ArrayList<>(holders), new ArrayList<>(pairs), toBlock);
+    }
+
+    /**
+     * @param pairs (owner, from) of rewarded transfers, addresses of other transfers only cost a read
+     */
+    public Profile profile(List<String> holders, List<List<String>> pairs, long atBlock) throws IOException {
+        verify(atBlock);
+        DefaultBlockParameter at = DefaultBlockParameter.valueOf(BigInteger.valueOf(atBlock));
+        long[] amounts = new long[holders.size()];
+        long[] checkpoints = new long[pairs.size()];
+        boolean[] rewards = new boolean[pairs.size()];
+        parallel(holders.size(), i -> amounts[i] = storage(amountsSlot(holders.get(i)), at).longValueExact());
+        parallel(pairs.size(), i -> {
+            String owner = pairs.get(i).get(0);
+            String from = pairs.get(i).get(1);
+            rewards[i] = storage(rewardSlot(owner, from), at).signum() != 0;
+            checkpoints[i] = storage(rewardCheckpointsSlot(owner, from), at).longValueExact();
+        });
+
+        Profile p = new Profile(atBlock, holders.size(), pairs.size());
+        for (long length : amounts) {
+            p.amountsHistogram[bucket(length)]++;
+            p.amountSlots += length;
+            p.snapshots += length;
+        }
+        for (int i = 0; i < pairs.size(); i++) {
+            p.checkpointsHistogram[bucket(checkpoints[i])]++;
+            p.rewardSlots += checkpoints[i] + (rewards[i] ? 1 : 0);
+            p.checkpoints += checkpoints[i];
+            p.rewardPairs += rewards[i] ? 1 : 0;
+        }
+
+        //the longest history first
+        Integer[] order = new Integer[holders.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(amounts[b], amounts[a]));
+        for (int i = 0; i < Math.min(top, order.length) && amounts[order[i]] > 0; i++) {
+            String holder = holders.get(order[i]);
+            long gas = -1;
+            if (measureGas) {
+                //the oldest block of the history, the search goes all the way down
+                long firstBlock = storage(elementSlot(amountsSlot(holder), 0), at).and(MASK48).longValueExact();
+                gas = estimate(EurekaClient.balanceOf(EurekaClient.calldata(), holder, true, firstBlock).hex());
+            }
+            p.slowest.add(new Slowest(holder, amounts[order[i]], searchSteps(amounts[order[i]]), gas));
+        }
+        return p;
+    }
+
+    private interface Read {
+        void read(int index) throws IOException;
+    }
+
+    private void parallel(int count, Read read) throws IOException {
+        if (count == 0) {
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(concurrency, count)));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                int index = i;
+                futures.add(executor.submit(() -> {
+                    read.read(index);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private BigInteger storage(BigInteger slot, DefaultBlockParameter at) throws IOException {
+        EthGetStorageAt response = web3j.ethGetStorageAt(token, slot, at).send();
+        if (response.hasError()) {
+            throw new IOException("eth_getStorageAt: " + response.getError().getMessage());
+        }
+        return Numeric.toBigInt(response.getData());
+    }
+
+    private String call(String data, DefaultBlockParameter at) throws IOException {
+        EthCall response = web3j.ethCall(Transaction.createEthCallTransaction(BalanceIndexer.ZERO_ADDRESS, token, data), at).send();
+        if (response.hasError()) {
+            throw new IOException("eth_call: " + response.getError().getMessage());
+        }
+        return response.getValue();
+    }
+
+    private long estimate(String data) throws IOException {
+        EthEstimateGas response = web3j.ethEstimateGas(Transaction.createEthCallTransaction(BalanceIndexer.ZERO_ADDRESS, token, data)).send();
+        return response.hasError() ? -1 : response.getAmountUsed().longValueExact();
+    }
+
+    private static BigInteger word(String result) throws IOException {
+        String hex = Numeric.cleanHexPrefix(result);
+        if (hex.length() < 64) {
+            throw new IOException("reverted: " + result);
+        }
+        return new BigInteger(hex.substring(0, 64), 16);
+    }
+
+    /**
+     * @return 0 for 0, 1 for 1, 2 for 2-3, 3 for 4-7 and so on
+     */
+    static int bucket(long length) {
+        return 64 - Long.numberOfLeadingZeros(length);
+    }
+
+    static String bucketLabel(int bucket) {
+        if (bucket <= 1) {
+            return Integer.toString(bucket);
+        }
+        long low = 1L << (bucket - 1);
+        return low + "-" + (2 * low - 1);
+    }
+
+    public static final class Slowest {
+        public final String holder;
+        public final long length;
+        public final int steps;
+        //-1 if not measured
+        public final long gas;
+
+        Slowest(String holder, long length, int steps, long gas) {
+            this.holder = holder;
+            this.length = length;
+            this.steps = steps;
+            this.gas = gas;
+        }
+    }
+
+    public static final class Profile {
+        public final long atBlock;
+        public final int holders;
+        public final int pairs;
+        //number of holders (pairs) per bucket of history length, see bucket
+        public final long[] amountsHistogram = new long[65];
+        public final long[] checkpointsHistogram = new long[65];
+        public final List<Slowest> slowest = new ArrayList<>();
+        private long snapshots;
+        private long checkpoints;
+        private long rewardPairs;
+        private long amountSlots;
+        private long rewardSlots;
+
+        Profile(long atBlock, int holders, int pairs) {
+            this.atBlock = atBlock;
+            this.holders = holders;
+            this.pairs = pairs;
+        }
+
+        public long snapshots() {
+            return snapshots;
+        }
+
+        public long checkpoints() {
+            return checkpoints;
+        }
+
+        /**
+         * @return pairs with a non zero reward slot
+         */
+        public long rewardPairs() {
+            return rewardPairs;
+        }
+
+        /**
+         * @return the slots of all amounts[], rewards and rewardCheckpoints[] entries, without the length slots
+         */
+        public long slots() {
+            return amountSlots + rewardSlots;
+        }
+
+        public String toJson() {
+            ObjectNode root = JSON.createObjectNode();
+            root.put("block", atBlock);
+            root.put("holders", holders);
+            root.put("pairs", pairs);
+            root.put("snapshots", snapshots);
+            root.put("checkpoints", checkpoints);
+            root.put("rewardPairs", rewardPairs);
+            root.put("slots", slots());
+            root.set("amountsHistogram", histogram(amountsHistogram));
+            root.set("checkpointsHistogram", histogram(checkpointsHistogram));
+            ArrayNode slow = root.putArray("slowest");
+            for (Slowest s : slowest) {
+                ObjectNode node = slow.addObject();
+                node.put("holder", s.holder);
+                node.put("length", s.length);
+                node.put("steps", s.steps);
+                node.put("gas", s.gas);
+            }
+            return root.toString();
+        }
+
+        private static ObjectNode histogram(long[] buckets) {
+            ObjectNode node = JSON.createObjectNode();
+            for (int i = 0; i < buckets.length; i++) {
+                if (buckets[i] > 0) {
+                    node.put(bucketLabel(i), buckets[i]);
+                }
+            }
+            return node;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.ROOT, "block %d: %d holders, %d snapshots, %d pairs, %d checkpoints, %d slots%n",
+                    atBlock, holders, snapshots, pairs, checkpoints, slots()));
+            sb.append("amounts[] length:\n");
+            appendHistogram(sb, amountsHistogram);
+            sb.append("rewardCheckpoints[] length:\n");
+            appendHistogram(sb, checkpointsHistogram);
+            sb.append("longest balanceOf search:\n");
+            for (Slowest s : slowest) {
+                sb.append(String.format(Locale.ROOT, "  %s length %d, %d steps, %d gas%n", s.holder, s.length, s.steps, s.gas));
+            }
+            return sb.toString();
+        }
+
+        private static void appendHistogram(StringBuilder sb, long[] buckets) {
+            for (int i = 0; i < buckets.length; i++) {
+                if (buckets[i] > 0) {
+                    sb.append(String.format(Locale.ROOT, "  %12s %d%n", bucketLabel(i), buckets[i]));
+                }
+            }
+        }
+    }
+}
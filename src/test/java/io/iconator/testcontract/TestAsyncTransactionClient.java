@@ -0,0 +1,96 @@
+package io.iconator.testcontract;
+
+import io.iconator.testonator.*;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.web3j.abi.datatypes.Type;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static io.iconator.testonator.TestBlockchain.*;
+
+public class TestAsyncTransactionClient {
+
+    private static TestChain chain;
+    private static TestBlockchain blockchain;
+    private static Map<String, Contract> contracts;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        chain = TestChain.start();
+        blockchain = chain.blockchain();
+        contracts = TestUtils.setup();
+    }
+
+    @Test
+    public void testPipeline() throws Exception {
+        //async: 20 mint and 2 lockTokens transactions in flight at once, a revert completes with null
+        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get("Eureka"));
+        String token = deployed.contractAddress();
+        List<String> holders = new ArrayList<>();
+        List<CompletableFuture<List<EurekaEvents.EurekaEvent>>> mints = new ArrayList<>();
+        try (AsyncTransactionClient client = new AsyncTransactionClient(chain.web3j(), new NonceManager(chain.web3j()))
+                .maxInFlight(8).start()) {
+            for (int batch = 0; batch < 20; batch++) {
+                List<String> recipients = new ArrayList<>();
+                for (int i = 0; i < 10; i++) {
+                    recipients.add(String.format("0x%040x", batch * 10 + i + 1));
+                }
+                holders.addAll(recipients);
+                mints.add(client.mint(CREDENTIAL_0, token, recipients, Collections.nCopies(10, BigInteger.valueOf(100))));
+            }
+            CompletableFuture<List<EurekaEvents.EurekaEvent>> lock = client.lockTokens(CREDENTIAL_0, token,
+                    holders.subList(0, 5), Collections.nCopies(5, BigInteger.TEN));
+            //the same holders again, lockups can not be overwritten
+            CompletableFuture<List<EurekaEvents.EurekaEvent>> relock = client.lockTokens(CREDENTIAL_0, token,
+                    holders.subList(0, 5), Collections.nCopies(5, BigInteger.TEN));
+
+            for (CompletableFuture<List<EurekaEvents.EurekaEvent>> mint : mints) {
+                List<EurekaEvents.EurekaEvent> events = mint.get(60, TimeUnit.SECONDS);
+                Assert.assertEquals(10, events.size());
+                Assert.assertTrue(events.get(0) instanceof EurekaEvents.Transfer);
+            }
+            List<EurekaEvents.EurekaEvent> locked = lock.get(60, TimeUnit.SECONDS);
+            Assert.assertEquals(5, locked.size());
+            Assert.assertEquals(holders.get(0), EurekaEvents.address(((EurekaEvents.TokensLocked) locked.get(0)).holder));
+            Assert.assertNull(relock.get(60, TimeUnit.SECONDS));
+
+            Assert.assertTrue(client.awaitIdle(10, TimeUnit.SECONDS));
+            Assert.assertEquals(22, client.sent());
+            Assert.assertEquals(21, client.mined());
+            Assert.assertEquals(1, client.reverted());
+            Assert.assertEquals(0, client.failed());
+            Assert.assertEquals(0, client.ioErrors());
+            //one receipt per transaction, however many polls it took
+            Assert.assertEquals(22, client.receiptCalls());
+        }
+
+        List<Type> result = blockchain.callConstant(deployed, new FunctionBuilder("totalSupply").outputs("uint256"));
+        Assert.assertEquals(BigInteger.valueOf(20 * 10 * 100), result.get(0).getValue());
+    }
+
+    @Test
+    public void testGap() throws Exception {
+        //async: a nonce that was handed out but never sent is filled, the transaction behind it is mined
+        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get("Eureka"));
+        NonceManager nonces = new NonceManager(chain.web3j());
+        try (AsyncTransactionClient client = new AsyncTransactionClient(chain.web3j(), nonces)
+                .resubmitMillis(200).start()) {
+            nonces.next(CREDENTIAL_0.getAddress());
+            CompletableFuture<List<EurekaEvents.EurekaEvent>> mint = client.mint(CREDENTIAL_0, deployed.contractAddress(),
+                    Collections.singletonList(CREDENTIAL_1.getAddress()), Collections.singletonList(BigInteger.TEN));
+            List<EurekaEvents.EurekaEvent> events = mint.get(60, TimeUnit.SECONDS);
+            Assert.assertEquals(1, events.size());
+            Assert.assertEquals(1, client.fillers());
+            Assert.assertEquals(0, client.rejectedFillers());
+            Assert.assertEquals(0, client.resigned());
+        }
+    }
+}
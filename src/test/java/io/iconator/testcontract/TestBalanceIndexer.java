@@ -0,0 +1,150 @@
+package io.iconator.testcontract;
+
+import io.iconator.testonator.*;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.crypto.Credentials;
+
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static io.iconator.testonator.TestBlockchain.*;
+
+public class TestBalanceIndexer {
+
+    private static TestChain chain;
+    private static TestBlockchain blockchain;
+    private static Map<String, Contract> contracts;
+    private DeployedContract deployed;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        chain = TestChain.start();
+        blockchain = chain.blockchain();
+        contracts = TestUtils.setup();
+    }
+
+    @Test
+    public void testMirror() throws Exception {
+        //indexer: after transfers, rewarded transfers, presigned transfers and loyalty the mirror equals the contract
+        deployed = blockchain.deploy(CREDENTIAL_0, contracts.get("Eureka"));
+        long start = chain.web3j().ethBlockNumber().send().getBlockNumber().longValueExact();
+        blockchain.call(deployed, "mint",
+                Arrays.asList(CREDENTIAL_0.getAddress(), CREDENTIAL_1.getAddress(), CREDENTIAL_2.getAddress()),
+                Arrays.asList(new BigInteger("100000"), new BigInteger("50000"), new BigInteger("7000")));
+        blockchain.call(deployed, "finishMinting");
+
+        transfer(CREDENTIAL_0, CREDENTIAL_1, 1000, 0);
+        long middle = chain.web3j().ethBlockNumber().send().getBlockNumber().longValueExact();
+        transfer(CREDENTIAL_1, CREDENTIAL_2, 5000, 1);
+        transfer(CREDENTIAL_2, CREDENTIAL_3, 3000, 2);
+        blockchain.call(CREDENTIAL_0, deployed, new FunctionBuilder("loyalty").addInput("uint256", new BigInteger("777")));
+        transfer(CREDENTIAL_3, CREDENTIAL_0, 100, 3);
+
+        byte[] hash = PreSigned.hash(deployed.contractAddress(), CREDENTIAL_3.getAddress(), new BigInteger("400"), BigInteger.TEN, BigInteger.ZERO);
+        Assert.assertNotNull(blockchain.call(CREDENTIAL_2, deployed, new FunctionBuilder("transferPreSigned")
+                .addInput("bytes", PreSigned.sign(hash, CREDENTIAL_1))
+                .addInput("address", CREDENTIAL_3.getAddress())
+                .addInput("uint256", new BigInteger("400"))
+                .addInput("uint256", BigInteger.TEN)
+                .addInput("uint256", BigInteger.ZERO)
+                .outputs("bool")));
+
+        long end = chain.web3j().ethBlockNumber().send().getBlockNumber().longValueExact();
+        BalanceIndexer indexer = new BalanceIndexer(deployed.contractAddress());
+        indexer.sync(chain.web3j(), start, end);
+
+        Assert.assertEquals(Arrays.<String>asList(), indexer.verify(chain.web3j(), middle));
+        Assert.assertEquals(Arrays.<String>asList(), indexer.verify(chain.web3j(), end));
+        List<Type> supply = blockchain.callConstant(deployed, "totalSupply");
+        Assert.assertEquals(supply.get(0).getValue(), indexer.totalSupply());
+        List<Type> loyalty = blockchain.callConstant(deployed, "loyalty");
+        Assert.assertEquals(loyalty.get(0).getValue(), indexer.loyalty());
+
+        //restart from the mapped file, no replay
+        Path file = Files.createTempFile("eureka-snapshots", ".bin");
+        MappedSnapshotStore.write(file, indexer);
+        try (MappedSnapshotStore store = MappedSnapshotStore.open(file)) {
+            BalanceIndexer restarted = new BalanceIndexer(deployed.contractAddress(), store);
+            Assert.assertEquals(end, restarted.lastBlock());
+            Assert.assertEquals(indexer.holders(), restarted.holders());
+            Assert.assertEquals(Arrays.<String>asList(), restarted.verify(chain.web3j(), middle));
+            Assert.assertEquals(indexer.balanceOf(CREDENTIAL_1.getAddress(), false, middle),
+                    store.balanceOf(CREDENTIAL_1.getAddress(), false, middle));
+
+            //new blocks are applied on top of the mapped state
+            transfer(CREDENTIAL_0, CREDENTIAL_4, 42, 0);
+            long next = chain.web3j().ethBlockNumber().send().getBlockNumber().longValueExact();
+            restarted.sync(chain.web3j(), end + 1, next);
+            Assert.assertEquals(Arrays.<String>asList(), restarted.verify(chain.web3j(), next));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testLockupsRestart() throws Exception {
+        //indexer: a lockup set before the mapped file was written is still known after a restart
+        deployed = blockchain.deploy(CREDENTIAL_0, contracts.get("Eureka"));
+        long start = chain.web3j().ethBlockNumber().send().getBlockNumber().longValueExact();
+        List<String> locked = Collections.singletonList(CREDENTIAL_5.getAddress());
+        blockchain.call(deployed, "mint", Arrays.asList(CREDENTIAL_0.getAddress(), CREDENTIAL_5.getAddress()),
+                Arrays.asList(new BigInteger("10000"), new BigInteger("2222")));
+        Assert.assertNotNull(blockchain.call(deployed, new FunctionBuilder("lockTokens").addInput("address[]", locked)
+                .addInput("uint256[]", Collections.singletonList(BigInteger.valueOf(2222)))));
+        blockchain.call(deployed, "finishMinting");
+        long end = chain.web3j().ethBlockNumber().send().getBlockNumber().longValueExact();
+        BalanceIndexer indexer = new BalanceIndexer(deployed.contractAddress());
+        indexer.sync(chain.web3j(), start, end);
+
+        Path file = Files.createTempFile("eureka-snapshots", ".bin");
+        MappedSnapshotStore.write(file, indexer);
+        try (MappedSnapshotStore store = MappedSnapshotStore.open(file)) {
+            BalanceIndexer restarted = new BalanceIndexer(deployed.contractAddress(), store);
+            List<Type> lockup = blockchain.callConstant(deployed, new FunctionBuilder("lockups")
+                    .addInput("address", CREDENTIAL_5.getAddress()).outputs("uint256"));
+            Assert.assertEquals(BigInteger.valueOf(2222), lockup.get(0).getValue());
+            Assert.assertEquals(BigInteger.valueOf(2222), restarted.lockup(CREDENTIAL_5.getAddress()));
+            Assert.assertEquals(BigInteger.ZERO, restarted.lockup(CREDENTIAL_0.getAddress()));
+            Assert.assertEquals(indexer.lockups(), store.lockups());
+            Assert.assertEquals(Arrays.<String>asList(), restarted.verify(chain.web3j(), end));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testHistory() {
+        //indexer: same block entries are overwritten, the binary search matches the contract
+        SnapshotHistory h = new SnapshotHistory(1);
+        h.write(10, BigInteger.valueOf(1), BigInteger.ZERO);
+        h.write(10, BigInteger.valueOf(2), BigInteger.ZERO);
+        h.write(12, MintPipeline.MAX88.subtract(BigInteger.ONE), BigInteger.ONE);
+        h.write(20, BigInteger.valueOf(4), BigInteger.ONE);
+        Assert.assertEquals(3, h.size());
+        Assert.assertEquals(0, h.indexAt(5));
+        Assert.assertEquals(0, h.indexAt(11));
+        Assert.assertEquals(1, h.indexAt(12));
+        Assert.assertEquals(2, h.indexAt(100));
+        Assert.assertEquals(BigInteger.valueOf(2), h.amount(0));
+        Assert.assertEquals(MintPipeline.MAX88.subtract(BigInteger.ONE), h.amount(1));
+    }
+
+    private void transfer(Credentials from, Credentials to, long value, int rewardType) throws Exception {
+        FunctionBuilder fb = new FunctionBuilder("transfer")
+                .addInput("address", to.getAddress())
+                .addInput("uint256", BigInteger.valueOf(value));
+        if (rewardType > 0) {
+            fb = fb.addInput("uint8", rewardType);
+        }
+        List<Event> events = blockchain.call(from, deployed, fb);
+        Assert.assertNotNull(events);
+    }
+}
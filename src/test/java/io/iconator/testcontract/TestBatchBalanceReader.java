@@ -0,0 +1,93 @@
+package io.iconator.testcontract;
+
+import io.iconator.testonator.*;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.utils.Numeric;
+
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static io.iconator.testonator.TestBlockchain.*;
+
+public class TestBatchBalanceReader {
+
+    private static final int HOLDERS = 300;
+
+    private static TestChain chain;
+    private static TestBlockchain blockchain;
+    private static Map<String, Contract> contracts;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        chain = TestChain.start();
+        blockchain = chain.blockchain();
+        contracts = TestUtils.setup();
+    }
+
+    @Test
+    public void testBalanceOfBatch() throws Exception {
+        //batch: chunked and concurrent reads give the same balances as one balanceOf per holder
+        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get("Eureka"));
+        List<String> owners = new ArrayList<>();
+        List<BigInteger> amounts = new ArrayList<>();
+        for (int i = 0; i < HOLDERS; i++) {
+            owners.add(address(i));
+            amounts.add(BigInteger.valueOf(1000 + i));
+            if (owners.size() == 150) {
+                Assert.assertNotNull(blockchain.call(deployed, "mint", owners, amounts));
+                owners = new ArrayList<>();
+                amounts = new ArrayList<>();
+            }
+        }
+        long mintBlock = chain.web3j().ethBlockNumber().send().getBlockNumber().longValueExact();
+        blockchain.call(deployed, "finishMinting");
+
+        List<String> holders = new ArrayList<>();
+        for (int i = 0; i < HOLDERS; i++) {
+            holders.add(address(i));
+        }
+        //a holder without balance in the middle
+        holders.add(150, CREDENTIAL_5.getAddress());
+
+        BatchBalanceReader reader = new BatchBalanceReader(chain.web3j(), deployed.contractAddress())
+                .maxChunk(64)
+                .concurrency(4);
+        Assert.assertEquals(64, reader.chunkSize());
+        BigInteger[] balances = reader.balanceOf(holders, true, mintBlock);
+        Assert.assertEquals(HOLDERS + 1, balances.length);
+        Assert.assertEquals(BigInteger.ZERO, balances[150]);
+        for (int i : new int[]{0, 63, 64, 149, 151, 299}) {
+            List<Type> result = blockchain.callConstant(deployed, new FunctionBuilder("balanceOf")
+                    .addInput("address", holders.get(i))
+                    .outputs("uint256"));
+            Assert.assertEquals(result.get(0).getValue(), balances[i]);
+        }
+        BigInteger sum = BigInteger.ZERO;
+        for (BigInteger balance : balances) {
+            sum = sum.add(balance);
+        }
+        List<Type> supply = blockchain.callConstant(deployed, "totalSupply");
+        Assert.assertEquals(supply.get(0).getValue(), sum);
+
+        //before the mint
+        Assert.assertEquals(BigInteger.ZERO, reader.balanceOf(holders, true, mintBlock - 2)[0]);
+
+        BigInteger[][] rewards = reader.rewardOf(holders, CREDENTIAL_0.getAddress());
+        Assert.assertEquals(HOLDERS + 1, rewards.length);
+        Assert.assertArrayEquals(new BigInteger[]{BigInteger.ZERO, BigInteger.ZERO, BigInteger.ZERO}, rewards[299]);
+
+        StringWriter csv = new StringWriter();
+        reader.export(holders.subList(0, 2), mintBlock, csv);
+        Assert.assertEquals("address,amount,loyaltyCheckpoint\n" + address(0) + ",1000,0\n" + address(1) + ",1001,0\n", csv.toString());
+    }
+
+    private static String address(int i) {
+        return Numeric.toHexStringWithPrefixZeroPadded(BigInteger.valueOf(0x2000 + i), 40);
+    }
+}
@@ -0,0 +1,91 @@
+package io.iconator.testcontract;
+
+import io.iconator.testonator.TestBlockchain;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.Web3jService;
+import org.web3j.protocol.http.HttpService;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+
+/**
+ * Starts a TestBlockchain on its own port, so that test suites in parallel Gradle forks each get their
+ * own chain. The port range is derived from the Gradle worker id, and within that range the first free
+ * port is taken. We start above 9000, since parity or geth usually run on the standard port.
+ */
+public class TestChain {
+
+    public static final int BASE_PORT = 9000;
+    private static final int PORTS_PER_WORKER = 16;
+    private static final int MAX_WORKERS = 1000;
+
+    private final TestBlockchain blockchain;
+    private final int port;
+    private final Web3jService rpc;
+    private final Web3j web3j;
+
+    private TestChain(TestBlockchain blockchain, int port) {
+        this.blockchain = blockchain;
+        this.port = port;
+        this.rpc = new HttpService(url());
+        this.web3j = Web3j.build(rpc);
+    }
+
+    public static TestChain start() throws Exception {
+        int port = allocatePort();
+        return new TestChain(TestBlockchain.runLocal(port, "/"), port);
+    }
+
+    public TestBlockchain blockchain() {
+        return blockchain;
+    }
+
+    public int port() {
+        return port;
+    }
+
+    public String url() {
+        return "http://localhost:" + port + "/";
+    }
+
+    public Web3jService rpc() {
+        return rpc;
+    }
+
+    public Web3j web3j() {
+        return web3j;
+    }
+
+    static synchronized int allocatePort() throws IOException {
+        int first = BASE_PORT + (workerId() % MAX_WORKERS) * PORTS_PER_WORKER;
+        for (int port = first; port < first + PORTS_PER_WORKER; port++) {
+            if (isFree(port)) {
+                return port;
+            }
+        }
+        //all ports of this worker are taken, let the OS choose
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static int workerId() {
+        //set by Gradle in every test worker, e.g. "Gradle Test Executor 3" has id 3
+        String worker = System.getProperty("org.gradle.test.worker", "0");
+        try {
+            return Math.abs(Integer.parseInt(worker.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static boolean isFree(int port) {
+        try (ServerSocket socket = new ServerSocket(port, 1, InetAddress.getLoopbackAddress())) {
+            socket.setReuseAddress(true);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -26,7 +26,7 @@ public class TestContract {
 
     @BeforeClass
     public static void setup() throws Exception {
-        blockchain = TestBlockchain.run();
+        blockchain = TestChain.start().blockchain();
         contracts = TestUtils.setup();
     }
 
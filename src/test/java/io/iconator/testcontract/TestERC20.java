@@ -1,7 +1,6 @@
 package io.iconator.testcontract;
 
 import io.iconator.testonator.*;
-import org.junit.After;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -19,28 +18,35 @@ import static io.iconator.testonator.TestBlockchain.*;
 
 public class TestERC20 {
 
-    final private String CONTRACT_NAME = "Eureka";
+    final private static String CONTRACT_NAME = "Eureka";
     private static TestBlockchain blockchain;
     private static Map<String, Contract> contracts;
+    private static Fixtures fixtures;
 
     @BeforeClass
     public static void setup() throws Exception {
-        //use a different port than the standard port, otherwise, if you are running
-        //parity or geth, it will not work
-        blockchain = TestBlockchain.runLocal(9000, "/");
+        //every suite runs on its own port, so suites can run in parallel forks
+        TestChain chain = TestChain.start();
+        blockchain = chain.blockchain();
         contracts = TestUtils.setup();
+        //deploy and mint once, every test starts from a snapshot revert
+        fixtures = new Fixtures(blockchain, chain.rpc(), contracts.get(CONTRACT_NAME));
     }
 
-    @After
-    public void afterTests() {
-        blockchain.reset();
+    @Test
+    public void testFixturesRevert() throws InterruptedException, ExecutionException, IOException, NoSuchMethodException, InstantiationException, IllegalAccessException, ConvertException, InvocationTargetException {
+        //fixtures: the test chain supports evm_snapshot, so restores never redeploy
+        fixtures.restore(Fixtures.MINTED);
+        fixtures.restore(Fixtures.DEPLOYED);
+        fixtures.restore(Fixtures.MINTED);
+        Assert.assertEquals(0, fixtures.fallbacks());
     }
 
     //********************* ERC20 Regular Transfers
     @Test
-    public void testReverse() throws InterruptedException, ExecutionException, IOException {
+    public void testReverse() throws InterruptedException, ExecutionException, IOException, NoSuchMethodException, InstantiationException, IllegalAccessException, ConvertException, InvocationTargetException {
         //transfers: ether transfer should be reversed
-        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get(CONTRACT_NAME));
+        DeployedContract deployed = fixtures.restore(Fixtures.DEPLOYED);
         List<Event> events = blockchain.call(CREDENTIAL_0, deployed, BigInteger.ONE);
         Assert.assertNull(events);
     }
@@ -48,9 +54,7 @@ public class TestERC20 {
     @Test
     public void testTransferFailFlag() throws InterruptedException, ExecutionException, IOException, NoSuchMethodException, InstantiationException, IllegalAccessException, ConvertException, InvocationTargetException {
         //transfers: should transfer 10000 to accounts[1] with accounts[0] having 10000
-        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get(CONTRACT_NAME));
-
-        TestUtils.mint(blockchain, deployed, CREDENTIAL_0.getAddress(), CREDENTIAL_1.getAddress(), CREDENTIAL_2.getAddress(), 10000, 1000, 10, false);
+        DeployedContract deployed = fixtures.restore(Fixtures.MINTED);
         List<Event> events = blockchain.call(deployed,
                 new FunctionBuilder("transfer")
                         .addInput("address", CREDENTIAL_1.getAddress())
@@ -62,9 +66,7 @@ public class TestERC20 {
     @Test
     public void testTransfer() throws InterruptedException, ExecutionException, IOException, NoSuchMethodException, InstantiationException, IllegalAccessException, ConvertException, InvocationTargetException {
         //transfers: should transfer 10000 to accounts[1] with accounts[0] having 10000
-        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get(CONTRACT_NAME));
-
-        TestUtils.mint(blockchain, deployed, CREDENTIAL_0.getAddress(), CREDENTIAL_1.getAddress(), CREDENTIAL_2.getAddress(), 10000, 1000, 10);
+        DeployedContract deployed = fixtures.restore(Fixtures.MINTED_FINISHED);
         List<Event> events = blockchain.call(deployed,
                 new FunctionBuilder("transfer")
                         .addInput("address", CREDENTIAL_1.getAddress())
@@ -73,12 +75,26 @@ public class TestERC20 {
         Assert.assertEquals(1, events.size());
     }
 
+    @Test
+    public void testTransferSelf() throws InterruptedException, ExecutionException, IOException, NoSuchMethodException, InstantiationException, IllegalAccessException, ConvertException, InvocationTargetException {
+        //transfers: a transfer to oneself does not change the balance
+        DeployedContract deployed = fixtures.restore(Fixtures.MINTED_FINISHED);
+        List<Event> events = blockchain.call(deployed,
+                new FunctionBuilder("transfer")
+                        .addInput("address", CREDENTIAL_0.getAddress())
+                        .addInput("uint256", new BigInteger("4000"))
+                        .outputs("bool"));
+        Assert.assertEquals(1, events.size());
+        List<Type> result = blockchain.callConstant(deployed, new FunctionBuilder("balanceOf")
+                .addInput("address", CREDENTIAL_0.getAddress())
+                .outputs("uint256"));
+        Assert.assertEquals("10000", result.get(0).getValue().toString());
+    }
+
     @Test
     public void testTransferFail() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
         //transfers: should fail when trying to transfer 10001 to accounts[1] with accounts[0] having 10000
-        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get(CONTRACT_NAME));
-
-        TestUtils.mint(blockchain, deployed, CREDENTIAL_0.getAddress(), CREDENTIAL_1.getAddress(), CREDENTIAL_2.getAddress(), 10000, 1000, 10);
+        DeployedContract deployed = fixtures.restore(Fixtures.MINTED_FINISHED);
         List<Event> events = blockchain.call(deployed,
                 new FunctionBuilder("transfer")
                         .addInput("address", CREDENTIAL_1.getAddress())
@@ -90,9 +106,7 @@ public class TestERC20 {
     @Test
     public void testTransferFailContract() throws InterruptedException, ExecutionException, IOException, InvocationTargetException, NoSuchMethodException, InstantiationException, ConvertException, IllegalAccessException {
         //transfers: should fail when trying to transfer to contract address
-        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get(CONTRACT_NAME));
-
-        TestUtils.mint(blockchain, deployed, CREDENTIAL_0.getAddress(), CREDENTIAL_1.getAddress(), CREDENTIAL_2.getAddress(), 10000, 1000, 10);
+        DeployedContract deployed = fixtures.restore(Fixtures.MINTED_FINISHED);
         List<Event> events = blockchain.call(deployed,
                 new FunctionBuilder("transfer")
                         .addInput("address", deployed.contractAddress())
@@ -104,9 +118,7 @@ public class TestERC20 {
     @Test
     public void testTransferFailZero() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
         //transfers: should fail when trying to transfer to 0x0
-        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get(CONTRACT_NAME));
-
-        TestUtils.mint(blockchain, deployed, CREDENTIAL_0.getAddress(), CREDENTIAL_1.getAddress(), CREDENTIAL_2.getAddress(), 10000, 1000, 10);
+        DeployedContract deployed = fixtures.restore(Fixtures.MINTED_FINISHED);
         List<Event> events = blockchain.call(deployed,
                 new FunctionBuilder("transfer")
                         .addInput("address", "0x0")
@@ -120,9 +132,7 @@ public class TestERC20 {
     @Test
     public void testApprove() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
         //approvals: msg.sender should approve 100 to accounts[1]
-        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get(CONTRACT_NAME));
-
-        TestUtils.mint(blockchain, deployed, CREDENTIAL_0.getAddress(), CREDENTIAL_1.getAddress(), CREDENTIAL_2.getAddress(), 10000, 1000, 10);
+        DeployedContract deployed = fixtures.restore(Fixtures.MINTED_FINISHED);
         List<Event> events = blockchain.call(CREDENTIAL_0, deployed,
                 new FunctionBuilder("approve")
                         .addInput("address", CREDENTIAL_1.getAddress())
@@ -139,8 +149,7 @@ public class TestERC20 {
     @Test
     public void testApproveWithdraw() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
         //approvals: msg.sender approves accounts[1] of 100 & withdraws 20 once.
-        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get(CONTRACT_NAME));
-        TestUtils.mint(blockchain, deployed, CREDENTIAL_0.getAddress(), CREDENTIAL_1.getAddress(), CREDENTIAL_2.getAddress(), 10000, 0, 0);
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
 
         List<Type> results = blockchain.callConstant(deployed, new FunctionBuilder("balanceOf")
                 .addInput("address", CREDENTIAL_0.getAddress())
@@ -187,8 +196,7 @@ public class TestERC20 {
     @Test
     public void testApproveWithdrawTwice() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
         //approvals: msg.sender approves accounts[1] of 100 & withdraws 20 twice.
-        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get(CONTRACT_NAME));
-        TestUtils.mint(blockchain, deployed, CREDENTIAL_0.getAddress(), CREDENTIAL_1.getAddress(), CREDENTIAL_2.getAddress(), 10000, 0, 0);
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
 
         List<Event> events = blockchain.call(CREDENTIAL_0, deployed,
                 new FunctionBuilder("approve")
@@ -234,8 +242,7 @@ public class TestERC20 {
     @Test
     public void testApproveWithdrawFailTwice() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
         //approvals: msg.sender approves accounts[1] of 100 & withdraws 50 & 60 (2nd tx should fail)
-        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get(CONTRACT_NAME));
-        TestUtils.mint(blockchain, deployed, CREDENTIAL_0.getAddress(), CREDENTIAL_1.getAddress(), CREDENTIAL_2.getAddress(), 10000, 0, 0);
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
 
         List<Event> events = blockchain.call(CREDENTIAL_0, deployed,
                 new FunctionBuilder("approve")
@@ -274,8 +281,7 @@ public class TestERC20 {
     @Test
     public void testApproveWithdrawNoAllowance() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
         //approvals: attempt withdrawal from account with no allowance (should fail)
-        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get(CONTRACT_NAME));
-        TestUtils.mint(blockchain, deployed, CREDENTIAL_0.getAddress(), CREDENTIAL_1.getAddress(), CREDENTIAL_2.getAddress(), 10000, 0, 0);
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
 
         List<Event> events = blockchain.call(CREDENTIAL_1, deployed,
                 new FunctionBuilder("transferFrom")
@@ -290,8 +296,7 @@ public class TestERC20 {
     @Test
     public void testApproveWithdrawTransfer() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
         //approvals: allow accounts[1] 100 to withdraw from accounts[0]. Withdraw 60 and then approve 0 & attempt transfer.
-        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get(CONTRACT_NAME));
-        TestUtils.mint(blockchain, deployed, CREDENTIAL_0.getAddress(), CREDENTIAL_1.getAddress(), CREDENTIAL_2.getAddress(), 10000, 0, 0);
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
 
         List<Event> events = blockchain.call(CREDENTIAL_0, deployed,
                 new FunctionBuilder("approve")
@@ -325,8 +330,7 @@ public class TestERC20 {
     @Test
     public void testApproveMax() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
         //approvals: approve max (2^256 - 1)
-        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get(CONTRACT_NAME));
-        TestUtils.mint(blockchain, deployed, CREDENTIAL_0.getAddress(), CREDENTIAL_1.getAddress(), CREDENTIAL_2.getAddress(), 10000, 0, 0);
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
 
 
         List<Event> events = blockchain.call(CREDENTIAL_0, deployed,
@@ -352,8 +356,7 @@ public class TestERC20 {
     @Test
     public void testApproveFailZero() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
         //approve: should fail when trying to transfer to 0x0
-        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get(CONTRACT_NAME));
-        TestUtils.mint(blockchain, deployed, CREDENTIAL_0.getAddress(), CREDENTIAL_1.getAddress(), CREDENTIAL_2.getAddress(), 10000, 0, 0);
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
 
         List<Event> events = blockchain.call(CREDENTIAL_0, deployed,
                 new FunctionBuilder("approve")
@@ -369,7 +372,7 @@ public class TestERC20 {
     @Test
     public void testEventMinting() throws NoSuchMethodException, InstantiationException, IllegalAccessException, ConvertException, InvocationTargetException, InterruptedException, ExecutionException, IOException {
         //events: minting should fire Transfer event properly
-        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get(CONTRACT_NAME));
+        DeployedContract deployed = fixtures.restore(Fixtures.DEPLOYED);
 
         List<String> addresses = new ArrayList<>(1);
         List<BigInteger> values = new ArrayList<>(1);
@@ -391,8 +394,7 @@ public class TestERC20 {
     @Test
     public void testEventTransfer() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
         //events: should fire Transfer event properly
-        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get(CONTRACT_NAME));
-        TestUtils.mint(blockchain, deployed, CREDENTIAL_0.getAddress(), CREDENTIAL_1.getAddress(), CREDENTIAL_2.getAddress(), 10000, 0, 0);
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
 
         List<Event> events = blockchain.call(deployed,
                 new FunctionBuilder("transfer")
@@ -410,8 +412,7 @@ public class TestERC20 {
     @Test
     public void testEventTransferZero() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
         //events: should generate an event on zero-transfers
-        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get(CONTRACT_NAME));
-        TestUtils.mint(blockchain, deployed, CREDENTIAL_0.getAddress(), CREDENTIAL_1.getAddress(), CREDENTIAL_2.getAddress(), 10000, 0, 0);
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
 
         List<Event> events = blockchain.call(deployed,
                 new FunctionBuilder("transfer")
@@ -429,7 +430,7 @@ public class TestERC20 {
     @Test
     public void testEventMintAllFail() throws NoSuchMethodException, InstantiationException, IllegalAccessException, ConvertException, InvocationTargetException, InterruptedException, ExecutionException, IOException {
         //events: should fail on minting max tokens
-        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get(CONTRACT_NAME));
+        DeployedContract deployed = fixtures.restore(Fixtures.DEPLOYED);
 
         List<String> addresses = new ArrayList<>(1);
         List<BigInteger> values = new ArrayList<>(1);
@@ -447,7 +448,7 @@ public class TestERC20 {
     @Test
     public void testEventMintAll() throws NoSuchMethodException, InstantiationException, IllegalAccessException, ConvertException, InvocationTargetException, InterruptedException, ExecutionException, IOException {
         //events: should not fail on minting max tokens
-        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get(CONTRACT_NAME));
+        DeployedContract deployed = fixtures.restore(Fixtures.DEPLOYED);
 
         List<String> addresses = new ArrayList<>(1);
         List<BigInteger> values = new ArrayList<>(1);
@@ -469,8 +470,7 @@ public class TestERC20 {
     @Test
     public void testEventApprove() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
         //events: should fire Approval event properly
-        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get(CONTRACT_NAME));
-        TestUtils.mint(blockchain, deployed, CREDENTIAL_0.getAddress(), CREDENTIAL_1.getAddress(), CREDENTIAL_2.getAddress(), 10000, 0, 0);
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
 
 
         List<Event> events = blockchain.call(CREDENTIAL_0, deployed,
@@ -489,8 +489,7 @@ public class TestERC20 {
     @Test
     public void testEventTransferFrom() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
         //events: should fire transferFrom event properly
-        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get(CONTRACT_NAME));
-        TestUtils.mint(blockchain, deployed, CREDENTIAL_0.getAddress(), CREDENTIAL_1.getAddress(), CREDENTIAL_2.getAddress(), 10000, 0, 0);
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
 
         List<Event> events = blockchain.call(CREDENTIAL_0, deployed,
                 new FunctionBuilder("approve")
@@ -518,7 +517,7 @@ public class TestERC20 {
     public void testLockup() throws NoSuchMethodException, InstantiationException, IllegalAccessException, ConvertException, InvocationTargetException, InterruptedException, ExecutionException, IOException {
         //should not be able to withdraw funds before lockup is over with transfer
 
-        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get(CONTRACT_NAME));
+        DeployedContract deployed = fixtures.restore(Fixtures.DEPLOYED);
 
         List<String> addresses = new ArrayList<>(1);
         List<BigInteger> values = new ArrayList<>(1);
@@ -558,27 +557,9 @@ public class TestERC20 {
     public void testWithdrawTransferFrom() throws InterruptedException, ExecutionException, IOException, NoSuchMethodException, InstantiationException, IllegalAccessException, ConvertException, InvocationTargetException {
         //should not be able to withdraw funds before lockup is over with transferFrom
 
-        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get(CONTRACT_NAME));
-
-        List<String> addresses = new ArrayList<>(1);
-        List<BigInteger> values = new ArrayList<>(1);
-
-        addresses.add(CREDENTIAL_5.getAddress());
-        values.add(BigInteger.valueOf(2222));
+        DeployedContract deployed = fixtures.restore(Fixtures.LOCKED);
 
-        List<Event> events = blockchain.call(deployed,
-                new FunctionBuilder("mint").addInput("address[]", addresses)
-                        .addInput("uint192[]", values));
-
-        events = blockchain.call(deployed,
-                new FunctionBuilder("lockTokens").addInput("address[]", addresses)
-                        .addInput("uint256[]", values));
-
-        events = blockchain.call(deployed,
-                new FunctionBuilder("finishMinting"));
-        Assert.assertEquals(0, events.size());
-
-        events = blockchain.call(CREDENTIAL_5, deployed,
+        List<Event> events = blockchain.call(CREDENTIAL_5, deployed,
                 new FunctionBuilder("approve")
                         .addInput("address", CREDENTIAL_1.getAddress())
                         .addInput("uint256", new BigInteger("50"))
@@ -598,29 +579,13 @@ public class TestERC20 {
     public void testWithdraw() throws InterruptedException, ExecutionException, IOException, NoSuchMethodException, InstantiationException, IllegalAccessException, ConvertException, InvocationTargetException {
         //should be able to withdraw funds after lockup expires
 
-        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get(CONTRACT_NAME));
-
-        List<String> addresses = new ArrayList<>(1);
-        List<BigInteger> values = new ArrayList<>(1);
-
-        addresses.add(CREDENTIAL_5.getAddress());
-        values.add(BigInteger.valueOf(2222));
-
-        List<Event> events = blockchain.call(deployed,
-                new FunctionBuilder("mint").addInput("address[]", addresses)
-                        .addInput("uint192[]", values));
-
-        events = blockchain.call(deployed,
-                new FunctionBuilder("lockTokens").addInput("address[]", addresses)
-                        .addInput("uint256[]", values));
-
-        events = blockchain.call(deployed,
-                new FunctionBuilder("finishMinting"));
-        Assert.assertEquals(0, events.size());
+        DeployedContract deployed = fixtures.restore(Fixtures.LOCKED);
 
         blockchain.setTime(2222);
+        //a revert does not roll back the clock
+        fixtures.invalidate();
 
-        events = blockchain.call(CREDENTIAL_5, deployed,
+        List<Event> events = blockchain.call(CREDENTIAL_5, deployed,
                 new FunctionBuilder("transfer")
                         .addInput("address", CREDENTIAL_1.getAddress())
                         .addInput("uint256", new BigInteger("2222"))
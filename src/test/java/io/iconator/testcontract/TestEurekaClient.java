@@ -0,0 +1,128 @@
+package io.iconator.testcontract;
+
+import io.iconator.testonator.*;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.Bool;
+import org.web3j.abi.datatypes.DynamicArray;
+import org.web3j.abi.datatypes.DynamicBytes;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.generated.*;
+import org.web3j.crypto.Credentials;
+import org.web3j.utils.Numeric;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static io.iconator.testonator.TestBlockchain.*;
+
+public class TestEurekaClient {
+
+    private static TestChain chain;
+    private static TestBlockchain blockchain;
+    private static Map<String, Contract> contracts;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        chain = TestChain.start();
+        blockchain = chain.blockchain();
+        contracts = TestUtils.setup();
+    }
+
+    @Test
+    public void testSameAsWeb3j() throws Exception {
+        //client: the calldata of every overload is byte for byte the one of FunctionEncoder
+        Random random = new Random(7);
+        EurekaClient.Calldata c = EurekaClient.calldata();
+        for (int i = 0; i < 100; i++) {
+            String a = address(random);
+            String b = address(random);
+            BigInteger value = new BigInteger(i % 2 == 0 ? 256 : 60, random);
+            long block = random.nextInt(Integer.MAX_VALUE);
+            byte[] args = new byte[random.nextInt(100)];
+            random.nextBytes(args);
+            int methodName = random.nextInt();
+
+            Assert.assertEquals(encode("transfer", new Address(a), new Uint256(value)),
+                    EurekaClient.transfer(c, a, value).hex());
+            Assert.assertEquals(encode("transfer", new Address(a), new Uint256(value), new Uint8(3)),
+                    EurekaClient.transfer(c, a, value, 3).hex());
+            Assert.assertEquals(encode("transferFrom", new Address(a), new Address(b), new Uint256(value)),
+                    EurekaClient.transferFrom(c, a, b, value).hex());
+            Assert.assertEquals(encode("transferFrom", new Address(a), new Address(b), new Uint256(value), new Uint8(1)),
+                    EurekaClient.transferFrom(c, a, b, value, 1).hex());
+            Assert.assertEquals(encode("approve", new Address(a), new Uint256(value)),
+                    EurekaClient.approve(c, a, value).hex());
+            Assert.assertEquals(encode("transferAndCall", new Address(a), new Uint256(value),
+                    new Bytes4(Numeric.toBytesPadded(BigInteger.valueOf(methodName & 0xffffffffL), 4)), new DynamicBytes(args)),
+                    EurekaClient.transferAndCall(c, a, value, methodName, args).hex());
+            Assert.assertEquals(encode("transferPreSigned", new DynamicBytes(args), new Address(a), new Uint256(value),
+                    new Uint256(BigInteger.TEN), new Uint256(block)),
+                    EurekaClient.transferPreSigned(c, args, a, value, BigInteger.TEN, BigInteger.valueOf(block)).hex());
+            Assert.assertEquals(encode("balanceOf", new Address(a)),
+                    EurekaClient.balanceOf(c, a).hex());
+            Assert.assertEquals(encode("balanceOf", new Address(a), new Bool(i % 3 == 0), new Uint64(block)),
+                    EurekaClient.balanceOf(c, a, i % 3 == 0, block).hex());
+            Assert.assertEquals(encode("rewardOf", new Address(a), new Address(b)),
+                    EurekaClient.rewardOf(c, a, b).hex());
+            Assert.assertEquals(encode("rewardOf", new Address(a), new Address(b), new Uint48(block)),
+                    EurekaClient.rewardOf(c, a, b, block).hex());
+            Assert.assertEquals(encode("mint", new DynamicArray<>(new Address(a), new Address(b)),
+                    new DynamicArray<>(new Uint256(value), new Uint256(BigInteger.ONE))),
+                    EurekaClient.mint(c, Arrays.asList(a, b), Arrays.asList(value, BigInteger.ONE)).hex());
+        }
+        Assert.assertEquals(Numeric.toBigInt(io.iconator.testonator.Utils.functionHash("someName(address,uint256)")).intValue(),
+                EurekaClient.methodName("someName(address,uint256)"));
+    }
+
+    @Test
+    public void testOnChain() throws Exception {
+        //client: transactions and views through the binding give the same state as FunctionBuilder
+        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get("Eureka"));
+        NonceManager nonces = new NonceManager(chain.web3j());
+        EurekaClient owner = new EurekaClient(chain.web3j(), deployed.contractAddress(), CREDENTIAL_0, nonces);
+        EurekaClient holder = new EurekaClient(chain.web3j(), deployed.contractAddress(), CREDENTIAL_1, nonces);
+
+        assertSuccess(owner, owner.mint(Arrays.asList(CREDENTIAL_0.getAddress(), CREDENTIAL_1.getAddress()),
+                Arrays.asList(new BigInteger("10000"), new BigInteger("5000"))));
+        assertSuccess(owner, owner.finishMinting());
+        assertSuccess(owner, owner.transfer(CREDENTIAL_2.getAddress(), new BigInteger("300")));
+        assertSuccess(holder, holder.approve(CREDENTIAL_0.getAddress(), new BigInteger("100")));
+        assertSuccess(owner, owner.transferFrom(CREDENTIAL_1.getAddress(), CREDENTIAL_3.getAddress(), new BigInteger("100")));
+
+        Assert.assertEquals(new BigInteger("9700"), owner.balanceOf(CREDENTIAL_0.getAddress()));
+        Assert.assertEquals(new BigInteger("15000"), owner.totalSupply());
+        for (Credentials c : Arrays.asList(CREDENTIAL_0, CREDENTIAL_1, CREDENTIAL_2, CREDENTIAL_3)) {
+            List<Type> result = blockchain.callConstant(deployed, new FunctionBuilder("balanceOf")
+                    .addInput("address", c.getAddress())
+                    .outputs("uint256"));
+            Assert.assertEquals(result.get(0).getValue(), owner.balanceOf(c.getAddress()));
+        }
+        long block = chain.web3j().ethBlockNumber().send().getBlockNumber().longValueExact();
+        Assert.assertEquals(new BigInteger("4900"), owner.balanceOf(CREDENTIAL_1.getAddress(), true, block));
+        Assert.assertEquals(3, owner.rewardOf(CREDENTIAL_2.getAddress(), CREDENTIAL_0.getAddress()).length);
+    }
+
+    private static void assertSuccess(EurekaClient client, String txHash) throws Exception {
+        Assert.assertTrue(MintPipeline.isSuccess(client.receipt(txHash)));
+    }
+
+    private static String encode(String name, Type... args) {
+        return FunctionEncoder.encode(new Function(name, Arrays.asList(args), Collections.<TypeReference<?>>emptyList()));
+    }
+
+    private static String address(Random random) {
+        byte[] bytes = new byte[20];
+        random.nextBytes(bytes);
+        return Numeric.toHexString(bytes);
+    }
+}
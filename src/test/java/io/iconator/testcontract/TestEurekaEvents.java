@@ -0,0 +1,103 @@
+package io.iconator.testcontract;
+
+import io.iconator.testonator.*;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.web3j.protocol.core.DefaultBlockParameter;
+import org.web3j.protocol.core.methods.request.EthFilter;
+import org.web3j.protocol.core.methods.response.EthLog;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static io.iconator.testonator.TestBlockchain.*;
+
+public class TestEurekaEvents {
+
+    private static TestChain chain;
+    private static TestBlockchain blockchain;
+    private static Map<String, Contract> contracts;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        chain = TestChain.start();
+        blockchain = chain.blockchain();
+        contracts = TestUtils.setup();
+    }
+
+    @Test
+    public void testAbi() throws Exception {
+        //events: the decoders are built from the compiled ABI, every event of Eureka has its topic and data layout
+        EurekaEvents fromAbi = EurekaEvents.fromContract(contracts.get("Eureka"));
+        Assert.assertEquals(EurekaEvents.standard().signatures(), fromAbi.signatures());
+        Assert.assertEquals(7, fromAbi.signatures().size());
+        Assert.assertEquals("TransferPreSigned(address,address,address,uint256,uint256) t1 t2 t3 d0 d1",
+                fromAbi.signatures().get(EurekaEvents.TRANSFER_PRESIGNED));
+        Assert.assertEquals("Transfer(address,address,uint256,bytes4,bytes) t1 t2 d0 d1 d2",
+                fromAbi.signatures().get(EurekaEvents.TRANSFER_AND_CALL));
+    }
+
+    @Test
+    public void testDecode() throws Exception {
+        //events: the logs of mint, lockTokens, approve and a presigned transfer decode into their records
+        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get("Eureka"));
+        long start = chain.web3j().ethBlockNumber().send().getBlockNumber().longValueExact();
+        blockchain.call(deployed, "mint",
+                Arrays.asList(CREDENTIAL_0.getAddress(), CREDENTIAL_1.getAddress()),
+                Arrays.asList(new BigInteger("10000"), new BigInteger("500")));
+        blockchain.call(deployed, "lockTokens",
+                Arrays.asList(CREDENTIAL_1.getAddress()), Arrays.asList(new BigInteger("1600000000")));
+        blockchain.call(deployed, "finishMinting");
+        blockchain.call(CREDENTIAL_0, deployed, new FunctionBuilder("approve")
+                .addInput("address", CREDENTIAL_2.getAddress())
+                .addInput("uint256", new BigInteger("42")));
+        byte[] hash = PreSigned.hash(deployed.contractAddress(), CREDENTIAL_3.getAddress(), new BigInteger("400"), BigInteger.TEN, BigInteger.ZERO);
+        Assert.assertNotNull(blockchain.call(CREDENTIAL_2, deployed, new FunctionBuilder("transferPreSigned")
+                .addInput("bytes", PreSigned.sign(hash, CREDENTIAL_0))
+                .addInput("address", CREDENTIAL_3.getAddress())
+                .addInput("uint256", new BigInteger("400"))
+                .addInput("uint256", BigInteger.TEN)
+                .addInput("uint256", BigInteger.ZERO)
+                .outputs("bool")));
+        long end = chain.web3j().ethBlockNumber().send().getBlockNumber().longValueExact();
+
+        EthFilter filter = new EthFilter(DefaultBlockParameter.valueOf(BigInteger.valueOf(start)),
+                DefaultBlockParameter.valueOf(BigInteger.valueOf(end)), deployed.contractAddress());
+        List<Log> logs = new ArrayList<>();
+        for (EthLog.LogResult result : chain.web3j().ethGetLogs(filter).send().getLogs()) {
+            logs.add((Log) result.get());
+        }
+        List<EurekaEvents.EurekaEvent> events = EurekaEvents.standard().decode(logs);
+        Assert.assertEquals(logs.size(), events.size());
+
+        EurekaEvents.Transfer mint = (EurekaEvents.Transfer) events.get(0);
+        Assert.assertEquals(BalanceIndexer.ZERO_ADDRESS, EurekaEvents.address(mint.from));
+        Assert.assertEquals(CREDENTIAL_0.getAddress(), EurekaEvents.address(mint.to));
+        Assert.assertEquals(new BigInteger("10000"), EurekaEvents.uint(mint.value));
+
+        EurekaEvents.TokensLocked locked = (EurekaEvents.TokensLocked) events.get(2);
+        Assert.assertEquals(CREDENTIAL_1.getAddress(), EurekaEvents.address(locked.holder));
+        Assert.assertEquals(1600000000L, locked.timeout);
+
+        EurekaEvents.Approval approval = (EurekaEvents.Approval) events.get(3);
+        Assert.assertEquals(CREDENTIAL_2.getAddress(), EurekaEvents.address(approval.spender));
+        Assert.assertEquals(new BigInteger("42"), EurekaEvents.uint(approval.value));
+
+        //transfer, fee transfer, TransferPreSigned
+        EurekaEvents.Transfer transfer = (EurekaEvents.Transfer) events.get(events.size() - 3);
+        Assert.assertEquals(CREDENTIAL_3.getAddress(), EurekaEvents.address(transfer.to));
+        EurekaEvents.TransferPreSigned preSigned = (EurekaEvents.TransferPreSigned) events.get(events.size() - 1);
+        Assert.assertEquals(CREDENTIAL_0.getAddress(), EurekaEvents.address(preSigned.from));
+        Assert.assertEquals(CREDENTIAL_3.getAddress(), EurekaEvents.address(preSigned.to));
+        Assert.assertEquals(CREDENTIAL_2.getAddress(), EurekaEvents.address(preSigned.delegate));
+        Assert.assertEquals(new BigInteger("400"), EurekaEvents.uint(preSigned.amount));
+        Assert.assertEquals(BigInteger.TEN, EurekaEvents.uint(preSigned.fee));
+        Assert.assertFalse(preSigned.call);
+        Assert.assertEquals(end, preSigned.block);
+    }
+}
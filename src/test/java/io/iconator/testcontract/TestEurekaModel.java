@@ -0,0 +1,423 @@
+package io.iconator.testcontract;
+
+import io.iconator.testonator.*;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.crypto.Credentials;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.methods.response.EthBlock;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.*;
+
+import static io.iconator.testonator.TestBlockchain.*;
+
+public class TestEurekaModel {
+
+    private static final String OWNER = "0x00000000000000000000000000000000000000aa";
+
+    private static TestChain chain;
+    private static TestBlockchain blockchain;
+    private static Map<String, Contract> contracts;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        chain = TestChain.start();
+        blockchain = chain.blockchain();
+        contracts = TestUtils.setup();
+    }
+
+    @Test
+    public void testProperties() {
+        //model: random operations with edge amounts keep the invariants, a revert changes nothing
+        Random random = new Random(24);
+        List<String> holders = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            holders.add(String.format("0x%040x", i + 1));
+        }
+        EurekaModel model = new EurekaModel(OWNER).at(1, 1000);
+        List<BigInteger> amounts = new ArrayList<>();
+        for (int i = 0; i < holders.size(); i++) {
+            //a few tiny holders for the rounding of the claims
+            amounts.add(i % 10 == 0 ? BigInteger.valueOf(random.nextInt(100)) : new BigInteger(80, random));
+        }
+        Assert.assertTrue(model.mint(OWNER, holders, amounts));
+        Assert.assertTrue(model.lockTokens(OWNER, holders.subList(0, 4),
+                Arrays.asList(BigInteger.valueOf(500), BigInteger.valueOf(5000), BigInteger.valueOf(50000), BigInteger.valueOf(1L << 40))));
+        Assert.assertTrue(model.setRewardCheckpointBlocks(OWNER, 3));
+        Assert.assertTrue(model.finishMinting(OWNER));
+
+        int operations = 300_000;
+        long block = 2;
+        long start = System.nanoTime();
+        for (int op = 0; op < operations; op++) {
+            if (random.nextBoolean()) {
+                block++;
+            }
+            model.at(block, 1000 + block * 15);
+            boolean check = op % 997 == 0;
+            String before = check ? state(model) : null;
+            if (!randomOperation(model, holders, random) && check) {
+                Assert.assertEquals("op " + op, before, state(model));
+            }
+            if (op % 10_000 == 0) {
+                assertInvariants(model);
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        assertInvariants(model);
+        System.out.printf(Locale.ROOT, "model: %d operations, %d reverts, %.0f ops/s%n", model.operations(),
+                model.reverts(), model.operations() * 1e9 / nanos);
+        Assert.assertTrue(model.reverts() > 0);
+        Assert.assertTrue(model.reverts() < model.operations() / 2);
+        Assert.assertTrue(model.loyaltyPerToken().signum() > 0);
+    }
+
+    @Test
+    public void testMax88() {
+        //model: the largest balance is below max88, a reward above max88 reverts the whole transfer
+        String a = "0x0000000000000000000000000000000000000001";
+        String b = "0x0000000000000000000000000000000000000002";
+        EurekaModel model = new EurekaModel(OWNER).at(1, 1);
+        Assert.assertTrue(EurekaModel.MAX_SUPPLY.compareTo(EurekaModel.MAX88) < 0);
+        Assert.assertTrue(model.mint(OWNER, Collections.singletonList(a), Collections.singletonList(EurekaModel.MAX_SUPPLY)));
+        Assert.assertFalse(model.mint(OWNER, Collections.singletonList(b), Collections.singletonList(BigInteger.ONE)));
+        Assert.assertTrue(model.finishMinting(OWNER));
+
+        BigInteger half = EurekaModel.MAX88.shiftRight(1);
+        Assert.assertTrue(model.at(2, 2).transfer(a, b, half, 1));
+        Assert.assertTrue(model.at(3, 3).transfer(b, a, model.balanceOf(b).subtract(BigInteger.ONE), 0));
+        BigInteger balanceA = model.balanceOf(a);
+        BigInteger loyalty = model.loyalty();
+        //reward1 of (b, a) would be exactly max88
+        Assert.assertFalse(model.at(4, 4).transfer(a, b, half, 1));
+        Assert.assertEquals(half, model.rewardOf(b, a)[0]);
+        Assert.assertEquals(balanceA, model.balanceOf(a));
+        Assert.assertEquals(loyalty, model.loyalty());
+        Assert.assertEquals(3, model.amounts(a).size());
+        Assert.assertTrue(model.at(5, 5).transfer(a, b, half.subtract(BigInteger.ONE), 1));
+        Assert.assertEquals(EurekaModel.MAX88.subtract(BigInteger.ONE), model.rewardOf(b, a)[0]);
+    }
+
+    @Test
+    public void testRewardHistory() {
+        //model: of every period only the last reward is kept, an overwritten value is unknown, not 0
+        String a = "0x0000000000000000000000000000000000000001";
+        String b = "0x0000000000000000000000000000000000000002";
+        EurekaModel model = new EurekaModel(OWNER).at(1, 1);
+        Assert.assertTrue(model.mint(OWNER, Collections.singletonList(a), Collections.singletonList(BigInteger.valueOf(10000))));
+        Assert.assertTrue(model.setRewardCheckpointBlocks(OWNER, 10));
+        Assert.assertTrue(model.finishMinting(OWNER));
+        Assert.assertFalse(model.setRewardCheckpointBlocks(OWNER, 1));
+
+        //periods [10, 20) and [20, 30): 100 at 12 is overwritten by 200 at 15, 300 at 25 by 400 at 27
+        for (long block : new long[]{12, 15, 25, 27}) {
+            Assert.assertTrue(model.at(block, block).transfer(a, b, BigInteger.valueOf(100), 1));
+        }
+        Assert.assertEquals(1, model.rewardCheckpoints(b, a).size());
+        Assert.assertEquals(BigInteger.ZERO, model.rewardOf(b, a, 5)[0]);
+        Assert.assertNull(model.rewardOf(b, a, 12));
+        Assert.assertEquals(BigInteger.valueOf(200), model.rewardOf(b, a, 16)[0]);
+        Assert.assertEquals(BigInteger.valueOf(200), model.rewardOf(b, a, 19)[0]);
+        Assert.assertNull(model.rewardOf(b, a, 26));
+        Assert.assertEquals(BigInteger.valueOf(400), model.rewardOf(b, a, 27)[0]);
+
+        //without periods nothing older than the slot is known
+        EurekaModel noHistory = new EurekaModel(OWNER).at(1, 1);
+        Assert.assertTrue(noHistory.mint(OWNER, Collections.singletonList(a), Collections.singletonList(BigInteger.valueOf(10000))));
+        Assert.assertTrue(noHistory.setRewardCheckpointBlocks(OWNER, 0));
+        Assert.assertTrue(noHistory.finishMinting(OWNER));
+        Assert.assertTrue(noHistory.at(12, 12).transfer(a, b, BigInteger.valueOf(100), 1));
+        Assert.assertTrue(noHistory.at(30, 30).transfer(a, b, BigInteger.valueOf(100), 1));
+        Assert.assertNull(noHistory.rewardOf(b, a, 5));
+        Assert.assertNull(noHistory.rewardOf(b, a, 20));
+        Assert.assertEquals(BigInteger.valueOf(200), noHistory.rewardOf(b, a, 30)[0]);
+    }
+
+    @Test
+    public void testSelfAndFee() {
+        //model: a transfer to oneself keeps the balance, a fee paid to the receiver is added to the value
+        String a = "0x0000000000000000000000000000000000000001";
+        String b = "0x0000000000000000000000000000000000000002";
+        EurekaModel model = new EurekaModel(OWNER).at(1, 1);
+        Assert.assertTrue(model.mint(OWNER, Arrays.asList(a, b), Arrays.asList(BigInteger.valueOf(10000), BigInteger.valueOf(10000))));
+        Assert.assertTrue(model.finishMinting(OWNER));
+
+        Assert.assertTrue(model.at(2, 2).transfer(a, a, BigInteger.valueOf(400), 0));
+        Assert.assertEquals(BigInteger.valueOf(10000), model.balanceOf(a));
+        Assert.assertTrue(model.approve(a, a, BigInteger.valueOf(400)));
+        Assert.assertTrue(model.at(3, 3).transferFrom(a, a, a, BigInteger.valueOf(400), 0));
+        Assert.assertEquals(BigInteger.valueOf(10000), model.balanceOf(a));
+        Assert.assertEquals(BigInteger.ZERO, model.allowance(a, a));
+
+        //signed by a, relayed by b to b
+        Assert.assertTrue(model.at(4, 4).transferPreSigned(b, a, b, BigInteger.valueOf(100), BigInteger.valueOf(10),
+                BigInteger.ONE, 0));
+        Assert.assertEquals(BigInteger.valueOf(9890), model.balanceOf(a));
+        Assert.assertEquals(BigInteger.valueOf(10110), model.balanceOf(b));
+
+        //a rewarded transfer to oneself only pays the 1% into the loyalty pool, which a and b share
+        Assert.assertTrue(model.at(5, 5).transfer(a, a, BigInteger.valueOf(1000), 1));
+        Assert.assertEquals(BigInteger.TEN, model.loyalty());
+        BigInteger[] claimA = model.balanceWithLoyaltyClaimOf(a);
+        BigInteger[] claimB = model.balanceWithLoyaltyClaimOf(b);
+        Assert.assertEquals(BigInteger.valueOf(9880), claimA[0]);
+        Assert.assertTrue(claimA[1].add(claimB[1]).compareTo(BigInteger.TEN) <= 0);
+        Assert.assertEquals(model.totalSupply().subtract(BigInteger.TEN), claimA[0].add(claimB[0]));
+    }
+
+    @Test
+    public void testLockTokens() {
+        //model: lockTokens with 256 holders runs out of gas in its uint8 loop
+        EurekaModel model = new EurekaModel(OWNER).at(1, 1);
+        List<String> holders = new ArrayList<>();
+        for (int i = 0; i < 256; i++) {
+            holders.add(String.format("0x%040x", i + 1));
+        }
+        Assert.assertFalse(model.lockTokens(OWNER, holders, Collections.nCopies(256, BigInteger.TEN)));
+        Assert.assertEquals(BigInteger.ZERO, model.lockup(holders.get(0)));
+        Assert.assertTrue(model.lockTokens(OWNER, holders.subList(0, 255), Collections.nCopies(255, BigInteger.TEN)));
+        Assert.assertFalse(model.lockTokens(OWNER, holders.subList(254, 256), Collections.nCopies(2, BigInteger.TEN)));
+        Assert.assertEquals(BigInteger.ZERO, model.lockup(holders.get(255)));
+    }
+
+    @Test
+    public void testDifferential() throws Exception {
+        //model: the same random operations on the chain and on the model, all views compared every 20 operations
+        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get("Eureka"));
+        List<Credentials> credentials = Arrays.asList(CREDENTIAL_0, CREDENTIAL_1, CREDENTIAL_2, CREDENTIAL_3, CREDENTIAL_4, CREDENTIAL_5);
+        List<String> holders = new ArrayList<>();
+        for (Credentials c : credentials) {
+            holders.add(c.getAddress());
+        }
+        EurekaClient client = new EurekaClient(chain.web3j(), deployed.contractAddress(), CREDENTIAL_0, new NonceManager(chain.web3j()));
+        EurekaModel model = new EurekaModel(CREDENTIAL_0.getAddress());
+        Random random = new Random(2024);
+
+        List<BigInteger> amounts = Arrays.asList(new BigInteger("1000000000000000000000000"), new BigInteger("333333333333333333333"),
+                new BigInteger("7"), new BigInteger("123456789012345678901"), new BigInteger("5000"), new BigInteger("99999"));
+        assertSame(model, blockchain.call(deployed, "mint", holders, amounts), () -> model.mint(CREDENTIAL_0.getAddress(), holders, amounts));
+        long now = latest().getTimestamp().longValueExact();
+        List<String> locked = Arrays.asList(CREDENTIAL_4.getAddress(), CREDENTIAL_5.getAddress());
+        List<BigInteger> timeouts = Arrays.asList(BigInteger.valueOf(now - 1), BigInteger.valueOf(now + 1_000_000));
+        assertSame(model, blockchain.call(deployed, "lockTokens", locked, timeouts),
+                () -> model.lockTokens(CREDENTIAL_0.getAddress(), locked, timeouts));
+        assertSame(model, blockchain.call(CREDENTIAL_0, deployed, new FunctionBuilder("setRewardCheckpointBlocks")
+                .addInput("uint48", BigInteger.valueOf(2))), () -> model.setRewardCheckpointBlocks(CREDENTIAL_0.getAddress(), 2));
+        assertSame(model, blockchain.call(CREDENTIAL_0, deployed, new FunctionBuilder("finishMinting")),
+                () -> model.finishMinting(CREDENTIAL_0.getAddress()));
+        long first = model.block();
+
+        for (int op = 0; op < 200; op++) {
+            Credentials sender = credentials.get(random.nextInt(credentials.size()));
+            Credentials other = credentials.get(random.nextInt(credentials.size()));
+            String s = sender.getAddress();
+            String o = other.getAddress();
+            int rewardType = random.nextInt(4);
+            BigInteger value = amount(random, model, random.nextBoolean() ? s : o);
+            switch (random.nextInt(6)) {
+                case 0: {
+                    FunctionBuilder fb = new FunctionBuilder("transfer").addInput("address", o).addInput("uint256", value);
+                    if (rewardType > 0) {
+                        fb = fb.addInput("uint8", rewardType);
+                    }
+                    assertSame(model, blockchain.call(sender, deployed, fb.outputs("bool")), () -> model.transfer(s, o, value, rewardType));
+                    break;
+                }
+                case 1: {
+                    String to = holders.get(random.nextInt(holders.size()));
+                    FunctionBuilder fb = new FunctionBuilder("transferFrom").addInput("address", o).addInput("address", to)
+                            .addInput("uint256", value);
+                    if (rewardType > 0) {
+                        fb = fb.addInput("uint8", rewardType);
+                    }
+                    assertSame(model, blockchain.call(sender, deployed, fb.outputs("bool")), () -> model.transferFrom(s, o, to, value, rewardType));
+                    break;
+                }
+                case 2: {
+                    String[] names = {"approve", "increaseApproval", "decreaseApproval"};
+                    int which = random.nextInt(3);
+                    assertSame(model, blockchain.call(sender, deployed, new FunctionBuilder(names[which])
+                            .addInput("address", o).addInput("uint256", value).outputs("bool")), () -> which == 0
+                            ? model.approve(s, o, value) : which == 1 ? model.increaseApproval(s, o, value) : model.decreaseApproval(s, o, value));
+                    break;
+                }
+                case 3: {
+                    assertSame(model, blockchain.call(sender, deployed, new FunctionBuilder("loyalty").addInput("uint256", value)),
+                            () -> model.loyalty(s, value));
+                    break;
+                }
+                default: {
+                    //signed by other, relayed by sender, small nonces to hit used ones
+                    String to = holders.get(random.nextInt(holders.size()));
+                    BigInteger fee = random.nextBoolean() ? BigInteger.ZERO : BigInteger.valueOf(random.nextInt(1000));
+                    BigInteger nonce = BigInteger.valueOf(random.nextInt(40));
+                    byte[] signature = PreSigned.sign(PreSigned.hash(deployed.contractAddress(), to, value, fee, nonce), other);
+                    assertSame(model, blockchain.call(sender, deployed, new FunctionBuilder("transferPreSigned")
+                                    .addInput("bytes", signature).addInput("address", to).addInput("uint256", value)
+                                    .addInput("uint256", fee).addInput("uint256", nonce).addInput("uint8", rewardType).outputs("bool")),
+                            () -> model.transferPreSigned(s, o, to, value, fee, nonce, rewardType));
+                    break;
+                }
+            }
+            if (op % 20 == 19) {
+                compare(model, deployed, client, holders, first);
+            }
+        }
+        compare(model, deployed, client, holders, first);
+        Assert.assertTrue(model.reverts() > 0);
+        Assert.assertTrue(model.reverts() < model.operations());
+    }
+
+    private interface Operation {
+        boolean run();
+    }
+
+    private static void assertSame(EurekaModel model, List<Event> events, Operation operation) throws Exception {
+        EthBlock.Block block = latest();
+        model.at(block.getNumber().longValueExact(), block.getTimestamp().longValueExact());
+        Assert.assertEquals("op " + model.operations(), events != null, operation.run());
+    }
+
+    /**
+     * @param expected null where the contract reverts
+     */
+    private static void assertRewardOf(BigInteger[] expected, EurekaClient client, String owner, String from, long block) throws IOException {
+        BigInteger[] actual;
+        try {
+            actual = client.rewardOf(owner, from, block);
+        } catch (IOException | IllegalStateException e) {
+            actual = null;
+        }
+        Assert.assertArrayEquals(owner + " " + from + " " + block, expected, actual);
+    }
+
+    private static void compare(EurekaModel model, DeployedContract deployed, EurekaClient client, List<String> holders, long first) throws Exception {
+        Assert.assertEquals(model.totalSupply(), client.totalSupply());
+        Assert.assertEquals(model.loyaltyPerToken(), blockchain.callConstant(deployed, "loyaltyPerToken").get(0).getValue());
+        Assert.assertEquals(model.loyalty(), blockchain.callConstant(deployed, "loyalty").get(0).getValue());
+        for (String h : holders) {
+            Assert.assertArrayEquals(h, model.balanceWithLoyaltyClaimOf(h), client.balanceWithLoyaltyClaimOf(h));
+            for (long block = first; block <= model.block(); block += 13) {
+                Assert.assertEquals(model.balanceOf(h, true, block), client.balanceOf(h, true, block));
+                Assert.assertEquals(model.balanceOf(h, false, block), client.balanceOf(h, false, block));
+            }
+            for (String from : holders) {
+                Assert.assertArrayEquals(model.rewardOf(h, from), client.rewardOf(h, from));
+                for (long block = first; block <= model.block(); block += 13) {
+                    assertRewardOf(model.rewardOf(h, from, block), client, h, from, block);
+                }
+                List<Type> allowance = blockchain.callConstant(deployed, new FunctionBuilder("allowance")
+                        .addInput("address", h).addInput("address", from).outputs("uint256"));
+                Assert.assertEquals(model.allowance(h, from), allowance.get(0).getValue());
+            }
+        }
+    }
+
+    private static boolean randomOperation(EurekaModel model, List<String> holders, Random random) {
+        //about one in eight operations is to oneself, for transferPreSigned one in eight pays the fee to the receiver
+        String s = holders.get(random.nextInt(holders.size()));
+        String o = random.nextInt(8) == 0 ? s : other(random, holders, s, s);
+        String t = random.nextInt(8) == 0 ? (random.nextBoolean() ? s : o) : other(random, holders, s, o);
+        int rewardType = random.nextInt(5);
+        BigInteger value = amount(random, model, random.nextBoolean() ? s : o);
+        switch (random.nextInt(8)) {
+            case 0:
+            case 1:
+                return model.transfer(s, o, value, rewardType);
+            case 2:
+                return model.transferFrom(s, o, t, value, rewardType);
+            case 3:
+                return model.approve(s, o, value);
+            case 4:
+                return random.nextBoolean() ? model.increaseApproval(s, o, value) : model.decreaseApproval(s, o, value);
+            case 5:
+                return model.loyalty(s, value);
+            case 6:
+                return model.transferAndCall(s, o, value, rewardType);
+            default:
+                return model.transferPreSigned(s, o, t, value, amount(random, model, o).shiftRight(4),
+                        BigInteger.valueOf(random.nextInt(1000)), rewardType);
+        }
+    }
+
+    private static String other(Random random, List<String> holders, String not1, String not2) {
+        String other;
+        do {
+            other = holders.get(random.nextInt(holders.size()));
+        } while (other.equals(not1) || other.equals(not2));
+        return other;
+    }
+
+    /**
+     * @return an amount around the balance of the holder: 0, 1, all of it, one more, part of it, or the claim
+     */
+    private static BigInteger amount(Random random, EurekaModel model, String holder) {
+        BigInteger[] claim = model.balanceWithLoyaltyClaimOf(holder);
+        switch (random.nextInt(8)) {
+            case 0:
+                return BigInteger.ZERO;
+            case 1:
+                return BigInteger.ONE;
+            case 2:
+                return claim[0];
+            case 3:
+                return claim[0].add(BigInteger.ONE);
+            case 4:
+                return claim[0].add(claim[1]);
+            case 5:
+                return new BigInteger(88, random);
+            default:
+                return claim[0].signum() == 0 ? BigInteger.ZERO : new BigInteger(claim[0].bitLength() + 1, random).mod(claim[0]);
+        }
+    }
+
+    private static void assertInvariants(EurekaModel model) {
+        BigInteger sum = BigInteger.ZERO;
+        for (String h : model.holders()) {
+            BigInteger[] claim = model.balanceWithLoyaltyClaimOf(h);
+            sum = sum.add(claim[0]).add(claim[1]);
+            long last = -1;
+            for (EurekaModel.Snapshot s : model.amounts(h)) {
+                Assert.assertTrue(s.fromBlock > last);
+                Assert.assertTrue(s.amount.compareTo(EurekaModel.MAX88) < 0);
+                last = s.fromBlock;
+            }
+            Assert.assertEquals(model.balanceOf(h), model.balanceOf(h, true, model.block()));
+            for (String from : model.holders()) {
+                BigInteger[] reward = model.rewardOf(h, from);
+                Assert.assertTrue(reward[0].compareTo(EurekaModel.MAX88) < 0);
+                Assert.assertTrue(reward[1].compareTo(EurekaModel.MAX88) < 0);
+            }
+        }
+        //tokens only leave the balances into the loyalty pool, and claims never pay more than the pool
+        Assert.assertTrue(sum.compareTo(model.totalSupply()) <= 0);
+        Assert.assertTrue(sum.compareTo(model.totalSupply().subtract(model.loyalty())) >= 0);
+        Assert.assertTrue(model.totalSupply().compareTo(EurekaModel.MAX_SUPPLY) <= 0);
+    }
+
+    private static String state(EurekaModel model) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(model.totalSupply()).append(' ').append(model.loyalty()).append(' ').append(model.loyaltyPerToken());
+        for (String h : new TreeSet<>(model.holders())) {
+            List<EurekaModel.Snapshot> amounts = model.amounts(h);
+            EurekaModel.Snapshot last = amounts.isEmpty() ? null : amounts.get(amounts.size() - 1);
+            sb.append('|').append(h).append(' ').append(amounts.size());
+            if (last != null) {
+                sb.append(' ').append(last.fromBlock).append(' ').append(last.amount).append(' ').append(last.claimedLoyalty);
+            }
+            for (String from : new TreeSet<>(model.holders())) {
+                sb.append(' ').append(Arrays.toString(model.rewardOf(h, from))).append(model.rewardCheckpoints(h, from).size())
+                        .append(' ').append(model.allowance(h, from));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static EthBlock.Block latest() throws Exception {
+        return chain.web3j().ethGetBlockByNumber(DefaultBlockParameterName.LATEST, false).send().getBlock();
+    }
+}
@@ -0,0 +1,310 @@
+package io.iconator.testcontract;
+
+import io.iconator.testonator.*;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.utils.Numeric;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.math.BigInteger;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import static io.iconator.testonator.TestBlockchain.*;
+
+/**
+ * Records gasUsed of every public function and fails if it exceeds the baseline in
+ * src/test/resources/gas-baseline.properties by more than -Deureka.gas.tolerance percent, or if the
+ * operation has no baseline yet. Without any baseline the gas is only reported and testBaseline is skipped.
+ */
+public class TestGasBudget {
+
+    private static TestBlockchain blockchain;
+    private static Map<String, Contract> contracts;
+    private static Fixtures fixtures;
+    private static GasMeter gasMeter;
+    private static GasBudget budget;
+    private static Contract receiver;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        TestChain chain = TestChain.start();
+        blockchain = chain.blockchain();
+        contracts = TestUtils.setup();
+        fixtures = new Fixtures(blockchain, chain.rpc(), contracts.get("Eureka"));
+        gasMeter = new GasMeter(chain.web3j());
+        budget = GasBudget.fromSystemProperties();
+
+        File contractFile = Paths.get(ClassLoader.getSystemResource("TestSomeContract.sol").toURI()).toFile();
+        receiver = ArtifactStore.defaultStore().compileCached(contractFile).get("TestSomeContract");
+    }
+
+    @AfterClass
+    public static void report() throws IOException {
+        System.out.println(budget.table());
+        if (budget.isUpdate()) {
+            budget.writeBaseline();
+        }
+    }
+
+    @Test
+    public void testMint() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
+        DeployedContract deployed = fixtures.restore(Fixtures.DEPLOYED);
+        assertBudget("mint(address[],uint256[])", blockchain.call(deployed, "mint",
+                Collections.singletonList(CREDENTIAL_1.getAddress()), Collections.singletonList(new BigInteger("10000"))));
+    }
+
+    @Test
+    public void testMintPacked() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
+        DeployedContract deployed = fixtures.restore(Fixtures.DEPLOYED);
+        assertBudget("mintPacked(bytes32[])", TestUtils.mintPacked(blockchain, deployed,
+                Collections.singletonList(CREDENTIAL_1.getAddress()), Collections.singletonList(new BigInteger("10000"))));
+    }
+
+    @Test
+    public void testLockTokens() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
+        DeployedContract deployed = fixtures.restore(Fixtures.MINTED);
+        assertBudget("lockTokens(address[],uint256[])", blockchain.call(deployed, new FunctionBuilder("lockTokens")
+                .addInput("address[]", Collections.singletonList(CREDENTIAL_0.getAddress()))
+                .addInput("uint256[]", Collections.singletonList(BigInteger.valueOf(2222)))));
+    }
+
+    @Test
+    public void testFinishMinting() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
+        DeployedContract deployed = fixtures.restore(Fixtures.MINTED);
+        assertBudget("finishMinting()", blockchain.call(deployed, new FunctionBuilder("finishMinting")));
+    }
+
+    @Test
+    public void testTransferOwnership() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
+        assertBudget("transferOwnership(address)", blockchain.call(deployed, new FunctionBuilder("transferOwnership")
+                .addInput("address", CREDENTIAL_1.getAddress())));
+    }
+
+    @Test
+    public void testApprovals() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
+        assertBudget("approve(address,uint256)", blockchain.call(CREDENTIAL_0, deployed, approval("approve", 100)));
+        assertBudget("increaseApproval(address,uint256)", blockchain.call(CREDENTIAL_0, deployed, approval("increaseApproval", 50)));
+        assertBudget("decreaseApproval(address,uint256)", blockchain.call(CREDENTIAL_0, deployed, approval("decreaseApproval", 20)));
+    }
+
+    @Test
+    public void testTransfer() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
+        assertBudget("transfer(address,uint256)", blockchain.call(CREDENTIAL_0, deployed, transfer(CREDENTIAL_1.getAddress(), 1000)));
+        //second transfer to the same address, now both sides have history
+        assertBudget("transfer(address,uint256)#history", blockchain.call(CREDENTIAL_0, deployed, transfer(CREDENTIAL_1.getAddress(), 1000)));
+    }
+
+    @Test
+    public void testTransferReward() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
+        for (int rewardType = 1; rewardType <= 3; rewardType++) {
+            DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
+            assertBudget("transfer(address,uint256,uint8)#" + rewardType, blockchain.call(CREDENTIAL_0, deployed,
+                    transfer(CREDENTIAL_1.getAddress(), 1000).addInput("uint8", rewardType)));
+            //the reward of (CREDENTIAL_1, CREDENTIAL_0) is updated in place
+            assertBudget("transfer(address,uint256,uint8)#" + rewardType + "#update", blockchain.call(CREDENTIAL_0, deployed,
+                    transfer(CREDENTIAL_1.getAddress(), 1000).addInput("uint8", rewardType)));
+        }
+    }
+
+    @Test
+    public void testTransferFrom() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
+        blockchain.call(CREDENTIAL_0, deployed, approval("approve", 100));
+        assertBudget("transferFrom(address,address,uint256)", blockchain.call(CREDENTIAL_1, deployed, new FunctionBuilder("transferFrom")
+                .addInput("address", CREDENTIAL_0.getAddress())
+                .addInput("address", CREDENTIAL_2.getAddress())
+                .addInput("uint256", new BigInteger("20"))
+                .outputs("bool")));
+    }
+
+    @Test
+    public void testTransferFromReward() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
+        for (int rewardType = 1; rewardType <= 3; rewardType++) {
+            DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
+            blockchain.call(CREDENTIAL_0, deployed, approval("approve", 100));
+            assertBudget("transferFrom(address,address,uint256,uint8)#" + rewardType, blockchain.call(CREDENTIAL_1, deployed, new FunctionBuilder("transferFrom")
+                    .addInput("address", CREDENTIAL_0.getAddress())
+                    .addInput("address", CREDENTIAL_2.getAddress())
+                    .addInput("uint256", new BigInteger("20"))
+                    .addInput("uint8", rewardType)
+                    .outputs("bool")));
+        }
+    }
+
+    @Test
+    public void testTransferAndCall() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
+        DeployedContract dcTest = blockchain.deploy(CREDENTIAL_0, receiver);
+        deployed.addReferencedContract(dcTest.contract());
+        byte[] methodName = Numeric.hexStringToByteArray(io.iconator.testonator.Utils.functionHash("someName(address,uint256)"));
+        assertBudget("transferAndCall(address,uint256,bytes4,bytes)", blockchain.call(CREDENTIAL_0, deployed, "transferAndCall",
+                dcTest.contractAddress(), new BigInteger("100"), methodName, new byte[0]));
+    }
+
+    @Test
+    public void testTransferPreSigned() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
+        BigInteger value = new BigInteger("100");
+        BigInteger fee = new BigInteger("1");
+        byte[] hash = PreSigned.hash(deployed.contractAddress(), CREDENTIAL_2.getAddress(), value, fee, BigInteger.ZERO);
+        assertBudget("transferPreSigned(bytes,address,uint256,uint256,uint256)", blockchain.call(CREDENTIAL_1, deployed,
+                new FunctionBuilder("transferPreSigned")
+                        .addInput("bytes", PreSigned.sign(hash, CREDENTIAL_0))
+                        .addInput("address", CREDENTIAL_2.getAddress())
+                        .addInput("uint256", value)
+                        .addInput("uint256", fee)
+                        .addInput("uint256", BigInteger.ZERO)
+                        .outputs("bool")));
+    }
+
+    @Test
+    public void testTransferAndCallPreSigned() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
+        DeployedContract dcTest = blockchain.deploy(CREDENTIAL_0, receiver);
+        deployed.addReferencedContract(dcTest.contract());
+        byte[] methodName = Numeric.hexStringToByteArray(io.iconator.testonator.Utils.functionHash("someName(address,uint256)"));
+        BigInteger value = new BigInteger("100");
+        BigInteger fee = new BigInteger("1");
+        byte[] hash = PreSigned.hash(deployed.contractAddress(), dcTest.contractAddress(), value, fee, BigInteger.ZERO, methodName, new byte[0]);
+        assertBudget("transferAndCallPreSigned(bytes,address,uint256,uint256,uint256,bytes4,bytes)", blockchain.call(CREDENTIAL_1, deployed,
+                "transferAndCallPreSigned", PreSigned.sign(hash, CREDENTIAL_0), dcTest.contractAddress(), value, fee,
+                BigInteger.ZERO, methodName, new byte[0]));
+    }
+
+    @Test
+    public void testTransferPreSignedToRelayer() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
+        //the relayer receives value and fee in the same block, both end up in one snapshot
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
+        BigInteger value = new BigInteger("100");
+        BigInteger fee = new BigInteger("1");
+        byte[] hash = PreSigned.hash(deployed.contractAddress(), CREDENTIAL_1.getAddress(), value, fee, BigInteger.ZERO);
+        assertBudget("transferPreSigned(bytes,address,uint256,uint256,uint256)#toRelayer", blockchain.call(CREDENTIAL_1, deployed,
+                new FunctionBuilder("transferPreSigned")
+                        .addInput("bytes", PreSigned.sign(hash, CREDENTIAL_0))
+                        .addInput("address", CREDENTIAL_1.getAddress())
+                        .addInput("uint256", value)
+                        .addInput("uint256", fee)
+                        .addInput("uint256", BigInteger.ZERO)
+                        .outputs("bool")));
+        List<Type> result = blockchain.callConstant(deployed, new FunctionBuilder("balanceOf")
+                .addInput("address", CREDENTIAL_1.getAddress())
+                .outputs("uint256"));
+        Assert.assertEquals("101", result.get(0).getValue().toString());
+    }
+
+    @Test
+    public void testTransferPreSignedBatch() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
+        //10 transfers in one transaction must be cheaper than the same 10 transfers as 10 transactions
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
+        long singleGas = 0;
+        for (int i = 0; i < 10; i++) {
+            TestPreSignedBatch.Batch single = new TestPreSignedBatch.Batch(deployed.contractAddress());
+            single.add(CREDENTIAL_0, CREDENTIAL_2.getAddress(), 100, 1, i);
+            blockchain.call(CREDENTIAL_1, deployed, new FunctionBuilder("transferPreSigned")
+                    .addInput("bytes", single.signatures.get(0))
+                    .addInput("address", CREDENTIAL_2.getAddress())
+                    .addInput("uint256", single.values.get(0))
+                    .addInput("uint256", single.fees.get(0))
+                    .addInput("uint256", single.nonces.get(0))
+                    .outputs("bool"));
+            singleGas += gasMeter.lastGasUsed();
+        }
+
+        //the same payloads from the same state
+        deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
+        TestPreSignedBatch.Batch batch = new TestPreSignedBatch.Batch(deployed.contractAddress());
+        for (int i = 0; i < 10; i++) {
+            batch.add(CREDENTIAL_0, CREDENTIAL_2.getAddress(), 100, 1, i);
+        }
+        assertBudget("transferPreSignedBatch(bytes,address[],uint256[],uint256[],uint256[])#10",
+                blockchain.call(CREDENTIAL_1, deployed, batch.function()));
+        long batchGas = gasMeter.lastGasUsed();
+        System.out.println("10 transfers: transferPreSigned x10 -> " + singleGas + ", transferPreSignedBatch -> " + batchGas);
+        Assert.assertTrue(batchGas < singleGas);
+    }
+
+    @Test
+    public void testLoyalty()throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
+        assertBudget("loyalty(uint256)", blockchain.call(CREDENTIAL_0, deployed, new FunctionBuilder("loyalty")
+                .addInput("uint256", new BigInteger("100"))));
+    }
+
+    @Test
+    public void testReclaim() throws Exception {
+        //the fixed part: the owner claims and writes its snapshot
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
+        assertBudget("reclaim(address[])#empty", blockchain.call(CREDENTIAL_0, deployed, reclaim(Collections.<String>emptyList())));
+
+        //a holder is only dormant after oneYearsInBlocks, EurekaShortYear has the same reclaim after 2 blocks
+        DeployedContract shortYear = blockchain.deploy(CREDENTIAL_0, TestUtils.shortYear());
+        List<String> holders = new ArrayList<>();
+        for (int i = 0; i < 11; i++) {
+            holders.add(String.format("0x%040x", i + 1));
+        }
+        holders.add(CREDENTIAL_0.getAddress());
+        Assert.assertNotNull(blockchain.call(shortYear, "mint", holders, Collections.nCopies(holders.size(), new BigInteger("10000"))));
+        Assert.assertNotNull(blockchain.call(shortYear, new FunctionBuilder("finishMinting")));
+        //loyalty to take, and the third block since the mint
+        Assert.assertNotNull(blockchain.call(CREDENTIAL_0, shortYear, new FunctionBuilder("loyalty").addInput("uint256", new BigInteger("1000"))));
+        assertBudget("reclaim(address[])#1", blockchain.call(CREDENTIAL_0, shortYear, reclaim(holders.subList(0, 1))));
+        assertBudget("reclaim(address[])#10", blockchain.call(CREDENTIAL_0, shortYear, reclaim(holders.subList(1, 11))));
+        //every dormant holder had a claim, the owner got all of them
+        for (String holder : holders.subList(0, 11)) {
+            List<Type> claim = blockchain.callConstant(shortYear, new FunctionBuilder("balanceWithLoyaltyClaimOf")
+                    .addInput("address", holder).outputs("uint256", "uint256"));
+            Assert.assertEquals(new BigInteger("10000"), claim.get(0).getValue());
+            Assert.assertEquals(BigInteger.ZERO, claim.get(1).getValue());
+        }
+        List<Type> owner = blockchain.callConstant(shortYear, new FunctionBuilder("balanceOf")
+                .addInput("address", CREDENTIAL_0.getAddress()).outputs("uint256"));
+        Assert.assertTrue(((BigInteger) owner.get(0).getValue()).compareTo(new BigInteger("9000")) > 0);
+    }
+
+    @Test
+    public void testBaseline() {
+        //a checkout without any baseline only reports the measured gas, see assertBudget
+        Assume.assumeTrue("no gas baseline yet, run ./gradlew test -PgasUpdate", budget.isUpdate() || budget.hasBaseline());
+    }
+
+    private static FunctionBuilder reclaim(List<String> loyaltyOwners) {
+        return new FunctionBuilder("reclaim").addInput("address[]", loyaltyOwners);
+    }
+
+    private static FunctionBuilder transfer(String to, long value) {
+        return new FunctionBuilder("transfer")
+                .addInput("address", to)
+                .addInput("uint256", BigInteger.valueOf(value))
+                .outputs("bool");
+    }
+
+    private static FunctionBuilder approval(String name, long value) {
+        return new FunctionBuilder(name)
+                .addInput("address", CREDENTIAL_1.getAddress())
+                .addInput("uint256", BigInteger.valueOf(value))
+                .outputs("bool");
+    }
+
+    private static void assertBudget(String operation, List<Event> events) throws IOException {
+        Assert.assertNotNull(operation + " reverted", events);
+        String violation = budget.record(operation, gasMeter.lastGasUsed());
+        //with an empty baseline file testBaseline is skipped instead, single missing operations fail
+        if (budget.hasBaseline()) {
+            Assert.assertNull(violation, violation);
+        }
+    }
+}
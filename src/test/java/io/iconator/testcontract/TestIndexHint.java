@@ -0,0 +1,110 @@
+package io.iconator.testcontract;
+
+import io.iconator.testonator.*;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.web3j.protocol.core.methods.request.Transaction;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static io.iconator.testonator.TestBlockchain.*;
+
+public class TestIndexHint {
+
+    private static TestChain chain;
+    private static TestBlockchain blockchain;
+    private static Map<String, Contract> contracts;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        chain = TestChain.start();
+        blockchain = chain.blockchain();
+        contracts = TestUtils.setup();
+    }
+
+    @Test
+    public void testBalanceOfAt() throws Exception {
+        //hint: with the hint of the indexer, right or wrong, balanceOfAt is balanceOf(address,bool,uint64)
+        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get("Eureka"));
+        long start = blockNumber();
+        blockchain.call(deployed, "mint",
+                Arrays.asList(CREDENTIAL_0.getAddress(), CREDENTIAL_1.getAddress()),
+                Arrays.asList(new BigInteger("100000"), new BigInteger("5000")));
+        blockchain.call(deployed, "finishMinting");
+        for (int i = 0; i < 16; i++) {
+            Assert.assertNotNull(blockchain.call(CREDENTIAL_0, deployed, new FunctionBuilder("transfer")
+                    .addInput("address", CREDENTIAL_1.getAddress())
+                    .addInput("uint256", BigInteger.valueOf(100 + i))
+                    .outputs("bool")));
+        }
+        long end = blockNumber();
+        BalanceIndexer indexer = new BalanceIndexer(deployed.contractAddress());
+        indexer.sync(chain.web3j(), start, end);
+
+        EurekaClient client = new EurekaClient(chain.web3j(), deployed.contractAddress(), CREDENTIAL_0, new NonceManager(chain.web3j()));
+        String owner = CREDENTIAL_1.getAddress();
+        for (long block = start; block <= end; block++) {
+            long hint = indexer.indexHint(owner, block);
+            for (boolean amountType : new boolean[]{true, false}) {
+                BigInteger expected = client.balanceOf(owner, amountType, block);
+                Assert.assertEquals(expected, client.balanceOfAt(owner, amountType, block, hint));
+                for (long wrong : new long[]{0, hint + 1, Math.max(0, hint - 1), 1000}) {
+                    Assert.assertEquals(expected, client.balanceOfAt(owner, amountType, block, wrong));
+                }
+            }
+        }
+        Assert.assertEquals(0, indexer.indexHint(CREDENTIAL_5.getAddress(), end));
+
+        //a right hint skips the binary search
+        long middle = start + (end - start) / 2;
+        long hinted = estimate(deployed, EurekaClient.balanceOfAt(EurekaClient.calldata(), owner, true, middle, indexer.indexHint(owner, middle)).hex());
+        long searched = estimate(deployed, EurekaClient.balanceOf(EurekaClient.calldata(), owner, true, middle).hex());
+        Assert.assertTrue(hinted + " < " + searched, hinted < searched);
+    }
+
+    @Test
+    public void testRewardOfAt() throws Exception {
+        //hint: the index of the reward checkpoint, right or wrong
+        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get("Eureka"));
+        blockchain.call(deployed, "mint",
+                Arrays.asList(CREDENTIAL_0.getAddress()), Arrays.asList(new BigInteger("100000")));
+        Assert.assertNotNull(blockchain.call(CREDENTIAL_0, deployed, new FunctionBuilder("setRewardCheckpointBlocks")
+                .addInput("uint48", BigInteger.ONE)));
+        blockchain.call(deployed, "finishMinting");
+        List<Long> blocks = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            Assert.assertNotNull(blockchain.call(CREDENTIAL_0, deployed, new FunctionBuilder("transfer")
+                    .addInput("address", CREDENTIAL_1.getAddress())
+                    .addInput("uint256", BigInteger.valueOf(1000))
+                    .addInput("uint8", 1)
+                    .outputs("bool")));
+            blocks.add(blockNumber());
+        }
+
+        EurekaClient client = new EurekaClient(chain.web3j(), deployed.contractAddress(), CREDENTIAL_0, new NonceManager(chain.web3j()));
+        String owner = CREDENTIAL_1.getAddress();
+        String from = CREDENTIAL_0.getAddress();
+        //the checkpoint i is the reward after transfer i, the last transfer is only in the slot
+        for (int i = 0; i < blocks.size(); i++) {
+            BigInteger[] expected = client.rewardOf(owner, from, blocks.get(i));
+            Assert.assertEquals(BigInteger.valueOf(1000 * (i + 1)), expected[0]);
+            Assert.assertArrayEquals(expected, client.rewardOfAt(owner, from, blocks.get(i), i));
+            Assert.assertArrayEquals(expected, client.rewardOfAt(owner, from, blocks.get(i), 0));
+            Assert.assertArrayEquals(expected, client.rewardOfAt(owner, from, blocks.get(i), 100));
+        }
+    }
+
+    private static long estimate(DeployedContract deployed, String data) throws Exception {
+        return chain.web3j().ethEstimateGas(Transaction.createEthCallTransaction(CREDENTIAL_0.getAddress(),
+                deployed.contractAddress(), data)).send().getAmountUsed().longValueExact();
+    }
+
+    private static long blockNumber() throws Exception {
+        return chain.web3j().ethBlockNumber().send().getBlockNumber().longValueExact();
+    }
+}
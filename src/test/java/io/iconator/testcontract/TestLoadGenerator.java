@@ -0,0 +1,75 @@
+package io.iconator.testcontract;
+
+import io.iconator.testonator.*;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static io.iconator.testonator.TestBlockchain.*;
+
+public class TestLoadGenerator {
+
+    //./gradlew test --tests '*TestLoadGenerator' -PsoakMillis=600000
+    private static final String SOAK_PROPERTY = "eureka.soak.millis";
+
+    private static TestChain chain;
+    private static TestBlockchain blockchain;
+    private static Map<String, Contract> contracts;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        chain = TestChain.start();
+        blockchain = chain.blockchain();
+        File contractFile = Paths.get(ClassLoader.getSystemResource("TestSomeContract.sol").toURI()).toFile();
+        contracts = new HashMap<>(TestUtils.setup());
+        contracts.putAll(ArtifactStore.defaultStore().compileCached(contractFile));
+    }
+
+    @Test
+    public void testMix() throws Exception {
+        //load: every operation of the mix is sent and mined, none reverts
+        LoadGenerator generator = prepare(30);
+        LoadGenerator.Report report = generator.concurrency(8).windowMillis(500).run(280, 120_000);
+
+        Assert.assertEquals(280, report.operations());
+        Assert.assertEquals(0, report.errors());
+        Assert.assertEquals(0, report.reverts());
+        for (LoadGenerator.Op op : LoadGenerator.Op.values()) {
+            Assert.assertTrue(op.name(), report.gasDrift(op)[0] > 0);
+        }
+        LoadGenerator.Window last = report.windows.get(report.windows.size() - 1);
+        Assert.assertTrue(last.maxHistory() > 1);
+        Assert.assertTrue(last.lookupGas() > 0);
+    }
+
+    @Test
+    public void testSoak() throws Exception {
+        //load: only with -PsoakMillis, prints every window
+        //256 transactions in flight, sent by a few submitter threads
+        long millis = Long.getLong(SOAK_PROPERTY, 0);
+        Assume.assumeTrue(millis > 0);
+        LoadGenerator generator = prepare(2000);
+        LoadGenerator.Report report = generator.concurrency(256).windowMillis(10_000).log(System.out)
+                .run(Long.MAX_VALUE, millis);
+        System.out.println(report);
+        Assert.assertEquals(0, report.errors());
+    }
+
+    private LoadGenerator prepare(int generated) throws Exception {
+        DeployedContract eureka = blockchain.deploy(CREDENTIAL_0, contracts.get("Eureka"));
+        DeployedContract receiver = blockchain.deploy(CREDENTIAL_0, contracts.get("TestSomeContract"));
+        LoadGenerator generator = new LoadGenerator(chain.web3j(), new NonceManager(chain.web3j()),
+                eureka.contractAddress(), receiver.contractAddress());
+        generator.prepare(CREDENTIAL_0, Arrays.asList(CREDENTIAL_0, CREDENTIAL_1, CREDENTIAL_2, CREDENTIAL_3,
+                CREDENTIAL_4, CREDENTIAL_5), generated, new BigInteger("1000000000000000000000"));
+        return generator;
+    }
+}
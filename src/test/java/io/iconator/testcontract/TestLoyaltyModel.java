@@ -0,0 +1,147 @@
+package io.iconator.testcontract;
+
+import io.iconator.testonator.*;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.crypto.Credentials;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static io.iconator.testonator.TestBlockchain.*;
+
+public class TestLoyaltyModel {
+
+    private static final int HOLDERS = 20;
+
+    private static TestChain chain;
+    private static TestBlockchain blockchain;
+    private static Map<String, Contract> contracts;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        chain = TestChain.start();
+        blockchain = chain.blockchain();
+        contracts = TestUtils.setup();
+    }
+
+    @Test
+    public void testSamePayouts() {
+        //loyalty: on the same balances the accumulator pays what the old claim paid, up to its rounding
+        LoyaltyModel accumulator = new LoyaltyModel(LoyaltyModel.Scheme.ACCUMULATOR);
+        Random random = new Random(21);
+        //the old checkpoint of every holder: the loyalty total and the distributions at its last snapshot
+        Map<String, BigInteger> loyaltyAt = new HashMap<>();
+        Map<String, Integer> distributionsAt = new HashMap<>();
+        for (int i = 0; i < HOLDERS; i++) {
+            BigInteger amount = new BigInteger(80, random).add(LoyaltyModel.SCALE);
+            accumulator.mint(holder(i), amount);
+            loyaltyAt.put(holder(i), BigInteger.ZERO);
+            distributionsAt.put(holder(i), 0);
+        }
+
+        for (int op = 0; op < 5000; op++) {
+            String from = holder(random.nextInt(HOLDERS));
+            String to = holder(random.nextInt(HOLDERS));
+            //up to a quarter of the balance
+            BigInteger value = new BigInteger(Math.max(1, accumulator.balanceOf(from).bitLength() - 2), random);
+            //snapshots are written before the distribution of the same operation
+            BigInteger loyaltyBefore = accumulator.loyalty();
+            int distributionsBefore = accumulator.distributions();
+            List<String> written;
+            if (random.nextInt(10) == 0) {
+                Assert.assertTrue(accumulator.loyalty(from, value));
+                written = Arrays.asList(from);
+            } else {
+                Assert.assertTrue(accumulator.transfer(from, to, value, random.nextBoolean()));
+                written = Arrays.asList(from, to);
+            }
+            for (String h : written) {
+                loyaltyAt.put(h, loyaltyBefore);
+                distributionsAt.put(h, distributionsBefore);
+            }
+
+            BigInteger pending = BigInteger.ZERO;
+            BigInteger balances = BigInteger.ZERO;
+            for (int i = 0; i < HOLDERS; i++) {
+                String h = holder(i);
+                BigInteger balance = accumulator.balanceOf(h);
+                //the old claim: (loyalty - claimedLoyalty) * balance / totalSupply
+                BigInteger exact = accumulator.loyalty().subtract(loyaltyAt.get(h)).multiply(balance).divide(accumulator.totalSupply());
+                //every distribution since the snapshot rounded loyaltyPerToken down by less than 1 / SCALE
+                BigInteger rounding = balance.multiply(BigInteger.valueOf(accumulator.distributions() - distributionsAt.get(h)))
+                        .divide(LoyaltyModel.SCALE).add(BigInteger.ONE);
+                BigInteger diff = exact.subtract(accumulator.claimOf(h));
+                Assert.assertTrue("op " + op + " " + h + ": " + diff + " not in [0, " + rounding + "]",
+                        diff.signum() >= 0 && diff.compareTo(rounding) <= 0);
+                pending = pending.add(accumulator.claimOf(h));
+                balances = balances.add(balance);
+            }
+            //the accumulator never pays more than was distributed, and no token is lost
+            Assert.assertTrue(accumulator.paid().add(pending).compareTo(accumulator.loyalty()) <= 0);
+            Assert.assertEquals(accumulator.totalSupply(), balances.add(accumulator.loyalty()).subtract(accumulator.paid()));
+        }
+        Assert.assertTrue(accumulator.distributions() > 1000);
+    }
+
+    @Test
+    public void testOnChain() throws Exception {
+        //loyalty: the contract pays exactly what the accumulator model pays
+        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get("Eureka"));
+        List<Credentials> credentials = Arrays.asList(CREDENTIAL_0, CREDENTIAL_1, CREDENTIAL_2, CREDENTIAL_3);
+        LoyaltyModel model = new LoyaltyModel(LoyaltyModel.Scheme.ACCUMULATOR);
+        List<BigInteger> amounts = Arrays.asList(new BigInteger("700000000000000000000"), new BigInteger("300000000000000000000"),
+                new BigInteger("123456789"), new BigInteger("1000000000000000000"));
+        blockchain.call(deployed, "mint", Arrays.asList(CREDENTIAL_0.getAddress(), CREDENTIAL_1.getAddress(),
+                CREDENTIAL_2.getAddress(), CREDENTIAL_3.getAddress()), amounts);
+        for (int i = 0; i < credentials.size(); i++) {
+            model.mint(credentials.get(i).getAddress(), amounts.get(i));
+        }
+        blockchain.call(deployed, "finishMinting");
+
+        transfer(deployed, model, CREDENTIAL_0, CREDENTIAL_1, new BigInteger("5000000000000000000"), 1);
+        loyalty(deployed, model, CREDENTIAL_1, new BigInteger("777777777777777777"));
+        transfer(deployed, model, CREDENTIAL_1, CREDENTIAL_2, new BigInteger("3333333333333333333"), 0);
+        transfer(deployed, model, CREDENTIAL_2, CREDENTIAL_3, new BigInteger("1000000000000000000"), 3);
+        loyalty(deployed, model, CREDENTIAL_0, new BigInteger("10000000000000000000"));
+        transfer(deployed, model, CREDENTIAL_3, CREDENTIAL_0, new BigInteger("999"), 2);
+
+        EurekaClient client = new EurekaClient(chain.web3j(), deployed.contractAddress(), CREDENTIAL_0, new NonceManager(chain.web3j()));
+        for (Credentials c : credentials) {
+            BigInteger[] claim = client.balanceWithLoyaltyClaimOf(c.getAddress());
+            Assert.assertEquals(model.balanceOf(c.getAddress()), claim[0]);
+            Assert.assertEquals(model.claimOf(c.getAddress()), claim[1]);
+        }
+        List<Type> perToken = blockchain.callConstant(deployed, "loyaltyPerToken");
+        Assert.assertEquals(model.loyaltyPerToken(), perToken.get(0).getValue());
+        List<Type> loyalty = blockchain.callConstant(deployed, "loyalty");
+        Assert.assertEquals(model.loyalty(), loyalty.get(0).getValue());
+    }
+
+    private static void transfer(DeployedContract deployed, LoyaltyModel model, Credentials from, Credentials to,
+                                 BigInteger value, int rewardType) throws Exception {
+        FunctionBuilder fb = new FunctionBuilder("transfer")
+                .addInput("address", to.getAddress())
+                .addInput("uint256", value);
+        if (rewardType > 0) {
+            fb = fb.addInput("uint8", rewardType);
+        }
+        Assert.assertNotNull(blockchain.call(from, deployed, fb.outputs("bool")));
+        Assert.assertTrue(model.transfer(from.getAddress(), to.getAddress(), value, rewardType > 0));
+    }
+
+    private static void loyalty(DeployedContract deployed, LoyaltyModel model, Credentials sender, BigInteger amount) throws Exception {
+        Assert.assertNotNull(blockchain.call(sender, deployed, new FunctionBuilder("loyalty").addInput("uint256", amount)));
+        Assert.assertTrue(model.loyalty(sender.getAddress(), amount));
+    }
+
+    private static String holder(int i) {
+        return "holder" + i;
+    }
+}
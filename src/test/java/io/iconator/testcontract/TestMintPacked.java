@@ -0,0 +1,111 @@
+package io.iconator.testcontract;
+
+import io.iconator.testonator.*;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.web3j.abi.datatypes.Type;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import static io.iconator.testonator.TestBlockchain.*;
+
+public class TestMintPacked {
+
+    private static TestBlockchain blockchain;
+    private static Map<String, Contract> contracts;
+    private static GasMeter gasMeter;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        TestChain chain = TestChain.start();
+        blockchain = chain.blockchain();
+        contracts = TestUtils.setup();
+        gasMeter = new GasMeter(chain.web3j());
+    }
+
+    @Test
+    public void testPackMint() {
+        byte[] word = TestUtils.packMint(CREDENTIAL_1.getAddress(), new BigInteger("10000"));
+        Assert.assertEquals(new BigInteger(CREDENTIAL_1.getAddress().substring(2), 16).shiftLeft(96).add(new BigInteger("10000")),
+                new BigInteger(1, word));
+    }
+
+    @Test
+    public void testEquivalence() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
+        //mintPacked: same balances, supply and events as mint, including a recipient that appears twice
+        List<String> addresses = new ArrayList<>();
+        List<BigInteger> values = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            addresses.add("0x" + String.format("%040x", i + 1));
+            values.add(BigInteger.valueOf(1000 + i));
+        }
+        addresses.add(CREDENTIAL_1.getAddress());
+        values.add(new BigInteger("10000"));
+        addresses.add(CREDENTIAL_1.getAddress());
+        values.add(new BigInteger("20000"));
+
+        DeployedContract plain = blockchain.deploy(CREDENTIAL_0, contracts.get("Eureka"));
+        List<Event> plainEvents = blockchain.call(plain, "mint", addresses, values);
+        long plainGas = gasMeter.lastGasUsed();
+
+        DeployedContract packed = blockchain.deploy(CREDENTIAL_0, contracts.get("Eureka"));
+        List<Event> packedEvents = TestUtils.mintPacked(blockchain, packed, addresses, values);
+        long packedGas = gasMeter.lastGasUsed();
+        System.out.println("mint: " + plainGas + " gas, mintPacked: " + packedGas + " gas");
+
+        Assert.assertEquals(plainEvents.size(), packedEvents.size());
+        for (int i = 0; i < plainEvents.size(); i++) {
+            Assert.assertEquals(plainEvents.get(i).name(), packedEvents.get(i).name());
+            for (int j = 0; j < 3; j++) {
+                Assert.assertEquals(plainEvents.get(i).values().get(j).getValue().toString(),
+                        packedEvents.get(i).values().get(j).getValue().toString());
+            }
+        }
+        Assert.assertEquals(constant(plain, "totalSupply"), constant(packed, "totalSupply"));
+        for (String address : addresses) {
+            Assert.assertEquals(constant(plain, "balanceOf", address), constant(packed, "balanceOf", address));
+        }
+        Assert.assertTrue(packedGas < plainGas);
+    }
+
+    @Test
+    public void testMax88() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
+        //mintPacked: an amount of max88 fits into 96 bits, but must be rejected like in mint
+        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get("Eureka"));
+        List<Event> events = TestUtils.mintPacked(blockchain, deployed,
+                Collections.singletonList(CREDENTIAL_1.getAddress()), Collections.singletonList(MintPipeline.MAX88));
+        Assert.assertNull(events);
+    }
+
+    @Test
+    public void testMaxSupply() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
+        //mintPacked: should fail on minting more than max tokens
+        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get("Eureka"));
+        BigInteger half = new BigInteger("150000000000000000000000000");
+        List<Event> events = TestUtils.mintPacked(blockchain, deployed,
+                Arrays.asList(CREDENTIAL_1.getAddress(), CREDENTIAL_2.getAddress()), Arrays.asList(half, half));
+        Assert.assertNull(events);
+    }
+
+    @Test
+    public void testOnlyOwner() throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
+        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get("Eureka"));
+        List<byte[]> packed = Collections.singletonList(TestUtils.packMint(CREDENTIAL_1.getAddress(), BigInteger.TEN));
+        List<Event> events = blockchain.call(CREDENTIAL_1, deployed, new FunctionBuilder("mintPacked").addInput("bytes32[]", packed));
+        Assert.assertNull(events);
+    }
+
+    private Object constant(DeployedContract deployed, String name, Object... args) throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
+        List<Type> result = blockchain.callConstant(deployed, name, args);
+        return result.get(0).getValue();
+    }
+}
@@ -0,0 +1,215 @@
+package io.iconator.testcontract;
+
+import io.iconator.testonator.*;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.web3j.abi.datatypes.Type;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static io.iconator.testonator.TestBlockchain.*;
+
+public class TestMintPipeline {
+
+    private static TestChain chain;
+    private static TestBlockchain blockchain;
+    private static Map<String, Contract> contracts;
+    private static Fixtures fixtures;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        chain = TestChain.start();
+        blockchain = chain.blockchain();
+        contracts = TestUtils.setup();
+        fixtures = new Fixtures(blockchain, chain.rpc(), contracts.get("Eureka"));
+    }
+
+    @Test
+    public void testMintCsv() throws Exception {
+        //mint: 600 rows should end up in gas-bounded batches
+        DeployedContract deployed = fixtures.restore(Fixtures.DEPLOYED);
+        Path file = allocations(600, false);
+        MintPipeline pipeline = pipeline(deployed, folder.newFile("journal").toPath());
+
+        MintPipeline.Summary summary = pipeline.run(file);
+        Assert.assertEquals(600, summary.rows);
+        int perBatch = pipeline.recipientsPerBatch();
+        Assert.assertEquals((600 + perBatch - 1) / perBatch, summary.batches);
+        assertSupply(deployed, summary.total);
+        assertBalance(deployed, address(599), BigInteger.valueOf(600));
+    }
+
+    @Test
+    public void testMintPacked() throws Exception {
+        //mint: packed batches should mint the same as mint(address[],uint256[])
+        DeployedContract deployed = fixtures.restore(Fixtures.DEPLOYED);
+        Path file = allocations(300, false);
+        MintPipeline pipeline = pipeline(deployed, folder.newFile("journal").toPath()).packed(true);
+
+        MintPipeline.Summary summary = pipeline.run(file);
+        Assert.assertEquals(300, summary.rows);
+        Assert.assertEquals(new BigInteger("45150"), summary.total);
+        assertSupply(deployed, summary.total);
+        assertBalance(deployed, address(0), BigInteger.ONE);
+        assertBalance(deployed, address(299), BigInteger.valueOf(300));
+    }
+
+    @Test
+    public void testMintJsonLines() throws Exception {
+        DeployedContract deployed = fixtures.restore(Fixtures.DEPLOYED);
+        Path file = allocations(10, true);
+        MintPipeline.Summary summary = pipeline(deployed, folder.newFile("journal").toPath()).run(file);
+        Assert.assertEquals(10, summary.rows);
+        assertBalance(deployed, address(0), BigInteger.ONE);
+    }
+
+    @Test
+    public void testResumeDoesNotMintTwice() throws Exception {
+        //mint: running again with the same journal should not mint anything
+        DeployedContract deployed = fixtures.restore(Fixtures.DEPLOYED);
+        Path file = allocations(300, false);
+        Path journal = folder.newFile("journal").toPath();
+
+        MintPipeline.Summary summary = pipeline(deployed, journal).run(file);
+        pipeline(deployed, journal).run(file);
+        assertSupply(deployed, summary.total);
+    }
+
+    @Test
+    public void testResumeAfterCrash() throws Exception {
+        //mint: two batches were journaled, only the first reached the node, none was confirmed
+        DeployedContract deployed = fixtures.restore(Fixtures.DEPLOYED);
+        Path file = allocations(300, false);
+        Path journalFile = folder.newFile("journal").toPath();
+        //100 recipients per batch
+        MintPipeline crashed = pipeline(deployed, journalFile).gas(100_000, 75_000, 7_600_000);
+
+        List<MintPipeline.Allocation> rows = new ArrayList<>();
+        try (MintPipeline.AllocationReader reader = new MintPipeline.AllocationReader(file)) {
+            for (int i = 0; i < 200; i++) {
+                rows.add(reader.next());
+            }
+        }
+        MintPipeline.Journal journal = MintPipeline.Journal.read(journalFile);
+        journal.start(BigInteger.ZERO, MintPipeline.sha256(file));
+        MintPipeline.Submitted first = crashed.sign(0, rows.subList(0, 100));
+        MintPipeline.Submitted second = crashed.sign(1, rows.subList(100, 200));
+        journal.submitted(first);
+        journal.submitted(second);
+        Assert.assertNull(chain.web3j().ethSendRawTransaction(first.rawTx).send().getError());
+
+        MintPipeline resumed = pipeline(deployed, journalFile).gas(100_000, 75_000, 7_600_000);
+        MintPipeline.Summary summary = resumed.run(file);
+        Assert.assertEquals(300, summary.rows);
+        Assert.assertEquals(3, summary.batches);
+        Assert.assertTrue(summary.reverted.isEmpty());
+        assertSupply(deployed, new BigInteger("45150"));
+        assertBalance(deployed, address(0), BigInteger.ONE);
+        assertBalance(deployed, address(150), BigInteger.valueOf(151));
+        assertBalance(deployed, address(299), BigInteger.valueOf(300));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testResumeChangedFile() throws Exception {
+        //mint: a journal is only continued with the file it was started with
+        DeployedContract deployed = fixtures.restore(Fixtures.DEPLOYED);
+        Path file = allocations(10, false);
+        Path journal = folder.newFile("journal").toPath();
+        pipeline(deployed, journal).run(file);
+
+        Files.write(file, (address(10) + ",11\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        pipeline(deployed, journal).run(file);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testValidateMaxSupply() throws Exception {
+        //mint: nothing is sent if the file exceeds maxSupply
+        DeployedContract deployed = fixtures.restore(Fixtures.DEPLOYED);
+        Path file = folder.newFile("too-much.csv").toPath();
+        Files.write(file, ("address,amount\n"
+                + address(0) + ",200000000000000000000000000\n"
+                + address(1) + ",200000000000000000000000000\n").getBytes(StandardCharsets.UTF_8));
+        pipeline(deployed, folder.newFile("journal").toPath()).validate(file, BigInteger.ZERO);
+    }
+
+    @Test
+    public void testRevertSkipReplan() throws Exception {
+        //mint: a reverted batch is journaled, the run goes on, and the operator decides on the rows
+        DeployedContract deployed = fixtures.restore(Fixtures.MINTED_FINISHED);
+        Path file = allocations(10, false);
+        Path journal = folder.newFile("journal").toPath();
+
+        MintPipeline.Summary summary = pipeline(deployed, journal).run(file);
+        Assert.assertEquals(Collections.singletonList(0L), summary.reverted);
+        //without a decision a new run sends nothing and reports the batch again
+        summary = pipeline(deployed, journal).run(file);
+        Assert.assertEquals(1, summary.batches);
+        Assert.assertEquals(Collections.singletonList(0L), summary.reverted);
+
+        //minting is finished, so the replanned batch reverts as well
+        pipeline(deployed, journal).replan(0);
+        summary = pipeline(deployed, journal).run(file);
+        Assert.assertEquals(2, summary.batches);
+        Assert.assertEquals(Collections.singletonList(1L), summary.reverted);
+
+        pipeline(deployed, journal).skip(1);
+        summary = pipeline(deployed, journal).run(file);
+        Assert.assertEquals(2, summary.batches);
+        Assert.assertTrue(summary.reverted.isEmpty());
+        assertSupply(deployed, new BigInteger("11010"));
+    }
+
+    private MintPipeline pipeline(DeployedContract deployed, Path journal) {
+        return new MintPipeline(chain.web3j(), new NonceManager(chain.web3j()), CREDENTIAL_0,
+                deployed.contractAddress(), journal);
+    }
+
+    private Path allocations(int rows, boolean json) throws IOException {
+        Path file = folder.newFile(json ? "allocations.jsonl" : "allocations.csv").toPath();
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            if (!json) {
+                writer.write("address,amount\n");
+            }
+            for (int i = 0; i < rows; i++) {
+                if (json) {
+                    writer.write("{\"address\":\"" + address(i) + "\",\"amount\":\"" + (i + 1) + "\"}\n");
+                } else {
+                    writer.write(address(i) + "," + (i + 1) + "\n");
+                }
+            }
+        }
+        return file;
+    }
+
+    private static String address(int i) {
+        return "0x" + String.format("%040x", i + 1);
+    }
+
+    private void assertSupply(DeployedContract deployed, BigInteger expected) throws Exception {
+        List<Type> result = blockchain.callConstant(deployed, new FunctionBuilder("totalSupply").outputs("uint256"));
+        Assert.assertEquals(expected, result.get(0).getValue());
+    }
+
+    private void assertBalance(DeployedContract deployed, String address, BigInteger expected) throws Exception {
+        List<Type> result = blockchain.callConstant(deployed, new FunctionBuilder("balanceOf")
+                .addInput("address", address)
+                .outputs("uint256"));
+        Assert.assertEquals(expected, result.get(0).getValue());
+    }
+}
@@ -0,0 +1,98 @@
+package io.iconator.testcontract;
+
+import io.iconator.testonator.*;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.crypto.Credentials;
+import org.web3j.utils.Numeric;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static io.iconator.testonator.TestBlockchain.*;
+
+public class TestNonceBitmap {
+
+    //order of secp256k1
+    private static final BigInteger N = new BigInteger("FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFEBAAEDCE6AF48A03BBFD25E8CD0364141", 16);
+
+    private static TestChain chain;
+    private static TestBlockchain blockchain;
+    private static Map<String, Contract> contracts;
+    private static Fixtures fixtures;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        chain = TestChain.start();
+        blockchain = chain.blockchain();
+        contracts = TestUtils.setup();
+        fixtures = new Fixtures(blockchain, chain.rpc(), contracts.get("Eureka"));
+    }
+
+    @Test
+    public void testMalleability() throws Exception {
+        //nonce: the same payload with the other valid signature (s -> n - s) is a replay
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
+        byte[] hash = PreSigned.hash(deployed.contractAddress(), CREDENTIAL_3.getAddress(), BigInteger.TEN, BigInteger.ONE, BigInteger.ZERO);
+        byte[] signature = PreSigned.sign(hash, CREDENTIAL_0);
+        Assert.assertNotNull(blockchain.call(CREDENTIAL_1, deployed, transferPreSigned(signature, 10, 1, 0)));
+
+        byte[] malleated = Arrays.copyOf(signature, 65);
+        BigInteger s = new BigInteger(1, Arrays.copyOfRange(signature, 32, 64));
+        System.arraycopy(Numeric.toBytesPadded(N.subtract(s), 32), 0, malleated, 32, 32);
+        malleated[64] = (byte) (signature[64] == 27 ? 28 : 27);
+        Assert.assertEquals(CREDENTIAL_0.getAddress(), PreSignedRelayer.recover(hash, malleated));
+        Assert.assertNull(blockchain.call(CREDENTIAL_1, deployed, transferPreSigned(malleated, 10, 1, 0)));
+
+        //another payload with the same nonce is rejected as well
+        byte[] other = PreSigned.sign(PreSigned.hash(deployed.contractAddress(), CREDENTIAL_3.getAddress(), BigInteger.TEN, BigInteger.TEN, BigInteger.ZERO), CREDENTIAL_0);
+        Assert.assertNull(blockchain.call(CREDENTIAL_1, deployed, transferPreSigned(other, 10, 10, 0)));
+        assertBalance(deployed, CREDENTIAL_3, 10);
+    }
+
+    @Test
+    public void testBitmap() throws Exception {
+        //nonce: 256 nonces per word, any order
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
+        for (long nonce : new long[]{0, 255, 256, 1000}) {
+            byte[] hash = PreSigned.hash(deployed.contractAddress(), CREDENTIAL_3.getAddress(), BigInteger.ONE, BigInteger.ZERO, BigInteger.valueOf(nonce));
+            Assert.assertNotNull(blockchain.call(CREDENTIAL_1, deployed, transferPreSigned(PreSigned.sign(hash, CREDENTIAL_0), 1, 0, nonce)));
+        }
+        NonceAllocator allocator = new NonceAllocator(chain.web3j(), deployed.contractAddress());
+        Assert.assertEquals(BigInteger.ONE.shiftLeft(255).setBit(0), allocator.bitmap(CREDENTIAL_0.getAddress(), 0));
+        Assert.assertEquals(BigInteger.ONE, allocator.bitmap(CREDENTIAL_0.getAddress(), 1));
+        Assert.assertEquals(BigInteger.ONE.shiftLeft(1000 - 768), allocator.bitmap(CREDENTIAL_0.getAddress(), 3));
+        Assert.assertTrue(allocator.isUsed(CREDENTIAL_0.getAddress(), BigInteger.valueOf(255)));
+        Assert.assertFalse(allocator.isUsed(CREDENTIAL_0.getAddress(), BigInteger.valueOf(254)));
+        Assert.assertFalse(allocator.isUsed(CREDENTIAL_1.getAddress(), BigInteger.ZERO));
+
+        //the allocator skips what the contract has seen
+        Assert.assertEquals(1, allocator.next(CREDENTIAL_0.getAddress()));
+        allocator.start(CREDENTIAL_0.getAddress(), 254);
+        Assert.assertEquals(254, allocator.next(CREDENTIAL_0.getAddress()));
+        Assert.assertEquals(257, allocator.next(CREDENTIAL_0.getAddress()));
+        Assert.assertEquals(0, allocator.next(CREDENTIAL_1.getAddress()));
+        Assert.assertEquals(1, allocator.next(CREDENTIAL_1.getAddress()));
+    }
+
+    private static FunctionBuilder transferPreSigned(byte[] signature, long value, long fee, long nonce) {
+        return new FunctionBuilder("transferPreSigned")
+                .addInput("bytes", signature)
+                .addInput("address", CREDENTIAL_3.getAddress())
+                .addInput("uint256", BigInteger.valueOf(value))
+                .addInput("uint256", BigInteger.valueOf(fee))
+                .addInput("uint256", BigInteger.valueOf(nonce))
+                .outputs("bool");
+    }
+
+    private static void assertBalance(DeployedContract deployed, Credentials owner, long expected) throws Exception {
+        List<Type> result = blockchain.callConstant(deployed, new FunctionBuilder("balanceOf")
+                .addInput("address", owner.getAddress())
+                .outputs("uint256"));
+        Assert.assertEquals(BigInteger.valueOf(expected), result.get(0).getValue());
+    }
+}
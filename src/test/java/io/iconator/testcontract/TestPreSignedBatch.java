@@ -0,0 +1,137 @@
+package io.iconator.testcontract;
+
+import io.iconator.testonator.*;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.crypto.Credentials;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static io.iconator.testonator.TestBlockchain.*;
+
+public class TestPreSignedBatch {
+
+    private static TestChain chain;
+    private static TestBlockchain blockchain;
+    private static Map<String, Contract> contracts;
+    private static Fixtures fixtures;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        chain = TestChain.start();
+        blockchain = chain.blockchain();
+        contracts = TestUtils.setup();
+        fixtures = new Fixtures(blockchain, chain.rpc(), contracts.get("Eureka"));
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        //batch: 10 transfers of 2 signers, the relayer gets all fees with one snapshot
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
+        long start = chain.web3j().ethBlockNumber().send().getBlockNumber().longValueExact();
+        Assert.assertNotNull(blockchain.call(CREDENTIAL_0, deployed, new FunctionBuilder("transfer")
+                .addInput("address", CREDENTIAL_4.getAddress())
+                .addInput("uint256", new BigInteger("1000"))
+                .outputs("bool")));
+
+        Batch batch = new Batch(deployed.contractAddress());
+        for (int i = 0; i < 10; i++) {
+            batch.add(i % 2 == 0 ? CREDENTIAL_0 : CREDENTIAL_4, CREDENTIAL_3.getAddress(), 10, 1 + i, i);
+        }
+        Assert.assertNotNull(blockchain.call(CREDENTIAL_1, deployed, batch.function()));
+
+        assertBalance(deployed, CREDENTIAL_0, 10000 - 1000 - 5 * 10 - (1 + 3 + 5 + 7 + 9));
+        assertBalance(deployed, CREDENTIAL_4, 1000 - 5 * 10 - (2 + 4 + 6 + 8 + 10));
+        assertBalance(deployed, CREDENTIAL_3, 100);
+        assertBalance(deployed, CREDENTIAL_1, 55);
+
+        //the indexer credits the fees at the end as well
+        long end = chain.web3j().ethBlockNumber().send().getBlockNumber().longValueExact();
+        BalanceIndexer indexer = new BalanceIndexer(deployed.contractAddress());
+        indexer.sync(chain.web3j(), start, end);
+        Assert.assertEquals(Arrays.<String>asList(), indexer.verify(chain.web3j(), end));
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        //batch: a signature twice in a batch, or from an earlier batch, reverts
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
+        Batch batch = new Batch(deployed.contractAddress());
+        batch.add(CREDENTIAL_0, CREDENTIAL_3.getAddress(), 10, 1, 0);
+        batch.add(CREDENTIAL_0, CREDENTIAL_3.getAddress(), 10, 1, 0);
+        Assert.assertNull(blockchain.call(CREDENTIAL_1, deployed, batch.function()));
+
+        Batch once = new Batch(deployed.contractAddress());
+        once.add(CREDENTIAL_0, CREDENTIAL_3.getAddress(), 10, 1, 0);
+        Assert.assertNotNull(blockchain.call(CREDENTIAL_1, deployed, once.function()));
+        Assert.assertNull(blockchain.call(CREDENTIAL_1, deployed, once.function()));
+        assertBalance(deployed, CREDENTIAL_3, 10);
+    }
+
+    @Test
+    public void testLength() throws Exception {
+        //batch: all arrays must have the same length, the signatures 65 bytes each
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
+        Batch batch = new Batch(deployed.contractAddress());
+        batch.add(CREDENTIAL_0, CREDENTIAL_3.getAddress(), 10, 1, 0);
+        batch.add(CREDENTIAL_0, CREDENTIAL_3.getAddress(), 10, 1, 1);
+        batch.nonces.remove(1);
+        Assert.assertNull(blockchain.call(CREDENTIAL_1, deployed, batch.function()));
+
+        batch.nonces.add(BigInteger.ONE);
+        Assert.assertNull(blockchain.call(CREDENTIAL_1, deployed, new FunctionBuilder("transferPreSignedBatch")
+                .addInput("bytes", Arrays.copyOf(PreSigned.concat(batch.signatures), 129))
+                .addInput("address[]", batch.to)
+                .addInput("uint256[]", batch.values)
+                .addInput("uint256[]", batch.fees)
+                .addInput("uint256[]", batch.nonces)
+                .outputs("bool")));
+    }
+
+    static class Batch {
+        final String token;
+        final List<byte[]> signatures = new ArrayList<>();
+        final List<String> to = new ArrayList<>();
+        final List<BigInteger> values = new ArrayList<>();
+        final List<BigInteger> fees = new ArrayList<>();
+        final List<BigInteger> nonces = new ArrayList<>();
+
+        Batch(String token) {
+            this.token = token;
+        }
+
+        void add(Credentials signer, String receiver, long value, long fee, long nonce) {
+            BigInteger v = BigInteger.valueOf(value);
+            BigInteger f = BigInteger.valueOf(fee);
+            BigInteger n = BigInteger.valueOf(nonce);
+            signatures.add(PreSigned.sign(PreSigned.hash(token, receiver, v, f, n), signer));
+            to.add(receiver);
+            values.add(v);
+            fees.add(f);
+            nonces.add(n);
+        }
+
+        FunctionBuilder function() {
+            return new FunctionBuilder("transferPreSignedBatch")
+                    .addInput("bytes", PreSigned.concat(signatures))
+                    .addInput("address[]", to)
+                    .addInput("uint256[]", values)
+                    .addInput("uint256[]", fees)
+                    .addInput("uint256[]", nonces)
+                    .outputs("bool");
+        }
+    }
+
+    private static void assertBalance(DeployedContract deployed, Credentials owner, long expected) throws Exception {
+        List<Type> result = blockchain.callConstant(deployed, new FunctionBuilder("balanceOf")
+                .addInput("address", owner.getAddress())
+                .outputs("uint256"));
+        Assert.assertEquals(BigInteger.valueOf(expected), result.get(0).getValue());
+    }
+}
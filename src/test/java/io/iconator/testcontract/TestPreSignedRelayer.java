@@ -0,0 +1,193 @@
+package io.iconator.testcontract;
+
+import io.iconator.testonator.*;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.crypto.Credentials;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static io.iconator.testonator.TestBlockchain.*;
+
+public class TestPreSignedRelayer {
+
+    private static TestChain chain;
+    private static TestBlockchain blockchain;
+    private static Map<String, Contract> contracts;
+    private static Fixtures fixtures;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        chain = TestChain.start();
+        blockchain = chain.blockchain();
+        contracts = TestUtils.setup();
+        fixtures = new Fixtures(blockchain, chain.rpc(), contracts.get("Eureka"));
+    }
+
+    @Test
+    public void testRelay() throws Exception {
+        //relayer: 50 payloads are mined, duplicates and bad signatures are dropped
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
+        String token = deployed.contractAddress();
+
+        //the nonce of this one is already used
+        PreSignedRelayer.Payload used = payload(token, CREDENTIAL_0, 10, 1, 1000);
+        Assert.assertNotNull(blockchain.call(CREDENTIAL_2, deployed, new FunctionBuilder("transferPreSigned")
+                .addInput("bytes", used.signature)
+                .addInput("address", used.to)
+                .addInput("uint256", used.value)
+                .addInput("uint256", used.fee)
+                .addInput("uint256", used.nonce)
+                .outputs("bool")));
+
+        try (PreSignedRelayer relayer = new PreSignedRelayer(chain.web3j(), new NonceManager(chain.web3j()), CREDENTIAL_1, token)
+                .maxInFlight(16).start()) {
+            Assert.assertTrue(relayer.isUsed(CREDENTIAL_0.getAddress(), used.nonce));
+            Assert.assertEquals(PreSignedRelayer.Status.QUEUED, relayer.submit(used));
+
+            for (int i = 0; i < 50; i++) {
+                Assert.assertEquals(PreSignedRelayer.Status.QUEUED, relayer.submit(payload(token, CREDENTIAL_0, 10, 1 + i % 3, i)));
+            }
+            Assert.assertEquals(PreSignedRelayer.Status.DUPLICATE, relayer.submit(payload(token, CREDENTIAL_0, 10, 1, 0)));
+
+            byte[] bad = payload(token, CREDENTIAL_0, 10, 1, 51).signature;
+            bad[64] = 5;
+            Assert.assertEquals(PreSignedRelayer.Status.INVALID_SIGNATURE, relayer.submit(new PreSignedRelayer.Payload(
+                    bad, CREDENTIAL_3.getAddress(), BigInteger.TEN, BigInteger.ONE, BigInteger.valueOf(51))));
+
+            Assert.assertTrue(relayer.awaitIdle(60, TimeUnit.SECONDS));
+            System.out.println(relayer.metrics());
+            Assert.assertEquals(50, relayer.confirmed());
+            Assert.assertEquals(0, relayer.failed());
+            Assert.assertEquals(0, relayer.rejected());
+            Assert.assertEquals(0, relayer.ioErrors());
+            Assert.assertEquals(2, relayer.duplicates());
+            Assert.assertEquals(1, relayer.invalid());
+            Assert.assertEquals(0, relayer.queueDepth());
+            Assert.assertEquals(50, relayer.latency().count());
+        }
+
+        //fees: 17 * 1 + 17 * 2 + 16 * 3
+        assertBalance(deployed, CREDENTIAL_1, 17 + 34 + 48);
+        assertBalance(deployed, CREDENTIAL_3, 510);
+    }
+
+    @Test
+    public void testRelayBatch() throws Exception {
+        //relayer: 40 payloads in batches of up to 16 with transferPreSignedBatch
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
+        String token = deployed.contractAddress();
+        try (PreSignedRelayer relayer = new PreSignedRelayer(chain.web3j(), new NonceManager(chain.web3j()), CREDENTIAL_1, token)
+                .batchSize(16).start()) {
+            for (int i = 0; i < 40; i++) {
+                Assert.assertEquals(PreSignedRelayer.Status.QUEUED, relayer.submit(payload(token, CREDENTIAL_0, 10, 2, i)));
+            }
+            Assert.assertTrue(relayer.awaitIdle(60, TimeUnit.SECONDS));
+            System.out.println(relayer.metrics());
+            Assert.assertEquals(40, relayer.confirmed());
+            Assert.assertEquals(0, relayer.failed());
+        }
+        assertBalance(deployed, CREDENTIAL_1, 80);
+        assertBalance(deployed, CREDENTIAL_3, 400);
+    }
+
+    @Test
+    public void testRelayRetryAfterRevert() throws Exception {
+        //relayer: CREDENTIAL_4 has no tokens, the transaction reverts and the payload may be submitted again
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
+        String token = deployed.contractAddress();
+        try (PreSignedRelayer relayer = new PreSignedRelayer(chain.web3j(), new NonceManager(chain.web3j()), CREDENTIAL_1, token)
+                .start()) {
+            PreSignedRelayer.Payload payload = payload(token, CREDENTIAL_4, 10, 1, 0);
+            Assert.assertEquals(PreSignedRelayer.Status.QUEUED, relayer.submit(payload));
+            Assert.assertTrue(relayer.awaitIdle(60, TimeUnit.SECONDS));
+            Assert.assertEquals(1, relayer.failed());
+
+            Assert.assertEquals(PreSignedRelayer.Status.QUEUED, relayer.submit(payload));
+            Assert.assertTrue(relayer.awaitIdle(60, TimeUnit.SECONDS));
+            Assert.assertEquals(2, relayer.failed());
+            Assert.assertEquals(0, relayer.rejected());
+            Assert.assertEquals(0, relayer.ioErrors());
+        }
+    }
+
+    @Test
+    public void testRelayCheckFails() throws Exception {
+        //relayer: the nonce bitmap can not be read, the payload fails instead of being lost and may be submitted again
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
+        String token = deployed.contractAddress();
+        AtomicBoolean down = new AtomicBoolean(true);
+        try (PreSignedRelayer relayer = new PreSignedRelayer(chain.web3j(), new NonceManager(chain.web3j()), CREDENTIAL_1, token) {
+            @Override
+            public boolean isUsed(String signer, BigInteger nonce) throws IOException {
+                if (down.get()) {
+                    throw new IOException("node down");
+                }
+                return super.isUsed(signer, nonce);
+            }
+        }.start()) {
+            PreSignedRelayer.Payload payload = payload(token, CREDENTIAL_0, 10, 1, 0);
+            Assert.assertEquals(PreSignedRelayer.Status.QUEUED, relayer.submit(payload));
+            Assert.assertTrue(relayer.awaitIdle(60, TimeUnit.SECONDS));
+            Assert.assertEquals(1, relayer.failed());
+            Assert.assertEquals(1, relayer.ioErrors());
+            Assert.assertEquals(0, relayer.submitted());
+
+            down.set(false);
+            Assert.assertEquals(PreSignedRelayer.Status.QUEUED, relayer.submit(payload));
+            Assert.assertTrue(relayer.awaitIdle(60, TimeUnit.SECONDS));
+            Assert.assertEquals(1, relayer.confirmed());
+            Assert.assertEquals(1, relayer.failed());
+        }
+        assertBalance(deployed, CREDENTIAL_3, 10);
+    }
+
+    @Test
+    public void testRecover() {
+        //same as Utils.recover: v of 0/1 is accepted, the length must be 65
+        byte[] hash = PreSigned.hash(CREDENTIAL_5.getAddress(), CREDENTIAL_3.getAddress(), BigInteger.TEN, BigInteger.ONE, BigInteger.ZERO);
+        byte[] signature = PreSigned.sign(hash, CREDENTIAL_4);
+        Assert.assertEquals(CREDENTIAL_4.getAddress(), PreSignedRelayer.recover(hash, signature));
+        signature[64] -= 27;
+        Assert.assertEquals(CREDENTIAL_4.getAddress(), PreSignedRelayer.recover(hash, signature));
+        Assert.assertNull(PreSignedRelayer.recover(hash, new byte[64]));
+    }
+
+    @Test
+    public void testLatencyRecorder() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        for (int i = 1; i <= 1000; i++) {
+            recorder.record(i * 1000L);
+        }
+        Assert.assertEquals(1000, recorder.count());
+        Assert.assertEquals(1_000_000, recorder.max());
+        Assert.assertEquals(500_000, recorder.percentile(50), 500_000 * 0.07);
+        Assert.assertEquals(990_000, recorder.percentile(99), 990_000 * 0.07);
+        for (int i = 0; i < 960; i++) {
+            Assert.assertTrue(LatencyRecorder.upperBound(i) < LatencyRecorder.upperBound(i + 1));
+            Assert.assertEquals(i, LatencyRecorder.index(LatencyRecorder.upperBound(i)));
+        }
+    }
+
+    private static PreSignedRelayer.Payload payload(String token, Credentials signer, long value, long fee, long nonce) {
+        BigInteger v = BigInteger.valueOf(value);
+        BigInteger f = BigInteger.valueOf(fee);
+        BigInteger n = BigInteger.valueOf(nonce);
+        byte[] hash = PreSigned.hash(token, CREDENTIAL_3.getAddress(), v, f, n);
+        return new PreSignedRelayer.Payload(PreSigned.sign(hash, signer), CREDENTIAL_3.getAddress(), v, f, n);
+    }
+
+    private static void assertBalance(DeployedContract deployed, Credentials owner, long expected) throws Exception {
+        List<Type> result = blockchain.callConstant(deployed, new FunctionBuilder("balanceOf")
+                .addInput("address", owner.getAddress())
+                .outputs("uint256"));
+        Assert.assertEquals(BigInteger.valueOf(expected), result.get(0).getValue());
+    }
+}
@@ -0,0 +1,135 @@
+package io.iconator.testcontract;
+
+import io.iconator.testonator.*;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.crypto.ECKeyPair;
+import org.web3j.crypto.Hash;
+import org.web3j.crypto.Sign;
+import org.web3j.utils.Numeric;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.math.BigInteger;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static io.iconator.testonator.TestBlockchain.*;
+
+public class TestPreSignedSigner {
+
+    private static TestBlockchain blockchain;
+    private static Map<String, Contract> contracts;
+    private static Fixtures fixtures;
+    private static Contract receiver;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        TestChain chain = TestChain.start();
+        blockchain = chain.blockchain();
+        contracts = TestUtils.setup();
+        fixtures = new Fixtures(blockchain, chain.rpc(), contracts.get("Eureka"));
+
+        File contractFile = Paths.get(ClassLoader.getSystemResource("TestSomeContract.sol").toURI()).toFile();
+        receiver = ArtifactStore.defaultStore().compileCached(contractFile).get("TestSomeContract");
+    }
+
+    @Test
+    public void testSameAsWeb3j() throws Exception {
+        //signer: hash and signature are byte for byte the ones of the straightforward implementation
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            byte[] token = bytes(random, 20);
+            byte[] to = bytes(random, 20);
+            byte[] value = bytes(random, 32);
+            byte[] fee = bytes(random, 32);
+            byte[] nonce = bytes(random, 32);
+            byte[] args = bytes(random, random.nextInt(100));
+            byte[] methodName = bytes(random, 4);
+            ECKeyPair keyPair = ECKeyPair.create(new BigInteger(1, bytes(random, 32)).mod(BigInteger.ONE.shiftLeft(255)).add(BigInteger.ONE));
+            PreSignedSigner signer = new PreSignedSigner(keyPair.getPrivateKey());
+
+            byte[] hash = new byte[32];
+            PreSignedSigner.hash(token, to, value, fee, nonce, hash, 0);
+            Assert.assertArrayEquals(reference("48664c16", token, to, value, fee, nonce), hash);
+            Assert.assertArrayEquals(web3jSign(hash, keyPair), signer.sign(hash));
+
+            PreSignedSigner.hash(token, to, value, fee, nonce, methodName, args, 0, args.length, hash, 0);
+            Assert.assertArrayEquals(reference("dbe43fca", token, to, value, fee, nonce, methodName, args), hash);
+            Assert.assertArrayEquals(web3jSign(hash, keyPair), signer.sign(hash));
+        }
+
+        byte[] token = bytes(random, 20);
+        byte[] to = bytes(random, 20);
+        byte[] expected = new byte[32];
+        byte[] actual = new byte[32];
+        PreSignedSigner.hash(token, to, Numeric.toBytesPadded(BigInteger.valueOf(123456789), 32),
+                Numeric.toBytesPadded(BigInteger.TEN, 32), Numeric.toBytesPadded(BigInteger.valueOf(Long.MAX_VALUE), 32), expected, 0);
+        PreSignedSigner.hash(token, to, 123456789, 10, Long.MAX_VALUE, actual, 0);
+        Assert.assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void testOnChain() throws Exception {
+        //signer: the contract recovers the signer of both variants
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
+        byte[] token = Numeric.hexStringToByteArray(deployed.contractAddress());
+        PreSignedSigner signer = new PreSignedSigner(CREDENTIAL_0);
+
+        byte[] hash = new byte[32];
+        byte[] signature = new byte[65];
+        PreSignedSigner.hash(token, Numeric.hexStringToByteArray(CREDENTIAL_3.getAddress()), 100, 2, 7, hash, 0);
+        signer.sign(hash, 0, signature, 0);
+        Assert.assertNotNull(blockchain.call(CREDENTIAL_1, deployed, new FunctionBuilder("transferPreSigned")
+                .addInput("bytes", signature)
+                .addInput("address", CREDENTIAL_3.getAddress())
+                .addInput("uint256", new BigInteger("100"))
+                .addInput("uint256", new BigInteger("2"))
+                .addInput("uint256", new BigInteger("7"))
+                .outputs("bool")));
+
+        DeployedContract dcTest = blockchain.deploy(CREDENTIAL_0, receiver);
+        deployed.addReferencedContract(dcTest.contract());
+        byte[] methodName = Numeric.hexStringToByteArray(io.iconator.testonator.Utils.functionHash("someName(address,uint256)"));
+        byte[] zero = new byte[32];
+        byte[] nonce = Numeric.toBytesPadded(new BigInteger("8"), 32);
+        PreSignedSigner.hash(token, Numeric.hexStringToByteArray(dcTest.contractAddress()), Numeric.toBytesPadded(new BigInteger("50"), 32),
+                zero, nonce, methodName, new byte[0], 0, 0, hash, 0);
+        signer.sign(hash, 0, signature, 0);
+        Assert.assertNotNull(blockchain.call(CREDENTIAL_1, deployed, "transferAndCallPreSigned", signature,
+                dcTest.contractAddress(), new BigInteger("50"), BigInteger.ZERO, new BigInteger("8"), methodName, new byte[0]));
+
+        List<Type> result = blockchain.callConstant(deployed, new FunctionBuilder("balanceOf")
+                .addInput("address", CREDENTIAL_0.getAddress())
+                .outputs("uint256"));
+        Assert.assertEquals(new BigInteger("9848"), result.get(0).getValue());
+    }
+
+    private static byte[] reference(String selector, byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(Numeric.hexStringToByteArray(selector), 0, 4);
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return Hash.sha3(out.toByteArray());
+    }
+
+    private static byte[] web3jSign(byte[] hash, ECKeyPair keyPair) {
+        Sign.SignatureData sig = Sign.signMessage(hash, keyPair, false);
+        byte[] signature = new byte[65];
+        System.arraycopy(sig.getR(), 0, signature, 0, 32);
+        System.arraycopy(sig.getS(), 0, signature, 32, 32);
+        signature[64] = sig.getV();
+        return signature;
+    }
+
+    private static byte[] bytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
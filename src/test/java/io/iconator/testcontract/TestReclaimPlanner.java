@@ -0,0 +1,110 @@
+package io.iconator.testcontract;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.web3j.protocol.core.methods.response.Log;
+import org.web3j.utils.Numeric;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class TestReclaimPlanner {
+
+    private static final String TOKEN = "0x00000000000000000000000000000000000000ee";
+    private static final String OWNER = address(0);
+
+    @Test
+    public void testPlan() {
+        //reclaim: 1000 dormant holders, one active holder, the owner is never reclaimed from
+        BalanceIndexer indexer = new BalanceIndexer(TOKEN);
+        indexer.apply(1, OWNER, null, Collections.singletonList(mint(OWNER, 10_000_000_000L)));
+        for (int i = 1; i <= 1000; i++) {
+            indexer.apply(1, OWNER, null, Collections.singletonList(mint(address(i), 1000 + i)));
+        }
+        //the owner gives to the loyalty pool
+        indexer.apply(2, OWNER, null, Collections.singletonList(log(BalanceIndexer.TOKENS_LOYALTY, null, null, 1_000_000_000L)));
+        //holder 500 is active
+        indexer.apply(ReclaimPlanner.ONE_YEAR_IN_BLOCKS, address(500), null,
+                Collections.singletonList(log(BalanceIndexer.TRANSFER, address(500), address(501), 1)));
+
+        ReclaimPlanner planner = new ReclaimPlanner(indexer).threshold(64);
+        long block = 1 + ReclaimPlanner.ONE_YEAR_IN_BLOCKS + 1;
+        List<ReclaimPlanner.Candidate> candidates = planner.scan(block, new ForkJoinPool(4));
+
+        //500 and 501 wrote a snapshot in the last year, so did the owner with loyalty at block 2
+        Assert.assertEquals(998, candidates.size());
+        for (ReclaimPlanner.Candidate candidate : candidates) {
+            Assert.assertNotEquals(address(500), candidate.owner);
+            Assert.assertNotEquals(address(501), candidate.owner);
+            Assert.assertEquals(indexer.balanceWithLoyaltyClaimOf(candidate.owner)[1], candidate.reclaimable);
+        }
+        for (int i = 1; i < candidates.size(); i++) {
+            Assert.assertTrue(candidates.get(i - 1).reclaimable.compareTo(candidates.get(i).reclaimable) >= 0);
+        }
+        Assert.assertEquals(indexer.balanceWithLoyaltyClaimOf(address(1000))[1], candidates.get(0).reclaimable);
+
+        //one block earlier nobody is eligible
+        Assert.assertEquals(0, planner.scan(block - 1).size());
+
+        List<ReclaimPlanner.Batch> batches = planner.batches(candidates, OWNER);
+        Assert.assertEquals(planner.ownersPerBatch(), batches.get(0).owners.size());
+        BigInteger total = BigInteger.ZERO;
+        int owners = 0;
+        for (ReclaimPlanner.Batch batch : batches) {
+            Assert.assertTrue(batch.owners.size() <= ReclaimPlanner.MAX_OWNERS);
+            Assert.assertTrue(batch.gasLimit <= 8_000_000);
+            Assert.assertFalse(batch.owners.contains(OWNER));
+            total = total.add(batch.reclaimable);
+            owners += batch.owners.size();
+        }
+        Assert.assertEquals(998, owners);
+        Assert.assertTrue(batches.get(0).reclaimable.compareTo(batches.get(batches.size() - 1).reclaimable) > 0);
+        BigInteger expected = BigInteger.ZERO;
+        for (ReclaimPlanner.Candidate candidate : candidates) {
+            if (!candidate.owner.equals(OWNER)) {
+                expected = expected.add(candidate.reclaimable);
+            }
+        }
+        Assert.assertEquals(expected, total);
+    }
+
+    @Test
+    public void testBatchLimit() {
+        //reclaim counts with an uint8, more than 255 owners would wrap
+        ReclaimPlanner planner = new ReclaimPlanner(new BalanceIndexer(TOKEN)).gas(0, 1, 100_000_000);
+        Assert.assertEquals(255, planner.ownersPerBatch());
+        planner.gas(80_000, 50_000, 8_000_000);
+        Assert.assertEquals(158, planner.ownersPerBatch());
+    }
+
+    @Test
+    public void testEncode() {
+        ReclaimPlanner.Batch batch = new ReclaimPlanner.Batch(Arrays.asList(address(1), address(2)), BigInteger.ONE, 0);
+        String input = batch.encode();
+        Assert.assertTrue(input.startsWith(BalanceIndexer.RECLAIM_SELECTOR));
+        //selector, offset, length, 2 addresses
+        Assert.assertEquals(2 + 8 + 4 * 64, input.length());
+    }
+
+    private static Log mint(String to, long value) {
+        return log(BalanceIndexer.TRANSFER, BalanceIndexer.ZERO_ADDRESS, to, value);
+    }
+
+    private static Log log(String topic0, String from, String to, long value) {
+        Log log = new Log();
+        log.setTopics(from == null ? Collections.singletonList(topic0) : Arrays.asList(topic0, topic(from), topic(to)));
+        log.setData(Numeric.toHexStringNoPrefixZeroPadded(BigInteger.valueOf(value), 64));
+        return log;
+    }
+
+    private static String topic(String address) {
+        return "0x000000000000000000000000" + Numeric.cleanHexPrefix(address);
+    }
+
+    private static String address(int i) {
+        return Numeric.toHexStringWithPrefixZeroPadded(BigInteger.valueOf(0x1000 + i), 40);
+    }
+}
@@ -16,6 +16,8 @@ import java.lang.reflect.InvocationTargetException;
 import java.math.BigInteger;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
@@ -29,13 +31,14 @@ public class TestRemoteCall {
 
     @BeforeClass
     public static void setup() throws Exception {
-        blockchain = TestBlockchain.run();
-        contracts = TestUtils.setup();
+        blockchain = TestChain.start().blockchain();
 
         //compile test receiving contract
         File contractFile = Paths.get(ClassLoader.getSystemResource("TestSomeContract.sol").toURI()).toFile();
-        Map<String, Contract> testContracts = compile(contractFile);
-        contracts.putAll(testContracts);
+        Map<String, Contract> testContracts = ArtifactStore.defaultStore().compileCached(contractFile);
+        Map<String, Contract> all = new HashMap<>(TestUtils.setup());
+        all.putAll(testContracts);
+        contracts = Collections.unmodifiableMap(all);
 
     }
 
@@ -0,0 +1,129 @@
+package io.iconator.testcontract;
+
+import io.iconator.testonator.*;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.Map;
+
+import static io.iconator.testonator.TestBlockchain.*;
+
+public class TestRewardSlot {
+
+    private static TestChain chain;
+    private static TestBlockchain blockchain;
+    private static Map<String, Contract> contracts;
+    private static Fixtures fixtures;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        chain = TestChain.start();
+        blockchain = chain.blockchain();
+        contracts = TestUtils.setup();
+        fixtures = new Fixtures(blockchain, chain.rpc(), contracts.get("Eureka"));
+    }
+
+    @Test
+    public void testInPlace() throws Exception {
+        //reward: all reward types add up in one slot, without checkpoints in the same period
+        DeployedContract deployed = fixtures.restore(Fixtures.OWNER_MINTED_FINISHED);
+        long before = blockNumber();
+        long b1 = rewardedTransfer(deployed, 1000, 1);
+        rewardedTransfer(deployed, 2000, 2);
+        rewardedTransfer(deployed, 100, 3);
+        rewardedTransfer(deployed, 100, 3);
+
+        assertReward(rewardOf(deployed), 1000, 2000, 2);
+        assertReward(rewardOf(deployed, blockNumber()), 1000, 2000, 2);
+        //the older values of this period were overwritten, they are unknown and not 0
+        assertUnknown(deployed, b1);
+        assertUnknown(deployed, before);
+    }
+
+    @Test
+    public void testCheckpoints() throws Exception {
+        //reward: with a period of one block every older value is kept
+        DeployedContract deployed = fixtures.restore(Fixtures.DEPLOYED);
+        Assert.assertNotNull(blockchain.call(CREDENTIAL_0, deployed, new FunctionBuilder("setRewardCheckpointBlocks")
+                .addInput("uint48", BigInteger.ONE)));
+        Assert.assertNull(blockchain.call(CREDENTIAL_1, deployed, new FunctionBuilder("setRewardCheckpointBlocks")
+                .addInput("uint48", BigInteger.TEN)));
+        TestUtils.mint(blockchain, deployed, CREDENTIAL_0.getAddress(), CREDENTIAL_1.getAddress(), CREDENTIAL_2.getAddress(), 10000, 0, 0);
+        //the period is fixed once transfers are possible
+        Assert.assertNull(blockchain.call(CREDENTIAL_0, deployed, new FunctionBuilder("setRewardCheckpointBlocks")
+                .addInput("uint48", BigInteger.TEN)));
+        long before = blockNumber();
+        long b1 = rewardedTransfer(deployed, 1000, 1);
+        long b2 = rewardedTransfer(deployed, 2000, 2);
+        long b3 = rewardedTransfer(deployed, 100, 3);
+
+        assertReward(rewardOf(deployed, before), 0, 0, 0);
+        assertReward(rewardOf(deployed, b1), 1000, 0, 0);
+        assertReward(rewardOf(deployed, b2), 1000, 2000, 0);
+        assertReward(rewardOf(deployed, b3), 1000, 2000, 1);
+        assertReward(rewardOf(deployed), 1000, 2000, 1);
+
+        //the batch view reads the same slot
+        BigInteger[][] batch = new BatchBalanceReader(chain.web3j(), deployed.contractAddress())
+                .rewardOf(Collections.singletonList(CREDENTIAL_1.getAddress()), CREDENTIAL_0.getAddress());
+        assertReward(batch[0], 1000, 2000, 1);
+    }
+
+    @Test
+    public void testNoHistory() throws Exception {
+        //reward: with a period of 0 no checkpoint is kept, every block before the slot is unknown
+        DeployedContract deployed = fixtures.restore(Fixtures.DEPLOYED);
+        Assert.assertNotNull(blockchain.call(CREDENTIAL_0, deployed, new FunctionBuilder("setRewardCheckpointBlocks")
+                .addInput("uint48", BigInteger.ZERO)));
+        TestUtils.mint(blockchain, deployed, CREDENTIAL_0.getAddress(), CREDENTIAL_1.getAddress(), CREDENTIAL_2.getAddress(), 10000, 0, 0);
+        long before = blockNumber();
+        long b1 = rewardedTransfer(deployed, 1000, 1);
+        long b2 = rewardedTransfer(deployed, 2000, 1);
+
+        assertReward(rewardOf(deployed, b2), 3000, 0, 0);
+        assertUnknown(deployed, b1);
+        assertUnknown(deployed, before);
+    }
+
+    private long rewardedTransfer(DeployedContract deployed, long value, int rewardType) throws Exception {
+        Assert.assertNotNull(blockchain.call(CREDENTIAL_0, deployed, new FunctionBuilder("transfer")
+                .addInput("address", CREDENTIAL_1.getAddress())
+                .addInput("uint256", BigInteger.valueOf(value))
+                .addInput("uint8", rewardType)
+                .outputs("bool")));
+        return blockNumber();
+    }
+
+    private BigInteger[] rewardOf(DeployedContract deployed) throws Exception {
+        return client(deployed).rewardOf(CREDENTIAL_1.getAddress(), CREDENTIAL_0.getAddress());
+    }
+
+    private static BigInteger[] rewardOf(DeployedContract deployed, long block) throws Exception {
+        return client(deployed).rewardOf(CREDENTIAL_1.getAddress(), CREDENTIAL_0.getAddress(), block);
+    }
+
+    private static void assertUnknown(DeployedContract deployed, long block) throws Exception {
+        try {
+            rewardOf(deployed, block);
+            Assert.fail("rewardOf at " + block + " should revert");
+        } catch (IOException | IllegalStateException e) {
+            //reverted
+        }
+    }
+
+    private static EurekaClient client(DeployedContract deployed) {
+        return new EurekaClient(chain.web3j(), deployed.contractAddress(), CREDENTIAL_0, new NonceManager(chain.web3j()));
+    }
+
+    private static void assertReward(BigInteger[] result, long reward1, long reward2, long counter) {
+        Assert.assertArrayEquals(new BigInteger[]{BigInteger.valueOf(reward1), BigInteger.valueOf(reward2), BigInteger.valueOf(counter)}, result);
+    }
+
+    private static long blockNumber() throws Exception {
+        return chain.web3j().ethBlockNumber().send().getBlockNumber().longValueExact();
+    }
+}
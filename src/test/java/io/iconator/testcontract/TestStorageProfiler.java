@@ -0,0 +1,99 @@
+package io.iconator.testcontract;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.iconator.testonator.*;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Map;
+
+import static io.iconator.testonator.TestBlockchain.*;
+
+public class TestStorageProfiler {
+
+    private static TestChain chain;
+    private static TestBlockchain blockchain;
+    private static Map<String, Contract> contracts;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        chain = TestChain.start();
+        blockchain = chain.blockchain();
+        contracts = TestUtils.setup();
+    }
+
+    @Test
+    public void testSlots() {
+        //profiler: slots of the solc layout, balances is the 5th state variable
+        String owner = "0x00000000000000000000000000000000000000aa";
+        BigInteger struct = StorageProfiler.mappingSlot(owner, BigInteger.valueOf(4));
+        Assert.assertEquals(struct.add(BigInteger.ONE), StorageProfiler.amountsSlot(owner));
+        Assert.assertEquals(StorageProfiler.mappingSlot(CREDENTIAL_0.getAddress(), struct.add(BigInteger.valueOf(2))),
+                StorageProfiler.rewardCheckpointsSlot(owner, CREDENTIAL_0.getAddress()));
+        Assert.assertEquals(0, StorageProfiler.searchSteps(1));
+        Assert.assertEquals(1, StorageProfiler.searchSteps(2));
+        Assert.assertEquals(3, StorageProfiler.searchSteps(8));
+        Assert.assertEquals(4, StorageProfiler.searchSteps(9));
+        Assert.assertEquals(3, StorageProfiler.bucket(4));
+        Assert.assertEquals("4-7", StorageProfiler.bucketLabel(3));
+    }
+
+    @Test
+    public void testProfile() throws Exception {
+        //profiler: the lengths read from storage are one snapshot per block and one checkpoint per period
+        DeployedContract deployed = blockchain.deploy(CREDENTIAL_0, contracts.get("Eureka"));
+        long start = blockNumber();
+        blockchain.call(deployed, "mint",
+                Arrays.asList(CREDENTIAL_0.getAddress(), CREDENTIAL_1.getAddress(), CREDENTIAL_2.getAddress()),
+                Arrays.asList(new BigInteger("100000"), new BigInteger("5000"), new BigInteger("5000")));
+        Assert.assertNotNull(blockchain.call(CREDENTIAL_0, deployed, new FunctionBuilder("setRewardCheckpointBlocks")
+                .addInput("uint48", BigInteger.ONE)));
+        blockchain.call(deployed, "finishMinting");
+        for (int i = 0; i < 5; i++) {
+            Assert.assertNotNull(blockchain.call(CREDENTIAL_0, deployed, new FunctionBuilder("transfer")
+                    .addInput("address", CREDENTIAL_1.getAddress())
+                    .addInput("uint256", BigInteger.valueOf(1000))
+                    .addInput("uint8", 1)
+                    .outputs("bool")));
+        }
+        for (int i = 0; i < 2; i++) {
+            Assert.assertNotNull(blockchain.call(CREDENTIAL_1, deployed, new FunctionBuilder("transfer")
+                    .addInput("address", CREDENTIAL_2.getAddress())
+                    .addInput("uint256", BigInteger.valueOf(10))
+                    .outputs("bool")));
+        }
+
+        StorageProfiler.Profile profile = new StorageProfiler(chain.web3j(), deployed.contractAddress())
+                .top(2).profile(start, blockNumber());
+        //mint, 5 rewarded and 2 plain transfers
+        Assert.assertEquals(3, profile.holders);
+        Assert.assertEquals(6 + 8 + 3, profile.snapshots());
+        Assert.assertEquals(2, profile.pairs);
+        Assert.assertEquals(1, profile.rewardPairs());
+        //the last of the 5 rewards is only in the slot
+        Assert.assertEquals(4, profile.checkpoints());
+        Assert.assertEquals(6 + 8 + 3 + 4 + 1, profile.slots());
+        Assert.assertEquals(1, profile.amountsHistogram[StorageProfiler.bucket(3)]);
+        Assert.assertEquals(1, profile.amountsHistogram[StorageProfiler.bucket(6)]);
+        Assert.assertEquals(1, profile.amountsHistogram[StorageProfiler.bucket(8)]);
+
+        Assert.assertEquals(2, profile.slowest.size());
+        Assert.assertEquals(CREDENTIAL_1.getAddress(), profile.slowest.get(0).holder);
+        Assert.assertEquals(8, profile.slowest.get(0).length);
+        Assert.assertEquals(3, profile.slowest.get(0).steps);
+        Assert.assertTrue(profile.slowest.get(0).gas > 0);
+
+        JsonNode json = new ObjectMapper().readTree(profile.toJson());
+        Assert.assertEquals(17, json.path("snapshots").asLong());
+        Assert.assertEquals(1, json.path("amountsHistogram").path("8-15").asLong());
+        Assert.assertEquals(CREDENTIAL_1.getAddress(), json.path("slowest").get(0).path("holder").asText());
+    }
+
+    private static long blockNumber() throws Exception {
+        return chain.web3j().ethBlockNumber().send().getBlockNumber().longValueExact();
+    }
+}
@@ -3,6 +3,7 @@ package io.iconator.testcontract;
 import io.iconator.testonator.*;
 import org.junit.Assert;
 import org.web3j.abi.datatypes.Type;
+import org.web3j.utils.Numeric;
 
 import java.io.File;
 import java.io.IOException;
@@ -14,12 +15,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
-import static io.iconator.testonator.TestBlockchain.compile;
-
 public class TestUtils {
 
     private static Map<String, Contract> contracts = null;
 
+    /**
+     * @return an immutable map of the compiled contracts, copy it if you need to add more
+     */
     public static Map<String, Contract> setup() throws Exception {
         if(contracts != null) {
             return contracts;
@@ -27,7 +29,7 @@ public class TestUtils {
         File contractFile1 = Paths.get(ClassLoader.getSystemResource("SafeMath.sol").toURI()).toFile();
         File contractFile2 = Paths.get(ClassLoader.getSystemResource("Utils.sol").toURI()).toFile();
         File contractFile3 = Paths.get(ClassLoader.getSystemResource("Eureka.sol").toURI()).toFile();
-        Map<String, Contract> contracts = compile(contractFile3, contractFile1, contractFile2);
+        Map<String, Contract> contracts = ArtifactStore.defaultStore().compileCached(contractFile3, contractFile1, contractFile2);
         Assert.assertEquals(5, contracts.size());
         for(String name:contracts.keySet()) {
             System.out.println("Available contract names: " + name);
@@ -36,6 +38,17 @@ public class TestUtils {
         return contracts;
     }
 
+    /**
+     * @return EurekaShortYear, where reclaim takes the claims of holders without a snapshot for 2 blocks
+     */
+    public static Contract shortYear() throws Exception {
+        File shortYear = Paths.get(ClassLoader.getSystemResource("EurekaShortYear.sol").toURI()).toFile();
+        File safeMath = Paths.get(ClassLoader.getSystemResource("SafeMath.sol").toURI()).toFile();
+        File utils = Paths.get(ClassLoader.getSystemResource("Utils.sol").toURI()).toFile();
+        File eureka = Paths.get(ClassLoader.getSystemResource("Eureka.sol").toURI()).toFile();
+        return ArtifactStore.defaultStore().compileCached(shortYear, eureka, safeMath, utils).get("EurekaShortYear");
+    }
+
     public static void mint(TestBlockchain blockchain, DeployedContract deployed, String address1, String address2, String address3, int value1, int value2, int value3) throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
         mint(blockchain, deployed, address1, address2, address3, value1, value2, value3, true);
     }
@@ -84,4 +97,28 @@ public class TestUtils {
 
     }
 
+    /**
+     * Packs recipient and amount into one word for mintPacked: the upper 160 bits are the address,
+     * the lower 96 bits the amount.
+     */
+    public static byte[] packMint(String address, BigInteger amount) {
+        if (amount.signum() < 0 || amount.bitLength() > 96) {
+            throw new IllegalArgumentException("amount does not fit into 96 bits: " + amount);
+        }
+        byte[] word = new byte[32];
+        byte[] addressBytes = Numeric.hexStringToByteArray(address);
+        System.arraycopy(addressBytes, 0, word, 0, 20);
+        byte[] amountBytes = Numeric.toBytesPadded(amount, 12);
+        System.arraycopy(amountBytes, 0, word, 20, 12);
+        return word;
+    }
+
+    public static List<Event> mintPacked(TestBlockchain blockchain, DeployedContract deployed, List<String> addresses, List<BigInteger> values) throws NoSuchMethodException, InterruptedException, ExecutionException, InstantiationException, ConvertException, IllegalAccessException, InvocationTargetException, IOException {
+        List<byte[]> packed = new ArrayList<>(addresses.size());
+        for (int i = 0; i < addresses.size(); i++) {
+            packed.add(packMint(addresses.get(i), values.get(i)));
+        }
+        return blockchain.call(deployed, new FunctionBuilder("mintPacked").addInput("bytes32[]", packed));
+    }
+
 }
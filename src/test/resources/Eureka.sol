@@ -52,22 +52,25 @@ contract Eureka is ERC20, ERC865Plus677ish {
     uint8 public constant decimals = 18;
 
     uint256 public loyalty;
+    /* loyalty per token ever distributed, times loyaltyScale. A holder can claim
+       balance * (loyaltyPerToken - checkpoint) / loyaltyScale, the checkpoint is claimedLoyalty of its last snapshot */
+    uint256 public loyaltyPerToken;
     mapping(address => mapping(address => uint256)) internal allowed;
-    /* Nonces of transfers performed */
-    mapping(bytes => bool) signatures;
+    /* Nonces of transfers performed, per signer 256 nonces in one word: nonce >> 8 is the word, nonce & 0xff the bit */
+    mapping(address => mapping(uint256 => uint256)) nonces;
     mapping(address => AmountReward) balances;
     uint256 public totalSupply_;
     uint256 constant public maxSupply = 298607040 * (10 ** uint256(decimals));
 
     uint256 constant public oneYearsInBlocks = 4 * 60 * 24 * 365;
     uint256 constant public max88 = 2**88;
+    uint256 constant public loyaltyScale = 10**18;
 
     struct Reward { //256bits
         uint88 reward1;
         uint88 reward2;
-        uint32 counter1;
-        uint32 counter2;
-        uint16 counter3;
+        uint32 counter;
+        uint48 fromBlock;
     }
 
     struct SnapshotAmount { //256bits
@@ -78,10 +81,11 @@ contract Eureka is ERC20, ERC865Plus677ish {
     }
 
     struct AmountReward {
-        //no snapshot features, that means no history in smart contract
-        //available
+        //the current reward per sender, one slot updated in place
         mapping(address => Reward) rewards;
         SnapshotAmount[] amounts;
+        //the last reward of every checkpoint period per sender, for rewardOf(address,address,uint48)
+        mapping(address => Reward[]) rewardCheckpoints;
     }
 
     // token lockups
@@ -93,6 +97,9 @@ contract Eureka is ERC20, ERC865Plus677ish {
     // minting
     bool public mintingDone = false;
 
+    // reward history: the last reward of every period of this many blocks is kept, 0 keeps no history
+    uint48 public rewardCheckpointBlocks = 5760;
+
     event TokensLocked(address indexed _holder, uint256 _timeout);
 
     event TokensLoyalty(uint256 _amount);
@@ -117,27 +124,53 @@ contract Eureka is ERC20, ERC865Plus677ish {
         require(_recipients.length == _amounts.length);
         require(_recipients.length <= 256);
 
-        for (uint8 i = 0; i < _recipients.length; i++) {
-            address recipient = _recipients[i];
-            uint256 amount = _amounts[i];
+        uint256 total = 0;
+        for (uint256 i = 0; i < _recipients.length; i++) {
+            mintOne(_recipients[i], _amounts[i]);
+            total = total.add(_amounts[i]);
+        }
+        updateTotalSupply(total);
+    }
 
-            if(balances[recipient].amounts.length == 0) {
-                SnapshotAmount memory tmp;
-                tmp.fromAddress = msg.sender;
-                tmp.fromBlock = uint48(block.number);
-                balances[recipient].amounts.push(tmp);
-            }
-            SnapshotAmount storage current = balances[recipient].amounts[balances[recipient].amounts.length - 1];
+    /**
+     * @dev Same as mint, but recipient and amount are packed into one word, which halves the calldata.
+     * The upper 160 bits are the recipient, the lower 96 bits are the amount, which must be below max88.
+     * @param _packed bytes32(uint256(recipient) << 96 | amount) per recipient.
+     */
+    function mintPacked(bytes32[] _packed) public {
+        require(owner == msg.sender);
+        require(mintingDone == false);
+        require(_packed.length <= 256);
+
+        uint256 total = 0;
+        for (uint256 i = 0; i < _packed.length; i++) {
+            uint256 word = uint256(_packed[i]);
+            uint256 amount = word & (2**96 - 1);
+            mintOne(address(word >> 96), amount);
+            total = total.add(amount);
+        }
+        updateTotalSupply(total);
+    }
 
-            uint256 tmpAmount = uint256(current.amount).add(amount);
-            require(tmpAmount < max88);
-            current.amount = uint88(tmpAmount);
+    function mintOne(address _recipient, uint256 _amount) internal {
+        if(balances[_recipient].amounts.length == 0) {
+            SnapshotAmount memory tmp;
+            tmp.fromBlock = uint48(block.number);
+            balances[_recipient].amounts.push(tmp);
+        }
+        SnapshotAmount storage current = balances[_recipient].amounts[balances[_recipient].amounts.length - 1];
 
-            totalSupply_ = totalSupply_.add(amount);
-            require(totalSupply_ <= maxSupply); // enforce maximum token supply
+        uint256 tmpAmount = uint256(current.amount).add(_amount);
+        require(tmpAmount < max88);
+        current.amount = uint88(tmpAmount);
 
-            emit Transfer(0, recipient, amount);
-        }
+        emit Transfer(0, _recipient, _amount);
+    }
+
+    function updateTotalSupply(uint256 _minted) internal {
+        //one SSTORE per batch instead of one per recipient, a revert undoes the whole batch anyway
+        totalSupply_ = totalSupply_.add(_minted);
+        require(totalSupply_ <= maxSupply); // enforce maximum token supply
     }
 
     function lockTokens(address[] _holders, uint256[] _timeouts) public {
@@ -208,7 +241,7 @@ contract Eureka is ERC20, ERC865Plus677ish {
         for(uint8 i=0;i<len;i++) {
             require(balances[loyaltyOwners[i]].amounts.length > 0);
             //give the unclaimed (1 year old) loyalties to the owner
-            require(balances[loyaltyOwners[i]].amounts[balances[loyaltyOwners[i]].amounts.length - 1].fromBlock + oneYearsInBlocks < block.number);
+            require(balances[loyaltyOwners[i]].amounts[balances[loyaltyOwners[i]].amounts.length - 1].fromBlock + dormantBlocks() < block.number);
             (uint256 balance, uint256 loyaltyNow) = balanceWithLoyaltyClaimOf(loyaltyOwners[i]);
             from(balance, 0, loyaltyOwners[i]);
             loyalityBalanceTotal = loyalityBalanceTotal.add(loyaltyNow);
@@ -219,47 +252,126 @@ contract Eureka is ERC20, ERC865Plus677ish {
         emit Transfer(address(this), owner, loyalityBalanceTotal);
     }
 
+    /**
+     * @dev The blocks without a snapshot after which reclaim may take the loyalty claim of a holder.
+     */
+    function dormantBlocks() internal pure returns (uint256) {
+        return oneYearsInBlocks;
+    }
+
     function loyalty(uint256 _amount) public {
         (uint256 balance, uint256 loyaltyNow) = balanceWithLoyaltyClaimOf(msg.sender);
         require(_amount <= balance.add(loyaltyNow));
         from(balance.add(loyaltyNow), _amount, msg.sender);
-        loyalty = loyalty.add(_amount);
+        addLoyalty(_amount);
         emit TokensLoyalty(_amount);
     }
 
+    /**
+     * @dev Distributes _amount to all holders in proportion to their balance, in constant gas: only
+     * the accumulator changes, every holder claims its part with its next snapshot. The remainder of
+     * the division stays in the contract. A distribution that would take loyaltyPerToken to max88 reverts,
+     * so that every snapshot can store it as its checkpoint.
+     */
+    function addLoyalty(uint256 _amount) internal {
+        loyalty = loyalty.add(_amount);
+        loyaltyPerToken = loyaltyPerToken.add(_amount.mul(loyaltyScale).div(totalSupply_));
+        require(loyaltyPerToken < max88);
+    }
+
     function rewardOf(address _owner, address _from) public view returns (uint256, uint256, uint256) {
-        //if no balances are present, the balance is 0
-        if (balances[_owner].rewards[_from].length == 0) {
-            return (0,0,0);
-        }
-        //return last amount
-        SnapshotReward memory r = balances[_owner].rewards[_from][balances[_owner].rewards[_from].length - 1];
+        Reward storage r = balances[_owner].rewards[_from];
         return (r.reward1, r.reward2, r.counter);
     }
 
+    /**
+     * @dev The reward at the given block. The current value is exact. Of every older period of
+     * rewardCheckpointBlocks blocks only the last value is kept, so an older value is only known until the
+     * period of the next update starts: a block in the same period as a later update, but before it, reverts.
+     * It also reverts for any block before the current value if rewardCheckpointBlocks is 0, as no history
+     * is kept then.
+     */
     function rewardOf(address _owner, address _from, uint48 _fromBlock) public view returns (uint256, uint256, uint256) {
-        //if no balances are present, the balance is 0
-        if (balances[_owner].rewards[_from].length == 0) {
+        Reward storage r = balances[_owner].rewards[_from];
+        if (r.fromBlock <= _fromBlock) {
+            return (r.reward1, r.reward2, r.counter);
+        }
+        Reward[] storage checkpoints = balances[_owner].rewardCheckpoints[_from];
+        if (checkpoints.length == 0 || checkpoints[0].fromBlock > _fromBlock) {
+            //before the first update, 0 unless the block is in the period of the first update
+            requireKnown(_fromBlock, checkpoints.length == 0 ? r.fromBlock : checkpoints[0].fromBlock);
             return (0,0,0);
         }
         // Binary search of the value in the array
-        //TODO: check overflow
         uint256 min = 0;
-        uint256 max = balances[_owner].rewards[_from].length-1;
+        uint256 max = checkpoints.length-1;
         while (max > min) {
             uint256 mid = (max + min + 1)/ 2;
-            if (balances[_owner].rewards[_from][mid].fromBlock<=_fromBlock) {
+            if (checkpoints[mid].fromBlock<=_fromBlock) {
                 min = mid;
             } else {
                 max = mid-1;
             }
         }
-        return rewardOf_internal(_owner, _from, min);
+        return rewardOf_internal(_owner, _from, _fromBlock, min);
+    }
+
+    /**
+     * @dev Same as rewardOf(address,address,uint48), with the index of the checkpoint as hint, see balanceOfAt.
+     * Reverts for the same blocks.
+     */
+    function rewardOfAt(address _owner, address _from, uint48 _fromBlock, uint256 _indexHint) public view returns (uint256, uint256, uint256) {
+        Reward storage r = balances[_owner].rewards[_from];
+        if (r.fromBlock <= _fromBlock) {
+            return (r.reward1, r.reward2, r.counter);
+        }
+        Reward[] storage checkpoints = balances[_owner].rewardCheckpoints[_from];
+        //the slot is younger than _fromBlock, so it bounds the last checkpoint
+        if (_indexHint < checkpoints.length && checkpoints[_indexHint].fromBlock <= _fromBlock
+                && (_indexHint + 1 == checkpoints.length || checkpoints[_indexHint + 1].fromBlock > _fromBlock)) {
+            return rewardOf_internal(_owner, _from, _fromBlock, _indexHint);
+        }
+        return rewardOf(_owner, _from, _fromBlock);
+    }
+
+    /**
+     * @dev The period length is fixed before the first transfer, the history of rewardOf relies on it.
+     */
+    function setRewardCheckpointBlocks(uint48 _blocks) public {
+        require(owner == msg.sender);
+        require(mintingDone == false);
+        rewardCheckpointBlocks = _blocks;
+    }
+
+    /**
+     * @dev rewardOf(address,address) for many owners and one sender in one eth_call.
+     */
+    function rewardOfBatch(address[] _owners, address _from) public view returns (uint256[], uint256[], uint256[]) {
+        uint256[] memory reward1 = new uint256[](_owners.length);
+        uint256[] memory reward2 = new uint256[](_owners.length);
+        uint256[] memory counter = new uint256[](_owners.length);
+        for (uint256 i = 0; i < _owners.length; i++) {
+            (reward1[i], reward2[i], counter[i]) = rewardOf(_owners[i], _from);
+        }
+        return (reward1, reward2, counter);
     }
 
-    function rewardOf_internal(address _owner, address _from, uint256 _index) internal view returns (uint256, uint256, uint256) {
-        SnapshotReward memory sr = balances[_owner].rewards[_from][_index];
-        return (sr.reward1, sr.reward2, sr.counter);
+    function rewardOf_internal(address _owner, address _from, uint48 _fromBlock, uint256 _index) internal view returns (uint256, uint256, uint256) {
+        Reward[] storage checkpoints = balances[_owner].rewardCheckpoints[_from];
+        //the checkpoint is the last value of its period, it holds until the period of the next update
+        requireKnown(_fromBlock, _index + 1 < checkpoints.length
+                ? checkpoints[_index + 1].fromBlock : balances[_owner].rewards[_from].fromBlock);
+        Reward storage r = checkpoints[_index];
+        return (r.reward1, r.reward2, r.counter);
+    }
+
+    /**
+     * @dev Reverts if _fromBlock is in the period of _nextUpdate, the values of that period before
+     * _nextUpdate were overwritten. Without periods no value older than the slot is kept.
+     */
+    function requireKnown(uint48 _fromBlock, uint48 _nextUpdate) internal view {
+        require(rewardCheckpointBlocks > 0);
+        require(_fromBlock < _nextUpdate / rewardCheckpointBlocks * rewardCheckpointBlocks);
     }
 
 
@@ -272,11 +384,6 @@ contract Eureka is ERC20, ERC865Plus677ish {
             emit Transfer(address(this), _from, fromLoyalty);
         }
 
-        (uint256 toBalance, uint256 toLoyalty) = balanceWithLoyaltyClaimOf(_to);
-        if(toLoyalty > 0) {
-            emit Transfer(address(this), _to, toLoyalty);
-        }
-
         uint256 totalValue = _value.add(_fee);
         require(totalValue <= fromBalance);
 
@@ -288,6 +395,12 @@ contract Eureka is ERC20, ERC865Plus677ish {
         from(fromBalance.add(fromLoyalty), totalValue, _from);
         fee(_fee, _feeAddress); //event is TransferPreSigned, that will be emitted after this function call
 
+        //read after from and fee, _to may be _from or _feeAddress
+        (uint256 toBalance, uint256 toLoyalty) = balanceWithLoyaltyClaimOf(_to);
+        if(toLoyalty > 0) {
+            emit Transfer(address(this), _to, toLoyalty);
+        }
+
         uint256 tmpLoyalty = 0;
         totalValue = _value;
         if(_rewardType > 0) {
@@ -299,59 +412,45 @@ contract Eureka is ERC20, ERC865Plus677ish {
         to(toBalance.add(toLoyalty), totalValue, _value, _rewardType, _to);
 
         if(_rewardType > 0) {
-            loyalty = loyalty.add(tmpLoyalty);
+            addLoyalty(tmpLoyalty);
         }
     }
 
     function balanceWithLoyaltyClaimOf(address _addr) public view returns (uint256, uint256) {
-        uint256 balance = balanceOf(_addr);
-        uint256 toClaim = loyalty.sub(balanceOf(_addr, false));
-        return (balance, toClaim.mul(balance).div(totalSupply_));
+        SnapshotAmount[] storage amounts = balances[_addr].amounts;
+        if (amounts.length == 0) {
+            return (0, 0);
+        }
+        //one SLOAD for balance and checkpoint
+        SnapshotAmount memory last = amounts[amounts.length - 1];
+        uint256 toClaim = loyaltyPerToken.sub(last.claimedLoyalty);
+        return (last.amount, toClaim.mul(last.amount).div(loyaltyScale));
     }
 
     function from(uint256 _fromBalance, uint256 _totalValue, address _fromAddress) internal {
-        SnapshotAmount memory tmpFrom;
-        tmpFrom.fromAddress = msg.sender;
-        tmpFrom.fromBlock = uint48(block.number);
-        require(loyalty < max88);
-        tmpFrom.claimedLoyalty = uint88(loyalty);
-        uint256 amount = _fromBalance.sub(_totalValue);
-        require(amount < max88);
-        tmpFrom.amount = uint88(amount);
-        balances[_fromAddress].amounts.push(tmpFrom);
+        writeSnapshot(_fromAddress, _fromBalance.sub(_totalValue));
     }
 
     function fee(uint256 _fee, address _feeAddress) internal {
         if(_fee > 0 && _feeAddress != address(0)) {
-            SnapshotAmount memory tmpFee;
-            tmpFee.fromAddress = msg.sender;
-            tmpFee.fromBlock = uint48(block.number);
-            require(loyalty < max88);
-            tmpFee.claimedLoyalty = uint88(loyalty); //the fee claimer cannot claim loyalty
-            uint256 amount = balanceOf(_feeAddress).add(_fee);
-            require(amount < max88);
-            tmpFee.amount = uint88(amount);
-            balances[_feeAddress].amounts.push(tmpFee);
+            //the fee claimer cannot claim loyalty
+            writeSnapshot(_feeAddress, balanceOf(_feeAddress).add(_fee));
         }
     }
 
     function to(uint256 _toBalance, uint256 _totalValue, uint256 _reward, uint24 _rewardType, address _toAddress) internal {
-        SnapshotAmount memory tmpTo;
-        tmpTo.fromAddress = msg.sender;
-        tmpTo.fromBlock = uint48(block.number);
-        require(loyalty < max88);
-        tmpTo.claimedLoyalty = uint88(loyalty);
-        uint256 amount = _toBalance.add(_totalValue);
-        require(amount < max88);
-        tmpTo.amount = uint88(amount);
-        balances[_toAddress].amounts.push(tmpTo);
+        writeSnapshot(_toAddress, _toBalance.add(_totalValue));
 
         if(_rewardType > 0) {
-            SnapshotReward memory sr;
+            //one slot per (owner, sender), read once and written once
+            Reward storage r = balances[_toAddress].rewards[msg.sender];
+            Reward memory sr = r;
+            if (sr.fromBlock != 0 && rewardCheckpointBlocks > 0
+                    && sr.fromBlock / rewardCheckpointBlocks != block.number / rewardCheckpointBlocks) {
+                //first update of a new period, keep the last value of the old one
+                balances[_toAddress].rewardCheckpoints[msg.sender].push(sr);
+            }
             sr.fromBlock = uint48(block.number);
-            sr.reward1 = balances[_toAddress].rewards[msg.sender][balances[_toAddress].rewards[msg.sender].length - 1].reward1;
-            sr.reward2 = balances[_toAddress].rewards[msg.sender][balances[_toAddress].rewards[msg.sender].length - 1].reward2;
-            sr.counter = balances[_toAddress].rewards[msg.sender][balances[_toAddress].rewards[msg.sender].length - 1].counter;
 
             uint256 total = 0;
             if(_rewardType == 1) {
@@ -367,7 +466,30 @@ contract Eureka is ERC20, ERC865Plus677ish {
                     sr.counter = uint32(sr.counter + 1);
                 }
             }
-            balances[_toAddress].rewards[msg.sender].push(sr);
+            balances[_toAddress].rewards[msg.sender] = sr;
+        }
+    }
+
+    /**
+     * @dev Writes the new balance of an address, together with loyaltyPerToken as its checkpoint. If the address
+     * already got a snapshot in this block, that snapshot is overwritten instead of pushing a new one,
+     * so the history grows by at most one entry per block and address. The binary search in
+     * balanceOf(address,bool,uint64) returns the last entry of a block anyway.
+     */
+    function writeSnapshot(address _addr, uint256 _amount) internal {
+        //loyaltyPerToken < max88 holds, see addLoyalty
+        require(_amount < max88);
+        SnapshotAmount memory tmp;
+        tmp.fromBlock = uint48(block.number);
+        tmp.claimedLoyalty = uint88(loyaltyPerToken);
+        tmp.amount = uint88(_amount);
+
+        SnapshotAmount[] storage amounts = balances[_addr].amounts;
+        uint256 len = amounts.length;
+        if (len > 0 && amounts[len - 1].fromBlock == block.number) {
+            amounts[len - 1] = tmp;
+        } else {
+            amounts.push(tmp);
         }
     }
 
@@ -409,6 +531,34 @@ contract Eureka is ERC20, ERC865Plus677ish {
         return balanceOf0(_owner, _amountType, min);
     }
 
+    /**
+     * @dev Same as balanceOf(address,bool,uint64), but first checks the index the caller computed from its
+     * own copy of the history. Every SnapshotAmount is one packed slot, so each probe of the binary search is
+     * one SLOAD, O(log n) for a history of n entries. If amounts[_indexHint] is the last entry at or before
+     * _fromBlock, the check reads a constant number of slots instead: the length, the hinted entry and the one
+     * after it, plus the hinted entry again for the result. A wrong hint costs the check and the binary search.
+     */
+    function balanceOfAt(address _owner, bool _amountType, uint64 _fromBlock, uint256 _indexHint) public view returns (uint256) {
+        SnapshotAmount[] storage amounts = balances[_owner].amounts;
+        if (_indexHint < amounts.length && amounts[_indexHint].fromBlock <= _fromBlock
+                && (_indexHint + 1 == amounts.length || amounts[_indexHint + 1].fromBlock > _fromBlock)) {
+            return balanceOf0(_owner, _amountType, _indexHint);
+        }
+        return balanceOf(_owner, _amountType, _fromBlock);
+    }
+
+    /**
+     * @dev balanceOf(address,bool,uint64) for many owners in one eth_call, for snapshot exports. The
+     * number of owners is only limited by the gas cap of eth_call.
+     */
+    function balanceOfBatch(address[] _owners, bool _amountType, uint64 _fromBlock) public view returns (uint256[]) {
+        uint256[] memory result = new uint256[](_owners.length);
+        for (uint256 i = 0; i < _owners.length; i++) {
+            result[i] = balanceOf(_owners[i], _amountType, _fromBlock);
+        }
+        return result;
+    }
+
     function balanceOf0(address _owner, bool _amountType, uint256 _index) internal view returns (uint256) {
         if(_amountType) {
             return balances[_owner].amounts[_index].amount;
@@ -512,14 +662,12 @@ contract Eureka is ERC20, ERC865Plus677ish {
     function transferPreSigned(bytes _signature, address _to, uint256 _value, uint256 _fee,
         uint256 _nonce, uint8 _fromType) public returns (bool) {
 
-        require(signatures[_signature] == false);
-
         bytes32 hashedTx = Utils.transferPreSignedHashing(address(this), _to, _value, _fee, _nonce);
         address from = Utils.recover(hashedTx, _signature);
         require(from != address(0));
+        useNonce(from, _nonce);
 
         doTransfer(from, _to, _value, _fee, msg.sender, _fromType);
-        signatures[_signature] = true;
 
         emit Transfer(from, _to, _value);
         emit Transfer(from, msg.sender, _fee);
@@ -527,6 +675,61 @@ contract Eureka is ERC20, ERC865Plus677ish {
         return true;
     }
 
+    function useNonce(address _signer, uint256 _nonce) internal {
+        uint256 bit = uint256(1) << (_nonce & 0xff);
+        uint256 word = nonces[_signer][_nonce >> 8];
+        require(word & bit == 0);
+        nonces[_signer][_nonce >> 8] = word | bit;
+    }
+
+    function nonceUsed(address _signer, uint256 _nonce) public view returns (bool) {
+        return nonces[_signer][_nonce >> 8] & (uint256(1) << (_nonce & 0xff)) != 0;
+    }
+
+    /**
+     * @return the 256 nonces _word * 256 ... _word * 256 + 255 of the signer, bit i is set if nonce
+     * _word * 256 + i is used
+     */
+    function nonceBitmap(address _signer, uint256 _word) public view returns (uint256) {
+        return nonces[_signer][_word];
+    }
+
+    /**
+     * Many transferPreSigned in one transaction. The signatures are concatenated, 65 bytes each, as
+     * bytes[] needs the experimental ABI encoder in 0.4. The fees of all transfers are credited to
+     * msg.sender once at the end.
+     */
+    function transferPreSignedBatch(bytes _signatures, address[] _to, uint256[] _values, uint256[] _fees,
+        uint256[] _nonces) public returns (bool) {
+        uint256 len = _to.length;
+        require(_signatures.length == len.mul(65));
+        require(_values.length == len && _fees.length == len && _nonces.length == len);
+
+        uint256 totalFee = 0;
+        for(uint256 i=0;i<len;i++) {
+            transferPreSignedNoFee(Utils.signatureAt(_signatures, i), _to[i], _values[i], _fees[i], _nonces[i]);
+            totalFee = totalFee.add(_fees[i]);
+        }
+        fee(totalFee, msg.sender);
+        return true;
+    }
+
+    function transferPreSignedNoFee(bytes memory _signature, address _to, uint256 _value, uint256 _fee,
+        uint256 _nonce) internal {
+
+        bytes32 hashedTx = Utils.transferPreSignedHashing(address(this), _to, _value, _fee, _nonce);
+        address from = Utils.recover(hashedTx, _signature);
+        require(from != address(0));
+        useNonce(from, _nonce);
+
+        //the fee is taken from the sender, but credited later
+        doTransfer(from, _to, _value, _fee, address(0), 0);
+
+        emit Transfer(from, _to, _value);
+        emit Transfer(from, msg.sender, _fee);
+        emit TransferPreSigned(from, _to, msg.sender, _value, _fee);
+    }
+
     function transferAndCallPreSigned(bytes _signature, address _to, uint256 _value, uint256 _fee, uint256 _nonce,
         bytes4 _methodName, bytes _args) public returns (bool) {
         return transferAndCallPreSigned(_signature, _to, _value, _fee, _nonce, 0, _methodName, _args);
@@ -535,14 +738,12 @@ contract Eureka is ERC20, ERC865Plus677ish {
     function transferAndCallPreSigned(bytes _signature, address _to, uint256 _value, uint256 _fee,
         uint256 _nonce, uint8 _rewardType, bytes4 _methodName, bytes _args) public returns (bool) {
 
-        require(signatures[_signature] == false);
-
         bytes32 hashedTx = Utils.transferPreSignedHashing(address(this), _to, _value, _fee, _nonce, _methodName, _args);
         address from = Utils.recover(hashedTx, _signature);
         require(from != address(0));
+        useNonce(from, _nonce);
 
         doTransfer(from, _to, _value, _fee, msg.sender, _rewardType);
-        signatures[_signature] = true;
 
         emit Transfer(from, _to, _value);
         emit Transfer(from, msg.sender, _fee);
@@ -0,0 +1,14 @@
+pragma solidity ^0.4.24;
+
+import "./Eureka.sol";
+
+/**
+ * Eureka where a holder is dormant after 2 blocks instead of a year, so that reclaim can take loyalty
+ * on a test chain. Everything else is Eureka.
+ */
+contract EurekaShortYear is Eureka {
+
+    function dormantBlocks() internal pure returns (uint256) {
+        return 2;
+    }
+}
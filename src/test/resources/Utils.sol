@@ -47,6 +47,21 @@ library Utils {
         return keccak256(bytes4(0x48664c16), _token, _to, _value, _fee, _nonce);
     }
 
+    /**
+    * @notice Copies the signature at the given index out of concatenated 65 byte signatures
+    */
+    function signatureAt(bytes _signatures, uint256 _index) internal pure returns (bytes) {
+        bytes memory sig = new bytes(65);
+        uint256 offset = _index * 65;
+        assembly {
+            let src := add(add(_signatures, 32), offset)
+            mstore(add(sig, 32), mload(src))
+            mstore(add(sig, 64), mload(add(src, 32)))
+            mstore8(add(sig, 96), byte(0, mload(add(src, 64))))
+        }
+        return sig;
+    }
+
     /**
     * @notice Recover signer address from a message by using his signature
     * @param hash bytes32 message, the hash is the signed message. What is recovered is the signer address.